@@ -0,0 +1,124 @@
+/*
+ * Atualização de uma base criada com uma versão anterior de script-mysql.sql (o Hibernate não altera o banco, ver
+ * spring.jpa.hibernate.ddl-auto em application.properties). Executar uma única vez, antes de iniciar a nova versão da aplicação.
+ * Bases novas devem ser criadas diretamente com script-mysql.sql.
+ */
+USE `demo_security`;
+
+-- ordenação da tabela de médicos pelas especialidades (ver Medico.especialidadesOrdem). A coluna é preenchida pela
+-- aplicação ao iniciar (MedicoService.preencherEspecialidadesOrdem)
+ALTER TABLE `medicos`
+  ADD COLUMN `especialidades_ordem` varchar(255) DEFAULT NULL AFTER `id_usuario`,
+  ADD KEY `idx_medico_especialidades_ordem` (`especialidades_ordem`);
+
+-- ordenação da tabela de usuários pelos perfis (ver Usuario.perfisOrdem). A coluna é preenchida pela aplicação ao iniciar
+-- (UsuarioService.preencherPerfisOrdem)
+ALTER TABLE `usuarios`
+  ADD COLUMN `perfis_ordem` varchar(20) DEFAULT NULL AFTER `codigo_verificador`,
+  ADD KEY `idx_usuario_perfis_ordem` (`perfis_ordem`);
+
+-- índices das consultas de agendamentos e das tabelas de médicos e usuários
+ALTER TABLE `agendamentos`
+  ADD KEY `IDX_AGENDAMENTO_PACIENTE_DATA` (`id_paciente`,`data_consulta`),
+  ADD KEY `IDX_AGENDAMENTO_DATA` (`data_consulta`);
+ALTER TABLE `medicos` ADD KEY `idx_medico_data_inscricao` (`data_inscricao`);
+ALTER TABLE `usuarios` ADD KEY `idx_usuario_ativo` (`ativo`);
+
+-- um único agendamento por médico, data e horário (ver AgendamentoService.salvar). A consulta abaixo lista os horários
+-- agendados mais de uma vez e deve retornar vazio antes de criar a chave. Caso contrário, remover ou remarcar as consultas
+-- repetidas, mantendo uma por horário, e executar novamente
+SELECT id_medico, data_consulta, id_horario, COUNT(*) AS total, GROUP_CONCAT(id ORDER BY id) AS agendamentos
+FROM agendamentos
+GROUP BY id_medico, data_consulta, id_horario
+HAVING COUNT(*) > 1;
+
+ALTER TABLE `agendamentos`
+  ADD UNIQUE KEY `UK_AGENDAMENTO_MEDICO_DATA_HORARIO` (`id_medico`,`data_consulta`,`id_horario`);
+
+-- tabelas novas, com as mesmas definições de script-mysql.sql
+
+-- lista de consultas desnormalizada (ver ListagemAgendamentoService)
+CREATE TABLE IF NOT EXISTS `agendamentos_listagem` (
+  `id` bigint(20) NOT NULL,
+  `data_consulta` date DEFAULT NULL,
+  `id_paciente` bigint(20) DEFAULT NULL,
+  `paciente_nome` varchar(255) DEFAULT NULL,
+  `id_medico` bigint(20) DEFAULT NULL,
+  `medico_nome` varchar(255) DEFAULT NULL,
+  `id_especialidade` bigint(20) DEFAULT NULL,
+  `especialidade_titulo` varchar(255) DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  KEY `idx_listagem_data` (`data_consulta`),
+  KEY `idx_listagem_paciente_nome` (`paciente_nome`),
+  KEY `idx_listagem_medico_nome` (`medico_nome`),
+  KEY `idx_listagem_especialidade_titulo` (`especialidade_titulo`),
+  KEY `idx_listagem_paciente` (`id_paciente`),
+  KEY `idx_listagem_medico` (`id_medico`),
+  KEY `idx_listagem_especialidade` (`id_especialidade`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- total de consultas por médico e por dia (ver AgendaService)
+CREATE TABLE IF NOT EXISTS `agenda_medico_dia` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT,
+  `id_medico` bigint(20) NOT NULL,
+  `data_consulta` date NOT NULL,
+  `total` bigint(20) NOT NULL,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `UK_AGENDA_MEDICO_DIA` (`id_medico`,`data_consulta`),
+  CONSTRAINT `FK_AGENDA_MEDICO_ID` FOREIGN KEY (`id_medico`) REFERENCES `medicos` (`id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE TABLE IF NOT EXISTS `auditoria` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT,
+  `data_hora` datetime(3) NOT NULL,
+  `tipo` varchar(30) NOT NULL,
+  `usuario` varchar(255) DEFAULT NULL,
+  `detalhe` varchar(255) DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  KEY `IDX_AUDITORIA_USUARIO_DATA` (`usuario`,`data_hora`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE TABLE IF NOT EXISTS `codigos_verificacao` (
+  `email` varchar(255) NOT NULL,
+  `sal` binary(16) NOT NULL,
+  `hash` binary(32) NOT NULL,
+  `tentativas` int(11) NOT NULL,
+  `expira_em` datetime(3) NOT NULL,
+  PRIMARY KEY (`email`),
+  KEY `IDX_CODIGO_VERIFICACAO_EXPIRA` (`expira_em`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE TABLE IF NOT EXISTS `lembretes_execucao` (
+  `data_consulta` date NOT NULL,
+  `ultimo_id` bigint(20) NOT NULL,
+  `enviados` bigint(20) NOT NULL,
+  `falhas` bigint(20) NOT NULL,
+  `concluido` bit(1) NOT NULL,
+  `atualizado_em` datetime NOT NULL,
+  PRIMARY KEY (`data_consulta`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE TABLE IF NOT EXISTS `lembretes_falhas` (
+  `data_consulta` date NOT NULL,
+  `id_agendamento` bigint(20) NOT NULL,
+  PRIMARY KEY (`data_consulta`,`id_agendamento`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- carga inicial das tabelas derivadas de agendamentos. Equivale a iniciar a aplicação uma vez com
+-- --app.agenda.recalcular=true --app.listagem.reconstruir=true
+INSERT INTO agenda_medico_dia (id_medico, data_consulta, total)
+SELECT id_medico, data_consulta, COUNT(*) FROM agendamentos
+WHERE id_medico IS NOT NULL AND data_consulta IS NOT NULL
+GROUP BY id_medico, data_consulta
+ON DUPLICATE KEY UPDATE total = VALUES(total);
+
+INSERT INTO agendamentos_listagem
+(id, data_consulta, id_paciente, paciente_nome, id_medico, medico_nome, id_especialidade, especialidade_titulo)
+SELECT a.id, a.data_consulta, p.id, p.nome, m.id, m.nome, e.id, e.titulo FROM agendamentos a
+LEFT JOIN pacientes p ON p.id = a.id_paciente
+LEFT JOIN medicos m ON m.id = a.id_medico
+LEFT JOIN especialidades e ON e.id = a.id_especialidade
+ON DUPLICATE KEY UPDATE data_consulta = VALUES(data_consulta),
+  id_paciente = VALUES(id_paciente), paciente_nome = VALUES(paciente_nome),
+  id_medico = VALUES(id_medico), medico_nome = VALUES(medico_nome),
+  id_especialidade = VALUES(id_especialidade), especialidade_titulo = VALUES(especialidade_titulo);
@@ -0,0 +1,56 @@
+/*
+ * Benchmark do histórico de consultas do paciente (AgendamentoRepository.findHistoricoByPacienteId*).
+ * Cria um paciente com 5.000 consultas e exibe o plano de execução da primeira página e de uma página intermediária.
+ * Executar sobre uma base criada com script-mysql.sql. Em bases antigas, criar antes o indice:
+ *   ALTER TABLE agendamentos ADD KEY `IDX_AGENDAMENTO_PACIENTE_DATA` (`id_paciente`,`data_consulta`);
+ */
+USE `demo_security`;
+
+INSERT INTO usuarios (ativo, email, senha) VALUES (1, 'benchmark.paciente@clinica.com.br', '$2a$10$tBVUEXD9outKvx5tO8LUQOEhCX2hPaRmtfx/WuMMjA4tGI6RLQYk.');
+SET @usuario = LAST_INSERT_ID();
+INSERT INTO usuarios_tem_perfis (usuario_id, perfil_id) VALUES (@usuario, 3);
+INSERT INTO pacientes (data_nascimento, nome, id_usuario) VALUES ('1980-01-01', 'Paciente Benchmark', @usuario);
+SET @paciente = LAST_INSERT_ID();
+
+INSERT INTO usuarios (ativo, email, senha) VALUES (1, 'benchmark.medico@clinica.com.br', '$2a$10$tBVUEXD9outKvx5tO8LUQOEhCX2hPaRmtfx/WuMMjA4tGI6RLQYk.');
+INSERT INTO medicos (crm, data_inscricao, nome, id_usuario) VALUES (999999, '2000-01-01', 'Medico Benchmark', LAST_INSERT_ID());
+SET @medico = LAST_INSERT_ID();
+INSERT INTO especialidades (titulo) VALUES ('Especialidade Benchmark');
+SET @especialidade = LAST_INSERT_ID();
+
+DROP PROCEDURE IF EXISTS benchmark_historico;
+DELIMITER $$
+CREATE PROCEDURE benchmark_historico()
+BEGIN
+	DECLARE i INT DEFAULT 0;
+	WHILE i < 5000 DO
+		INSERT INTO agendamentos (data_consulta, id_especialidade, id_horario, id_medico, id_paciente)
+		VALUES (DATE_SUB(CURDATE(), INTERVAL (i DIV 4) DAY), @especialidade, (i MOD 20) + 1, @medico, @paciente);
+		SET i = i + 1;
+	END WHILE;
+END$$
+DELIMITER ;
+CALL benchmark_historico();
+DROP PROCEDURE benchmark_historico;
+ANALYZE TABLE agendamentos;
+
+-- primeira página: deve usar IDX_AGENDAMENTO_PACIENTE_DATA sem 'Using filesort'
+EXPLAIN SELECT a.id, p.nome, a.data_consulta, m.nome, e.titulo
+FROM agendamentos a
+INNER JOIN pacientes p ON p.id = a.id_paciente
+INNER JOIN medicos m ON m.id = a.id_medico
+INNER JOIN especialidades e ON e.id = a.id_especialidade
+WHERE p.id = @paciente
+ORDER BY a.data_consulta DESC, a.id DESC LIMIT 21;
+
+-- página após a consulta de número 4.000: range scan no indice, sem OFFSET
+SELECT data_consulta, id INTO @data, @id FROM agendamentos WHERE id_paciente = @paciente
+ORDER BY data_consulta DESC, id DESC LIMIT 3999, 1;
+
+EXPLAIN SELECT a.id, p.nome, a.data_consulta, m.nome, e.titulo
+FROM agendamentos a
+INNER JOIN pacientes p ON p.id = a.id_paciente
+INNER JOIN medicos m ON m.id = a.id_medico
+INNER JOIN especialidades e ON e.id = a.id_especialidade
+WHERE p.id = @paciente AND a.data_consulta <= @data AND (a.data_consulta < @data OR a.id < @id)
+ORDER BY a.data_consulta DESC, a.id DESC LIMIT 21;
@@ -36,6 +36,9 @@ CREATE TABLE `agendamentos` (
   KEY `FK_HORA_ID` (`id_horario`),
   KEY `FK_MEDICO_ID` (`id_medico`),
   KEY `FK_PACIENTE_ID` (`id_paciente`),
+  KEY `IDX_AGENDAMENTO_PACIENTE_DATA` (`id_paciente`,`data_consulta`),
+  KEY `IDX_AGENDAMENTO_DATA` (`data_consulta`),
+  UNIQUE KEY `UK_AGENDAMENTO_MEDICO_DATA_HORARIO` (`id_medico`,`data_consulta`,`id_horario`),
   CONSTRAINT `FK_ESPECIALIDADE_ID` FOREIGN KEY (`id_especialidade`) REFERENCES `especialidades` (`id`),
   CONSTRAINT `FK_HORA_ID` FOREIGN KEY (`id_horario`) REFERENCES `horas` (`id`),
   CONSTRAINT `FK_MEDICO_ID` FOREIGN KEY (`id_medico`) REFERENCES `medicos` (`id`),
@@ -52,6 +55,87 @@ LOCK TABLES `agendamentos` WRITE;
 /*!40000 ALTER TABLE `agendamentos` ENABLE KEYS */;
 UNLOCK TABLES;
 
+--
+-- Table structure for table `agendamentos_listagem`
+--
+
+DROP TABLE IF EXISTS `agendamentos_listagem`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `agendamentos_listagem` (
+  `id` bigint(20) NOT NULL,
+  `data_consulta` date DEFAULT NULL,
+  `id_paciente` bigint(20) DEFAULT NULL,
+  `paciente_nome` varchar(255) DEFAULT NULL,
+  `id_medico` bigint(20) DEFAULT NULL,
+  `medico_nome` varchar(255) DEFAULT NULL,
+  `id_especialidade` bigint(20) DEFAULT NULL,
+  `especialidade_titulo` varchar(255) DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  KEY `idx_listagem_data` (`data_consulta`),
+  KEY `idx_listagem_paciente_nome` (`paciente_nome`),
+  KEY `idx_listagem_medico_nome` (`medico_nome`),
+  KEY `idx_listagem_especialidade_titulo` (`especialidade_titulo`),
+  KEY `idx_listagem_paciente` (`id_paciente`),
+  KEY `idx_listagem_medico` (`id_medico`),
+  KEY `idx_listagem_especialidade` (`id_especialidade`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
+--
+-- Table structure for table `agenda_medico_dia`
+--
+
+DROP TABLE IF EXISTS `agenda_medico_dia`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `agenda_medico_dia` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT,
+  `id_medico` bigint(20) NOT NULL,
+  `data_consulta` date NOT NULL,
+  `total` bigint(20) NOT NULL,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `UK_AGENDA_MEDICO_DIA` (`id_medico`,`data_consulta`),
+  CONSTRAINT `FK_AGENDA_MEDICO_ID` FOREIGN KEY (`id_medico`) REFERENCES `medicos` (`id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
+--
+-- Table structure for table `auditoria`
+--
+
+DROP TABLE IF EXISTS `auditoria`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `auditoria` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT,
+  `data_hora` datetime(3) NOT NULL,
+  `tipo` varchar(30) NOT NULL,
+  `usuario` varchar(255) DEFAULT NULL,
+  `detalhe` varchar(255) DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  KEY `IDX_AUDITORIA_USUARIO_DATA` (`usuario`,`data_hora`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
+--
+-- Table structure for table `codigos_verificacao`
+--
+
+DROP TABLE IF EXISTS `codigos_verificacao`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `codigos_verificacao` (
+  `email` varchar(255) NOT NULL,
+  `sal` binary(16) NOT NULL,
+  `hash` binary(32) NOT NULL,
+  `tentativas` int(11) NOT NULL,
+  `expira_em` datetime(3) NOT NULL,
+  PRIMARY KEY (`email`),
+  KEY `IDX_CODIGO_VERIFICACAO_EXPIRA` (`expira_em`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
 --
 -- Table structure for table `especialidades`
 --
@@ -104,6 +188,38 @@ INSERT INTO `horas` VALUES (1,'07:00:00'),(2,'07:30:00'),(3,'08:00:00'),(4,'08:3
 /*!40000 ALTER TABLE `horas` ENABLE KEYS */;
 UNLOCK TABLES;
 
+--
+-- Table structure for table `lembretes_execucao`
+--
+
+DROP TABLE IF EXISTS `lembretes_execucao`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `lembretes_execucao` (
+  `data_consulta` date NOT NULL,
+  `ultimo_id` bigint(20) NOT NULL,
+  `enviados` bigint(20) NOT NULL,
+  `falhas` bigint(20) NOT NULL,
+  `concluido` bit(1) NOT NULL,
+  `atualizado_em` datetime NOT NULL,
+  PRIMARY KEY (`data_consulta`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
+--
+-- Table structure for table `lembretes_falhas`
+--
+
+DROP TABLE IF EXISTS `lembretes_falhas`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `lembretes_falhas` (
+  `data_consulta` date NOT NULL,
+  `id_agendamento` bigint(20) NOT NULL,
+  PRIMARY KEY (`data_consulta`,`id_agendamento`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
 --
 -- Table structure for table `medicos`
 --
@@ -117,10 +233,13 @@ CREATE TABLE `medicos` (
   `data_inscricao` date NOT NULL,
   `nome` varchar(255) NOT NULL,
   `id_usuario` bigint(20) DEFAULT NULL,
+  `especialidades_ordem` varchar(255) DEFAULT NULL,
   PRIMARY KEY (`id`),
   UNIQUE KEY `UK_CRM` (`crm`),
   UNIQUE KEY `UK_NOME` (`nome`),
   UNIQUE KEY `UK_USUARIO_ID` (`id_usuario`),
+  KEY `idx_medico_data_inscricao` (`data_inscricao`),
+  KEY `idx_medico_especialidades_ordem` (`especialidades_ordem`),
   CONSTRAINT `FK_USUARIO_ID` FOREIGN KEY (`id_usuario`) REFERENCES `usuarios` (`id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 /*!40101 SET character_set_client = @saved_cs_client */;
@@ -226,9 +345,12 @@ CREATE TABLE `usuarios` (
   `email` varchar(255) NOT NULL,
   `senha` varchar(255) NOT NULL,
   `codigo_verificador` varchar(6) DEFAULT NULL,
+  `perfis_ordem` varchar(20) DEFAULT NULL,
   PRIMARY KEY (`id`),
   UNIQUE KEY `UK_USUARIO_EMAIL` (`email`),
-  KEY `IDX_USUARIO_EMAIL` (`email`)
+  KEY `IDX_USUARIO_EMAIL` (`email`),
+  KEY `idx_usuario_ativo` (`ativo`),
+  KEY `idx_usuario_perfis_ordem` (`perfis_ordem`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 /*!40101 SET character_set_client = @saved_cs_client */;
 
@@ -283,8 +405,8 @@ UNLOCK TABLES;
 
 /*Insere o usuario administrador*/
 INSERT INTO demo_security.usuarios
-(ativo, email, senha, codigo_verificador)
-VALUES(1, 'admin@clinica.com.br', '$2a$10$tBVUEXD9outKvx5tO8LUQOEhCX2hPaRmtfx/WuMMjA4tGI6RLQYk.', '');
+(ativo, email, senha, codigo_verificador, perfis_ordem)
+VALUES(1, 'admin@clinica.com.br', '$2a$10$tBVUEXD9outKvx5tO8LUQOEhCX2hPaRmtfx/WuMMjA4tGI6RLQYk.', '', '1');
 
 /*Adiciona o perfil ADMIN para o administrador*/
 INSERT INTO usuarios_tem_perfis
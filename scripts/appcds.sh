@@ -0,0 +1,64 @@
+#!/usr/bin/env bash
+# Application Class-Data Sharing (AppCDS) para reduzir o tempo de boot da aplicação.
+#
+#   ./scripts/appcds.sh treinar   gera o jar, extrai em target/exploded, executa uma inicialização de treino que grava
+#                                 a lista de classes carregadas e cria o arquivo target/appcds/app.jsa
+#   ./scripts/appcds.sh iniciar   inicia a aplicação usando o arquivo gerado (argumentos extras são repassados ao Spring)
+#   ./scripts/appcds.sh comparar  inicia sem e com o arquivo e grava os relatórios de inicialização
+#                                 (RelatorioInicializacao) em target/appcds/sem-cds.txt e com-cds.txt, para o CI
+#
+# Requer JDK 11 ou superior em tempo de execução (o bytecode continua compilado para Java 8). Com JDK 8 da Oracle
+# seria necessário -XX:+UnlockCommercialFeatures -XX:+UseAppCDS. O CDS não lê classes de jars aninhados, por isso
+# a aplicação é executada a partir do jar extraído com o classpath explícito.
+# A execução de treino e a comparação precisam do banco de dados configurado em application.properties.
+set -euo pipefail
+
+RAIZ="$(cd "$(dirname "$0")/.." && pwd)"
+EXPLODIDO="$RAIZ/target/exploded"
+SAIDA="$RAIZ/target/appcds"
+CLASSE=com.mballem.curso.security.DemoSecurityApplication
+
+classpath() {
+	local cp="$EXPLODIDO/BOOT-INF/classes"
+	for jar in "$EXPLODIDO"/BOOT-INF/lib/*.jar; do
+		cp="$cp:$jar"
+	done
+	echo "$cp"
+}
+
+extrair() {
+	(cd "$RAIZ" && mvn -B -q -DskipTests package)
+	rm -rf "$EXPLODIDO" && mkdir -p "$EXPLODIDO" "$SAIDA"
+	(cd "$EXPLODIDO" && jar -xf "$RAIZ"/target/demo-security-*.jar)
+}
+
+treinar() {
+	extrair
+	local cp
+	cp="$(classpath)"
+	java -Xshare:off -XX:DumpLoadedClassList="$SAIDA/classes.lst" -cp "$cp" $CLASSE \
+		--app.startup.sair-apos-iniciar=true --spring.jpa.show-sql=false
+	java -Xshare:dump -XX:SharedClassListFile="$SAIDA/classes.lst" -XX:SharedArchiveFile="$SAIDA/app.jsa" -cp "$cp"
+}
+
+iniciar() {
+	[ -f "$SAIDA/app.jsa" ] || { echo "arquivo $SAIDA/app.jsa não encontrado, execute: $0 treinar" >&2; exit 1; }
+	exec java -Xshare:auto -XX:SharedArchiveFile="$SAIDA/app.jsa" -Xlog:cds=warning -cp "$(classpath)" $CLASSE "$@"
+}
+
+comparar() {
+	local cp
+	cp="$(classpath)"
+	java -Xshare:off -cp "$cp" $CLASSE --app.startup.sair-apos-iniciar=true \
+		--app.startup.relatorio="$SAIDA/sem-cds.txt" --spring.jpa.show-sql=false
+	java -Xshare:auto -XX:SharedArchiveFile="$SAIDA/app.jsa" -cp "$cp" $CLASSE --app.startup.sair-apos-iniciar=true \
+		--app.startup.relatorio="$SAIDA/com-cds.txt" --spring.jpa.show-sql=false
+	grep -H '^total' "$SAIDA/sem-cds.txt" "$SAIDA/com-cds.txt"
+}
+
+case "${1:-}" in
+	treinar) treinar ;;
+	iniciar) shift; iniciar "$@" ;;
+	comparar) comparar ;;
+	*) echo "uso: $0 treinar|iniciar|comparar" >&2; exit 1 ;;
+esac
@@ -4,18 +4,24 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Lazy;
 
+import com.mballem.curso.security.config.RelatorioInicializacao;
 import com.mballem.curso.security.service.EmailService;
 
 @SpringBootApplication
 public class DemoSecurityApplication implements CommandLineRunner{
 
 	public static void main(String[] args) {
-		SpringApplication.run(DemoSecurityApplication.class, args);
+		SpringApplication app = new SpringApplication(DemoSecurityApplication.class);
+		//mede o tempo de cada fase e de cada bean durante a inicialização (ver RelatorioInicializacao)
+		app.addListeners(new RelatorioInicializacao());
+		app.run(args);
 		System.out.println("Usuário previamente cadastrado no banco de dados com perfil 1 ADMIN:");
 		System.out.println("admin@clinica.com.br senha: 123456");
 	}
 
+	@Lazy
 	@Autowired
 	EmailService emailService;
 	
@@ -0,0 +1,226 @@
+package com.mballem.curso.security.auditoria;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.event.AbstractAuthenticationFailureEvent;
+import org.springframework.security.authentication.event.AuthenticationSuccessEvent;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Registro de auditoria de logins e alterações de dados.
+ * 
+ * Os eventos são publicados no RingBufferAuditoria, sem acessar o banco de dados na requisição. Uma thread em segundo plano
+ * grava os eventos em lotes na tabela auditoria, com um INSERT de várias linhas por lote.
+ * 
+ * A publicação no buffer reutiliza as posições pré-alocadas e não cria objetos. Dentro de uma transação, porém, registrar() cria
+ * uma TransactionSynchronization por evento para publicá-lo somente após o commit: o custo de alocação é o de um objeto pequeno
+ * por evento, e não o de um INSERT na transação da requisição.
+ * 
+ * Configuração (app.auditoria.*):
+ *   politica            BLOQUEAR ou DESCARTAR, com o buffer cheio
+ *   espera-maxima-ms    tempo máximo que um produtor aguarda com a política BLOQUEAR
+ *   falha-banco         TENTAR_NOVAMENTE (os eventos ficam no buffer e o produtor passa a sofrer a política) ou DESCARTAR o lote
+ * 
+ * Métricas: app.auditoria.pendentes, app.auditoria.publicados, app.auditoria.descartados, app.auditoria.gravados e app.auditoria.perdidos.
+ * */
+@Component
+public class Auditoria implements SmartLifecycle {
+
+	private static final Logger log = LoggerFactory.getLogger(Auditoria.class);
+
+	public enum FalhaBanco { TENTAR_NOVAMENTE, DESCARTAR }
+
+	private static final String INSERT = "INSERT INTO auditoria (data_hora, tipo, usuario, detalhe) VALUES ";
+	private static final int TAMANHO_DETALHE = 255;
+
+	private final RingBufferAuditoria buffer;
+	private final int tamanhoLote;
+	private final long intervaloNanos;
+	private final FalhaBanco falhaBanco;
+	//SQL do INSERT de várias linhas, por quantidade de linhas
+	private final String[] inserts;
+	private final LongAdder gravados = new LongAdder();
+	private final LongAdder perdidos = new LongAdder();
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private volatile boolean executando;
+	private Thread consumidor;
+
+	@Autowired
+	public Auditoria(MeterRegistry registry,
+			@Value("${app.auditoria.capacidade:8192}") int capacidade,
+			@Value("${app.auditoria.lote:500}") int tamanhoLote,
+			@Value("${app.auditoria.intervalo-ms:50}") long intervaloMs,
+			@Value("${app.auditoria.politica:BLOQUEAR}") RingBufferAuditoria.Politica politica,
+			@Value("${app.auditoria.espera-maxima-ms:10}") long esperaMaximaMs,
+			@Value("${app.auditoria.falha-banco:TENTAR_NOVAMENTE}") FalhaBanco falhaBanco) {
+		this.buffer = new RingBufferAuditoria(capacidade, politica, TimeUnit.MILLISECONDS.toNanos(esperaMaximaMs));
+		this.tamanhoLote = tamanhoLote;
+		this.intervaloNanos = TimeUnit.MILLISECONDS.toNanos(intervaloMs);
+		this.falhaBanco = falhaBanco;
+		this.inserts = new String[tamanhoLote + 1];
+
+		Gauge.builder("app.auditoria.pendentes", buffer, RingBufferAuditoria::getPendentes).register(registry);
+		FunctionCounter.builder("app.auditoria.publicados", buffer, RingBufferAuditoria::getPublicados).register(registry);
+		FunctionCounter.builder("app.auditoria.descartados", buffer, RingBufferAuditoria::getDescartados).register(registry);
+		FunctionCounter.builder("app.auditoria.gravados", gravados, LongAdder::sum).register(registry);
+		FunctionCounter.builder("app.auditoria.perdidos", perdidos, LongAdder::sum).register(registry);
+	}
+
+	/**
+	 * Registra um evento do usuário autenticado. Dentro de uma transação o evento só é publicado após o commit
+	 * (uma TransactionSynchronization por evento). Fora de uma transação a publicação não cria objetos.
+	 * */
+	public void registrar(TipoEvento tipo, String detalhe) {
+		Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+		registrar(tipo, auth != null ? auth.getName() : null, detalhe);
+	}
+
+	public void registrar(TipoEvento tipo, String usuario, String detalhe) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					buffer.publicar(tipo, usuario, detalhe);
+				}
+			});
+		} else {
+			buffer.publicar(tipo, usuario, detalhe);
+		}
+	}
+
+	@EventListener
+	public void login(AuthenticationSuccessEvent event) {
+		buffer.publicar(TipoEvento.LOGIN, event.getAuthentication().getName(), null);
+	}
+
+	@EventListener
+	public void loginFalhou(AbstractAuthenticationFailureEvent event) {
+		buffer.publicar(TipoEvento.LOGIN_FALHOU, event.getAuthentication().getName(), event.getException().getClass().getSimpleName());
+	}
+
+	//laço da thread consumidora. Ao parar, grava o que ainda estiver no buffer
+	private void consumir() {
+		List<EventoAuditoria> lote = new ArrayList<>(tamanhoLote);
+		while (executando || buffer.getPendentes() > 0) {
+			int n = buffer.lerLote(lote, tamanhoLote);
+			if (n == 0) {
+				if (!executando) {
+					break;
+				}
+				LockSupport.parkNanos(intervaloNanos);
+				continue;
+			}
+			try {
+				gravar(lote);
+				buffer.liberar(n);
+				gravados.add(n);
+			} catch (RuntimeException ex) {
+				if (falhaBanco == FalhaBanco.DESCARTAR || !executando) {
+					log.error("Falha ao gravar {} eventos de auditoria. Eventos descartados", n, ex);
+					buffer.liberar(n);
+					perdidos.add(n);
+				} else {
+					log.warn("Falha ao gravar {} eventos de auditoria. Nova tentativa em instantes", n, ex);
+					LockSupport.parkNanos(intervaloNanos * 20);
+				}
+				continue;
+			}
+			if (n < tamanhoLote) {//aguarda acumular um lote maior
+				LockSupport.parkNanos(intervaloNanos);
+			}
+		}
+	}
+
+	private void gravar(List<EventoAuditoria> lote) {
+		jdbcTemplate.update(insert(lote.size()), ps -> {
+			int p = 1;
+			for (EventoAuditoria e : lote) {
+				ps.setTimestamp(p++, new Timestamp(e.getInstante()));
+				ps.setString(p++, e.getTipo().name());
+				ps.setString(p++, e.getUsuario());
+				String detalhe = e.getDetalhe();
+				ps.setString(p++, detalhe != null && detalhe.length() > TAMANHO_DETALHE ? detalhe.substring(0, TAMANHO_DETALHE) : detalhe);
+			}
+		});
+	}
+
+	private String insert(int linhas) {
+		String sql = inserts[linhas];
+		if (sql == null) {
+			StringBuilder sb = new StringBuilder(INSERT);
+			for (int i = 0; i < linhas; i++) {
+				sb.append(i == 0 ? "(?,?,?,?)" : ",(?,?,?,?)");
+			}
+			sql = sb.toString();
+			inserts[linhas] = sql;
+		}
+		return sql;
+	}
+
+	public RingBufferAuditoria getBuffer() {
+		return buffer;
+	}
+
+	@Override
+	public synchronized void start() {
+		executando = true;
+		consumidor = new Thread(this::consumir, "auditoria");
+		consumidor.setDaemon(true);
+		consumidor.start();
+	}
+
+	@Override
+	public synchronized void stop() {
+		executando = false;
+		try {
+			consumidor.join(TimeUnit.SECONDS.toMillis(10));
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public boolean isRunning() {
+		return executando;
+	}
+
+	@Override
+	public boolean isAutoStartup() {
+		return true;
+	}
+
+	@Override
+	public void stop(Runnable callback) {
+		stop();
+		callback.run();
+	}
+
+	//o Lifecycle é parado antes da destruição dos beans, logo os eventos pendentes são gravados antes do fechamento do DataSource
+	@Override
+	public int getPhase() {
+		return 0;
+	}
+}
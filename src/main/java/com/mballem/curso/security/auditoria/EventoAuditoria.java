@@ -0,0 +1,42 @@
+package com.mballem.curso.security.auditoria;
+
+/**
+ * Posição do RingBufferAuditoria. As instâncias são criadas uma única vez, junto com o buffer, e reutilizadas:
+ * o produtor preenche os campos e o consumidor os lê antes de liberar a posição.
+ * */
+public final class EventoAuditoria {
+
+	private long instante;
+	private TipoEvento tipo;
+	private String usuario;
+	private String detalhe;
+
+	void preencher(long instante, TipoEvento tipo, String usuario, String detalhe) {
+		this.instante = instante;
+		this.tipo = tipo;
+		this.usuario = usuario;
+		this.detalhe = detalhe;
+	}
+
+	//remove as referências para que as Strings não fiquem presas no buffer
+	void limpar() {
+		this.usuario = null;
+		this.detalhe = null;
+	}
+
+	public long getInstante() {
+		return instante;
+	}
+
+	public TipoEvento getTipo() {
+		return tipo;
+	}
+
+	public String getUsuario() {
+		return usuario;
+	}
+
+	public String getDetalhe() {
+		return detalhe;
+	}
+}
@@ -0,0 +1,140 @@
+package com.mballem.curso.security.auditoria;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Buffer circular pré-alocado de eventos de auditoria, com vários produtores e um único consumidor.
+ * 
+ * - O produtor reserva uma sequência com compareAndSet no cursor, preenche a posição (EventoAuditoria já existente) e a publica
+ *   gravando a sequência em 'publicados'. Não há lock nem criação de objetos na publicação.
+ * - O consumidor lê as posições publicadas em ordem, em lotes, e só depois de gravá-las libera as posições para reutilização.
+ * 
+ * Com o buffer cheio a política define o comportamento do produtor: DESCARTAR o evento imediatamente ou BLOQUEAR aguardando
+ * espaço por no máximo 'esperaMaximaNanos' (depois disso o evento é descartado, para nunca travar uma requisição).
+ * */
+public class RingBufferAuditoria {
+
+	public enum Politica { BLOQUEAR, DESCARTAR }
+
+	private static final long PAUSA_NANOS = 1000;
+
+	private final EventoAuditoria[] slots;
+	//sequência publicada em cada posição. -1 enquanto nenhuma foi publicada
+	private final AtomicLongArray publicados;
+	private final int mascara;
+	private final Politica politica;
+	private final long esperaMaximaNanos;
+
+	//próxima sequência a ser reservada por um produtor
+	private final AtomicLong cursor = new AtomicLong();
+	//próxima sequência a ser lida pelo consumidor. Todas as anteriores estão livres
+	private final AtomicLong consumido = new AtomicLong();
+	private final LongAdder descartados = new LongAdder();
+
+	/**
+	 * @param capacidade quantidade de posições, arredondada para a próxima potência de 2
+	 * */
+	public RingBufferAuditoria(int capacidade, Politica politica, long esperaMaximaNanos) {
+		int tamanho = Integer.highestOneBit(Math.max(2, capacidade) - 1) << 1;
+		this.slots = new EventoAuditoria[tamanho];
+		this.publicados = new AtomicLongArray(tamanho);
+		for (int i = 0; i < tamanho; i++) {
+			slots[i] = new EventoAuditoria();
+			publicados.set(i, -1);
+		}
+		this.mascara = tamanho - 1;
+		this.politica = politica;
+		this.esperaMaximaNanos = esperaMaximaNanos;
+	}
+
+	/**
+	 * Publica um evento. Pode ser chamado por qualquer thread.
+	 * 
+	 * @return false se o evento foi descartado por falta de espaço
+	 * */
+	public boolean publicar(TipoEvento tipo, String usuario, String detalhe) {
+		long seq = reservar();
+		if (seq < 0) {
+			descartados.increment();
+			return false;
+		}
+		int i = indice(seq);
+		slots[i].preencher(System.currentTimeMillis(), tipo, usuario, detalhe);
+		publicados.set(i, seq);//escrita volátil: torna o conteúdo da posição visível para o consumidor
+		return true;
+	}
+
+	private long reservar() {
+		long limite = 0;
+		while (true) {
+			long seq = cursor.get();
+			if (seq - consumido.get() < slots.length) {
+				if (cursor.compareAndSet(seq, seq + 1)) {
+					return seq;
+				}
+				continue;//outro produtor reservou a mesma sequência
+			}
+			if (politica == Politica.DESCARTAR) {
+				return -1;
+			}
+			long agora = System.nanoTime();
+			if (limite == 0) {
+				limite = agora + esperaMaximaNanos;
+			} else if (agora - limite > 0) {
+				return -1;
+			}
+			LockSupport.parkNanos(PAUSA_NANOS);
+		}
+	}
+
+	/**
+	 * Adiciona em 'lote' os próximos eventos publicados, em ordem, até 'maximo'. Apenas a thread consumidora pode chamar este método.
+	 * As posições continuam reservadas até liberar() ser chamado.
+	 * 
+	 * @return quantidade de eventos adicionados
+	 * */
+	public int lerLote(List<EventoAuditoria> lote, int maximo) {
+		lote.clear();
+		long inicio = consumido.get();
+		int n = 0;
+		while (n < maximo && publicados.get(indice(inicio + n)) == inicio + n) {
+			lote.add(slots[indice(inicio + n)]);
+			n++;
+		}
+		return n;
+	}
+
+	//libera as 'quantidade' posições lidas por lerLote() para reutilização pelos produtores
+	public void liberar(int quantidade) {
+		long inicio = consumido.get();
+		for (int n = 0; n < quantidade; n++) {
+			slots[indice(inicio + n)].limpar();
+		}
+		consumido.set(inicio + quantidade);
+	}
+
+	//eventos reservados e ainda não liberados pelo consumidor
+	public long getPendentes() {
+		return cursor.get() - consumido.get();
+	}
+
+	public long getPublicados() {
+		return cursor.get();
+	}
+
+	public long getDescartados() {
+		return descartados.sum();
+	}
+
+	public int getCapacidade() {
+		return slots.length;
+	}
+
+	private int indice(long seq) {
+		return (int) (seq & mascara);
+	}
+}
@@ -0,0 +1,14 @@
+package com.mballem.curso.security.auditoria;
+
+//tipos de evento gravados na tabela auditoria
+public enum TipoEvento {
+	LOGIN,
+	LOGIN_FALHOU,
+	SENHA_ALTERADA,
+	CADASTRO_ATIVADO,
+	MEDICO_SALVO,
+	MEDICO_EDITADO,
+	PACIENTE_SALVO,
+	PACIENTE_EDITADO,
+	EXCLUSAO_EM_LOTE
+}
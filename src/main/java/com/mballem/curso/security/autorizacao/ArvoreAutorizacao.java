@@ -0,0 +1,103 @@
+package com.mballem.curso.security.autorizacao;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Árvore de caminhos (trie por segmento de URL) compilada a partir das regras de acesso. Resolve a regra de uma URL em uma única
+ * passada pelos segmentos, em vez de testar os padrões um a um na ordem da cadeia do Spring Security.
+ * 
+ * Cada nó guarda a primeira regra (menor posição na lista) que termina exatamente nele e a primeira regra do tipo "/caminho/**"
+ * que o cobre. A regra escolhida é a de menor posição entre as regras "/**" dos nós percorridos e a regra exata do último nó,
+ * o mesmo resultado da primeira regra que combinar na cadeia.
+ * 
+ * Padrões suportados: caminhos exatos ("/home", "/") e caminhos terminados em "/**". Outros curingas não são aceitos.
+ * A semântica é a do AntPathRequestMatcher: "/u/**" também combina com "/u" e "/u/", e "/home" não combina com "/home/".
+ * */
+public class ArvoreAutorizacao {
+
+	private static final class No {
+		final Map<String, No> filhos = new HashMap<>();
+		int exata = Integer.MAX_VALUE;
+		int prefixo = Integer.MAX_VALUE;
+	}
+
+	private final No raiz = new No();
+	private final RegraAutorizacao[] regras;
+	private final RegraAutorizacao padrao;
+
+	/**
+	 * @param regras regras na ordem de avaliação
+	 * @param padrao regra usada quando nenhuma outra combinar
+	 * */
+	public ArvoreAutorizacao(List<RegraAutorizacao> regras, RegraAutorizacao padrao) {
+		this.regras = regras.toArray(new RegraAutorizacao[0]);
+		this.padrao = padrao;
+		for (int posicao = 0; posicao < this.regras.length; posicao++) {
+			for (String padraoUrl : this.regras[posicao].getPadroes()) {
+				adicionar(padraoUrl, posicao);
+			}
+		}
+	}
+
+	private void adicionar(String padraoUrl, int posicao) {
+		if (!padraoUrl.startsWith("/")) {
+			throw new IllegalArgumentException("O padrão deve iniciar com '/': " + padraoUrl);
+		}
+		boolean prefixo = padraoUrl.endsWith("/**");
+		String caminho = prefixo ? padraoUrl.substring(0, padraoUrl.length() - 3) : padraoUrl;
+		if (caminho.contains("*") || caminho.contains("?") || caminho.contains("{")) {
+			throw new IllegalArgumentException("Curinga não suportado pela árvore de autorização: " + padraoUrl);
+		}
+
+		No no = raiz;
+		for (String segmento : segmentos(caminho)) {
+			no = no.filhos.computeIfAbsent(segmento, s -> new No());
+		}
+		if (prefixo) {
+			no.prefixo = Math.min(no.prefixo, posicao);
+		} else {
+			no.exata = Math.min(no.exata, posicao);
+		}
+	}
+
+	/**
+	 * Regra aplicada ao caminho da requisição (servletPath + pathInfo, sem o context path).
+	 * Caminhos com segmentos vazios ("//") são recusados antes pelo StrictHttpFirewall e não são tratados aqui.
+	 * */
+	public RegraAutorizacao resolver(String caminho) {
+		No no = raiz;
+		int melhor = no.prefixo;
+		boolean completo = !caminho.isEmpty();
+
+		if (completo && !caminho.equals("/")) {
+			int inicio = caminho.startsWith("/") ? 1 : 0;
+			while (true) {
+				int fim = caminho.indexOf('/', inicio);
+				No filho = no.filhos.get(caminho.substring(inicio, fim < 0 ? caminho.length() : fim));
+				if (filho == null) {//nenhum padrão continua por este segmento
+					completo = false;
+					break;
+				}
+				no = filho;
+				melhor = Math.min(melhor, no.prefixo);
+				if (fim < 0) {
+					break;
+				}
+				inicio = fim + 1;
+			}
+		}
+		if (completo) {
+			melhor = Math.min(melhor, no.exata);
+		}
+		return melhor == Integer.MAX_VALUE ? padrao : regras[melhor];
+	}
+
+	private static String[] segmentos(String caminho) {
+		if (caminho.isEmpty() || caminho.equals("/")) {
+			return new String[0];
+		}
+		return caminho.substring(1).split("/", -1);
+	}
+}
@@ -0,0 +1,53 @@
+package com.mballem.curso.security.autorizacao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.security.access.ConfigAttribute;
+import org.springframework.security.web.FilterInvocation;
+import org.springframework.security.web.access.intercept.FilterInvocationSecurityMetadataSource;
+
+/**
+ * Fornece ao FilterSecurityInterceptor a regra de acesso da requisição, resolvida pela ArvoreAutorizacao.
+ * Substitui a lista de antMatchers avaliada em ordem pelo Spring Security.
+ * */
+public class FonteAutorizacaoArvore implements FilterInvocationSecurityMetadataSource {
+
+	private final ArvoreAutorizacao arvore;
+	private final List<ConfigAttribute> todas;
+
+	public FonteAutorizacaoArvore(ArvoreAutorizacao arvore, List<RegraAutorizacao> regras, RegraAutorizacao padrao) {
+		this.arvore = arvore;
+		this.todas = new ArrayList<>(regras);
+		this.todas.add(padrao);
+	}
+
+	@Override
+	public Collection<ConfigAttribute> getAttributes(Object object) {
+		return Collections.<ConfigAttribute>singletonList(arvore.resolver(caminho(((FilterInvocation) object).getRequest())));
+	}
+
+	//mesmo caminho usado pelo AntPathRequestMatcher: servletPath + pathInfo
+	static String caminho(HttpServletRequest request) {
+		String caminho = request.getServletPath();
+		String pathInfo = request.getPathInfo();
+		if (pathInfo != null) {
+			caminho = caminho != null && !caminho.isEmpty() ? caminho + pathInfo : pathInfo;
+		}
+		return caminho;
+	}
+
+	@Override
+	public Collection<ConfigAttribute> getAllConfigAttributes() {
+		return todas;
+	}
+
+	@Override
+	public boolean supports(Class<?> clazz) {
+		return FilterInvocation.class.isAssignableFrom(clazz);
+	}
+}
@@ -0,0 +1,89 @@
+package com.mballem.curso.security.autorizacao;
+
+import java.util.Arrays;
+
+import org.springframework.security.access.ConfigAttribute;
+import org.springframework.security.authentication.AuthenticationTrustResolver;
+import org.springframework.security.authentication.AuthenticationTrustResolverImpl;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * Regra de acesso para um grupo de padrões de URL ("/u/p/**", "/home"...). É também o ConfigAttribute devolvido por
+ * FonteAutorizacaoArvore e avaliado por VotanteAutorizacao.
+ * */
+@SuppressWarnings("serial")
+public final class RegraAutorizacao implements ConfigAttribute {
+
+	public enum Acesso { PUBLICO, AUTENTICADO, PERFIS }
+
+	private static final AuthenticationTrustResolver TRUST_RESOLVER = new AuthenticationTrustResolverImpl();
+
+	private final String[] padroes;
+	private final Acesso acesso;
+	private final String[] perfis;
+
+	private RegraAutorizacao(String[] padroes, Acesso acesso, String[] perfis) {
+		this.padroes = padroes;
+		this.acesso = acesso;
+		this.perfis = perfis;
+	}
+
+	public static RegraAutorizacao publico(String... padroes) {
+		return new RegraAutorizacao(padroes, Acesso.PUBLICO, new String[0]);
+	}
+
+	public static RegraAutorizacao autenticado(String... padroes) {
+		return new RegraAutorizacao(padroes, Acesso.AUTENTICADO, new String[0]);
+	}
+
+	//padrões acessíveis para usuários com qualquer um dos perfis
+	public static RegraAutorizacao perfis(String[] perfis, String... padroes) {
+		return new RegraAutorizacao(padroes, Acesso.PERFIS, perfis);
+	}
+
+	//mesma semântica de permitAll(), authenticated() e hasAnyAuthority() do Spring Security
+	public boolean permite(Authentication authentication) {
+		switch (acesso) {
+		case PUBLICO:
+			return true;
+		case AUTENTICADO:
+			return authentication != null && !TRUST_RESOLVER.isAnonymous(authentication);
+		default:
+			if (authentication == null) {
+				return false;
+			}
+			for (GrantedAuthority authority : authentication.getAuthorities()) {
+				for (String perfil : perfis) {
+					if (perfil.equals(authority.getAuthority())) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+	}
+
+	public String[] getPadroes() {
+		return padroes;
+	}
+
+	public Acesso getAcesso() {
+		return acesso;
+	}
+
+	public String[] getPerfis() {
+		return perfis;
+	}
+
+	//null: o atributo não é representado por uma String (ver ConfigAttribute)
+	@Override
+	public String getAttribute() {
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(padroes) + " " + acesso + (perfis.length > 0 ? " " + Arrays.toString(perfis) : "");
+	}
+}
@@ -0,0 +1,66 @@
+package com.mballem.curso.security.autorizacao;
+
+import static com.mballem.curso.security.autorizacao.RegraAutorizacao.autenticado;
+import static com.mballem.curso.security.autorizacao.RegraAutorizacao.perfis;
+import static com.mballem.curso.security.autorizacao.RegraAutorizacao.publico;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.mballem.curso.security.domain.PerfilTipo;
+
+/**
+ * Regras de acesso às URLs da aplicação, na ordem em que são avaliadas: vale a primeira regra cujo padrão combinar com a URL.
+ * São usadas pela SecurityConfig tanto na árvore compilada (ArvoreAutorizacao) quanto na cadeia de antMatchers do Spring Security.
+ * */
+public final class RegrasAutorizacao {
+
+	private static final String ADMIN = PerfilTipo.ADMIN.getDesc();
+	private static final String MEDICO = PerfilTipo.MEDICO.getDesc();
+	private static final String PACIENTE = PerfilTipo.PACIENTE.getDesc();
+
+	private RegrasAutorizacao() {
+	}
+
+	public static final List<RegraAutorizacao> REGRAS = Collections.unmodifiableList(Arrays.asList(
+			//página de login e de falha no login, liberadas pelo formLogin().permitAll()
+			publico("/login", "/login-error"),
+
+			//acessos públicos liberados para todos
+			publico("/webjars/**", "/css/**", "/image/**", "/js/**"),//recursos de css, imagens e js usados pelas páginas
+			publico("/", "/home"),
+			publico("/u/novo/cadastro", "/u/cadastro/realizado", "/u/cadastro/paciente/salvar"),//cadastro de novo usuario
+			publico("/u/confirmacao/cadastro"),//link de confirmação de cadastro enviado por email (UsuarioController)
+			publico("/u/p/**"),//páginas de pedido de redefinição de senha e de redefinição de senha
+
+			//acessos privados para perfil de ADMIN
+			perfis(new String[] {MEDICO, PACIENTE}, "/u/editar/senha", "/u/confirmar/senha"),
+			perfis(new String[] {ADMIN}, "/u/**"),//telas de cadastros visíveis apenas para admins
+
+			//acessos privados para perfil MEDICO
+			perfis(new String[] {MEDICO, ADMIN}, "/medicos/dados", "/medicos/editar", "/medicos/salvar"),
+			perfis(new String[] {ADMIN}, "/medicos/lista", "/medicos/datatables/server", "/medicos/excluir/lote"),//lista e exclusão de médicos
+			perfis(new String[] {MEDICO}, "/medicos/**"),
+			perfis(new String[] {MEDICO}, "/agendamentos/historico/consultas/**"),//agenda de consultas do médico logado
+			perfis(new String[] {ADMIN}, "/agendamentos/lista", "/agendamentos/datatables/server"),//lista de todas as consultas
+
+			//acessos privados para perfil PACIENTE
+			perfis(new String[] {PACIENTE}, "/pacientes/**"),
+			perfis(new String[] {PACIENTE}, "/agendamentos/historico/paciente/**"),//histórico de consultas do paciente logado
+			perfis(new String[] {PACIENTE}, "/agendamentos/agendar", "/agendamentos/salvar", 
+					"/agendamentos/medicos", "/agendamentos/horarios/**"),//agendamento de consultas
+
+			//acessos privados para o endpoint /especialidades
+			perfis(new String[] {MEDICO, ADMIN, PACIENTE}, "/especialidades/titulo"),
+			perfis(new String[] {ADMIN}, "/especialidades/**"),
+
+			//health público para o balanceador de carga (os detalhes só são exibidos para usuários autenticados)
+			publico("/actuator/health"),
+			//métricas e monitoramento (actuator) apenas para ADMIN
+			perfis(new String[] {ADMIN}, "/actuator/**")
+	));
+
+	//qualquer outra requisição deve estar autenticada
+	public static final RegraAutorizacao DEMAIS = autenticado("/**");
+}
@@ -0,0 +1,32 @@
+package com.mballem.curso.security.autorizacao;
+
+import java.util.Collection;
+
+import org.springframework.security.access.AccessDecisionVoter;
+import org.springframework.security.access.ConfigAttribute;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.web.FilterInvocation;
+
+//concede ou nega o acesso de acordo com a RegraAutorizacao resolvida por FonteAutorizacaoArvore
+public class VotanteAutorizacao implements AccessDecisionVoter<FilterInvocation> {
+
+	@Override
+	public boolean supports(ConfigAttribute attribute) {
+		return attribute instanceof RegraAutorizacao;
+	}
+
+	@Override
+	public boolean supports(Class<?> clazz) {
+		return FilterInvocation.class.isAssignableFrom(clazz);
+	}
+
+	@Override
+	public int vote(Authentication authentication, FilterInvocation object, Collection<ConfigAttribute> attributes) {
+		for (ConfigAttribute attribute : attributes) {
+			if (attribute instanceof RegraAutorizacao) {
+				return ((RegraAutorizacao) attribute).permite(authentication) ? ACCESS_GRANTED : ACCESS_DENIED;
+			}
+		}
+		return ACCESS_ABSTAIN;
+	}
+}
@@ -0,0 +1,194 @@
+package com.mballem.curso.security.cadastro;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Verificação rápida de email já cadastrado, feita antes do BCrypt no cadastro de usuários (ver UsuarioService).
+ *
+ * Os emails da tabela usuarios ficam em um filtro de Bloom (ver FiltroBloom) construído em segundo plano ao iniciar a aplicação.
+ * Quando o filtro responde que o email não existe, o cadastro segue sem consultar o banco de dados. Quando responde que talvez
+ * exista, a consulta exata pelo índice de email confirma. Até a primeira construção todas as verificações consultam o banco.
+ *
+ * Os emails são comparados sem espaços nas pontas e em minúsculas. Uma diferença de comparação em relação ao banco de dados
+ * (acentos, por exemplo) apenas deixa o email passar pelo filtro: a chave única de usuarios.email continua impedindo o cadastro.
+ * Emails excluídos continuam no filtro até a próxima construção, refeita após as exclusões em lote e quando a quantidade de emails
+ * passa da capacidade do filtro.
+ *
+ * Métricas: app.emails.verificacoes (resultado: ausente, falso-positivo ou duplicado, este último é um BCrypt e uma transação
+ * evitados), app.emails.bloom.falsos-positivos (taxa observada entre os emails novos) e app.emails.bloom.taxa-estimada
+ * (pela fração de bits ligados).
+ * */
+@Component
+public class EmailsCadastrados {
+
+	private static final Logger log = LoggerFactory.getLogger(EmailsCadastrados.class);
+
+	private final JdbcTemplate jdbcTemplate;
+	private final long capacidadeMinima;
+	private final double taxaFalsosPositivos;
+	private final LongAdder ausentes = new LongAdder();
+	private final LongAdder falsosPositivos = new LongAdder();
+	private final LongAdder duplicados = new LongAdder();
+	private final AtomicBoolean construindo = new AtomicBoolean();
+	//null até a primeira construção
+	private volatile FiltroBloom filtro;
+	//filtro que está sendo construído. Também recebe os emails cadastrados durante a construção
+	private volatile FiltroBloom emConstrucao;
+	private ExecutorService construcao;
+
+	@Autowired
+	public EmailsCadastrados(JdbcTemplate jdbcTemplate, MeterRegistry registry,
+			@Value("${app.emails.bloom.capacidade-minima:100000}") long capacidadeMinima,
+			@Value("${app.emails.bloom.taxa-falsos-positivos:0.01}") double taxaFalsosPositivos) {
+		this(jdbcTemplate, capacidadeMinima, taxaFalsosPositivos);
+		FunctionCounter.builder("app.emails.verificacoes", ausentes, LongAdder::sum).tag("resultado", "ausente").register(registry);
+		FunctionCounter.builder("app.emails.verificacoes", falsosPositivos, LongAdder::sum).tag("resultado", "falso-positivo")
+				.register(registry);
+		FunctionCounter.builder("app.emails.verificacoes", duplicados, LongAdder::sum).tag("resultado", "duplicado")
+				.description("emails duplicados recusados antes do BCrypt")
+				.register(registry);
+		Gauge.builder("app.emails.bloom.falsos-positivos", this, EmailsCadastrados::getTaxaFalsosPositivos)
+				.description("emails novos que o filtro indicou como talvez cadastrados")
+				.register(registry);
+		Gauge.builder("app.emails.bloom.taxa-estimada", this, e -> e.filtro == null ? 1 : e.filtro.taxaEstimada())
+				.description("probabilidade de falso positivo pela fração de bits ligados do filtro")
+				.register(registry);
+	}
+
+	//usado diretamente nos testes
+	EmailsCadastrados(JdbcTemplate jdbcTemplate, long capacidadeMinima, double taxaFalsosPositivos) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.capacidadeMinima = capacidadeMinima;
+		this.taxaFalsosPositivos = taxaFalsosPositivos;
+	}
+
+	//a primeira construção é feita em segundo plano para não atrasar o início da aplicação
+	@EventListener(ApplicationReadyEvent.class)
+	public void iniciar() {
+		construcao = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "emails-bloom");
+			thread.setDaemon(true);
+			return thread;
+		});
+		reconstruir();
+	}
+
+	@PreDestroy
+	public void parar() {
+		if (construcao != null) {
+			construcao.shutdownNow();
+		}
+	}
+
+	/**
+	 * Verifica se o email já está cadastrado. Consulta o banco de dados apenas quando o filtro responde que talvez esteja.
+	 * */
+	public boolean cadastrado(String email) {
+		if (email == null) {
+			return false;
+		}
+		FiltroBloom atual = filtro;
+		if (atual != null && !atual.talvezContenha(normalizar(email))) {
+			ausentes.increment();
+			return false;
+		}
+		boolean existe = jdbcTemplate.queryForObject("SELECT EXISTS(SELECT 1 FROM usuarios WHERE email = ?)", Boolean.class, email);
+		if (atual != null && existe) {
+			duplicados.increment();
+		} else if (atual != null) {
+			falsosPositivos.increment();
+		}
+		return existe;
+	}
+
+	/**
+	 * Adiciona o email de um usuário salvo. Pode ser chamado antes do commit: se a transação for desfeita o email apenas
+	 * passa a ser confirmado no banco de dados.
+	 * */
+	public void adicionar(String email) {
+		if (email == null) {
+			return;
+		}
+		String chave = normalizar(email);
+		FiltroBloom construido = emConstrucao;
+		if (construido != null) {
+			construido.adicionar(chave);
+		}
+		FiltroBloom atual = filtro;
+		if (atual != null) {
+			atual.adicionar(chave);
+			if (atual.getQuantidade() > atual.getCapacidade()) {
+				reconstruir();
+			}
+		}
+	}
+
+	/**
+	 * Reconstrói o filtro a partir da tabela usuarios, em segundo plano. Ignorado se uma construção já está em andamento.
+	 * */
+	public void reconstruir() {
+		if (construcao != null && construindo.compareAndSet(false, true)) {
+			construcao.execute(() -> {
+				try {
+					construir();
+				} catch (RuntimeException e) {
+					log.warn("falha na construção do filtro de emails: {}", e.getMessage());
+				} finally {
+					construindo.set(false);
+				}
+			});
+		}
+	}
+
+	//capacidade com folga para o dobro dos emails atuais
+	void construir() {
+		long inicio = System.currentTimeMillis();
+		long total = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM usuarios", Long.class);
+		FiltroBloom novo = new FiltroBloom(Math.max(capacidadeMinima, total * 2), taxaFalsosPositivos);
+		emConstrucao = novo;
+		try {
+			jdbcTemplate.query("SELECT email FROM usuarios", rs -> {
+				novo.adicionar(normalizar(rs.getString(1)));
+			});
+			filtro = novo;
+		} finally {
+			emConstrucao = null;
+		}
+		log.info("filtro de emails construído com {} emails ({} bits, {} hashes) em {} ms", novo.getQuantidade(), novo.getTamanho(),
+				novo.getHashes(), System.currentTimeMillis() - inicio);
+	}
+
+	//falsos positivos entre os emails que não estavam cadastrados
+	public double getTaxaFalsosPositivos() {
+		long positivos = falsosPositivos.sum();
+		long total = positivos + ausentes.sum();
+		return total == 0 ? 0 : (double) positivos / total;
+	}
+
+	public long getDuplicados() {
+		return duplicados.sum();
+	}
+
+	static String normalizar(String email) {
+		return email.trim().toLowerCase(Locale.ROOT);
+	}
+}
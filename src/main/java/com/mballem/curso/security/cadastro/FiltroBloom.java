@@ -0,0 +1,108 @@
+package com.mballem.curso.security.cadastro;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Filtro de Bloom de strings. talvezContenha() nunca responde false para um valor adicionado, mas pode responder true para um valor
+ * nunca adicionado (falso positivo), com probabilidade próxima à informada enquanto a quantidade de valores não passar da capacidade.
+ *
+ * Os k índices de cada valor vêm de dois hashes de 64 bits (h1 + i * h2). Os bits ficam em um AtomicLongArray, assim adições e
+ * consultas concorrentes não precisam de lock. Valores não podem ser removidos.
+ * */
+final class FiltroBloom {
+
+	private final AtomicLongArray bits;
+	private final long tamanho;
+	private final int hashes;
+	private final long capacidade;
+	private final LongAdder quantidade = new LongAdder();
+
+	/**
+	 * @param capacidade quantidade de valores prevista
+	 * @param taxaFalsosPositivos probabilidade de falso positivo com a capacidade preenchida
+	 * */
+	FiltroBloom(long capacidade, double taxaFalsosPositivos) {
+		long m = (long) Math.ceil(-capacidade * Math.log(taxaFalsosPositivos) / (Math.log(2) * Math.log(2)));
+		this.bits = new AtomicLongArray((int) ((m + 63) / 64));
+		this.tamanho = bits.length() * 64L;
+		this.hashes = Math.max(1, (int) Math.round((double) tamanho / capacidade * Math.log(2)));
+		this.capacidade = capacidade;
+	}
+
+	void adicionar(String valor) {
+		long h1 = hash1(valor);
+		long h2 = hash2(h1);
+		for (int i = 0; i < hashes; i++) {
+			long indice = Math.floorMod(h1 + i * h2, tamanho);
+			int palavra = (int) (indice >>> 6);
+			long mascara = 1L << indice;
+			long atual;
+			do {
+				atual = bits.get(palavra);
+				if ((atual & mascara) != 0) {
+					break;
+				}
+			} while (!bits.compareAndSet(palavra, atual, atual | mascara));
+		}
+		quantidade.increment();
+	}
+
+	boolean talvezContenha(String valor) {
+		long h1 = hash1(valor);
+		long h2 = hash2(h1);
+		for (int i = 0; i < hashes; i++) {
+			long indice = Math.floorMod(h1 + i * h2, tamanho);
+			if ((bits.get((int) (indice >>> 6)) & (1L << indice)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	//probabilidade de falso positivo estimada pela fração de bits ligados
+	double taxaEstimada() {
+		long ligados = 0;
+		for (int i = 0; i < bits.length(); i++) {
+			ligados += Long.bitCount(bits.get(i));
+		}
+		return Math.pow((double) ligados / tamanho, hashes);
+	}
+
+	long getQuantidade() {
+		return quantidade.sum();
+	}
+
+	long getCapacidade() {
+		return capacidade;
+	}
+
+	int getHashes() {
+		return hashes;
+	}
+
+	long getTamanho() {
+		return tamanho;
+	}
+
+	//FNV-1a de 64 bits dos caracteres, seguido da finalização do SplitMix64 para espalhar os bits
+	private static long hash1(String valor) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < valor.length(); i++) {
+			h ^= valor.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return misturar(h);
+	}
+
+	//segundo hash derivado do primeiro. Ímpar para percorrer índices distintos
+	private static long hash2(long h1) {
+		return misturar(h1 ^ 0x9e3779b97f4a7c15L) | 1;
+	}
+
+	private static long misturar(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
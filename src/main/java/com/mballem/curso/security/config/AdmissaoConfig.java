@@ -0,0 +1,54 @@
+package com.mballem.curso.security.config;
+
+import java.util.Map;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.mballem.curso.security.web.admissao.AdmissaoProperties;
+import com.mballem.curso.security.web.admissao.AdmissaoProperties.Grupo;
+import com.mballem.curso.security.web.admissao.AdmissaoProperties.Modo;
+import com.mballem.curso.security.web.admissao.ControleAdmissao;
+import com.mballem.curso.security.web.admissao.LimiteAdaptativo;
+import com.mballem.curso.security.web.admissao.LimiteConcorrencia;
+import com.mballem.curso.security.web.admissao.LimiteFixo;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Ativa o controle de admissão por grupo de endpoints (ver ControleAdmissao):
+ *
+ *   app.admissao.habilitado= true
+ *   app.admissao.grupos.login.padroes= /login
+ *   app.admissao.grupos.login.metodo= POST
+ *   app.admissao.grupos.login.modo= adaptativo
+ *   app.admissao.grupos.login.limite= 20
+ *
+ * O filtro é registrado antes do Spring Security, assim uma requisição rejeitada não chega a consultar a sessão, o token CSRF
+ * ou o BCrypt do login.
+ * */
+@Configuration
+@EnableConfigurationProperties(AdmissaoProperties.class)
+@ConditionalOnProperty(name = "app.admissao.habilitado", havingValue = "true")
+public class AdmissaoConfig {
+
+	@Bean
+	public FilterRegistrationBean<ControleAdmissao> controleAdmissao(AdmissaoProperties properties, MeterRegistry registry) {
+		ControleAdmissao filtro = new ControleAdmissao(registry);
+		for (Map.Entry<String, Grupo> entrada : properties.getGrupos().entrySet()) {
+			Grupo grupo = entrada.getValue();
+			LimiteConcorrencia limite = grupo.getModo() == Modo.ADAPTATIVO
+					? new LimiteAdaptativo(grupo.getLimite(), grupo.getLimiteMinimo(), grupo.getLimiteMaximo())
+					: new LimiteFixo(grupo.getLimite());
+			filtro.adicionarGrupo(entrada.getKey(), grupo.getPadroes(), grupo.getMetodo(), limite, grupo.getRetryAfter());
+		}
+
+		FilterRegistrationBean<ControleAdmissao> registro = new FilterRegistrationBean<>(filtro);
+		registro.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER - 10);
+		return registro;
+	}
+}
@@ -0,0 +1,100 @@
+package com.mballem.curso.security.config;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import com.mballem.curso.security.util.ThreadsVirtuais;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Configuração dos pools de threads usados pelos controllers assíncronos.
+ * Cada grupo de endpoints (datatables, autocomplete e cadastro/redefinição de senha) possui seu próprio pool com fila limitada.
+ * Assim uma consulta lenta no banco de dados ou um envio de email demorado não consome as threads do Tomcat, que continuam livres
+ * para atender páginas como a de /login.
+ *
+ * Quando a fila de um pool estiver cheia a tarefa é rejeitada imediatamente (RejectedExecutionException) e a classe ExceptionController
+ * responde com o status 503.
+ *
+ * Com app.threads.virtuais= true as threads dos pools são virtuais (ver ThreadsVirtuaisConfig). O tamanho de cada pool continua
+ * limitando a quantidade de tarefas simultâneas do grupo.
+ * */
+@Configuration
+public class AsyncConfig {
+
+	public static final String DATATABLES_EXECUTOR = "datatablesExecutor";
+	public static final String AUTOCOMPLETE_EXECUTOR = "autocompleteExecutor";
+	public static final String CADASTRO_EXECUTOR = "cadastroExecutor";
+
+	@Value("${app.threads.virtuais:false}")
+	private boolean threadsVirtuais;
+
+	//pool para os endpoints que retornam json para as tabelas Datatables
+	@Bean(DATATABLES_EXECUTOR)
+	public ThreadPoolTaskExecutor datatablesExecutor(MeterRegistry registry,
+			@Value("${app.async.datatables.pool-size:8}") int poolSize,
+			@Value("${app.async.datatables.queue-capacity:50}") int queueCapacity) {
+		return criarExecutor("datatables", poolSize, queueCapacity, registry);
+	}
+
+	//pool para o autocomplete de especialidades
+	@Bean(AUTOCOMPLETE_EXECUTOR)
+	public ThreadPoolTaskExecutor autocompleteExecutor(MeterRegistry registry,
+			@Value("${app.async.autocomplete.pool-size:4}") int poolSize,
+			@Value("${app.async.autocomplete.queue-capacity:100}") int queueCapacity) {
+		return criarExecutor("autocomplete", poolSize, queueCapacity, registry);
+	}
+
+	//pool para o cadastro de pacientes e redefinição de senha (envolvem BCrypt e envio de email via SMTP)
+	@Bean(CADASTRO_EXECUTOR)
+	public ThreadPoolTaskExecutor cadastroExecutor(MeterRegistry registry,
+			@Value("${app.async.cadastro.pool-size:4}") int poolSize,
+			@Value("${app.async.cadastro.queue-capacity:20}") int queueCapacity) {
+		return criarExecutor("cadastro", poolSize, queueCapacity, registry);
+	}
+
+	/**
+	 * Cria um pool de tamanho fixo com fila limitada e registra as métricas do pool (tamanho da fila, threads ativas e tarefas rejeitadas).
+	 *
+	 * @param nome nome do pool. Usado como prefixo das threads e como tag 'pool' das métricas.
+	 * @param poolSize quantidade de threads do pool
+	 * @param queueCapacity tamanho máximo da fila de espera
+	 * */
+	private ThreadPoolTaskExecutor criarExecutor(String nome, int poolSize, int queueCapacity, MeterRegistry registry) {
+		Counter rejeitadas = Counter.builder("app.async.rejected")
+				.description("tarefas rejeitadas por falta de espaço na fila")
+				.tag("pool", nome)
+				.register(registry);
+
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setThreadNamePrefix(nome + "-");
+		if (threadsVirtuais) {
+			executor.setThreadFactory(ThreadsVirtuais.fabrica(nome + "-virtual-"));
+		}
+		executor.setCorePoolSize(poolSize);
+		executor.setMaxPoolSize(poolSize);
+		executor.setQueueCapacity(queueCapacity);
+		executor.setRejectedExecutionHandler((r, pool) -> {
+			rejeitadas.increment();
+			throw new RejectedExecutionException("Pool " + nome + " saturado");
+		});
+		executor.initialize();
+
+		Gauge.builder("app.async.queue.size", executor, e -> e.getThreadPoolExecutor().getQueue().size())
+				.description("tarefas aguardando na fila do pool")
+				.tag("pool", nome)
+				.register(registry);
+		Gauge.builder("app.async.active", executor, ThreadPoolTaskExecutor::getActiveCount)
+				.description("threads executando tarefas")
+				.tag("pool", nome)
+				.register(registry);
+
+		return executor;
+	}
+}
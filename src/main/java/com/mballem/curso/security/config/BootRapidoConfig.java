@@ -0,0 +1,66 @@
+package com.mballem.curso.security.config;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Configuração do profile 'boot-rapido' (spring.profiles.active=boot-rapido), que reduz o tempo até a primeira requisição.
+ * 
+ * - Os repositórios do Spring Data são criados em modo deferred (ver application-boot-rapido.properties). O EntityManagerFactory
+ *   do Hibernate é montado em segundo plano no pool 'applicationTaskExecutor' enquanto o restante do contexto (Spring Security,
+ *   Thymeleaf, MVC) é criado, e os repositórios são inicializados apenas ao final do refresh.
+ * - Beans raramente usados, como o envio de emails e as exclusões em lote, passam a ser lazy e são criados em segundo plano
+ *   depois que a aplicação estiver pronta (ver InicializacaoAdiada). Até lá o health 'inicializacao' responde OUT_OF_SERVICE.
+ * 
+ * Compare o tempo de inicialização com e sem o profile através do RelatorioInicializacao.
+ * */
+@Configuration
+@Profile(BootRapidoConfig.PROFILE)
+public class BootRapidoConfig {
+
+	public static final String PROFILE = "boot-rapido";
+
+	//beans que não são necessários para atender as primeiras requisições. Os pontos de injeção usam @Lazy (proxy)
+	static final String[] BEANS_LAZY = {"emailService", "mailSender", "exclusaoLoteService"};
+
+	/*
+	 * Pool usado pelo Spring Boot para montar o EntityManagerFactory em segundo plano (bootstrap deferred).
+	 * O nome precisa ser 'applicationTaskExecutor' porque a aplicação já possui outros pools (AsyncConfig) e o auto-configuration
+	 * do Spring Data só escolhe um pool pelo nome quando existe mais de um.
+	 */
+	@Bean(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+	public ThreadPoolTaskExecutor applicationTaskExecutor() {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setThreadNamePrefix("bootstrap-");
+		executor.setCorePoolSize(2);
+		executor.setMaxPoolSize(2);
+		return executor;
+	}
+
+	//marca como lazy as definições dos beans raramente usados. Static por ser um BeanFactoryPostProcessor
+	@Bean
+	public static BeanFactoryPostProcessor beansLazy() {
+		return new BeanFactoryPostProcessor() {
+			@Override
+			public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+				for (String nome : BEANS_LAZY) {
+					if (beanFactory.containsBeanDefinition(nome)) {
+						beanFactory.getBeanDefinition(nome).setLazyInit(true);
+					}
+				}
+			}
+		};
+	}
+
+	//o nome do bean define o nome do indicador em /actuator/health: 'inicializacao'
+	@Bean
+	public InicializacaoAdiada inicializacaoHealthIndicator() {
+		return new InicializacaoAdiada(BEANS_LAZY);
+	}
+}
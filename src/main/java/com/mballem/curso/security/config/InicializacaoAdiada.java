@@ -0,0 +1,79 @@
+package com.mballem.curso.security.config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.orm.jpa.EntityManagerFactoryInfo;
+
+/**
+ * Conclui em segundo plano o trabalho adiado pelo profile 'boot-rapido' e informa o andamento em /actuator/health.
+ * 
+ * Assim que a aplicação estiver pronta aguarda a montagem do EntityManagerFactory e cria os beans lazy. Enquanto houver trabalho
+ * pendente o indicador 'inicializacao' responde OUT_OF_SERVICE (o health geral responde 503) e o balanceador de carga ainda não
+ * deve enviar tráfego para este nó.
+ * */
+public class InicializacaoAdiada implements HealthIndicator, ApplicationListener<ApplicationReadyEvent> {
+
+	private static final Logger log = LoggerFactory.getLogger(InicializacaoAdiada.class);
+
+	private final List<String> pendentes;
+	private volatile CompletableFuture<Void> tarefa;
+
+	public InicializacaoAdiada(String... beans) {
+		List<String> lista = new ArrayList<>(Arrays.asList(beans));
+		lista.add(0, "entityManagerFactory");
+		this.pendentes = Collections.synchronizedList(lista);
+	}
+
+	@Override
+	public void onApplicationEvent(ApplicationReadyEvent event) {
+		ConfigurableApplicationContext context = event.getApplicationContext();
+		TaskExecutor executor = context.getBean(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME, TaskExecutor.class);
+		long inicio = System.currentTimeMillis();
+
+		tarefa = CompletableFuture.runAsync(() -> {
+			//getNativeEntityManagerFactory() bloqueia até o fim do bootstrap em segundo plano
+			for (EntityManagerFactory emf : context.getBeansOfType(EntityManagerFactory.class).values()) {
+				if (emf instanceof EntityManagerFactoryInfo) {
+					((EntityManagerFactoryInfo) emf).getNativeEntityManagerFactory();
+				}
+			}
+			pendentes.remove("entityManagerFactory");
+			for (String nome : new ArrayList<>(pendentes)) {
+				if (context.containsBean(nome)) {
+					context.getBean(nome);
+				}
+				pendentes.remove(nome);
+			}
+			log.info("Inicialização adiada concluída em {} ms", System.currentTimeMillis() - inicio);
+		}, executor);
+	}
+
+	@Override
+	public Health health() {
+		CompletableFuture<Void> t = tarefa;
+		if (t == null || !t.isDone()) {
+			return Health.outOfService().withDetail("pendentes", new ArrayList<>(pendentes)).build();
+		}
+		try {
+			t.join();
+			return Health.up().build();
+		} catch (Exception ex) {
+			return Health.down(ex).withDetail("pendentes", new ArrayList<>(pendentes)).build();
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package com.mballem.curso.security.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.thymeleaf.spring5.SpringTemplateEngine;
+
+import com.mballem.curso.security.lembrete.LembreteConsultas;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Ativa o envio diário dos emails de lembrete das consultas do dia seguinte (ver LembreteConsultas). Desligado por padrão,
+ * ligado no profile producao (application-producao.properties):
+ * 
+ *   app.lembrete.habilitado= true
+ *   app.lembrete.cron= 0 0 20 * * *
+ * */
+@Configuration
+@EnableScheduling
+@ConditionalOnProperty(name = "app.lembrete.habilitado", havingValue = "true")
+public class LembreteConfig {
+
+	//@Lazy no JavaMailSender: no profile boot-rapido o envio de email só é criado no primeiro uso (ver BootRapidoConfig)
+	@Bean
+	public LembreteConsultas lembreteConsultas(JdbcTemplate jdbcTemplate, @Lazy JavaMailSender mailSender, 
+			SpringTemplateEngine templateEngine, MeterRegistry registry,
+			@Value("${app.lembrete.paralelismo:8}") int paralelismo,
+			@Value("${app.lembrete.lote:50}") int lote,
+			@Value("${app.lembrete.pagina:1000}") int pagina,
+			@Value("${app.lembrete.tentativas:2}") int tentativas,
+			@Value("${app.lembrete.remetente:nao-responder@clinica.com.br}") String remetente,
+			@Value("${app.threads.virtuais:false}") boolean threadsVirtuais) {
+		return new LembreteConsultas(jdbcTemplate, mailSender, templateEngine, registry, paralelismo, lote, pagina, tentativas, remetente,
+				threadsVirtuais);
+	}
+}
@@ -0,0 +1,161 @@
+package com.mballem.curso.security.config;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessor;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.boot.context.event.ApplicationPreparedEvent;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.boot.context.event.ApplicationStartingEvent;
+import org.springframework.boot.context.event.SpringApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+
+/**
+ * Relatório do tempo de inicialização da aplicação, dividido por fase e por bean.
+ * 
+ * É registrado em DemoSecurityApplication antes do SpringApplication.run(), assim recebe todos os eventos do ciclo de vida:
+ * jvm -> main, preparação do environment, criação do contexto, refresh (criação dos beans) e aplicação pronta.
+ * Durante o refresh o relatório também atua como BeanPostProcessor e mede o tempo de criação de cada bean. O tempo
+ * "próprio" desconta a criação das dependências, que acontece aninhada dentro da criação do bean que as injeta.
+ * 
+ * Propriedades:
+ *   app.startup.relatorio=caminho/arquivo.txt  grava o relatório em arquivo (usado no CI para acompanhar o tempo de boot)
+ *   app.startup.sair-apos-iniciar=true         encerra a aplicação assim que estiver pronta (execução de treino do AppCDS)
+ *
+ * No CI o relatório é gerado em target/startup.txt pelo profile 'inicializacao': mvn -Pinicializacao verify
+ * */
+public class RelatorioInicializacao implements ApplicationListener<SpringApplicationEvent>, InstantiationAwareBeanPostProcessor {
+
+	private static final Logger log = LoggerFactory.getLogger(RelatorioInicializacao.class);
+	private static final int BEANS_NO_RELATORIO = 25;
+
+	//instantes (em ms) do início de cada fase, na ordem em que aconteceram
+	private final Map<String, Long> fases = new LinkedHashMap<>();
+	private final ConcurrentLinkedQueue<TempoBean> beans = new ConcurrentLinkedQueue<>();
+	//pilha de beans em criação. A criação é aninhada (dependências primeiro) e pode ocorrer em mais de uma thread
+	private final ThreadLocal<Deque<TempoBean>> emCriacao = ThreadLocal.withInitial(ArrayDeque::new);
+
+	private static class TempoBean {
+		final String nome;
+		final long inicio = System.nanoTime();
+		long total;
+		long dependencias;
+
+		TempoBean(String nome) {
+			this.nome = nome;
+		}
+
+		long proprio() {
+			return total - dependencias;
+		}
+	}
+
+	public RelatorioInicializacao() {
+		fases.put("jvm", ManagementFactory.getRuntimeMXBean().getStartTime());
+		fases.put("main", System.currentTimeMillis());
+	}
+
+	@Override
+	public void onApplicationEvent(SpringApplicationEvent event) {
+		if (event instanceof ApplicationStartingEvent) {
+			fases.put("starting", System.currentTimeMillis());
+		} else if (event instanceof ApplicationEnvironmentPreparedEvent) {
+			fases.put("environment", System.currentTimeMillis());
+		} else if (event instanceof ApplicationPreparedEvent) {
+			fases.put("contexto", System.currentTimeMillis());
+			((ApplicationPreparedEvent) event).getApplicationContext().getBeanFactory().addBeanPostProcessor(this);
+		} else if (event instanceof ApplicationStartedEvent) {
+			fases.put("refresh", System.currentTimeMillis());
+		} else if (event instanceof ApplicationReadyEvent) {
+			fases.put("pronta", System.currentTimeMillis());
+			concluir(((ApplicationReadyEvent) event).getApplicationContext());
+		}
+	}
+
+	@Override
+	public Object postProcessBeforeInstantiation(Class<?> beanClass, String beanName) throws BeansException {
+		emCriacao.get().push(new TempoBean(beanName));
+		return null;
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+		Deque<TempoBean> pilha = emCriacao.get();
+		//objetos produzidos por FactoryBean passam por aqui sem o 'before', por isso o nome é conferido
+		if (!pilha.isEmpty() && pilha.peek().nome.equals(beanName)) {
+			TempoBean tempo = pilha.pop();
+			tempo.total = System.nanoTime() - tempo.inicio;
+			if (!pilha.isEmpty()) {
+				pilha.peek().dependencias += tempo.total;
+			}
+			beans.add(tempo);
+		}
+		return bean;
+	}
+
+	private void concluir(ConfigurableApplicationContext context) {
+		String relatorio = montarRelatorio();
+		log.info("Relatório de inicialização:\n{}", relatorio);
+
+		Environment env = context.getEnvironment();
+		String arquivo = env.getProperty("app.startup.relatorio");
+		if (arquivo != null && !arquivo.isEmpty()) {
+			try {
+				Path caminho = Paths.get(arquivo).toAbsolutePath();
+				if (caminho.getParent() != null) {
+					Files.createDirectories(caminho.getParent());
+				}
+				Files.write(caminho, relatorio.getBytes(StandardCharsets.UTF_8));
+			} catch (IOException ex) {
+				log.warn("Não foi possível gravar o relatório de inicialização em {}", arquivo, ex);
+			}
+		}
+
+		if (env.getProperty("app.startup.sair-apos-iniciar", Boolean.class, false)) {
+			System.exit(SpringApplication.exit(context));
+		}
+	}
+
+	private String montarRelatorio() {
+		StringBuilder sb = new StringBuilder();
+		List<String> nomes = new ArrayList<>(fases.keySet());
+		long jvm = fases.get("jvm");
+		long pronta = fases.get(nomes.get(nomes.size() - 1));
+
+		sb.append(String.format("%-14s %10s %10s%n", "fase", "duracao", "acumulado"));
+		for (int i = 1; i < nomes.size(); i++) {
+			long fim = fases.get(nomes.get(i));
+			sb.append(String.format("%-14s %8d ms %8d ms%n", nomes.get(i), fim - fases.get(nomes.get(i - 1)), fim - jvm));
+		}
+		sb.append(String.format("%-14s %8d ms%n", "total", pronta - jvm));
+		sb.append(String.format("classes carregadas: %d%n", ManagementFactory.getClassLoadingMXBean().getLoadedClassCount()));
+
+		List<TempoBean> lista = new ArrayList<>(beans);
+		lista.sort((a, b) -> Long.compare(b.proprio(), a.proprio()));
+		sb.append(String.format("%nbeans criados: %d. Os %d mais lentos (tempo próprio / total com dependências):%n", 
+				lista.size(), Math.min(BEANS_NO_RELATORIO, lista.size())));
+		for (TempoBean tempo : lista.subList(0, Math.min(BEANS_NO_RELATORIO, lista.size()))) {
+			sb.append(String.format("%8.1f ms %8.1f ms  %s%n", tempo.proprio() / 1e6, tempo.total / 1e6, tempo.nome));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,96 @@
+package com.mballem.curso.security.config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.JpaProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.orm.jpa.JpaVendorAdapter;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import com.mballem.curso.security.datasource.ReplicasProperties;
+import com.mballem.curso.security.datasource.RoteamentoDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Ativa o roteamento de leituras para réplicas quando ao menos uma réplica estiver configurada:
+ * 
+ *   app.datasource.replicas[0].url= jdbc:mysql://replica1:3306/demo_security?...
+ *   app.datasource.replicas[0].username= ...
+ *   app.datasource.replicas[0].password= ...
+ * 
+ * O primário é criado a partir de spring.datasource.* e o DataSource usado pelo JPA passa a ser o RoteamentoDataSource
+ * envolvido por um LazyConnectionDataSourceProxy. Sem réplicas configuradas o DataSource padrão do Spring Boot é usado.
+ * 
+ * Com spring.jpa.open-in-view= true o EntityManager da requisição fica aberto entre as transações. Por padrão o Hibernate
+ * mantém a primeira conexão obtida até o fim da requisição, então uma escrita depois de uma leitura readOnly seria executada
+ * na conexão da réplica. Por isso, com réplicas, a conexão é devolvida ao fim de cada transação (ver jpaVendorAdapter()).
+ * */
+@Configuration
+@EnableScheduling
+@EnableConfigurationProperties(ReplicasProperties.class)
+@ConditionalOnProperty(name = "app.datasource.replicas[0].url")
+public class RoteamentoDataSourceConfig {
+
+	@Bean
+	public RoteamentoDataSource roteamentoDataSource(DataSourceProperties properties, ReplicasProperties replicas, MeterRegistry registry) {
+		HikariDataSource primario = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+		primario.setPoolName(RoteamentoDataSource.PRIMARIO);
+
+		Map<String, DataSource> alvos = new LinkedHashMap<>();
+		for (int i = 0; i < replicas.getReplicas().size(); i++) {
+			ReplicasProperties.Replica r = replicas.getReplicas().get(i);
+			HikariDataSource replica = DataSourceBuilder.create()
+					.type(HikariDataSource.class)
+					.url(r.getUrl())
+					.username(r.getUsername())
+					.password(r.getPassword())
+					.build();
+			replica.setPoolName("replica" + i);
+			replica.setReadOnly(true);
+			alvos.put(replica.getPoolName(), replica);
+		}
+
+		RoteamentoDataSource roteamento = new RoteamentoDataSource(primario, alvos, replicas.getAderenciaMs());
+		Gauge.builder("app.datasource.replicas.saudaveis", roteamento, RoteamentoDataSource::getReplicasSaudaveis)
+				.description("réplicas recebendo leituras")
+				.register(registry);
+		return roteamento;
+	}
+
+	@Bean
+	@Primary
+	public DataSource dataSource(RoteamentoDataSource roteamentoDataSource) {
+		return new LazyConnectionDataSourceProxy(roteamentoDataSource);
+	}
+
+	/**
+	 * Mesmo adaptador JPA criado pelo Spring Boot, sem preparar a conexão JDBC no início da transação (prepareConnection= false).
+	 * Assim o Hibernate usa o modo DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION no lugar de DELAYED_ACQUISITION_AND_HOLD:
+	 * cada transação obtém a sua conexão, escolhida pelo RoteamentoDataSource, e a devolve no commit, mesmo com o
+	 * EntityManager do open-in-view. A conexão da réplica já é somente leitura (setReadOnly acima).
+	 * */
+	@Bean
+	public JpaVendorAdapter jpaVendorAdapter(JpaProperties properties, DataSource dataSource) {
+		HibernateJpaVendorAdapter adapter = new HibernateJpaVendorAdapter();
+		adapter.setShowSql(properties.isShowSql());
+		adapter.setDatabase(properties.determineDatabase(dataSource));
+		adapter.setDatabasePlatform(properties.getDatabasePlatform());
+		adapter.setGenerateDdl(properties.isGenerateDdl());
+		adapter.getJpaDialect().setPrepareConnection(false);
+		return adapter;
+	}
+}
@@ -1,13 +1,25 @@
 package com.mballem.curso.security.config;
 
+import java.util.Collections;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.access.AccessDecisionVoter;
+import org.springframework.security.access.vote.AffirmativeBased;
+import org.springframework.security.config.annotation.ObjectPostProcessor;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
+import org.springframework.security.config.annotation.web.configurers.ExpressionUrlAuthorizationConfigurer;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.web.access.intercept.FilterSecurityInterceptor;
 
-import com.mballem.curso.security.domain.PerfilTipo;
+import com.mballem.curso.security.autorizacao.ArvoreAutorizacao;
+import com.mballem.curso.security.autorizacao.FonteAutorizacaoArvore;
+import com.mballem.curso.security.autorizacao.RegraAutorizacao;
+import com.mballem.curso.security.autorizacao.RegrasAutorizacao;
+import com.mballem.curso.security.autorizacao.VotanteAutorizacao;
 import com.mballem.curso.security.service.UsuarioService;
 
 /**
@@ -23,10 +35,9 @@ import com.mballem.curso.security.service.UsuarioService;
 @EnableWebSecurity
 public class SecurityConfig extends WebSecurityConfigurerAdapter{
 
-	//constantes usadas para facilitar.
-	private static final String ADMIN = PerfilTipo.ADMIN.getDesc();
-	private static final String MEDICO = PerfilTipo.MEDICO.getDesc();
-	private static final String PACIENTE = PerfilTipo.PACIENTE.getDesc();
+	//true: regras avaliadas pela árvore compilada. false: cadeia de antMatchers do Spring Security
+	@Value("${app.seguranca.arvore-autorizacao:true}")
+	private boolean arvoreAutorizacao;
 	
 	@Autowired
 	private UsuarioService usuarioService;
@@ -40,34 +51,14 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter{
 	@Override
 	protected void configure(HttpSecurity http) throws Exception {
 		
-		http.authorizeRequests()//autoriza as seguintes requisições...
-
-		//acessos públicos liberados para todos
-		.antMatchers("/webjars/**","/css/**","/image/**", "/js/**").permitAll()//libera os recursos de css, imagens e js para todos que visualizam as páginas.
-		.antMatchers("/", "/home").permitAll()//libera o acesso público a página /home
-		.antMatchers("/u/novo/cadastro", "/u/cadastro/realizado", "/u/cadastro/paciente/salvar").permitAll()//endipoints para o acesso a página e metodos de cadastro de novo usuario
-		.antMatchers("/u/confirmacao/cadastro").permitAll()//libera o endpoint, localizado na classe UsuarioController, reponsavel por receber requisições quando o Usuario clicar no email de confirmação de cadastro enviado.
-		.antMatchers("/u/p/**").permitAll()//libera as páginas de redefinição de senha e a página para pedir a redefiniçaõ de senha
-		
-		//acessos privados para perfil de ADMIN
-		.antMatchers("/u/editar/senha", "/u/confirmar/senha").hasAnyAuthority(MEDICO,PACIENTE)
-		.antMatchers("/u/**").hasAuthority(ADMIN)//libera o endpoint /u/** para usuários com o perfil de ADMIN. Assim as telas de alguns cadastros serão visíveis apenas para admins.
-		
-		//acessos privados para perfil MEDICO
-		.antMatchers("/medicos/dados", "/medicos/editar", "/medicos/salvar").hasAnyAuthority(MEDICO, ADMIN)//libera os endpoints para MEDICO e ADMIN
-		.antMatchers("/medicos/**").hasAuthority(MEDICO)//Acessos que serão exclusivos do perfil medico
-		
-		//acessos privados para perfil PACIENTE
-		.antMatchers("/pacientes/**").hasAuthority(PACIENTE)
+		//regras de acesso às URLs, na ordem de avaliação, definidas em RegrasAutorizacao
+		if (arvoreAutorizacao) {
+			configurarArvoreAutorizacao(http);
+		} else {
+			configurarCadeiaAutorizacao(http);
+		}
 		
-		//acessos privados para o endpoint /especialidades
-		.antMatchers("/especialidades/titulo").hasAnyAuthority(MEDICO, ADMIN)
-		.antMatchers("/especialidades/**").hasAuthority(ADMIN)
-		
-		.anyRequest().authenticated() //Esse método informa que qualquer solicitação a aplicação deve estar autenticada, a menos é claro, aquelas que foram liberadas como públicas.
-		
-		
-		.and()//serve para concatenar instruções de diferentes tipos
+		http//serve para concatenar instruções de diferentes tipos
 			.formLogin()//O método indica que, a partir daqui, as configurações de login serão editadas
 			.loginPage("/login")//Método usado para indicar qual a URI de acesso ao login. Essa URI deve ser a action do formulário de autenticação (form action="/login")
 			.defaultSuccessUrl("/", true)//endpoint para o qual será redirecionado em caso de sucesso no login
@@ -89,6 +80,50 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter{
 		//http.csrf().disable();//usar apenas em aplicações RESTFUL
 	}
 
+	/**
+	 * Regras avaliadas pela árvore compilada (ArvoreAutorizacao): a regra de cada requisição é resolvida em uma única passada
+	 * pelos segmentos da URL. O FilterSecurityInterceptor criado pelo Spring Security recebe a FonteAutorizacaoArvore
+	 * e o VotanteAutorizacao no lugar da lista de antMatchers.
+	 * */
+	private void configurarArvoreAutorizacao(HttpSecurity http) throws Exception {
+		ArvoreAutorizacao arvore = new ArvoreAutorizacao(RegrasAutorizacao.REGRAS, RegrasAutorizacao.DEMAIS);
+		
+		http.authorizeRequests()
+			.anyRequest().authenticated()
+			.withObjectPostProcessor(new ObjectPostProcessor<FilterSecurityInterceptor>() {
+				@Override
+				public <O extends FilterSecurityInterceptor> O postProcess(O interceptor) {
+					interceptor.setSecurityMetadataSource(
+							new FonteAutorizacaoArvore(arvore, RegrasAutorizacao.REGRAS, RegrasAutorizacao.DEMAIS));
+					interceptor.setAccessDecisionManager(
+							new AffirmativeBased(Collections.<AccessDecisionVoter<?>>singletonList(new VotanteAutorizacao())));
+					return interceptor;
+				}
+			});
+	}
+
+	/**
+	 * As mesmas regras na cadeia de antMatchers do Spring Security, avaliada em ordem a cada requisição.
+	 * Usada com app.seguranca.arvore-autorizacao=false.
+	 * */
+	private void configurarCadeiaAutorizacao(HttpSecurity http) throws Exception {
+		ExpressionUrlAuthorizationConfigurer<HttpSecurity>.ExpressionInterceptUrlRegistry registro = http.authorizeRequests();
+		
+		for (RegraAutorizacao regra : RegrasAutorizacao.REGRAS) {
+			switch (regra.getAcesso()) {
+			case PUBLICO:
+				registro.antMatchers(regra.getPadroes()).permitAll();
+				break;
+			case AUTENTICADO:
+				registro.antMatchers(regra.getPadroes()).authenticated();
+				break;
+			default:
+				registro.antMatchers(regra.getPadroes()).hasAnyAuthority(regra.getPerfis());
+			}
+		}
+		registro.anyRequest().authenticated();//qualquer solicitação deve estar autenticada, a menos aquelas liberadas como públicas.
+	}
+
 	/**
 	 * Método que faz a configuração para o uso de criptografia nas senhas.
 	 * As senhas no banco de dados serão salvas de forma criptografada, esse método será utilizado de forma automática pelo springsecurity sempre 
@@ -0,0 +1,54 @@
+package com.mballem.curso.security.config;
+
+import java.util.concurrent.ExecutorService;
+
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.mballem.curso.security.util.ThreadsVirtuais;
+
+/**
+ * Modo de execução com threads virtuais (Java 21 ou superior), desligado por padrão:
+ *
+ *   app.threads.virtuais= true
+ *
+ * As requisições do Tomcat passam a ser executadas em uma thread virtual cada, no lugar do pool de server.tomcat.max-threads.
+ * Os pools dos controllers assíncronos (AsyncConfig) e o pool de envio dos lembretes usam threads virtuais com os mesmos tamanhos,
+ * que continuam limitando a concorrência de cada grupo de endpoints e as conexões SMTP. O limite de requisições simultâneas passa
+ * a ser server.tomcat.max-connections e, para as consultas, o pool de conexões do Hikari. A aplicação não possui métodos @Async:
+ * o trabalho assíncrono são os WebAsyncTask dos controllers (AsyncConfig) e o envio dos lembretes.
+ *
+ * O ganho em relação às threads da plataforma não foi medido. A comparação com a mesma carga nos dois modos está descrita
+ * em CargaIT.
+ *
+ * Pontos que prendem a thread virtual à thread da plataforma (pinning) até o Java 24, onde synchronized deixa de prender:
+ * os blocos synchronized do driver MySQL Connector/J 8.0 em volta do I/O de cada consulta, os do JavaMail durante o envio SMTP
+ * e os internos do Tomcat 9. Os blocos synchronized da aplicação (ReservaHorarios, CodigosVerificacao, RodaTemporal,
+ * ProgressoLembretes) não envolvem I/O. Para localizar outros pontos: -Djdk.tracePinnedThreads=full
+ * */
+@Configuration
+@ConditionalOnProperty(name = "app.threads.virtuais", havingValue = "true")
+public class ThreadsVirtuaisConfig {
+
+	private static final Logger log = LoggerFactory.getLogger(ThreadsVirtuaisConfig.class);
+
+	//o Tomcat não encerra um executor externo. Não é necessário: threads virtuais não impedem o fim da JVM
+	@Bean
+	public WebServerFactoryCustomizer<TomcatServletWebServerFactory> tomcatThreadsVirtuais() {
+		ExecutorService requisicoes = ThreadsVirtuais.porTarefa("http-virtual-");
+		log.info("requisições executadas em threads virtuais");
+		return factory -> factory.addConnectorCustomizers(connector -> {
+			ProtocolHandler handler = connector.getProtocolHandler();
+			if (handler instanceof AbstractProtocol) {
+				((AbstractProtocol<?>) handler).setExecutor(requisicoes);
+			}
+		});
+	}
+}
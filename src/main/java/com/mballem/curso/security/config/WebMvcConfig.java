@@ -0,0 +1,24 @@
+package com.mballem.curso.security.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import com.mballem.curso.security.web.cache.PaginaCache;
+
+/**
+ * Configurações do Spring MVC adicionais às do Spring Boot.
+ * O PaginaCache atua apenas nos métodos anotados com @PaginaPublica.
+ * */
+@Configuration
+public class WebMvcConfig implements WebMvcConfigurer {
+
+	@Autowired
+	private PaginaCache paginaCache;
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(paginaCache);
+	}
+}
@@ -0,0 +1,54 @@
+package com.mballem.curso.security.datasource;
+
+import javax.servlet.http.HttpSession;
+
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+/**
+ * Garante a leitura das próprias escritas (read-your-writes) quando as leituras são enviadas para as réplicas.
+ * 
+ * Após o commit de uma transação de escrita a sessão HTTP do usuário recebe um prazo durante o qual todas as suas leituras
+ * vão para o banco primário, cobrindo o atraso de replicação. Fora de uma requisição HTTP (ou sem sessão) nada é registrado.
+ * */
+public final class AderenciaEscrita {
+
+	private static final String ATRIBUTO = AderenciaEscrita.class.getName() + ".prazo";
+
+	private AderenciaEscrita() {
+	}
+
+	//true se a sessão da requisição atual fez uma escrita há pouco tempo e deve ler do primário
+	public static boolean ativa() {
+		HttpSession sessao = sessao();
+		if (sessao == null) {
+			return false;
+		}
+		try {
+			Long prazo = (Long) sessao.getAttribute(ATRIBUTO);
+			return prazo != null && prazo > System.currentTimeMillis();
+		} catch (IllegalStateException ex) {//sessão invalidada
+			return false;
+		}
+	}
+
+	static void registrar(long janelaMs) {
+		HttpSession sessao = sessao();
+		if (sessao != null) {
+			try {
+				sessao.setAttribute(ATRIBUTO, System.currentTimeMillis() + janelaMs);
+			} catch (IllegalStateException ex) {
+				//sessão invalidada durante a requisição (logout). Não há o que registrar
+			}
+		}
+	}
+
+	private static HttpSession sessao() {
+		RequestAttributes atributos = RequestContextHolder.getRequestAttributes();
+		if (atributos instanceof ServletRequestAttributes) {
+			return ((ServletRequestAttributes) atributos).getRequest().getSession(false);
+		}
+		return null;
+	}
+}
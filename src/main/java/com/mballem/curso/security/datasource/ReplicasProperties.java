@@ -0,0 +1,65 @@
+package com.mballem.curso.security.datasource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Propriedades app.datasource.* das réplicas de leitura (ver RoteamentoDataSourceConfig).
+ * O primário continua configurado em spring.datasource.*
+ * */
+@ConfigurationProperties(prefix = "app.datasource")
+public class ReplicasProperties {
+
+	//tempo, após uma escrita, em que as leituras da mesma sessão vão para o primário
+	private long aderenciaMs = 5000;
+
+	private List<Replica> replicas = new ArrayList<>();
+
+	public static class Replica {
+		private String url;
+		private String username;
+		private String password;
+
+		public String getUrl() {
+			return url;
+		}
+
+		public void setUrl(String url) {
+			this.url = url;
+		}
+
+		public String getUsername() {
+			return username;
+		}
+
+		public void setUsername(String username) {
+			this.username = username;
+		}
+
+		public String getPassword() {
+			return password;
+		}
+
+		public void setPassword(String password) {
+			this.password = password;
+		}
+	}
+
+	public long getAderenciaMs() {
+		return aderenciaMs;
+	}
+
+	public void setAderenciaMs(long aderenciaMs) {
+		this.aderenciaMs = aderenciaMs;
+	}
+
+	public List<Replica> getReplicas() {
+		return replicas;
+	}
+
+	public void setReplicas(List<Replica> replicas) {
+		this.replicas = replicas;
+	}
+}
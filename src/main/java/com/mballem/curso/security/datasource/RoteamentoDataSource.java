@@ -0,0 +1,144 @@
+package com.mballem.curso.security.datasource;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * DataSource que envia as transações somente leitura (@Transactional(readOnly = true)) para as réplicas e todo o resto para o primário.
+ * 
+ * - As réplicas são usadas em rodízio (round-robin), apenas as que passaram na última verificação de saúde.
+ * - Sem réplica saudável a leitura vai para o primário.
+ * - Após uma escrita a sessão do usuário lê do primário durante 'janelaAderenciaMs' (ver AderenciaEscrita).
+ * 
+ * A decisão usa o estado da transação do Spring, que só está disponível depois do início da transação. Por isso este DataSource deve
+ * ser envolvido por um LazyConnectionDataSourceProxy, que adia a obtenção da conexão real até o primeiro comando SQL.
+ * */
+public class RoteamentoDataSource extends AbstractRoutingDataSource implements DisposableBean {
+
+	private static final Logger log = LoggerFactory.getLogger(RoteamentoDataSource.class);
+
+	public static final String PRIMARIO = "primario";
+
+	//marca, na transação atual, que a aderência após o commit já foi registrada
+	private static final Object ESCRITA_REGISTRADA = new Object();
+
+	private final DataSource primario;
+	private final Map<String, DataSource> replicas;
+	private final long janelaAderenciaMs;
+	private final Map<String, Boolean> saudaveis = new ConcurrentHashMap<>();
+	private final AtomicInteger proxima = new AtomicInteger();
+	private volatile List<String> disponiveis;
+
+	public RoteamentoDataSource(DataSource primario, Map<String, DataSource> replicas, long janelaAderenciaMs) {
+		this.primario = primario;
+		this.replicas = new LinkedHashMap<>(replicas);
+		this.janelaAderenciaMs = janelaAderenciaMs;
+		this.disponiveis = new ArrayList<>(replicas.keySet());
+		replicas.keySet().forEach(nome -> saudaveis.put(nome, true));
+
+		Map<Object, Object> alvos = new HashMap<>(replicas);
+		alvos.put(PRIMARIO, primario);
+		setTargetDataSources(alvos);
+		setDefaultTargetDataSource(primario);
+	}
+
+	@Override
+	protected Object determineCurrentLookupKey() {
+		if (TransactionSynchronizationManager.isCurrentTransactionReadOnly() && !AderenciaEscrita.ativa()) {
+			String replica = escolherReplica();
+			if (replica != null) {
+				return replica;
+			}
+		} else if (TransactionSynchronizationManager.isSynchronizationActive() 
+				&& !TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+				&& !TransactionSynchronizationManager.hasResource(ESCRITA_REGISTRADA)) {
+			registrarAderencia();
+		}
+		return PRIMARIO;
+	}
+
+	//round-robin entre as réplicas saudáveis. null se nenhuma estiver disponível
+	private String escolherReplica() {
+		List<String> lista = disponiveis;
+		if (lista.isEmpty()) {
+			return null;
+		}
+		return lista.get(Math.floorMod(proxima.getAndIncrement(), lista.size()));
+	}
+
+	private void registrarAderencia() {
+		TransactionSynchronizationManager.bindResource(ESCRITA_REGISTRADA, Boolean.TRUE);
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCommit() {
+				AderenciaEscrita.registrar(janelaAderenciaMs);
+			}
+
+			@Override
+			public void afterCompletion(int status) {
+				TransactionSynchronizationManager.unbindResourceIfPossible(ESCRITA_REGISTRADA);
+			}
+		});
+	}
+
+	/**
+	 * Verifica periodicamente cada réplica com Connection.isValid(). Uma réplica que falhar deixa de receber leituras até
+	 * passar em uma nova verificação.
+	 * */
+	@Scheduled(initialDelayString = "${app.datasource.verificacao-ms:5000}", fixedDelayString = "${app.datasource.verificacao-ms:5000}")
+	public void verificarReplicas() {
+		List<String> lista = new ArrayList<>();
+		replicas.forEach((nome, ds) -> {
+			boolean ok = valida(ds);
+			if (saudaveis.put(nome, ok) != ok) {
+				log.warn("Réplica {} {}", nome, ok ? "voltou a receber leituras" : "indisponível, leituras enviadas ao primário");
+			}
+			if (ok) {
+				lista.add(nome);
+			}
+		});
+		disponiveis = lista;
+	}
+
+	private boolean valida(DataSource ds) {
+		try (Connection con = ds.getConnection()) {
+			return con.isValid(2);
+		} catch (Exception ex) {
+			return false;
+		}
+	}
+
+	public int getReplicasSaudaveis() {
+		return disponiveis.size();
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		fechar(primario);
+		for (DataSource ds : replicas.values()) {
+			fechar(ds);
+		}
+	}
+
+	private void fechar(DataSource ds) throws Exception {
+		if (ds instanceof AutoCloseable) {
+			((AutoCloseable) ds).close();
+		}
+	}
+}
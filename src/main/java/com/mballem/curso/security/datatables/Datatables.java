@@ -1,6 +1,11 @@
 package com.mballem.curso.security.datatables;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
@@ -9,19 +14,35 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
-import org.springframework.stereotype.Component;
+import org.springframework.data.domain.Sort.Order;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 /**
  * Uma classe auxiliar para organizar, em tabelas 'Datatables', algumas informações selecionadas do banco de dados.
+ * Um objeto Datatables guarda a requisição atual, por isso deve ser criado a cada requisição e não compartilhado entre threads.
  * */
-@Component
 public class Datatables {
+
+	//valor do parametro 'formato' que solicita a resposta no formato compacto
+	public static final String FORMATO_COMPACTO = "compacto";
+
+	//quantidade máxima de colunas na ordenação. As demais colunas enviadas em order[k] são ignoradas
+	public static final int MAXIMO_ORDENACAO = 3;
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
 	
 	private HttpServletRequest request;
-	private String[] colunas;	
+	private DatatablesTabela<?> tabela;
 
 	public Datatables() {
 		super();
 	}
+
+	public Datatables(HttpServletRequest request, DatatablesTabela<?> tabela) {
+		this.request = request;
+		this.tabela = tabela;
+	}
 	
 	public Map<String, Object> getResponse(Page<?> page) {		
 		Map<String, Object> json = new LinkedHashMap<>();
@@ -32,6 +53,35 @@ public class Datatables {
 		return json;
 	}	
 
+	/**
+	 * Resposta no formato compacto. O json é escrito diretamente com um JsonGenerator, sem o Map intermediário e sem que o Jackson
+	 * percorra os getters das entidades. Cada linha é um array com os valores das colunas, na ordem definida em DatatablesColunas.
+	 * 
+	 * @param page a página consultada
+	 * @param linha escreve os valores de cada linha (ver DatatablesLinhas)
+	 * @return o json da resposta em UTF-8
+	 * */
+	public <T> byte[] getCompactResponse(Page<T> page, DatatablesLinha<T> linha) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(256 + page.getNumberOfElements() * 64);
+		try (JsonGenerator json = JSON_FACTORY.createGenerator(out)) {
+			json.writeStartObject();
+			json.writeNumberField("draw", draw());
+			json.writeNumberField("recordsTotal", page.getTotalElements());
+			json.writeNumberField("recordsFiltered", page.getTotalElements());
+			json.writeArrayFieldStart("data");
+			for (T item : page) {
+				json.writeStartArray();
+				linha.escrever(item, json);
+				json.writeEndArray();
+			}
+			json.writeEndArray();
+			json.writeEndObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return out.toByteArray();
+	}
+
 	public HttpServletRequest getRequest() {
 		return request;
 	}
@@ -40,12 +90,12 @@ public class Datatables {
 		this.request = request;
 	}
 
-	public String[] getColunas() {
-		return colunas;
+	public DatatablesTabela<?> getTabela() {
+		return tabela;
 	}
 
-	public void setColunas(String[] colunas) {
-		this.colunas = colunas;
+	public void setTabela(DatatablesTabela<?> tabela) {
+		this.tabela = tabela;
 	}
 
 	private int draw() {
@@ -64,25 +114,69 @@ public class Datatables {
 		return start() / getLength();
 	}
 
-	public String getColumnName() {
-		int iCol = Integer.parseInt(this.request.getParameter("order[0][column]"));
-		return this.colunas[iCol];
-	}	
+	/**
+	 * Ordenação enviada pelo Datatables em order[k][column] e order[k][dir], na mesma prioridade, com até MAXIMO_ORDENACAO colunas.
+	 * Índices inválidos, colunas repetidas e colunas que não podem ser ordenadas (ver DatatablesTabela.getOrdenacao()) são
+	 * ignorados. O id é sempre incluído por último para que a ordem das linhas seja a mesma em todas as páginas.
+	 * */
+	public Sort getSort() {
+		List<Order> orders = new ArrayList<>();
+		List<String> atributos = new ArrayList<>();
+		for (int k = 0; k < MAXIMO_ORDENACAO; k++) {
+			String coluna = this.request.getParameter("order[" + k + "][column]");
+			if (coluna == null) {
+				break;
+			}
+			String atributo = tabela.getOrdenacao(inteiro(coluna, -1));
+			if (atributo != null && !atributos.contains(atributo)) {
+				atributos.add(atributo);
+				orders.add(new Order(direcao(this.request.getParameter("order[" + k + "][dir]")), atributo));
+			}
+		}
+		if (!atributos.contains("id")) {
+			orders.add(Order.asc("id"));
+		}
+		return Sort.by(orders);
+	}
+
+	public String getSearch() {
+		return valor(this.request.getParameter("search[value]"));
+	}
 
-	public Sort.Direction getDirection() {
-		String order = this.request.getParameter("order[0][dir]");
-		Sort.Direction sort = Sort.Direction.ASC;
-		if (order.equalsIgnoreCase("desc")) {
-			sort = Sort.Direction.DESC;
+	//valor digitado na pesquisa da coluna. Vazio quando a coluna não for pesquisável ou não houver pesquisa
+	public String getColumnSearch(int coluna) {
+		if ("false".equals(this.request.getParameter("columns[" + coluna + "][searchable]"))) {
+			return "";
 		}
-		return sort;
+		return valor(this.request.getParameter("columns[" + coluna + "][search][value]"));
 	}
 
-	public String getSearch() {		
-		return this.request.getParameter("search[value]");
+	//pesquisas das colunas, na ordem das colunas. Usado junto com getSearch() e getPageable() para identificar a consulta
+	public List<String> getColumnSearches() {
+		List<String> pesquisas = new ArrayList<>();
+		for (int i = 0; i < tabela.getColunas().length; i++) {
+			pesquisas.add(getColumnSearch(i));
+		}
+		return pesquisas;
 	}
-	
+
 	public Pageable getPageable() {
-		return PageRequest.of(getCurrentPage(), getLength(), getDirection(), getColumnName());
+		return PageRequest.of(getCurrentPage(), getLength(), getSort());
+	}
+
+	private static Sort.Direction direcao(String dir) {
+		return "desc".equalsIgnoreCase(dir) ? Sort.Direction.DESC : Sort.Direction.ASC;
+	}
+
+	private static int inteiro(String valor, int padrao) {
+		try {
+			return Integer.parseInt(valor);
+		} catch (NumberFormatException e) {
+			return padrao;
+		}
+	}
+
+	private static String valor(String valor) {
+		return valor == null ? "" : valor.trim();
 	}
 }
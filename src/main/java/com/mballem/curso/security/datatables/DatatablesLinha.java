@@ -0,0 +1,15 @@
+package com.mballem.curso.security.datatables;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Escreve os valores de uma linha da tabela Datatables no formato compacto (um array por linha).
+ * Os valores devem ser escritos na mesma ordem das colunas definidas em DatatablesColunas.
+ * */
+@FunctionalInterface
+public interface DatatablesLinha<T> {
+
+	void escrever(T item, JsonGenerator json) throws IOException;
+}
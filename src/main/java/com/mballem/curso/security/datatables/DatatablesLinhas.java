@@ -0,0 +1,61 @@
+package com.mballem.curso.security.datatables;
+
+import com.mballem.curso.security.domain.AgendamentoListagem;
+import com.mballem.curso.security.domain.Especialidade;
+import com.mballem.curso.security.domain.Perfil;
+import com.mballem.curso.security.domain.Usuario;
+import com.mballem.curso.security.repository.projection.EspecialidadeDoMedico;
+import com.mballem.curso.security.repository.projection.MedicoLinha;
+
+/**
+ * Classe auxiliar que contém as linhas do formato compacto de resposta. Cada constante escreve apenas as colunas
+ * definidas na constante de mesmo nome em DatatablesColunas, e na mesma ordem.
+ * */
+public class DatatablesLinhas {
+
+	//{id, titulo}. A descrição (TEXT) não é exibida na tabela e não é enviada
+	public static final DatatablesLinha<Especialidade> ESPECIALIDADES = (especialidade, json) -> {
+		json.writeNumber(especialidade.getId());
+		json.writeString(especialidade.getTitulo());
+	};
+
+	//{id, email, ativo, perfis}. Cada perfil é enviado como o array [id, descricao]
+	public static final DatatablesLinha<Usuario> USUARIOS = (usuario, json) -> {
+		json.writeNumber(usuario.getId());
+		json.writeString(usuario.getEmail());
+		json.writeBoolean(usuario.isAtivo());
+		json.writeStartArray();
+		for (Perfil perfil : usuario.getPerfis()) {
+			json.writeStartArray();
+			json.writeNumber(perfil.getId());
+			json.writeString(perfil.getDesc());
+			json.writeEndArray();
+		}
+		json.writeEndArray();
+	};
+
+	//{id, nome, crm, dtInscricao, especialidades}. A data no formato ISO e cada especialidade como o array [id, titulo]
+	public static final DatatablesLinha<MedicoLinha> MEDICOS = (medico, json) -> {
+		json.writeNumber(medico.getId());
+		json.writeString(medico.getNome());
+		json.writeNumber(medico.getCrm());
+		json.writeString(medico.getDtInscricao().toString());
+		json.writeStartArray();
+		for (EspecialidadeDoMedico especialidade : medico.getEspecialidades()) {
+			json.writeStartArray();
+			json.writeNumber(especialidade.getId());
+			json.writeString(especialidade.getTitulo());
+			json.writeEndArray();
+		}
+		json.writeEndArray();
+	};
+
+	//{id, paciente.nome, dataConsulta, medico.nome, especialidade.titulo}. A data no formato ISO
+	public static final DatatablesLinha<AgendamentoListagem> AGENDAMENTOS = (agendamento, json) -> {
+		json.writeNumber(agendamento.getId());
+		json.writeString(agendamento.getPacienteNome());
+		json.writeString(agendamento.getDataConsulta().toString());
+		json.writeString(agendamento.getMedicoNome());
+		json.writeString(agendamento.getEspecialidadeTitulo());
+	};
+}
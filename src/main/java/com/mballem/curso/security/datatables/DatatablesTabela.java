@@ -0,0 +1,100 @@
+package com.mballem.curso.security.datatables;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import org.springframework.data.jpa.domain.Specification;
+
+/**
+ * Descreve uma tabela Datatables: as colunas, na ordem definida em DatatablesColunas, quais delas podem ser ordenadas
+ * e como cada coluna e a caixa de pesquisa são traduzidas para filtros da consulta (Specification).
+ *
+ * Apenas as colunas marcadas como ordenáveis podem ser usadas na ordenação. Cada uma deve corresponder a um atributo
+ * com índice no banco de dados. Colunas que exibem coleções (perfis, especialidades) não são ordenadas pela coleção e sim
+ * por um atributo pré-calculado da própria entidade, evitando o join com a coleção.
+ *
+ * As constantes ficam em DatatablesTabelas. Depois de criada, uma tabela não deve ser alterada.
+ * */
+public class DatatablesTabela<T> {
+
+	private final String[] colunas;
+	//atributo usado na ordenação de cada coluna. null para as colunas que não podem ser ordenadas
+	private final String[] ordenacao;
+	private final List<Function<String, Specification<T>>> filtros;
+	private Function<String, Specification<T>> pesquisa;
+
+	public DatatablesTabela(String[] colunas) {
+		this.colunas = colunas;
+		this.ordenacao = new String[colunas.length];
+		this.filtros = new ArrayList<>();
+		for (int i = 0; i < colunas.length; i++) {
+			filtros.add(null);
+		}
+	}
+
+	//permite ordenar a coluna pelo atributo de mesmo nome
+	public DatatablesTabela<T> ordenavel(String coluna) {
+		return ordenavel(coluna, coluna);
+	}
+
+	//permite ordenar a coluna pelo atributo informado
+	public DatatablesTabela<T> ordenavel(String coluna, String atributo) {
+		ordenacao[indice(coluna)] = atributo;
+		return this;
+	}
+
+	//filtro aplicado com o valor digitado na pesquisa da coluna (columns[i][search][value])
+	public DatatablesTabela<T> filtro(String coluna, Function<String, Specification<T>> filtro) {
+		filtros.set(indice(coluna), filtro);
+		return this;
+	}
+
+	//filtro aplicado com o valor digitado na caixa de pesquisa da tabela (search[value])
+	public DatatablesTabela<T> pesquisa(Function<String, Specification<T>> pesquisa) {
+		this.pesquisa = pesquisa;
+		return this;
+	}
+
+	public String[] getColunas() {
+		return colunas;
+	}
+
+	/**
+	 * @return o atributo usado para ordenar a coluna, ou null se a coluna não existir ou não puder ser ordenada
+	 * */
+	public String getOrdenacao(int coluna) {
+		return coluna >= 0 && coluna < ordenacao.length ? ordenacao[coluna] : null;
+	}
+
+	/**
+	 * Combina, com AND, a pesquisa da tabela e as pesquisas de cada coluna enviadas pelo Datatables.
+	 * Valores vazios e colunas sem filtro são ignorados.
+	 *
+	 * @return a Specification da consulta, ou null quando não houver nenhum filtro
+	 * */
+	public Specification<T> getSpecification(Datatables datatables) {
+		Specification<T> spec = null;
+		String search = datatables.getSearch();
+		if (pesquisa != null && !search.isEmpty()) {
+			spec = pesquisa.apply(search);
+		}
+		for (int i = 0; i < colunas.length; i++) {
+			String valor = datatables.getColumnSearch(i);
+			if (filtros.get(i) != null && !valor.isEmpty()) {
+				Specification<T> filtro = filtros.get(i).apply(valor);
+				spec = spec == null ? Specification.where(filtro) : spec.and(filtro);
+			}
+		}
+		return spec;
+	}
+
+	private int indice(String coluna) {
+		int i = Arrays.asList(colunas).indexOf(coluna);
+		if (i < 0) {
+			throw new IllegalArgumentException("coluna inexistente: " + coluna);
+		}
+		return i;
+	}
+}
@@ -0,0 +1,152 @@
+package com.mballem.curso.security.datatables;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.function.Function;
+
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Subquery;
+
+import org.springframework.data.jpa.domain.Specification;
+
+import com.mballem.curso.security.domain.AgendamentoListagem;
+import com.mballem.curso.security.domain.Especialidade;
+import com.mballem.curso.security.domain.Medico;
+import com.mballem.curso.security.domain.Usuario;
+
+/**
+ * Classe auxiliar que contém as tabelas Datatables (ver DatatablesTabela): colunas ordenáveis e filtros de cada coluna.
+ *
+ * Ordenação permitida apenas por atributos com índice:
+ * - especialidades: id e titulo (UK_TITULO)
+ * - usuarios: id, email (UK_USUARIO_EMAIL), ativo (idx_usuario_ativo) e perfis pela coluna perfis_ordem (idx_usuario_perfis_ordem)
+ * - medicos: id, nome (UK_NOME), crm (UK_CRM), dtInscricao (idx_medico_data_inscricao) e especialidades pela coluna
+ *   especialidades_ordem (idx_medico_especialidades_ordem)
+ * - agendamentos: todas as colunas, lidas da tabela desnormalizada agendamentos_listagem (ver AgendamentoListagem), que possui
+ *   um índice para cada coluna
+ *
+ * Os filtros de texto comparam o início do valor (LIKE 'valor%'), o que permite o uso dos índices. Os filtros das colunas
+ * de coleções usam um EXISTS, sem join na consulta principal e sem linhas repetidas. Os filtros de data recebem a data no
+ * formato da tela (dd/MM/yyyy) ou no formato ISO.
+ * */
+public class DatatablesTabelas {
+
+	//STRICT recusa datas inexistentes (31/02) em vez de ajustá-las
+	private static final DateTimeFormatter DATA = DateTimeFormatter.ofPattern("dd/MM/uuuu").withResolverStyle(ResolverStyle.STRICT);
+
+	public static final DatatablesTabela<Especialidade> ESPECIALIDADES = new DatatablesTabela<Especialidade>(DatatablesColunas.ESPECIALIDADES)
+			.ordenavel("id")
+			.ordenavel("titulo")
+			.filtro("id", igual("id", Long::valueOf))
+			.filtro("titulo", comecaCom("titulo"))
+			.pesquisa(comecaCom("titulo"));
+
+	public static final DatatablesTabela<Usuario> USUARIOS = new DatatablesTabela<Usuario>(DatatablesColunas.USUARIOS)
+			.ordenavel("id")
+			.ordenavel("email")
+			.ordenavel("ativo")
+			.ordenavel("perfis", "perfisOrdem")
+			.filtro("id", igual("id", Long::valueOf))
+			.filtro("email", comecaCom("email"))
+			.filtro("ativo", igual("ativo", DatatablesTabelas::booleano))
+			.filtro("perfis", existe("perfis", "desc"))
+			.pesquisa(valor -> Specification.<Usuario>where(comecaCom("email", valor))
+					.or(existe("perfis", "desc", valor)));
+
+	public static final DatatablesTabela<Medico> MEDICOS = new DatatablesTabela<Medico>(DatatablesColunas.MEDICOS)
+			.ordenavel("id")
+			.ordenavel("nome")
+			.ordenavel("crm")
+			.ordenavel("dtInscricao")
+			.ordenavel("especialidades", "especialidadesOrdem")
+			.filtro("id", igual("id", Long::valueOf))
+			.filtro("nome", comecaCom("nome"))
+			.filtro("crm", igual("crm", Integer::valueOf))
+			.filtro("dtInscricao", igual("dtInscricao", DatatablesTabelas::data))
+			.filtro("especialidades", existe("especialidades", "titulo"))
+			.pesquisa(valor -> Specification.<Medico>where(comecaCom("nome", valor))
+					.or(DatatablesTabelas.<Medico>igual("crm", Integer::valueOf).apply(valor))
+					.or(existe("especialidades", "titulo", valor)));
+
+	public static final DatatablesTabela<AgendamentoListagem> AGENDAMENTOS = new DatatablesTabela<AgendamentoListagem>(DatatablesColunas.AGENDAMENTOS)
+			.ordenavel("id")
+			.ordenavel("paciente.nome", "pacienteNome")
+			.ordenavel("dataConsulta")
+			.ordenavel("medico.nome", "medicoNome")
+			.ordenavel("especialidade.titulo", "especialidadeTitulo")
+			.filtro("id", igual("id", Long::valueOf))
+			.filtro("paciente.nome", comecaCom("pacienteNome"))
+			.filtro("dataConsulta", igual("dataConsulta", DatatablesTabelas::data))
+			.filtro("medico.nome", comecaCom("medicoNome"))
+			.filtro("especialidade.titulo", comecaCom("especialidadeTitulo"))
+			.pesquisa(valor -> Specification.<AgendamentoListagem>where(comecaCom("pacienteNome", valor))
+					.or(comecaCom("medicoNome", valor))
+					.or(comecaCom("especialidadeTitulo", valor)));
+
+	//atributo de texto que começa com o valor
+	private static <T> Function<String, Specification<T>> comecaCom(String atributo) {
+		return valor -> comecaCom(atributo, valor);
+	}
+
+	private static <T> Specification<T> comecaCom(String atributo, String valor) {
+		return (root, query, cb) -> cb.like(root.<String>get(atributo), prefixo(valor), '\\');
+	}
+
+	//atributo igual ao valor convertido. Um valor que não pode ser convertido não encontra nenhuma linha
+	private static <T> Function<String, Specification<T>> igual(String atributo, Function<String, ?> conversor) {
+		return valor -> {
+			Object convertido = converter(valor, conversor);
+			return (root, query, cb) -> convertido == null ? cb.disjunction() : cb.equal(root.get(atributo), convertido);
+		};
+	}
+
+	//algum item da coleção possui o atributo de texto começando com o valor
+	private static <T> Function<String, Specification<T>> existe(String colecao, String atributo) {
+		return valor -> existe(colecao, atributo, valor);
+	}
+
+	private static <T> Specification<T> existe(String colecao, String atributo, String valor) {
+		return (root, query, cb) -> {
+			Subquery<Long> sub = query.subquery(Long.class);
+			Root<T> correlacionado = sub.correlate(root);
+			Join<T, ?> item = correlacionado.join(colecao);
+			sub.select(item.<Long>get("id")).where(cb.like(item.<String>get(atributo), prefixo(valor), '\\'));
+			return cb.exists(sub);
+		};
+	}
+
+	//escapa os caracteres especiais do LIKE, assim '%' e '_' digitados são pesquisados literalmente
+	private static String prefixo(String valor) {
+		return valor.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+	}
+
+	private static Object converter(String valor, Function<String, ?> conversor) {
+		try {
+			return conversor.apply(valor);
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	static LocalDate data(String valor) {
+		try {
+			return LocalDate.parse(valor, DATA);
+		} catch (DateTimeParseException e) {
+			return LocalDate.parse(valor);
+		}
+	}
+
+	private static Boolean booleano(String valor) {
+		switch (valor.toLowerCase()) {
+		case "true": case "sim": case "1":
+			return Boolean.TRUE;
+		case "false": case "não": case "nao": case "0":
+			return Boolean.FALSE;
+		default:
+			return null;
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package com.mballem.curso.security.domain;
+
+import java.time.LocalDate;
+
+import javax.persistence.*;
+
+/*
+ * Contador pré-agregado de consultas por médico e por dia.
+ * O total é atualizado de forma incremental sempre que uma consulta é salva ou cancelada (ver AgendaService), evitando que a página
+ * de consultas do médico execute um COUNT/GROUP BY sobre a tabela agendamentos a cada acesso.
+ * */
+@SuppressWarnings("serial")
+@Entity
+@Table(name = "agenda_medico_dia", 
+	   uniqueConstraints = {@UniqueConstraint(name = "uk_agenda_medico_dia", columnNames = {"id_medico", "data_consulta"})})
+public class AgendaMedicoDia extends AbstractEntity {
+
+	@ManyToOne
+	@JoinColumn(name = "id_medico", nullable = false)
+	private Medico medico;
+
+	@Column(name = "data_consulta", nullable = false)
+	private LocalDate dataConsulta;
+
+	@Column(name = "total", nullable = false)
+	private Long total;
+
+	public Medico getMedico() {
+		return medico;
+	}
+
+	public void setMedico(Medico medico) {
+		this.medico = medico;
+	}
+
+	public LocalDate getDataConsulta() {
+		return dataConsulta;
+	}
+
+	public void setDataConsulta(LocalDate dataConsulta) {
+		this.dataConsulta = dataConsulta;
+	}
+
+	public Long getTotal() {
+		return total;
+	}
+
+	public void setTotal(Long total) {
+		this.total = total;
+	}
+}
@@ -6,9 +6,22 @@ import org.springframework.format.annotation.DateTimeFormat.ISO;
 import javax.persistence.*;
 import java.time.LocalDate;
 
+/*
+ * O indice 'idx_agendamento_paciente_data' atende a busca paginada do histórico de consultas de um paciente,
+ * ordenado pela data da consulta (ver AgendamentoRepository).
+ * O indice 'idx_agendamento_data' atende a leitura das consultas de uma data, ordenadas pelo id, no envio dos lembretes (ver LembreteConsultas).
+ * A chave única 'uk_agendamento_medico_data_horario' impede que um horário do médico seja agendado duas vezes na mesma data
+ * (ver AgendamentoService.salvar()). Como começa pelas colunas (id_medico, data_consulta) ela também atende o recálculo da
+ * agenda diária dos médicos (ver AgendaMedicoDiaRepository).
+ * */
 @SuppressWarnings("serial")
 @Entity
-@Table(name = "agendamentos") 
+@Table(name = "agendamentos", indexes = {
+		@Index(name = "idx_agendamento_paciente_data", columnList = "id_paciente, data_consulta"),
+		@Index(name = "idx_agendamento_data", columnList = "data_consulta")
+}, uniqueConstraints = {
+		@UniqueConstraint(name = "uk_agendamento_medico_data_horario", columnNames = {"id_medico", "data_consulta", "id_horario"})
+}) 
 public class Agendamento extends AbstractEntity {
 	
 	@ManyToOne
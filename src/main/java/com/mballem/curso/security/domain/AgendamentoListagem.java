@@ -0,0 +1,89 @@
+package com.mballem.curso.security.domain;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+import javax.persistence.*;
+
+import org.hibernate.annotations.Immutable;
+
+/*
+ * Modelo de leitura desnormalizado da lista de consultas (ver DatatablesColunas.AGENDAMENTOS). Cada linha é uma cópia de um
+ * Agendamento com o nome do paciente, o nome do médico e o título da especialidade, assim a lista é paginada e ordenada sem os joins
+ * com pacientes, medicos e especialidades e cada coluna ordenável possui o seu próprio índice.
+ * 
+ * A tabela é mantida na mesma transação que altera os agendamentos, pacientes, médicos e especialidades (ver ListagemAgendamentoService)
+ * e pode ser reconstruída a partir da tabela agendamentos com app.listagem.reconstruir=true. O id é o mesmo do Agendamento.
+ * Os índices por id_paciente, id_medico e id_especialidade atendem a atualização dos nomes copiados.
+ * */
+@SuppressWarnings("serial")
+@Entity
+@Immutable
+@Table(name = "agendamentos_listagem", indexes = {
+		@Index(name = "idx_listagem_data", columnList = "data_consulta"),
+		@Index(name = "idx_listagem_paciente_nome", columnList = "paciente_nome"),
+		@Index(name = "idx_listagem_medico_nome", columnList = "medico_nome"),
+		@Index(name = "idx_listagem_especialidade_titulo", columnList = "especialidade_titulo"),
+		@Index(name = "idx_listagem_paciente", columnList = "id_paciente"),
+		@Index(name = "idx_listagem_medico", columnList = "id_medico"),
+		@Index(name = "idx_listagem_especialidade", columnList = "id_especialidade")
+})
+public class AgendamentoListagem implements Serializable {
+
+	@Id
+	@Column(name = "id")
+	private Long id;
+
+	@Column(name = "data_consulta")
+	private LocalDate dataConsulta;
+
+	@Column(name = "id_paciente")
+	private Long pacienteId;
+
+	@Column(name = "paciente_nome")
+	private String pacienteNome;
+
+	@Column(name = "id_medico")
+	private Long medicoId;
+
+	@Column(name = "medico_nome")
+	private String medicoNome;
+
+	@Column(name = "id_especialidade")
+	private Long especialidadeId;
+
+	@Column(name = "especialidade_titulo")
+	private String especialidadeTitulo;
+
+	public Long getId() {
+		return id;
+	}
+
+	public LocalDate getDataConsulta() {
+		return dataConsulta;
+	}
+
+	public Long getPacienteId() {
+		return pacienteId;
+	}
+
+	public String getPacienteNome() {
+		return pacienteNome;
+	}
+
+	public Long getMedicoId() {
+		return medicoId;
+	}
+
+	public String getMedicoNome() {
+		return medicoNome;
+	}
+
+	public Long getEspecialidadeId() {
+		return especialidadeId;
+	}
+
+	public String getEspecialidadeTitulo() {
+		return especialidadeTitulo;
+	}
+}
@@ -4,6 +4,8 @@ import java.util.List;
 
 import javax.persistence.*;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 /*
  * O atributo indexes fará o mapeamento de algum indice presente no banco de dados.
  * No banco de dados utilizado por essa aplicação foi criado um indice 'idx_especialidade_titulo' referente a coluna titulo da tabela Especialidade.
@@ -21,6 +23,8 @@ public class Especialidade extends AbstractEntity {
 	@Column(name = "descricao", columnDefinition = "TEXT")
 	private String descricao;
 	
+	// evita que os médicos (e seus usuários) sejam carregados e incluídos no json de resposta para a datatables.
+	@JsonIgnore
 	@ManyToMany
 	@JoinTable(
 			name = "medicos_tem_especialidades",
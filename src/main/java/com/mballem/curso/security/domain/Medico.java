@@ -13,7 +13,8 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 
 @SuppressWarnings("serial")
 @Entity
-@Table(name = "medicos")
+@Table(name = "medicos", indexes = {@Index(name = "idx_medico_data_inscricao", columnList = "data_inscricao"),
+		@Index(name = "idx_medico_especialidades_ordem", columnList = "especialidades_ordem")})
 public class Medico extends AbstractEntity {
 
 	@Column(name = "nome", unique = true, nullable = false)
@@ -39,6 +40,15 @@ public class Medico extends AbstractEntity {
 			inverseJoinColumns = @JoinColumn(name = "id_especialidade", referencedColumnName = "id")
     )
 	private Set<Especialidade> especialidades;
+
+	/*
+	 * Títulos das especialidades em ordem alfabética, usado para ordenar a tabela de médicos pelas especialidades sem join
+	 * com a coleção. Mantido pelo banco de dados (ver MedicoRepository.updateEspecialidadesOrdem()), por isso não é gravado
+	 * junto com o médico.
+	 */
+	@JsonIgnore
+	@Column(name = "especialidades_ordem", insertable = false, updatable = false)
+	private String especialidadesOrdem;
 	
 	// evita recursividade quando o json de resposta for criado para a datatables.
 	@JsonIgnore
@@ -96,6 +106,10 @@ public class Medico extends AbstractEntity {
 		this.especialidades = especialidades;
 	}
 
+	public String getEspecialidadesOrdem() {
+		return especialidadesOrdem;
+	}
+
 	public List<Agendamento> getAgendamentos() {
 		return agendamentos;
 	}
@@ -2,6 +2,8 @@ package com.mballem.curso.security.domain;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
 
 import javax.persistence.*;
 
@@ -14,7 +16,9 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
  * */
 @SuppressWarnings("serial")
 @Entity
-@Table(name = "usuarios", indexes = {@Index(name = "idx_usuario_email", columnList = "email")})
+@Table(name = "usuarios", indexes = {@Index(name = "idx_usuario_email", columnList = "email"),
+		@Index(name = "idx_usuario_ativo", columnList = "ativo"),
+		@Index(name = "idx_usuario_perfis_ordem", columnList = "perfis_ordem")})
 public class Usuario extends AbstractEntity {	
 	
 	@Column(name = "email", unique = true, nullable = false)
@@ -31,10 +35,20 @@ public class Usuario extends AbstractEntity {
         inverseJoinColumns = { @JoinColumn(name = "perfil_id", referencedColumnName = "id") }
 	)
 	private List<Perfil> perfis;
+
+	/*
+	 * Ids dos perfis em ordem crescente separados por vírgula (ex.: "1,2"), usado para ordenar a tabela de usuários pelos perfis
+	 * sem join com a coleção. A ordem dos ids é a mesma ordem alfabética das descrições (ADMIN, MEDICO, PACIENTE).
+	 * Calculado sempre que os perfis são atribuídos por setPerfis() ou addPerfil().
+	 */
+	@JsonIgnore
+	@Column(name = "perfis_ordem", length = 20)
+	private String perfisOrdem;
 	
 	@Column(name = "ativo", nullable = false, columnDefinition = "TINYINT(1)")
 	private boolean ativo;
 	
+	//recebe o código digitado no formulário de redefinição de senha. O código gerado fica apenas em CodigosVerificacao
 	@Column(name = "codigo_verificador", length = 6)
 	private String codigoVerificador;
 	
@@ -52,6 +66,7 @@ public class Usuario extends AbstractEntity {
 			this.perfis = new ArrayList<>();
 		}
 		this.perfis.add(new Perfil(tipo.getCod()));
+		atualizarPerfisOrdem();
 	}
 
 	public Usuario(String email) {
@@ -80,6 +95,21 @@ public class Usuario extends AbstractEntity {
 
 	public void setPerfis(List<Perfil> perfis) {
 		this.perfis = perfis;
+		atualizarPerfisOrdem();
+	}
+
+	public String getPerfisOrdem() {
+		return perfisOrdem;
+	}
+
+	private void atualizarPerfisOrdem() {
+		this.perfisOrdem = perfis == null ? null : perfis.stream()
+				.map(Perfil::getId)
+				.filter(Objects::nonNull)
+				.distinct()
+				.sorted()
+				.map(String::valueOf)
+				.collect(Collectors.joining(","));
 	}
 
 	public boolean isAtivo() {
@@ -0,0 +1,89 @@
+package com.mballem.curso.security.estatisticas;
+
+import java.time.YearMonth;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mballem.curso.security.domain.PerfilTipo;
+
+/**
+ * Conjunto de contadores do painel do administrador (ver EstatisticasClinica).
+ *
+ * Cada contador é um LongAdder: os incrementos de threads diferentes caem em células (stripes) diferentes e não disputam a mesma
+ * variável. A leitura soma as células e não bloqueia as escritas.
+ * */
+class Contadores {
+
+	//usuários que possuem cada perfil. Criado no construtor e apenas lido depois
+	final Map<PerfilTipo, LongAdder> perfis = new EnumMap<>(PerfilTipo.class);
+	final LongAdder ativos = new LongAdder();
+	final LongAdder pendentes = new LongAdder();
+	//médicos por id da especialidade
+	final ConcurrentMap<Long, ContadorEspecialidade> especialidades = new ConcurrentHashMap<>();
+	//consultas por mês da data da consulta, em ordem
+	final ConcurrentNavigableMap<YearMonth, LongAdder> agendamentos = new ConcurrentSkipListMap<>();
+
+	Contadores() {
+		for (PerfilTipo tipo : PerfilTipo.values()) {
+			perfis.put(tipo, new LongAdder());
+		}
+	}
+
+	LongAdder situacao(boolean ativo) {
+		return ativo ? ativos : pendentes;
+	}
+
+	ContadorEspecialidade especialidade(Long id) {
+		return especialidades.computeIfAbsent(id, i -> new ContadorEspecialidade());
+	}
+
+	LongAdder mes(YearMonth mes) {
+		return agendamentos.computeIfAbsent(mes, m -> new LongAdder());
+	}
+
+	/**
+	 * Soma das diferenças, em valor absoluto, entre cada contador deste conjunto e o contador correspondente do outro.
+	 * */
+	long diferenca(Contadores outro) {
+		long total = Math.abs(ativos.sum() - outro.ativos.sum()) + Math.abs(pendentes.sum() - outro.pendentes.sum());
+		for (PerfilTipo tipo : PerfilTipo.values()) {
+			total += Math.abs(perfis.get(tipo).sum() - outro.perfis.get(tipo).sum());
+		}
+		for (Long id : uniao(especialidades.keySet(), outro.especialidades.keySet())) {
+			total += Math.abs(medicos(id) - outro.medicos(id));
+		}
+		for (YearMonth mes : uniao(agendamentos.keySet(), outro.agendamentos.keySet())) {
+			total += Math.abs(consultas(mes) - outro.consultas(mes));
+		}
+		return total;
+	}
+
+	private long medicos(Long especialidade) {
+		ContadorEspecialidade contador = especialidades.get(especialidade);
+		return contador == null ? 0 : contador.medicos.sum();
+	}
+
+	private long consultas(YearMonth mes) {
+		LongAdder contador = agendamentos.get(mes);
+		return contador == null ? 0 : contador.sum();
+	}
+
+	private static <K> Set<K> uniao(Set<K> a, Set<K> b) {
+		Set<K> todos = new HashSet<>(a);
+		todos.addAll(b);
+		return todos;
+	}
+
+	static class ContadorEspecialidade {
+		//null até a especialidade ser lida na reconciliação ou salva (ver EstatisticasClinica.especialidadeSalva())
+		volatile String titulo;
+		final LongAdder medicos = new LongAdder();
+	}
+}
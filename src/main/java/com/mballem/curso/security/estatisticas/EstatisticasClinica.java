@@ -0,0 +1,316 @@
+package com.mballem.curso.security.estatisticas;
+
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.mballem.curso.security.domain.PerfilTipo;
+import com.mballem.curso.security.estatisticas.Contadores.ContadorEspecialidade;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Estatísticas do painel do administrador (página home): usuários por perfil, usuários ativos e pendentes, médicos por especialidade
+ * e consultas por mês.
+ *
+ * Os contadores ficam em memória (ver Contadores) e são atualizados pelos métodos de escrita dos serviços, sem nenhum COUNT(*) na
+ * exibição da página. Os métodos de alteração devem ser chamados dentro da transação que altera os dados: o contador só é alterado
+ * após o commit, logo uma transação desfeita não altera as estatísticas.
+ *
+ * A cada app.estatisticas.reconciliacao-minutos os contadores são recalculados a partir do banco de dados e substituem os atuais,
+ * corrigindo alterações feitas fora dos serviços (scripts, outra instância da aplicação) e alterações que terminaram durante a
+ * própria reconciliação. A diferença encontrada fica na métrica app.estatisticas.divergencia.
+ * */
+@Component
+public class EstatisticasClinica {
+
+	private static final Logger log = LoggerFactory.getLogger(EstatisticasClinica.class);
+
+	private static final DateTimeFormatter MES = DateTimeFormatter.ofPattern("MM/yyyy");
+
+	private final JdbcTemplate jdbcTemplate;
+	private final long intervaloMinutos;
+	private final int meses;
+	//diferença encontrada na última reconciliação
+	private final AtomicLong divergencia = new AtomicLong();
+	//substituído a cada reconciliação. Até a primeira, reconciliado = false e a home não exibe o painel
+	private volatile Contadores contadores = new Contadores();
+	private volatile boolean reconciliado;
+	private ScheduledExecutorService reconciliacao;
+
+	@Autowired
+	public EstatisticasClinica(JdbcTemplate jdbcTemplate, MeterRegistry registry,
+			@Value("${app.estatisticas.reconciliacao-minutos:10}") long intervaloMinutos,
+			@Value("${app.estatisticas.meses:12}") int meses) {
+		this(jdbcTemplate, intervaloMinutos, meses);
+		Gauge.builder("app.estatisticas.divergencia", divergencia, AtomicLong::get)
+				.description("diferença entre os contadores em memória e o banco de dados na última reconciliação")
+				.register(registry);
+	}
+
+	//usado diretamente nos testes
+	EstatisticasClinica(JdbcTemplate jdbcTemplate, long intervaloMinutos, int meses) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.intervaloMinutos = intervaloMinutos;
+		this.meses = meses;
+	}
+
+	//a primeira reconciliação carrega os contadores, em segundo plano para não atrasar o início da aplicação
+	@EventListener(ApplicationReadyEvent.class)
+	public void iniciar() {
+		reconciliacao = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "estatisticas");
+			thread.setDaemon(true);
+			return thread;
+		});
+		reconciliacao.scheduleWithFixedDelay(() -> {
+			try {
+				reconciliar();
+			} catch (RuntimeException e) {
+				log.warn("falha na reconciliação das estatísticas: {}", e.getMessage());
+			}
+		}, 0, intervaloMinutos, TimeUnit.MINUTES);
+	}
+
+	@PreDestroy
+	public void parar() {
+		if (reconciliacao != null) {
+			reconciliacao.shutdownNow();
+		}
+	}
+
+	//usuário novo com os ids dos perfis informados
+	public void usuarioIncluido(Collection<Long> perfis, boolean ativo) {
+		Collection<Long> incluidos = new ArrayList<>(perfis);
+		aposCommit(c -> {
+			perfis(c, incluidos, 1);
+			c.situacao(ativo).increment();
+		});
+	}
+
+	//usuário editado pelo administrador: perfis e situação antes e depois da edição
+	public void usuarioAlterado(Collection<Long> perfisAnteriores, boolean ativoAnterior, Collection<Long> perfis, boolean ativo) {
+		Collection<Long> anteriores = new ArrayList<>(perfisAnteriores);
+		Collection<Long> atuais = new ArrayList<>(perfis);
+		aposCommit(c -> {
+			perfis(c, anteriores, -1);
+			perfis(c, atuais, 1);
+			c.situacao(ativoAnterior).decrement();
+			c.situacao(ativo).increment();
+		});
+	}
+
+	//cadastro pendente confirmado pelo paciente
+	public void usuarioAtivado() {
+		aposCommit(c -> {
+			c.pendentes.decrement();
+			c.ativos.increment();
+		});
+	}
+
+	//especialidades incluídas e removidas de um médico
+	public void especialidadesDoMedicoAlteradas(Collection<Long> incluidas, Collection<Long> removidas) {
+		Collection<Long> mais = new ArrayList<>(incluidas);
+		Collection<Long> menos = new ArrayList<>(removidas);
+		aposCommit(c -> {
+			mais.forEach(id -> c.especialidade(id).medicos.increment());
+			menos.forEach(id -> c.especialidade(id).medicos.decrement());
+		});
+	}
+
+	public void especialidadeSalva(Long id, String titulo) {
+		aposCommit(c -> c.especialidade(id).titulo = titulo);
+	}
+
+	public void especialidadeRemovida(Long id) {
+		aposCommit(c -> c.especialidades.remove(id));
+	}
+
+	public void agendamentoRegistrado(YearMonth mes) {
+		aposCommit(c -> c.mes(mes).increment());
+	}
+
+	public void agendamentoCancelado(YearMonth mes) {
+		aposCommit(c -> c.mes(mes).decrement());
+	}
+
+	/**
+	 * Valores atuais dos contadores, lidos apenas da memória.
+	 *
+	 * @return o resumo para a página home, ou null antes da primeira reconciliação
+	 * */
+	public Resumo getResumo() {
+		if (!reconciliado) {
+			return null;
+		}
+		Contadores c = contadores;
+		Resumo resumo = new Resumo(c.ativos.sum(), c.pendentes.sum());
+		c.perfis.forEach((tipo, contador) -> resumo.perfis.put(tipo.getDesc(), contador.sum()));
+
+		Map<String, Long> especialidades = new TreeMap<>();
+		c.especialidades.forEach((id, contador) ->
+				especialidades.put(contador.titulo != null ? contador.titulo : "especialidade " + id, contador.medicos.sum()));
+		resumo.medicosPorEspecialidade.putAll(especialidades);
+
+		//meses mais recentes com consultas, incluindo os meses futuros já agendados
+		for (Map.Entry<YearMonth, LongAdder> mes : c.agendamentos.descendingMap().entrySet()) {
+			if (resumo.agendamentosPorMes.size() == meses) {
+				break;
+			}
+			long consultas = mes.getValue().sum();
+			if (consultas > 0) {
+				resumo.agendamentosPorMes.put(mes.getKey().format(MES), consultas);
+			}
+		}
+		return resumo;
+	}
+
+	/**
+	 * Recalcula todos os contadores com consultas agrupadas ao banco de dados e substitui os contadores atuais.
+	 *
+	 * Uma alteração que termina entre a leitura e a substituição é aplicada aos contadores antigos e só aparece na próxima
+	 * reconciliação. A divergência é temporária e limitada às escritas desse intervalo.
+	 *
+	 * @return a diferença entre os contadores em memória e os valores do banco de dados
+	 * */
+	public long reconciliar() {
+		long inicio = System.currentTimeMillis();
+		Contadores novos = new Contadores();
+
+		jdbcTemplate.query("SELECT perfil_id, COUNT(*) FROM usuarios_tem_perfis GROUP BY perfil_id", rs -> {
+			PerfilTipo tipo = perfil(rs.getLong(1));
+			if (tipo != null) {
+				novos.perfis.get(tipo).add(rs.getLong(2));
+			}
+		});
+		jdbcTemplate.query("SELECT ativo, COUNT(*) FROM usuarios GROUP BY ativo",
+				rs -> { novos.situacao(rs.getBoolean(1)).add(rs.getLong(2)); });
+		jdbcTemplate.query("SELECT e.id, e.titulo, COUNT(me.id_medico) FROM especialidades e "
+				+ "LEFT JOIN medicos_tem_especialidades me ON me.id_especialidade = e.id GROUP BY e.id, e.titulo", rs -> {
+			ContadorEspecialidade contador = novos.especialidade(rs.getLong(1));
+			contador.titulo = rs.getString(2);
+			contador.medicos.add(rs.getLong(3));
+		});
+		jdbcTemplate.query("SELECT YEAR(data_consulta), MONTH(data_consulta), COUNT(*) FROM agendamentos "
+				+ "GROUP BY YEAR(data_consulta), MONTH(data_consulta)",
+				rs -> { novos.mes(YearMonth.of(rs.getInt(1), rs.getInt(2))).add(rs.getLong(3)); });
+
+		long diferenca = substituir(novos);
+		if (diferenca > 0) {
+			log.info("estatísticas reconciliadas em {} ms, diferença de {} em relação ao banco de dados",
+					System.currentTimeMillis() - inicio, diferenca);
+		} else {
+			log.debug("estatísticas reconciliadas em {} ms, sem diferenças", System.currentTimeMillis() - inicio);
+		}
+		return diferenca;
+	}
+
+	//substitui os contadores atuais pelos recalculados e retorna a diferença entre eles
+	long substituir(Contadores novos) {
+		long diferenca = reconciliado ? contadores.diferenca(novos) : 0;
+		contadores = novos;
+		reconciliado = true;
+		divergencia.set(diferenca);
+		return diferenca;
+	}
+
+	/*
+	 * Aplica a alteração aos contadores atuais depois do commit da transação em andamento. Fora de uma transação
+	 * a alteração é aplicada imediatamente.
+	 */
+	private void aposCommit(Consumer<Contadores> alteracao) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					alteracao.accept(contadores);
+				}
+			});
+		} else {
+			alteracao.accept(contadores);
+		}
+	}
+
+	private static void perfis(Contadores c, Collection<Long> ids, int sinal) {
+		for (Long id : ids) {
+			PerfilTipo tipo = perfil(id);
+			if (tipo != null) {
+				c.perfis.get(tipo).add(sinal);
+			}
+		}
+	}
+
+	private static PerfilTipo perfil(long id) {
+		for (PerfilTipo tipo : PerfilTipo.values()) {
+			if (tipo.getCod() == id) {
+				return tipo;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Valores do painel exibidos na página home.
+	 * */
+	public static class Resumo {
+
+		private final Map<String, Long> perfis = new LinkedHashMap<>();
+		private final long ativos;
+		private final long pendentes;
+		private final Map<String, Long> medicosPorEspecialidade = new LinkedHashMap<>();
+		private final Map<String, Long> agendamentosPorMes = new LinkedHashMap<>();
+
+		Resumo(long ativos, long pendentes) {
+			this.ativos = ativos;
+			this.pendentes = pendentes;
+		}
+
+		//usuários por perfil, na ordem de PerfilTipo
+		public Map<String, Long> getPerfis() {
+			return Collections.unmodifiableMap(perfis);
+		}
+
+		public long getAtivos() {
+			return ativos;
+		}
+
+		public long getPendentes() {
+			return pendentes;
+		}
+
+		//médicos por título da especialidade, em ordem alfabética
+		public Map<String, Long> getMedicosPorEspecialidade() {
+			return Collections.unmodifiableMap(medicosPorEspecialidade);
+		}
+
+		//consultas por mês (MM/yyyy), do mês mais recente para o mais antigo
+		public Map<String, Long> getAgendamentosPorMes() {
+			return Collections.unmodifiableMap(agendamentosPorMes);
+		}
+	}
+}
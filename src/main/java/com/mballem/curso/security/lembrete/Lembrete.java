@@ -0,0 +1,56 @@
+package com.mballem.curso.security.lembrete;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * Dados de uma consulta usados no email de lembrete. Lidos diretamente das colunas, sem carregar as entidades.
+ * */
+class Lembrete {
+
+	private final long id;
+	private final String email;
+	private final String paciente;
+	private final String medico;
+	private final String especialidade;
+	private final LocalDate data;
+	private final LocalTime hora;
+
+	Lembrete(long id, String email, String paciente, String medico, String especialidade, LocalDate data, LocalTime hora) {
+		this.id = id;
+		this.email = email;
+		this.paciente = paciente;
+		this.medico = medico;
+		this.especialidade = especialidade;
+		this.data = data;
+		this.hora = hora;
+	}
+
+	long getId() {
+		return id;
+	}
+
+	String getEmail() {
+		return email;
+	}
+
+	String getPaciente() {
+		return paciente;
+	}
+
+	String getMedico() {
+		return medico;
+	}
+
+	String getEspecialidade() {
+		return especialidade;
+	}
+
+	LocalDate getData() {
+		return data;
+	}
+
+	LocalTime getHora() {
+		return hora;
+	}
+}
@@ -0,0 +1,467 @@
+package com.mballem.curso.security.lembrete;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.util.HtmlUtils;
+import org.thymeleaf.context.Context;
+import org.thymeleaf.spring5.SpringTemplateEngine;
+
+import com.mballem.curso.security.util.ThreadsVirtuais;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Envio noturno dos emails de lembrete das consultas do dia seguinte (ver LembreteConfig).
+ *
+ * Leitura: os agendamentos da data são lidos em páginas por keyset (a.id > cursor ORDER BY a.id LIMIT n), atendidas pelo indice
+ * idx_agendamento_data. Cada página é lida e a conexão devolvida ao pool antes do envio: um ResultSet aberto durante todo o envio
+ * seria encerrado pelo MySQL (net_write_timeout) sempre que o servidor SMTP ficasse lento.
+ *
+ * Modelo: o template email/confirmacao é processado pelo Thymeleaf uma única vez por execução, com um marcador no lugar do texto.
+ * Cada lembrete apenas junta o início do html, o seu texto e o final. A imagem do logo também é lida uma única vez.
+ *
+ * Envio: os lembretes são agrupados em lotes enviados por um pool de tamanho fixo (paralelismo). Cada lote é enviado por uma única
+ * conexão SMTP (JavaMailSender.send(MimeMessage...)). No máximo 2 lotes por thread aguardam envio, assim a leitura não se adianta ao SMTP.
+ * Com app.threads.virtuais= true as threads do pool são virtuais, mantendo o paralelismo como limite de conexões SMTP.
+ *
+ * Retomada: após cada lote a marca de progresso (ProgressoLembretes) é gravada na tabela lembretes_execucao. Se a aplicação for
+ * reiniciada no meio do envio, o envio é retomado a partir da marca assim que a aplicação iniciar. Os lotes que estavam em envio no
+ * momento da parada podem ser enviados novamente.
+ *
+ * Falhas: os lembretes não enviados são gravados na tabela lembretes_falhas e reenviados ao final da execução (app.lembrete.tentativas).
+ * A data só é marcada como concluída quando não restar nenhuma falha. As datas não concluídas são executadas novamente a cada
+ * app.lembrete.reenvio-cron (a leitura parte da marca de progresso e apenas as falhas são reenviadas). As falhas de consultas
+ * excluídas, remarcadas ou de usuários desativados são descartadas.
+ *
+ * Métricas: app.lembrete.enviados e app.lembrete.falhas. Ao final de cada execução o total e a taxa (emails/s) são registrados no log.
+ * */
+public class LembreteConsultas {
+
+	private static final Logger log = LoggerFactory.getLogger(LembreteConsultas.class);
+
+	private static final String MARCADOR = "#texto-lembrete#";
+	private static final DateTimeFormatter DATA = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+	private static final DateTimeFormatter HORA = DateTimeFormatter.ofPattern("HH:mm");
+
+	private static final String COLUNAS = "SELECT a.id, u.email, p.nome AS paciente, m.nome AS medico, e.titulo, a.data_consulta, h.hora_minuto ";
+
+	private static final String JUNCOES = "INNER JOIN pacientes p ON p.id = a.id_paciente "
+			+ "INNER JOIN usuarios u ON u.id = p.id_usuario "
+			+ "INNER JOIN medicos m ON m.id = a.id_medico "
+			+ "INNER JOIN especialidades e ON e.id = a.id_especialidade "
+			+ "INNER JOIN horas h ON h.id = a.id_horario ";
+
+	private static final String CONSULTA = COLUNAS
+			+ "FROM agendamentos a "
+			+ JUNCOES
+			+ "WHERE a.data_consulta = ? AND a.id > ? AND u.ativo = 1 "
+			+ "ORDER BY a.id LIMIT ?";
+
+	//lembretes não enviados da data que continuam válidos (a consulta não foi excluída nem remarcada e o usuário está ativo)
+	private static final String CONSULTA_FALHAS = COLUNAS
+			+ "FROM lembretes_falhas f "
+			+ "INNER JOIN agendamentos a ON a.id = f.id_agendamento AND a.data_consulta = f.data_consulta "
+			+ JUNCOES
+			+ "WHERE f.data_consulta = ? AND f.id_agendamento > ? AND u.ativo = 1 "
+			+ "ORDER BY f.id_agendamento LIMIT ?";
+
+	private static final String DESCARTAR_FALHAS = "DELETE FROM lembretes_falhas WHERE data_consulta = ? AND NOT EXISTS ("
+			+ "SELECT 1 FROM agendamentos a "
+			+ "INNER JOIN pacientes p ON p.id = a.id_paciente "
+			+ "INNER JOIN usuarios u ON u.id = p.id_usuario "
+			+ "WHERE a.id = lembretes_falhas.id_agendamento AND a.data_consulta = lembretes_falhas.data_consulta AND u.ativo = 1)";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final JavaMailSender mailSender;
+	private final SpringTemplateEngine template;
+	private final int paralelismo;
+	private final int tamanhoLote;
+	private final int tamanhoPagina;
+	private final int tentativas;
+	private final String remetente;
+	private final boolean threadsVirtuais;
+	private final Counter enviados;
+	private final Counter falhas;
+
+	private final AtomicBoolean emExecucao = new AtomicBoolean();
+	private volatile boolean parar;
+
+	public LembreteConsultas(JdbcTemplate jdbcTemplate, JavaMailSender mailSender, SpringTemplateEngine template, MeterRegistry registry,
+			int paralelismo, int tamanhoLote, int tamanhoPagina, int tentativas, String remetente, boolean threadsVirtuais) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.mailSender = mailSender;
+		this.template = template;
+		this.paralelismo = paralelismo;
+		this.tamanhoLote = tamanhoLote;
+		this.tamanhoPagina = tamanhoPagina;
+		this.tentativas = tentativas;
+		this.remetente = remetente;
+		this.threadsVirtuais = threadsVirtuais;
+		this.enviados = Counter.builder("app.lembrete.enviados").description("emails de lembrete enviados").register(registry);
+		this.falhas = Counter.builder("app.lembrete.falhas").description("emails de lembrete não enviados").register(registry);
+	}
+
+	//envio diário dos lembretes das consultas de amanhã
+	@Scheduled(cron = "${app.lembrete.cron:0 0 20 * * *}")
+	public void enviarLembretesDeAmanha() {
+		executar(LocalDate.now().plusDays(1));
+	}
+
+	//reenvia as falhas das datas ainda não concluídas
+	@Scheduled(cron = "${app.lembrete.reenvio-cron:0 30 * * * *}")
+	public void reenviarPendentes() {
+		pendentes().forEach(this::executar);
+	}
+
+	//retoma os envios interrompidos por uma parada da aplicação
+	@EventListener(ApplicationReadyEvent.class)
+	public void retomar() {
+		List<LocalDate> pendentes = pendentes();
+		if (!pendentes.isEmpty()) {
+			Thread retomada = new Thread(() -> pendentes.forEach(this::executar), "lembrete-retomada");
+			retomada.setDaemon(true);
+			retomada.start();
+		}
+	}
+
+	//datas interrompidas ou com lembretes não enviados cujas consultas ainda não passaram
+	private List<LocalDate> pendentes() {
+		return jdbcTemplate.query(
+				"SELECT data_consulta FROM lembretes_execucao WHERE concluido = 0 AND data_consulta >= ? ORDER BY data_consulta",
+				(rs, n) -> rs.getDate(1).toLocalDate(), Date.valueOf(LocalDate.now()));
+	}
+
+	@PreDestroy
+	public void parar() {
+		parar = true;
+	}
+
+	/**
+	 * Envia os lembretes das consultas da data, a partir da marca de progresso gravada para essa data.
+	 *
+	 * @return o resultado da execução. null quando já houver um envio em andamento
+	 * */
+	public Execucao executar(LocalDate data) {
+		if (!emExecucao.compareAndSet(false, true)) {
+			log.warn("envio de lembretes de {} ignorado: já existe um envio em andamento", data);
+			return null;
+		}
+		try {
+			return enviar(data);
+		} finally {
+			emExecucao.set(false);
+		}
+	}
+
+	private Execucao enviar(LocalDate data) {
+		jdbcTemplate.update("INSERT IGNORE INTO lembretes_execucao (data_consulta, ultimo_id, enviados, falhas, concluido, atualizado_em) "
+				+ "VALUES (?, 0, 0, 0, 0, NOW())", Date.valueOf(data));
+		Execucao execucao = jdbcTemplate.queryForObject(
+				"SELECT ultimo_id, enviados, falhas, concluido FROM lembretes_execucao WHERE data_consulta = ?",
+				(rs, n) -> new Execucao(data, rs.getLong("ultimo_id"), rs.getLong("enviados"), rs.getLong("falhas"), rs.getBoolean("concluido")),
+				Date.valueOf(data));
+		if (execucao.isConcluido()) {
+			log.info("lembretes de {} já enviados", data);
+			return execucao;
+		}
+		if (execucao.getUltimoId() > 0) {
+			log.info("retomando os lembretes de {} após a consulta {}", data, execucao.getUltimoId());
+		}
+
+		String[] modelo = modelo();
+		ByteArrayResource logo = logo();
+		ProgressoLembretes progresso = new ProgressoLembretes(execucao.getUltimoId());
+		Semaphore vagas = new Semaphore(paralelismo * 2);
+		AtomicInteger numero = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(paralelismo, threadsVirtuais ? ThreadsVirtuais.fabrica("lembrete-virtual-")
+				: r -> new Thread(r, "lembrete-" + numero.incrementAndGet()));
+
+		long cursor = execucao.getUltimoId();
+		try {
+			while (!parar) {
+				List<Lembrete> pagina = jdbcTemplate.query(CONSULTA, this::lembrete, Date.valueOf(data), cursor, tamanhoPagina);
+				if (pagina.isEmpty()) {
+					break;
+				}
+				for (int i = 0; i < pagina.size() && !parar; i += tamanhoLote) {
+					List<Lembrete> lote = pagina.subList(i, Math.min(i + tamanhoLote, pagina.size()));
+					long ultimoId = lote.get(lote.size() - 1).getId();
+					vagas.acquireUninterruptibly();
+					progresso.iniciar(ultimoId);
+					pool.execute(() -> {
+						try {
+							List<Long> naoEnviados = enviarLote(lote, modelo, logo);
+							registrarFalhas(data, naoEnviados);
+							execucao.somar(lote.size(), naoEnviados.size());
+						} finally {
+							salvarProgresso(execucao, progresso.concluir(ultimoId), false);
+							vagas.release();
+						}
+					});
+					cursor = ultimoId;
+				}
+			}
+		} finally {
+			pool.shutdown();
+			aguardar(pool);
+		}
+
+		if (!parar) {
+			reenviarFalhas(execucao, modelo, logo);
+		}
+		long pendentes = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM lembretes_falhas WHERE data_consulta = ?", Long.class,
+				Date.valueOf(data));
+		execucao.finalizar(!parar && pendentes == 0, pendentes);
+		salvarProgresso(execucao, progresso.getMarca(), execucao.isConcluido());
+		log.info("lembretes de {}: {} enviados, {} falhas em {} s ({} emails/s), {} aguardando reenvio{}", data,
+				execucao.getEnviadosNaExecucao(), execucao.getFalhasNaExecucao(), String.format("%.1f", execucao.getSegundos()),
+				String.format("%.0f", execucao.getEmailsPorSegundo()), pendentes, parar ? " - interrompido" : "");
+		return execucao;
+	}
+
+	/*
+	 * Reenvia os lembretes gravados em lembretes_falhas, em lotes na thread da execução (as falhas são poucas). Cada lembrete
+	 * enviado é removido da tabela.
+	 * */
+	private void reenviarFalhas(Execucao execucao, String[] modelo, ByteArrayResource logo) {
+		Date data = Date.valueOf(execucao.getData());
+		jdbcTemplate.update(DESCARTAR_FALHAS, data);
+		for (int tentativa = 0; tentativa < tentativas && !parar; tentativa++) {
+			long cursor = 0;
+			int reenviados = 0;
+			while (!parar) {
+				List<Lembrete> pagina = jdbcTemplate.query(CONSULTA_FALHAS, this::lembrete, data, cursor, tamanhoPagina);
+				if (pagina.isEmpty()) {
+					break;
+				}
+				for (int i = 0; i < pagina.size() && !parar; i += tamanhoLote) {
+					List<Lembrete> lote = pagina.subList(i, Math.min(i + tamanhoLote, pagina.size()));
+					List<Long> naoEnviados = enviarLote(lote, modelo, logo);
+					List<Object[]> enviadosLote = new ArrayList<>(lote.size());
+					for (Lembrete lembrete : lote) {
+						if (!naoEnviados.contains(lembrete.getId())) {
+							enviadosLote.add(new Object[] {data, lembrete.getId()});
+						}
+					}
+					jdbcTemplate.batchUpdate("DELETE FROM lembretes_falhas WHERE data_consulta = ? AND id_agendamento = ?", enviadosLote);
+					execucao.somar(lote.size(), naoEnviados.size());
+					reenviados += enviadosLote.size();
+				}
+				cursor = pagina.get(pagina.size() - 1).getId();
+			}
+			if (cursor == 0) {
+				break;
+			}
+			log.info("lembretes de {}: tentativa {} reenviou {}", execucao.getData(), tentativa + 1, reenviados);
+		}
+	}
+
+	private void registrarFalhas(LocalDate data, List<Long> naoEnviados) {
+		if (!naoEnviados.isEmpty()) {
+			List<Object[]> falhas = new ArrayList<>(naoEnviados.size());
+			naoEnviados.forEach(id -> falhas.add(new Object[] {Date.valueOf(data), id}));
+			jdbcTemplate.batchUpdate("INSERT IGNORE INTO lembretes_falhas (data_consulta, id_agendamento) VALUES (?, ?)", falhas);
+		}
+	}
+
+	/**
+	 * Envia o lote por uma única conexão SMTP.
+	 *
+	 * @return ids das consultas cujos lembretes não foram enviados
+	 * */
+	private List<Long> enviarLote(List<Lembrete> lote, String[] modelo, ByteArrayResource logo) {
+		Map<MimeMessage, Long> mensagens = new IdentityHashMap<>(lote.size());
+		List<Long> naoEnviados = new ArrayList<>();
+		for (Lembrete lembrete : lote) {
+			try {
+				mensagens.put(mensagem(lembrete, modelo, logo), lembrete.getId());
+			} catch (MessagingException ex) {
+				naoEnviados.add(lembrete.getId());
+				log.warn("lembrete da consulta {} não montado: {}", lembrete.getId(), ex.getMessage());
+			}
+		}
+		if (!mensagens.isEmpty()) {
+			try {
+				mailSender.send(mensagens.keySet().toArray(new MimeMessage[mensagens.size()]));
+			} catch (MailSendException ex) {
+				//sem as mensagens com falha (erro ao conectar) nenhuma mensagem do lote foi enviada
+				if (ex.getFailedMessages().isEmpty()) {
+					naoEnviados.addAll(mensagens.values());
+				} else {
+					ex.getFailedMessages().keySet().forEach(mensagem -> naoEnviados.add(mensagens.get(mensagem)));
+				}
+				log.warn("lote de lembretes até a consulta {} enviado com falhas: {}", lote.get(lote.size() - 1).getId(), ex.getMessage());
+			} catch (MailException ex) {
+				naoEnviados.addAll(mensagens.values());
+				log.warn("lote de lembretes até a consulta {} não enviado: {}", lote.get(lote.size() - 1).getId(), ex.getMessage());
+			}
+		}
+		enviados.increment(lote.size() - naoEnviados.size());
+		falhas.increment(naoEnviados.size());
+		return naoEnviados;
+	}
+
+	private MimeMessage mensagem(Lembrete lembrete, String[] modelo, ByteArrayResource logo) throws MessagingException {
+		String texto = "Olá " + lembrete.getPaciente() + ", sua consulta de " + lembrete.getEspecialidade() + " com " + lembrete.getMedico()
+				+ " está marcada para " + lembrete.getData().format(DATA) + " às " + lembrete.getHora().format(HORA) + ".";
+
+		MimeMessage message = mailSender.createMimeMessage();
+		MimeMessageHelper helper = new MimeMessageHelper(message, MimeMessageHelper.MULTIPART_MODE_MIXED_RELATED, "UTF-8");
+		helper.setTo(lembrete.getEmail());
+		helper.setText(modelo[0] + HtmlUtils.htmlEscape(texto, "UTF-8") + modelo[1], true);
+		helper.setSubject("Lembrete de consulta");
+		helper.setFrom(remetente);
+		helper.addInline("logo", logo, "image/png");
+		return message;
+	}
+
+	/*
+	 * Processa o template email/confirmacao com um marcador no lugar do texto e devolve o html antes e depois do marcador.
+	 * */
+	private String[] modelo() {
+		Context context = new Context();
+		context.setVariable("titulo", "Lembrete de consulta");
+		context.setVariable("texto", MARCADOR);
+		String html = template.process("email/confirmacao", context);
+		int posicao = html.indexOf(MARCADOR);
+		return new String[] {html.substring(0, posicao), html.substring(posicao + MARCADOR.length())};
+	}
+
+	private ByteArrayResource logo() {
+		try (InputStream in = new ClassPathResource("static/image/spring-security.png").getInputStream()) {
+			return new ByteArrayResource(StreamUtils.copyToByteArray(in));
+		} catch (IOException ex) {
+			throw new IllegalStateException("logo do email não encontrado", ex);
+		}
+	}
+
+	private Lembrete lembrete(ResultSet rs, int n) throws SQLException {
+		return new Lembrete(rs.getLong("id"), rs.getString("email"), rs.getString("paciente"), rs.getString("medico"),
+				rs.getString("titulo"), rs.getDate("data_consulta").toLocalDate(), rs.getTime("hora_minuto").toLocalTime());
+	}
+
+	private void salvarProgresso(Execucao execucao, long marca, boolean concluido) {
+		jdbcTemplate.update("UPDATE lembretes_execucao SET ultimo_id = GREATEST(ultimo_id, ?), enviados = ?, falhas = ?, concluido = ?, "
+				+ "atualizado_em = NOW() WHERE data_consulta = ?",
+				marca, execucao.getEnviados(), execucao.getFalhas(), concluido, Date.valueOf(execucao.getData()));
+	}
+
+	private void aguardar(ExecutorService pool) {
+		try {
+			pool.awaitTermination(1, TimeUnit.HOURS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Resultado de um envio de lembretes. Os totais incluem as execuções anteriores da mesma data (retomadas). Ao final da execução
+	 * as falhas são os lembretes que continuam aguardando reenvio.
+	 * */
+	public static class Execucao {
+
+		private final LocalDate data;
+		private final long ultimoId;
+		private final long enviadosAntes;
+		private final long falhasAntes;
+		private final LongAdder enviados = new LongAdder();
+		private final LongAdder falhas = new LongAdder();
+		private final long inicio = System.nanoTime();
+		private volatile long fim;
+		private volatile boolean concluido;
+		private volatile long pendentes = -1;
+
+		Execucao(LocalDate data, long ultimoId, long enviados, long falhas, boolean concluido) {
+			this.data = data;
+			this.ultimoId = ultimoId;
+			this.enviadosAntes = enviados;
+			this.falhasAntes = falhas;
+			this.concluido = concluido;
+		}
+
+		void somar(int lembretes, int naoEnviados) {
+			enviados.add(lembretes - naoEnviados);
+			falhas.add(naoEnviados);
+		}
+
+		void finalizar(boolean concluido, long pendentes) {
+			this.fim = System.nanoTime();
+			this.concluido = concluido;
+			this.pendentes = pendentes;
+		}
+
+		public LocalDate getData() {
+			return data;
+		}
+
+		//marca de progresso no início da execução
+		public long getUltimoId() {
+			return ultimoId;
+		}
+
+		public long getEnviados() {
+			return enviadosAntes + enviados.sum();
+		}
+
+		//durante a execução, a soma das falhas. Ao final, os lembretes gravados em lembretes_falhas
+		public long getFalhas() {
+			return pendentes >= 0 ? pendentes : falhasAntes + falhas.sum();
+		}
+
+		public long getEnviadosNaExecucao() {
+			return enviados.sum();
+		}
+
+		public long getFalhasNaExecucao() {
+			return falhas.sum();
+		}
+
+		public boolean isConcluido() {
+			return concluido;
+		}
+
+		public double getSegundos() {
+			return ((fim == 0 ? System.nanoTime() : fim) - inicio) / 1e9;
+		}
+
+		public double getEmailsPorSegundo() {
+			double segundos = getSegundos();
+			return segundos > 0 ? getEnviadosNaExecucao() / segundos : 0;
+		}
+	}
+}
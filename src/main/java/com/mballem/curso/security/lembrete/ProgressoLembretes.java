@@ -0,0 +1,44 @@
+package com.mballem.curso.security.lembrete;
+
+import java.util.TreeSet;
+
+/**
+ * Controla o ponto de retomada (checkpoint) do envio de lembretes.
+ * Os lotes são enviados em paralelo e podem terminar fora de ordem. A marca só avança até o último id de um lote concluído
+ * cujos lotes anteriores também já foram concluídos, assim todos os agendamentos com id menor ou igual à marca já foram processados.
+ * */
+class ProgressoLembretes {
+
+	//último id de cada lote ainda em envio
+	private final TreeSet<Long> emAndamento = new TreeSet<>();
+	//último id dos lotes concluídos que ainda não entraram na marca
+	private final TreeSet<Long> concluidos = new TreeSet<>();
+	private long marca;
+
+	ProgressoLembretes(long marca) {
+		this.marca = marca;
+	}
+
+	//registra o lote antes de enviá-lo. Os lotes devem ser iniciados em ordem crescente de id
+	synchronized void iniciar(long ultimoId) {
+		emAndamento.add(ultimoId);
+	}
+
+	/**
+	 * Registra a conclusão do lote.
+	 * 
+	 * @return a marca de retomada atualizada
+	 * */
+	synchronized long concluir(long ultimoId) {
+		emAndamento.remove(ultimoId);
+		concluidos.add(ultimoId);
+		while (!concluidos.isEmpty() && (emAndamento.isEmpty() || concluidos.first() < emAndamento.first())) {
+			marca = concluidos.pollFirst();
+		}
+		return marca;
+	}
+
+	synchronized long getMarca() {
+		return marca;
+	}
+}
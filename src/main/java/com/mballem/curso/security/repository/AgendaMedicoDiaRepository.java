@@ -0,0 +1,51 @@
+package com.mballem.curso.security.repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.mballem.curso.security.domain.AgendaMedicoDia;
+import com.mballem.curso.security.repository.projection.AgendaDiaria;
+
+@Repository
+public interface AgendaMedicoDiaRepository extends JpaRepository<AgendaMedicoDia, Long> {
+
+	//lê os contadores de um médico em um intervalo de datas. Não acessa a tabela agendamentos
+	@Query("SELECT c.dataConsulta AS data, c.total AS total FROM AgendaMedicoDia c "
+			+ "WHERE c.medico.id = :medicoId AND c.dataConsulta BETWEEN :inicio AND :fim AND c.total > 0 "
+			+ "ORDER BY c.dataConsulta")
+	List<AgendaDiaria> findAgenda(@Param("medicoId") Long medicoId, @Param("inicio") LocalDate inicio, @Param("fim") LocalDate fim);
+
+	//soma uma consulta ao contador do dia, criando o contador caso ainda não exista
+	@Modifying
+	@Query(value = "INSERT INTO agenda_medico_dia (id_medico, data_consulta, total) VALUES (:medicoId, :data, 1) "
+			+ "ON DUPLICATE KEY UPDATE total = total + 1", nativeQuery = true)
+	void incrementar(@Param("medicoId") Long medicoId, @Param("data") LocalDate data);
+
+	//subtrai uma consulta do contador do dia
+	@Modifying
+	@Query(value = "UPDATE agenda_medico_dia SET total = total - 1 "
+			+ "WHERE id_medico = :medicoId AND data_consulta = :data AND total > 0", nativeQuery = true)
+	void decrementar(@Param("medicoId") Long medicoId, @Param("data") LocalDate data);
+
+	@Modifying
+	@Query(value = "DELETE FROM agenda_medico_dia WHERE id_medico = :medicoId AND data_consulta BETWEEN :inicio AND :fim", nativeQuery = true)
+	void deleteAgenda(@Param("medicoId") Long medicoId, @Param("inicio") LocalDate inicio, @Param("fim") LocalDate fim);
+
+	//médicos cuja agenda é recalculada em AgendaService.recalcularTodos()
+	@Query("SELECT m.id FROM Medico m ORDER BY m.id")
+	List<Long> findMedicosIds();
+
+	//recalcula os contadores a partir da tabela agendamentos com uma única consulta GROUP BY
+	@Modifying
+	@Query(value = "INSERT INTO agenda_medico_dia (id_medico, data_consulta, total) "
+			+ "SELECT a.id_medico, a.data_consulta, COUNT(*) FROM agendamentos a "
+			+ "WHERE a.id_medico = :medicoId AND a.data_consulta BETWEEN :inicio AND :fim "
+			+ "GROUP BY a.id_medico, a.data_consulta", nativeQuery = true)
+	void recalcularAgenda(@Param("medicoId") Long medicoId, @Param("inicio") LocalDate inicio, @Param("fim") LocalDate fim);
+}
@@ -0,0 +1,72 @@
+package com.mballem.curso.security.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.mballem.curso.security.domain.AgendamentoListagem;
+
+/**
+ * Escrita e leitura da tabela agendamentos_listagem (ver AgendamentoListagem). Toda escrita é feita com SQL nativo, copiando
+ * os dados diretamente das tabelas de origem.
+ * */
+@Repository
+public interface AgendamentoListagemRepository extends JpaRepository<AgendamentoListagem, Long>, JpaSpecificationExecutor<AgendamentoListagem> {
+
+	//copia os agendamentos selecionados pelo WHERE, inserindo as linhas novas e atualizando as existentes
+	String COPIAR = "INSERT INTO agendamentos_listagem "
+			+ "(id, data_consulta, id_paciente, paciente_nome, id_medico, medico_nome, id_especialidade, especialidade_titulo) "
+			+ "SELECT a.id, a.data_consulta, p.id, p.nome, m.id, m.nome, e.id, e.titulo FROM agendamentos a "
+			+ "LEFT JOIN pacientes p ON p.id = a.id_paciente "
+			+ "LEFT JOIN medicos m ON m.id = a.id_medico "
+			+ "LEFT JOIN especialidades e ON e.id = a.id_especialidade ";
+
+	String ATUALIZAR_EXISTENTES = " ON DUPLICATE KEY UPDATE data_consulta = VALUES(data_consulta), "
+			+ "id_paciente = VALUES(id_paciente), paciente_nome = VALUES(paciente_nome), "
+			+ "id_medico = VALUES(id_medico), medico_nome = VALUES(medico_nome), "
+			+ "id_especialidade = VALUES(id_especialidade), especialidade_titulo = VALUES(especialidade_titulo)";
+
+	@Modifying
+	@Query(value = COPIAR + "WHERE a.id = :id" + ATUALIZAR_EXISTENTES, nativeQuery = true)
+	int copiar(@Param("id") Long id);
+
+	//copia os agendamentos com id no intervalo (de, ate]. Usado pela reconstrução em lotes
+	@Modifying
+	@Query(value = COPIAR + "WHERE a.id > :de AND a.id <= :ate" + ATUALIZAR_EXISTENTES, nativeQuery = true)
+	int copiarIntervalo(@Param("de") long de, @Param("ate") long ate);
+
+	@Modifying
+	@Query(value = "DELETE FROM agendamentos_listagem WHERE id = :id", nativeQuery = true)
+	int remover(@Param("id") Long id);
+
+	//remove as linhas do intervalo (de, ate] cujo agendamento não existe mais
+	@Modifying
+	@Query(value = "DELETE FROM agendamentos_listagem WHERE id > :de AND id <= :ate "
+			+ "AND id NOT IN (SELECT a.id FROM agendamentos a WHERE a.id > :de AND a.id <= :ate)", nativeQuery = true)
+	int removerOrfaos(@Param("de") long de, @Param("ate") long ate);
+
+	//remove até 'lote' linhas com id maior que 'id' cujo agendamento não existe mais. Os agendamentos gravados depois da leitura
+	//do maior id (com a reconstrução em andamento) já foram copiados pelo AgendamentoService e são mantidos
+	@Modifying
+	@Query(value = "DELETE FROM agendamentos_listagem WHERE id > :id "
+			+ "AND NOT EXISTS (SELECT 1 FROM agendamentos a WHERE a.id = agendamentos_listagem.id) LIMIT :lote", nativeQuery = true)
+	int removerApos(@Param("id") long id, @Param("lote") int lote);
+
+	@Query(value = "SELECT COALESCE(MAX(id), 0) FROM agendamentos", nativeQuery = true)
+	Long maxAgendamentoId();
+
+	@Modifying
+	@Query(value = "UPDATE agendamentos_listagem SET paciente_nome = :nome WHERE id_paciente = :id", nativeQuery = true)
+	int atualizarPaciente(@Param("id") Long id, @Param("nome") String nome);
+
+	@Modifying
+	@Query(value = "UPDATE agendamentos_listagem SET medico_nome = :nome WHERE id_medico = :id", nativeQuery = true)
+	int atualizarMedico(@Param("id") Long id, @Param("nome") String nome);
+
+	@Modifying
+	@Query(value = "UPDATE agendamentos_listagem SET especialidade_titulo = :titulo WHERE id_especialidade = :id", nativeQuery = true)
+	int atualizarEspecialidade(@Param("id") Long id, @Param("titulo") String titulo);
+}
@@ -0,0 +1,48 @@
+package com.mballem.curso.security.repository;
+
+import java.time.LocalDate;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.mballem.curso.security.domain.Agendamento;
+import com.mballem.curso.security.repository.projection.HistoricoPaciente;
+
+@Repository
+public interface AgendamentoRepository extends JpaRepository<Agendamento, Long> {
+
+	/*
+	 * Primeira página do histórico de consultas de um paciente. Consultas mais recentes primeiro.
+	 * A ordenação (data_consulta, id) é atendida pelo indice idx_agendamento_paciente_data.
+	 * */
+	@Query("SELECT a.id AS id, p.nome AS paciente, a.dataConsulta AS dataConsulta, m.nome AS medico, e.titulo AS especialidade "
+			+ "FROM Agendamento a INNER JOIN a.paciente p INNER JOIN a.medico m INNER JOIN a.especialidade e "
+			+ "WHERE p.id = :pacienteId "
+			+ "ORDER BY a.dataConsulta DESC, a.id DESC")
+	Slice<HistoricoPaciente> findHistoricoByPacienteId(@Param("pacienteId") Long pacienteId, Pageable pageable);
+
+	/*
+	 * Páginas seguintes do histórico (paginação por keyset). Busca as consultas posteriores ao último par (data_consulta, id) já exibido,
+	 * sem usar OFFSET. A condição 'dataConsulta <= :data' permite ao banco de dados fazer um range scan no indice.
+	 * */
+	@Query("SELECT a.id AS id, p.nome AS paciente, a.dataConsulta AS dataConsulta, m.nome AS medico, e.titulo AS especialidade "
+			+ "FROM Agendamento a INNER JOIN a.paciente p INNER JOIN a.medico m INNER JOIN a.especialidade e "
+			+ "WHERE p.id = :pacienteId AND a.dataConsulta <= :data "
+			+ "AND (a.dataConsulta < :data OR a.id < :id) "
+			+ "ORDER BY a.dataConsulta DESC, a.id DESC")
+	Slice<HistoricoPaciente> findHistoricoByPacienteIdApos(@Param("pacienteId") Long pacienteId, 
+			@Param("data") LocalDate data, @Param("id") Long id, Pageable pageable);
+
+	/*
+	 * Verifica se o horário do médico já está agendado na data, ignorando o próprio agendamento em uma edição.
+	 * Atendida pela chave única uk_agendamento_medico_data_horario.
+	 * */
+	@Query("SELECT COUNT(a) > 0 FROM Agendamento a "
+			+ "WHERE a.medico.id = :medicoId AND a.dataConsulta = :data AND a.horario.id = :horarioId AND a.id <> :ignorado")
+	boolean existsHorarioAgendado(@Param("medicoId") Long medicoId, @Param("data") LocalDate data, 
+			@Param("horarioId") Long horarioId, @Param("ignorado") Long ignorado);
+}
@@ -0,0 +1,23 @@
+package com.mballem.curso.security.repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.mballem.curso.security.domain.Horario;
+
+@Repository
+public interface HorarioRepository extends JpaRepository<Horario, Long> {
+
+	/*
+	 * Horários ainda livres do médico na data. A subconsulta é atendida pela chave única uk_agendamento_medico_data_horario.
+	 * */
+	@Query("SELECT h FROM Horario h WHERE NOT EXISTS ("
+			+ "SELECT a.id FROM Agendamento a WHERE a.medico.id = :medicoId AND a.dataConsulta = :data AND a.horario.id = h.id) "
+			+ "ORDER BY h.horaMinuto")
+	List<Horario> findHorariosLivres(@Param("medicoId") Long medicoId, @Param("data") LocalDate data);
+}
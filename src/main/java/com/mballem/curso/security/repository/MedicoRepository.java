@@ -1,20 +1,85 @@
 package com.mballem.curso.security.repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import com.mballem.curso.security.domain.Especialidade;
 import com.mballem.curso.security.domain.Medico;
+import com.mballem.curso.security.repository.projection.EspecialidadeDoMedico;
+import com.mballem.curso.security.repository.projection.MedicoResumo;
 
 @Repository
-public interface MedicoRepository extends JpaRepository<Medico, Long>{
+public interface MedicoRepository extends JpaRepository<Medico, Long>, JpaSpecificationExecutor<Medico>{
 
 	@Query("SELECT m FROM Medico m WHERE m.usuario.id = :id")
 	Optional<Medico> findByUsuarioId(@Param("id") Long id);
 
 	@Query("SELECT m FROM Medico m WHERE m.usuario.email LIKE :email")
 	Optional<Medico> findByUsuarioEmail(String email);
+
+	//busca apenas o id do médico, sem carregar a entidade
+	@Query("SELECT m.id FROM Medico m WHERE m.usuario.email = :email")
+	Optional<Long> findIdByUsuarioEmail(@Param("email") String email);
+
+	//médicos ativos que atendem a especialidade, usados na página de agendamento de consultas
+	@Query("SELECT m.id AS id, m.nome AS nome FROM Medico m JOIN m.especialidades e "
+			+ "WHERE e.titulo = :titulo AND m.usuario.ativo = true ORDER BY m.nome")
+	List<MedicoResumo> findByEspecialidadeTitulo(@Param("titulo") String titulo);
+
+	//ids das especialidades do médico lidos da tabela medicos_tem_especialidades, sem carregar a coleção do médico
+	@Query("SELECT e.id FROM Medico m JOIN m.especialidades e WHERE m.id = :id")
+	Set<Long> findEspecialidadesIdsByMedicoId(@Param("id") Long id);
+
+	@Query("SELECT e FROM Medico m JOIN m.especialidades e WHERE m.id = :id ORDER BY e.titulo")
+	List<Especialidade> findEspecialidadesByMedicoId(@Param("id") Long id);
+
+	//especialidades de vários médicos em uma única consulta, usada pela tabela de médicos para a página inteira
+	@Query("SELECT m.id AS medicoId, e.id AS id, e.titulo AS titulo FROM Medico m JOIN m.especialidades e "
+			+ "WHERE m.id IN :ids ORDER BY e.titulo")
+	List<EspecialidadeDoMedico> findEspecialidadesByMedicoIds(@Param("ids") Collection<Long> ids);
+
+	//insere todas as especialidades novas do médico em um único comando. Ids de especialidades inexistentes são ignorados
+	@Modifying
+	@Query(value = "INSERT INTO medicos_tem_especialidades (id_especialidade, id_medico) "
+			+ "SELECT e.id, :idMedico FROM especialidades e WHERE e.id IN :ids", nativeQuery = true)
+	int insertEspecialidades(@Param("idMedico") Long idMedico, @Param("ids") Collection<Long> ids);
+
+	//remove as especialidades do médico em um único comando
+	@Modifying
+	@Query(value = "DELETE FROM medicos_tem_especialidades WHERE id_medico = :idMedico AND id_especialidade IN :ids", nativeQuery = true)
+	int deleteEspecialidades(@Param("idMedico") Long idMedico, @Param("ids") Collection<Long> ids);
+
+	/*
+	 * Recalcula a coluna especialidades_ordem, usada para ordenar a tabela de médicos pelas especialidades sem join com a coleção.
+	 * Os títulos são concatenados em ordem alfabética e limitados ao tamanho do índice idx_medico_especialidades_ordem.
+	 * flushAutomatically grava antes as especialidades ainda pendentes na sessão, como as de um médico novo.
+	 */
+	@Modifying(flushAutomatically = true)
+	@Query(value = "UPDATE medicos m SET m.especialidades_ordem = COALESCE((SELECT LEFT(GROUP_CONCAT(e.titulo ORDER BY e.titulo SEPARATOR ', '), 255) "
+			+ "FROM medicos_tem_especialidades me JOIN especialidades e ON e.id = me.id_especialidade WHERE me.id_medico = m.id), '') "
+			+ "WHERE m.id = :idMedico", nativeQuery = true)
+	int updateEspecialidadesOrdem(@Param("idMedico") Long idMedico);
+
+	//mesmo cálculo de updateEspecialidadesOrdem() para todos os médicos da especialidade, usado quando o título é alterado
+	@Modifying(flushAutomatically = true)
+	@Query(value = "UPDATE medicos m SET m.especialidades_ordem = COALESCE((SELECT LEFT(GROUP_CONCAT(e.titulo ORDER BY e.titulo SEPARATOR ', '), 255) "
+			+ "FROM medicos_tem_especialidades me JOIN especialidades e ON e.id = me.id_especialidade WHERE me.id_medico = m.id), '') "
+			+ "WHERE m.id IN (SELECT x.id_medico FROM medicos_tem_especialidades x WHERE x.id_especialidade = :idEspecialidade)", nativeQuery = true)
+	int updateEspecialidadesOrdemPorEspecialidade(@Param("idEspecialidade") Long idEspecialidade);
+
+	//mesmo cálculo de updateEspecialidadesOrdem() para os médicos sem a coluna preenchida, como os gravados antes da coluna existir
+	@Modifying
+	@Query(value = "UPDATE medicos m SET m.especialidades_ordem = COALESCE((SELECT LEFT(GROUP_CONCAT(e.titulo ORDER BY e.titulo SEPARATOR ', '), 255) "
+			+ "FROM medicos_tem_especialidades me JOIN especialidades e ON e.id = me.id_especialidade WHERE me.id_medico = m.id), '') "
+			+ "WHERE m.especialidades_ordem IS NULL", nativeQuery = true)
+	int updateEspecialidadesOrdemPendentes();
 }
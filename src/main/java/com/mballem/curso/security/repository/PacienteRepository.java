@@ -4,6 +4,7 @@ import java.util.Optional;
 
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import com.mballem.curso.security.domain.Paciente;
@@ -13,4 +14,8 @@ public interface PacienteRepository extends JpaRepository<Paciente, Long> {
 	
 	@Query("SELECT DISTINCT p FROM Paciente p WHERE p.usuario.email LIKE :email")
 	Optional<Paciente> findByUsuarioEmail(String email);
+
+	//busca apenas o id do paciente, sem carregar a entidade
+	@Query("SELECT p.id FROM Paciente p WHERE p.usuario.email = :email")
+	Optional<Long> findIdByUsuarioEmail(@Param("email") String email);
 }
@@ -1,10 +1,11 @@
 package com.mballem.curso.security.repository;
 
+import java.util.List;
 import java.util.Optional;
 
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -12,18 +13,35 @@ import org.springframework.stereotype.Repository;
 import com.mballem.curso.security.domain.Usuario;
 
 @Repository
-public interface UsuarioRepository extends JpaRepository<Usuario, Long>{
+public interface UsuarioRepository extends JpaRepository<Usuario, Long>, JpaSpecificationExecutor<Usuario>{
 
 	@Query("SELECT u From Usuario u WHERE u.email LIKE :email")
 	Usuario findByEmail(@Param("email") String email);
 
-	//Busca por email ou perfil.
-	@Query("SELECT DISTINCT u From Usuario u INNER JOIN u.perfis p WHERE u.email LIKE :search% OR p.desc LIKE :search%")
-	Page<Usuario> findByEmailOrPerfil(@Param("search") String search, Pageable pageable);
-
 	@Query("SELECT DISTINCT u FROM Usuario u INNER JOIN u.perfis p WHERE u.id = :usuarioId AND p.id IN :perfisId")
 	Optional<Usuario> findByIdAndPerfis(Long usuarioId, Long[] perfisId);
 
 	@Query("SELECT DISTINCT u FROM Usuario u WHERE u.email LIKE :email AND u.ativo = true")
 	Optional<Usuario> findByEmailAndAtivo(String email);
+
+	//situação atual do usuário, sem carregar a entidade
+	@Query("SELECT u.ativo FROM Usuario u WHERE u.id = :id")
+	Optional<Boolean> findAtivoById(@Param("id") Long id);
+
+	//email gravado do usuário, sem carregar a entidade
+	@Query("SELECT u.email FROM Usuario u WHERE u.id = :id")
+	Optional<String> findEmailById(@Param("id") Long id);
+
+	@Query("SELECT p.id FROM Usuario u INNER JOIN u.perfis p WHERE u.id = :id")
+	List<Long> findPerfisIdsById(@Param("id") Long id);
+
+	/*
+	 * Preenche a coluna perfis_ordem dos usuários gravados antes da coluna existir, no mesmo formato de Usuario.setPerfis():
+	 * os ids dos perfis em ordem crescente separados por vírgula, ou '' para o usuário sem perfis.
+	 */
+	@Modifying
+	@Query(value = "UPDATE usuarios u SET u.perfis_ordem = COALESCE((SELECT LEFT(GROUP_CONCAT(DISTINCT up.perfil_id ORDER BY up.perfil_id SEPARATOR ','), 20) "
+			+ "FROM usuarios_tem_perfis up WHERE up.usuario_id = u.id), '') "
+			+ "WHERE u.perfis_ordem IS NULL", nativeQuery = true)
+	int updatePerfisOrdemPendentes();
 }
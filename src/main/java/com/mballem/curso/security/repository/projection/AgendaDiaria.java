@@ -0,0 +1,13 @@
+package com.mballem.curso.security.repository.projection;
+
+import java.time.LocalDate;
+
+/**
+ * Projeção com o total de consultas de um médico em um dia.
+ * */
+public interface AgendaDiaria {
+
+	LocalDate getData();
+
+	Long getTotal();
+}
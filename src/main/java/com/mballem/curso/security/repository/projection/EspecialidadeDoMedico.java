@@ -0,0 +1,13 @@
+package com.mballem.curso.security.repository.projection;
+
+/**
+ * Projeção com uma especialidade de um médico, lida para todos os médicos de uma página da tabela de médicos em uma única consulta.
+ * */
+public interface EspecialidadeDoMedico {
+
+	Long getMedicoId();
+
+	Long getId();
+
+	String getTitulo();
+}
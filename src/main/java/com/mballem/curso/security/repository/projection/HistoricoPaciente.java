@@ -0,0 +1,20 @@
+package com.mballem.curso.security.repository.projection;
+
+import java.time.LocalDate;
+
+/**
+ * Projeção com apenas as colunas exibidas na tabela de histórico de consultas do paciente (agendamento/historico-paciente.html).
+ * Evita carregar as entidades Agendamento, Medico, Especialidade e Horario completas para cada linha.
+ * */
+public interface HistoricoPaciente {
+
+	Long getId();
+
+	String getPaciente();
+
+	LocalDate getDataConsulta();
+
+	String getMedico();
+
+	String getEspecialidade();
+}
@@ -0,0 +1,48 @@
+package com.mballem.curso.security.repository.projection;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import com.mballem.curso.security.domain.Medico;
+
+/**
+ * Linha da tabela de médicos (ver DatatablesColunas.MEDICOS): os dados do médico e suas especialidades, em ordem alfabética.
+ * As especialidades não vêm da coleção Medico.especialidades, que exigiria uma consulta por médico, e sim da consulta única
+ * MedicoRepository.findEspecialidadesByMedicoIds() feita para toda a página.
+ * */
+public class MedicoLinha {
+
+	private final Long id;
+	private final String nome;
+	private final Integer crm;
+	private final LocalDate dtInscricao;
+	private final List<EspecialidadeDoMedico> especialidades;
+
+	public MedicoLinha(Medico medico, List<EspecialidadeDoMedico> especialidades) {
+		this.id = medico.getId();
+		this.nome = medico.getNome();
+		this.crm = medico.getCrm();
+		this.dtInscricao = medico.getDtInscricao();
+		this.especialidades = especialidades;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public String getNome() {
+		return nome;
+	}
+
+	public Integer getCrm() {
+		return crm;
+	}
+
+	public LocalDate getDtInscricao() {
+		return dtInscricao;
+	}
+
+	public List<EspecialidadeDoMedico> getEspecialidades() {
+		return especialidades;
+	}
+}
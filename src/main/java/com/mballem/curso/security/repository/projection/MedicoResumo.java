@@ -0,0 +1,11 @@
+package com.mballem.curso.security.repository.projection;
+
+/**
+ * Projeção com o id e o nome do médico, exibidos nas opções de médico da página de agendamento de consultas.
+ * */
+public interface MedicoResumo {
+
+	Long getId();
+
+	String getNome();
+}
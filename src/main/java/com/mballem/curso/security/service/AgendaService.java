@@ -0,0 +1,100 @@
+package com.mballem.curso.security.service;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.mballem.curso.security.domain.Agendamento;
+import com.mballem.curso.security.repository.AgendaMedicoDiaRepository;
+import com.mballem.curso.security.repository.projection.AgendaDiaria;
+
+/**
+ * Serviço da agenda diária dos médicos. Mantém o total de consultas por médico e por dia na tabela agenda_medico_dia.
+ * Os métodos registrar() e cancelar() devem ser chamados na mesma transação que salva ou remove o Agendamento.
+ *
+ * Para popular a tabela em uma base já existente, ou corrigir divergências, a aplicação pode ser iniciada com
+ * --app.agenda.recalcular=true (ver recalcularTodos()).
+ * */
+@Service
+public class AgendaService {
+
+	private static final Logger log = LoggerFactory.getLogger(AgendaService.class);
+
+	//intervalo de datas aceito pelo tipo DATE do MySQL, usado para recalcular a agenda inteira de um médico
+	private static final LocalDate DATA_MINIMA = LocalDate.of(1000, 1, 1);
+	private static final LocalDate DATA_MAXIMA = LocalDate.of(9999, 12, 31);
+
+	@Autowired
+	private AgendaMedicoDiaRepository agendaRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Value("${app.agenda.recalcular:false}")
+	private boolean recalcularAoIniciar;
+
+	/**
+	 * Total de consultas por dia de um médico em um intervalo de datas. Lido dos contadores pré-agregados.
+	 * */
+	@Transactional(readOnly = true)
+	public List<AgendaDiaria> buscarAgenda(Long medicoId, LocalDate inicio, LocalDate fim) {
+		return agendaRepository.findAgenda(medicoId, inicio, fim);
+	}
+
+	//soma a consulta ao contador do dia do médico
+	@Transactional(propagation = Propagation.MANDATORY)
+	public void registrar(Agendamento agendamento) {
+		agendaRepository.incrementar(agendamento.getMedico().getId(), agendamento.getDataConsulta());
+	}
+
+	//subtrai a consulta do contador do dia do médico
+	@Transactional(propagation = Propagation.MANDATORY)
+	public void cancelar(Agendamento agendamento) {
+		agendaRepository.decrementar(agendamento.getMedico().getId(), agendamento.getDataConsulta());
+	}
+
+	/**
+	 * Reconstrói os contadores de um médico a partir da tabela agendamentos. Usado para corrigir divergências
+	 * ou popular a tabela agenda_medico_dia em uma base já existente.
+	 * */
+	@Transactional(readOnly = false)
+	public void recalcular(Long medicoId, LocalDate inicio, LocalDate fim) {
+		agendaRepository.deleteAgenda(medicoId, inicio, fim);
+		agendaRepository.recalcularAgenda(medicoId, inicio, fim);
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void recalcularAoIniciar() {
+		if (recalcularAoIniciar) {
+			recalcularTodos();
+		}
+	}
+
+	/**
+	 * Reconstrói os contadores de todos os médicos, em uma transação curta por médico. A agenda de cada médico continua
+	 * disponível enquanto os demais são recalculados.
+	 * */
+	public void recalcularTodos() {
+		long inicio = System.currentTimeMillis();
+		TransactionTemplate escrita = new TransactionTemplate(transactionManager);
+		List<Long> medicos = escrita.execute(status -> agendaRepository.findMedicosIds());
+		for (Long medicoId : medicos) {
+			escrita.execute(status -> {
+				recalcular(medicoId, DATA_MINIMA, DATA_MAXIMA);
+				return null;
+			});
+		}
+		log.info("agenda diária recalculada para {} médicos em {} ms", medicos.size(), System.currentTimeMillis() - inicio);
+	}
+}
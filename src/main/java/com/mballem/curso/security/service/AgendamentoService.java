@@ -0,0 +1,210 @@
+package com.mballem.curso.security.service;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.mballem.curso.security.domain.Agendamento;
+import com.mballem.curso.security.domain.Horario;
+import com.mballem.curso.security.estatisticas.EstatisticasClinica;
+import com.mballem.curso.security.repository.AgendamentoRepository;
+import com.mballem.curso.security.repository.HorarioRepository;
+import com.mballem.curso.security.repository.MedicoRepository;
+import com.mballem.curso.security.repository.PacienteRepository;
+import com.mballem.curso.security.repository.projection.HistoricoPaciente;
+import com.mballem.curso.security.repository.projection.MedicoResumo;
+import com.mballem.curso.security.util.ReservaHorarios;
+import com.mballem.curso.security.util.ReservaHorarios.Vaga;
+
+@Service
+public class AgendamentoService {
+
+	//quantidade máxima de consultas por página do histórico
+	private static final int TAMANHO_MAXIMO = 100;
+
+	//nome da chave única que impede dois agendamentos no mesmo horário do médico (ver Agendamento)
+	private static final String CHAVE_HORARIO = "uk_agendamento_medico_data_horario";
+
+	//tentativas de gravar o agendamento quando o banco de dados escolhe a transação como vítima de um deadlock
+	private static final int TENTATIVAS = 3;
+
+	@Autowired
+	private AgendamentoRepository agendamentoRepository;
+
+	@Autowired
+	private PacienteRepository pacienteRepository;
+
+	@Autowired
+	private HorarioRepository horarioRepository;
+
+	@Autowired
+	private MedicoRepository medicoRepository;
+
+	@Autowired
+	private AgendaService agendaService;
+
+	@Autowired
+	private ListagemAgendamentoService listagemService;
+
+	@Autowired
+	private EstatisticasClinica estatisticas;
+
+	@Autowired
+	private ReservaHorarios reservaHorarios;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	/**
+	 * Salva uma consulta e atualiza os contadores da agenda diária do médico, a lista de consultas e as estatísticas do painel.
+	 * Em uma edição, a consulta é retirada do dia/médico anterior antes de ser somada ao novo. A edição só é aceita para
+	 * o mesmo paciente da consulta gravada.
+	 * 
+	 * O método não é anotado com @Transactional: o horário é primeiro reservado em memória (ReservaHorarios) e apenas quem
+	 * conseguir a reserva abre a transação. Pacientes disputando o mesmo horário falham imediatamente, sem abrir a transação de
+	 * escrita nem aguardar os locks do banco de dados. A conexão, porém, já pode estar ocupada: com spring.jpa.open-in-view= true
+	 * a requisição mantém a conexão obtida pela busca do paciente no controller (PacienteService.buscarPorUsuarioEmail()).
+	 * Entre instâncias da aplicação, ou após a liberação da reserva, o horário já agendado é recusado pela consulta
+	 * existsHorarioAgendado() e, em último caso, pela chave única uk_agendamento_medico_data_horario. Em uma base criada antes
+	 * da chave, ela deve ser adicionada por scriptDB/atualizacao-mysql.sql, que lista antes os horários já agendados em duplicidade.
+	 * 
+	 * @throws HorarioIndisponivelException quando o horário do médico já estiver agendado na data
+	 * @throws AccessDeniedException quando o id informado for de uma consulta de outro paciente
+	 * */
+	public void salvar(Agendamento agendamento) {
+		Vaga vaga = new Vaga(agendamento.getMedico().getId(), agendamento.getDataConsulta(), agendamento.getHorario().getId());
+		if (!reservaHorarios.reservar(vaga)) {
+			throw new HorarioIndisponivelException();
+		}
+		try {
+			TransactionTemplate escrita = new TransactionTemplate(transactionManager);
+			Long id = agendamento.getId();
+			for (int tentativa = 1; ; tentativa++) {
+				agendamento.setId(id);//descarta o id gerado por uma tentativa desfeita
+				try {
+					escrita.execute(status -> {
+						gravar(agendamento, vaga);
+						return null;
+					});
+					return;
+				} catch (ConcurrencyFailureException ex) {
+					//o INSERT ... ON DUPLICATE KEY UPDATE simultâneo no contador da agenda do dia pode gerar deadlock no MySQL
+					if (tentativa == TENTATIVAS) {
+						throw ex;
+					}
+				}
+			}
+		} catch (DataIntegrityViolationException ex) {
+			String mensagem = ex.getMostSpecificCause().getMessage();
+			if (mensagem != null && mensagem.toLowerCase().contains(CHAVE_HORARIO)) {
+				throw new HorarioIndisponivelException();
+			}
+			throw ex;
+		} finally {
+			reservaHorarios.liberar(vaga);
+		}
+	}
+
+	//grava o agendamento na transação aberta por salvar()
+	private void gravar(Agendamento agendamento, Vaga vaga) {
+		Long ignorado = agendamento.hasId() ? agendamento.getId() : 0L;
+		if (agendamentoRepository.existsHorarioAgendado(vaga.getMedicoId(), vaga.getData(), vaga.getHorarioId(), ignorado)) {
+			throw new HorarioIndisponivelException();
+		}
+		if (agendamento.hasId()) {
+			agendamentoRepository.findById(agendamento.getId()).ifPresent(anterior -> {
+				if (!anterior.getPaciente().getId().equals(agendamento.getPaciente().getId())) {
+					throw new AccessDeniedException("A consulta " + anterior.getId() + " pertence a outro paciente");
+				}
+				agendaService.cancelar(anterior);
+				estatisticas.agendamentoCancelado(YearMonth.from(anterior.getDataConsulta()));
+			});
+		}
+		agendamentoRepository.saveAndFlush(agendamento);
+		agendaService.registrar(agendamento);
+		listagemService.registrar(agendamento.getId());
+		estatisticas.agendamentoRegistrado(YearMonth.from(agendamento.getDataConsulta()));
+	}
+
+	/**
+	 * Médicos ativos que atendem a especialidade informada.
+	 * */
+	@Transactional(readOnly = true)
+	public List<MedicoResumo> buscarMedicosPorEspecialidade(String titulo) {
+		return medicoRepository.findByEspecialidadeTitulo(titulo);
+	}
+
+	/**
+	 * Horários ainda não agendados do médico na data informada.
+	 * */
+	@Transactional(readOnly = true)
+	public List<Horario> buscarHorariosLivres(Long medicoId, LocalDate data) {
+		return horarioRepository.findHorariosLivres(medicoId, data);
+	}
+
+	/**
+	 * Cancela (exclui) uma consulta e atualiza os contadores da agenda diária do médico, a lista de consultas e as estatísticas do painel.
+	 * */
+	@Transactional(readOnly = false)
+	public void remover(Long id) {
+		agendamentoRepository.findById(id).ifPresent(agendamento -> {
+			agendaService.cancelar(agendamento);
+			listagemService.cancelar(agendamento.getId());
+			estatisticas.agendamentoCancelado(YearMonth.from(agendamento.getDataConsulta()));
+			agendamentoRepository.delete(agendamento);
+		});
+	}
+
+	/**
+	 * Busca uma página do histórico de consultas do paciente logado.
+	 * A paginação é feita por keyset: o cliente envia a data e o id da última consulta recebida e a consulta continua a partir desse ponto.
+	 * 
+	 * @param email o email(username) do paciente logado
+	 * @param data data da última consulta da página anterior. null para a primeira página
+	 * @param id id da última consulta da página anterior. null para a primeira página
+	 * @param tamanho quantidade de consultas da página
+	 * @return json com as consultas em 'data' e o cursor para a próxima página em 'proximo' (null quando não houver mais consultas)
+	 * */
+	@Transactional(readOnly = true)
+	public Map<String, Object> buscarHistoricoPorPacienteEmail(String email, LocalDate data, Long id, int tamanho) {
+		Map<String, Object> json = new LinkedHashMap<>();
+
+		Long pacienteId = pacienteRepository.findIdByUsuarioEmail(email).orElse(null);
+		if (pacienteId == null) {//paciente que ainda não cadastrou seus dados pessoais não possui consultas
+			json.put("data", new Object[0]);
+			json.put("proximo", null);
+			return json;
+		}
+
+		PageRequest pagina = PageRequest.of(0, Math.max(1, Math.min(tamanho, TAMANHO_MAXIMO)));
+		Slice<HistoricoPaciente> slice = (data == null || id == null)
+				? agendamentoRepository.findHistoricoByPacienteId(pacienteId, pagina)
+				: agendamentoRepository.findHistoricoByPacienteIdApos(pacienteId, data, id, pagina);
+
+		List<HistoricoPaciente> consultas = slice.getContent();
+		json.put("data", consultas);
+		json.put("proximo", slice.hasNext() ? cursor(consultas.get(consultas.size() - 1)) : null);
+		return json;
+	}
+
+	//cursor (data, id) da última consulta da página
+	private Map<String, Object> cursor(HistoricoPaciente ultima) {
+		Map<String, Object> cursor = new LinkedHashMap<>();
+		cursor.put("data", ultima.getDataConsulta());
+		cursor.put("id", ultima.getId());
+		return cursor;
+	}
+}
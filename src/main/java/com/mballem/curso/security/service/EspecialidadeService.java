@@ -1,5 +1,6 @@
 package com.mballem.curso.security.service;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -8,13 +9,20 @@ import javax.servlet.http.HttpServletRequest;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.mballem.curso.security.datatables.Datatables;
-import com.mballem.curso.security.datatables.DatatablesColunas;
+import com.mballem.curso.security.datatables.DatatablesLinhas;
+import com.mballem.curso.security.datatables.DatatablesTabelas;
 import com.mballem.curso.security.domain.Especialidade;
+import com.mballem.curso.security.estatisticas.EstatisticasClinica;
 import com.mballem.curso.security.repository.EspecialidadeRepository;
+import com.mballem.curso.security.repository.MedicoRepository;
+import com.mballem.curso.security.util.SingleFlight;
+import com.mballem.curso.security.util.VersaoTabelas;
 
 @Service
 public class EspecialidadeService {
@@ -23,23 +31,60 @@ public class EspecialidadeService {
 	private EspecialidadeRepository especialidadeRepository;
 	
 	@Autowired
-	private Datatables datatables;
+	private MedicoRepository medicoRepository;
+	
+	@Autowired
+	private ListagemAgendamentoService listagemService;
+	
+	@Autowired
+	private SingleFlight singleFlight;
+	
+	@Autowired
+	private VersaoTabelas versaoTabelas;
+
+	@Autowired
+	private EstatisticasClinica estatisticas;
 	
 	//salva uma especialidade
 	@Transactional(readOnly = false)
 	public void salvar(Especialidade especialidade) {
+		boolean edicao = especialidade.getId() != null;
+		versaoTabelas.alterada(VersaoTabelas.ESPECIALIDADES);
 		especialidadeRepository.save(especialidade);
+		estatisticas.especialidadeSalva(especialidade.getId(), especialidade.getTitulo());
+		if (edicao) {
+			//o título alterado muda a ordenação dos médicos da especialidade (ver Medico.especialidadesOrdem)
+			if (medicoRepository.updateEspecialidadesOrdemPorEspecialidade(especialidade.getId()) > 0) {
+				versaoTabelas.alterada(VersaoTabelas.MEDICOS_ESPECIALIDADES);
+				versaoTabelas.alterada(VersaoTabelas.MEDICOS);
+			}
+			listagemService.especialidadeAlterada(especialidade.getId(), especialidade.getTitulo());
+		}
 	}
 
-	@Transactional(readOnly = true)
+	/*
+	 * Requisições simultâneas com a mesma página, ordenação e pesquisa compartilham uma única consulta (ver SingleFlight).
+	 * Sem @Transactional: a transação é aberta apenas pela requisição que executa a consulta.
+	 * */
 	public Map<String, Object> buscarEspecialidades(HttpServletRequest request) {
-		datatables.setRequest(request);
-		datatables.setColunas(DatatablesColunas.ESPECIALIDADES);
+		Datatables datatables = new Datatables(request, DatatablesTabelas.ESPECIALIDADES);
+		return datatables.getResponse(buscarPagina(datatables));
+	}
+
+	//mesma consulta de buscarEspecialidades(), com a resposta no formato compacto (ver Datatables.getCompactResponse())
+	public byte[] buscarEspecialidadesCompacto(HttpServletRequest request) {
+		Datatables datatables = new Datatables(request, DatatablesTabelas.ESPECIALIDADES);
+		return datatables.getCompactResponse(buscarPagina(datatables), DatatablesLinhas.ESPECIALIDADES);
+	}
+
+	private Page<Especialidade> buscarPagina(Datatables datatables) {
+		Pageable pageable = datatables.getPageable();
+		//pesquisa da tabela e de cada coluna, aplicadas na consulta (ver DatatablesTabelas.ESPECIALIDADES)
+		Specification<Especialidade> spec = DatatablesTabelas.ESPECIALIDADES.getSpecification(datatables);
 		
-		Page<?> page = datatables.getSearch().isEmpty() 
-				? especialidadeRepository.findAll(datatables.getPageable()) 
-				: especialidadeRepository.findAllByTitulo(datatables.getSearch(), datatables.getPageable());//findAll. getSerch usará o conteúdo digitado no campo de pesquisa presente no formulário HTML da view.
-		return datatables.getResponse(page);
+		return singleFlight.executarLeitura(
+				Arrays.asList("especialidades", datatables.getSearch(), datatables.getColumnSearches(), pageable), 
+				() -> especialidadeRepository.findAll(spec, pageable));
 	}
 
 	@Transactional(readOnly = true)
@@ -49,13 +94,16 @@ public class EspecialidadeService {
 
 	@Transactional(readOnly = false)
 	public void remover(Long id) {
+		versaoTabelas.alterada(VersaoTabelas.ESPECIALIDADES);
 		especialidadeRepository.deleteById(id);
+		estatisticas.especialidadeRemovida(id);
 		
 	}
 
-	@Transactional(readOnly = true)
+	//autocomplete. Requisições simultâneas com o mesmo termo compartilham uma única consulta (ver SingleFlight)
 	public List<String> buscarEspecialidadeByTermo(String termo) {
-		return especialidadeRepository.findEspecialidedesByTermo(termo);
+		return singleFlight.executarLeitura(Arrays.asList("especialidades-termo", termo), () -> 
+				especialidadeRepository.findEspecialidedesByTermo(termo));
 	}
 
 	@Transactional(readOnly = true)
@@ -0,0 +1,273 @@
+package com.mballem.curso.security.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.mballem.curso.security.auditoria.Auditoria;
+import com.mballem.curso.security.auditoria.TipoEvento;
+import com.mballem.curso.security.cadastro.EmailsCadastrados;
+import com.mballem.curso.security.estatisticas.EstatisticasClinica;
+import com.mballem.curso.security.util.VersaoTabelas;
+
+/**
+ * Exclusão em lote de usuários, médicos e especialidades pelo administrador, com comandos SQL sobre conjuntos de ids em vez
+ * de carregar e remover uma entidade por vez.
+ *
+ * As tabelas são apagadas na ordem das chaves estrangeiras:
+ * - usuários: consultas dos seus médicos e pacientes, agenda_medico_dia, medicos_tem_especialidades, medicos, pacientes,
+ *   usuarios_tem_perfis e usuarios
+ * - médicos: o mesmo que usuários, a partir do usuário de cada médico (como o CascadeType.REMOVE de Medico.usuario). Médicos sem
+ *   usuário são apagados sozinhos
+ * - especialidades: consultas da especialidade, medicos_tem_especialidades e especialidades. A coluna especialidades_ordem dos
+ *   médicos que perderam a especialidade é recalculada
+ *
+ * O trabalho é dividido em transações curtas de no máximo app.exclusao.lote ids: as consultas são apagadas em lotes (subtraindo
+ * da agenda diária e removendo da lista de consultas no mesmo lote) e cada lote de ids dos cadastros é apagado em uma transação.
+ * Uma falha interrompe a exclusão e mantém o que já foi apagado nos lotes anteriores.
+ * */
+@Service
+public class ExclusaoLoteService {
+
+	private static final Logger log = LoggerFactory.getLogger(ExclusaoLoteService.class);
+
+	//nomes das tabelas, usados também como chaves do relatório de linhas removidas
+	public static final String AGENDAMENTOS = "agendamentos";
+	public static final String AGENDAMENTOS_LISTAGEM = "agendamentos_listagem";
+	public static final String AGENDA_MEDICO_DIA = "agenda_medico_dia";
+	public static final String MEDICOS_TEM_ESPECIALIDADES = "medicos_tem_especialidades";
+	public static final String MEDICOS = "medicos";
+	public static final String PACIENTES = "pacientes";
+	public static final String USUARIOS_TEM_PERFIS = "usuarios_tem_perfis";
+	public static final String USUARIOS = "usuarios";
+	public static final String ESPECIALIDADES = "especialidades";
+
+	//%s: coluna de agendamentos (id_medico, id_paciente ou id_especialidade). Usa o índice da chave estrangeira
+	private static final String IDS_AGENDAMENTOS = "SELECT id FROM agendamentos WHERE %s IN (:ids) ORDER BY id LIMIT :lote";
+
+	//subtrai da agenda diária as consultas do lote (ver AgendaService)
+	private static final String DECREMENTAR_AGENDA = "UPDATE agenda_medico_dia d JOIN ("
+			+ "SELECT id_medico, data_consulta, COUNT(*) AS total FROM agendamentos WHERE id IN (:ids) GROUP BY id_medico, data_consulta) a "
+			+ "ON a.id_medico = d.id_medico AND a.data_consulta = d.data_consulta SET d.total = GREATEST(d.total - a.total, 0)";
+
+	//mesmo cálculo de MedicoRepository.updateEspecialidadesOrdem() para um conjunto de médicos
+	private static final String ATUALIZAR_ESPECIALIDADES_ORDEM = "UPDATE medicos m SET m.especialidades_ordem = COALESCE(("
+			+ "SELECT LEFT(GROUP_CONCAT(e.titulo ORDER BY e.titulo SEPARATOR ', '), 255) "
+			+ "FROM medicos_tem_especialidades me JOIN especialidades e ON e.id = me.id_especialidade WHERE me.id_medico = m.id), '') "
+			+ "WHERE m.id IN (:ids)";
+
+	@Autowired
+	private NamedParameterJdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private VersaoTabelas versaoTabelas;
+
+	@Autowired
+	private EstatisticasClinica estatisticas;
+
+	@Autowired
+	private EmailsCadastrados emailsCadastrados;
+
+	@Autowired
+	private Auditoria auditoria;
+
+	//quantidade máxima de ids (de cadastros ou de consultas) apagados por transação
+	@Value("${app.exclusao.lote:500}")
+	private int lote;
+
+	/**
+	 * Exclui os usuários, seus médicos e pacientes e as consultas de cada um.
+	 *
+	 * @return linhas removidas por tabela, na ordem em que as tabelas são apagadas
+	 * */
+	public Map<String, Long> excluirUsuarios(Collection<Long> ids) {
+		Map<String, Long> relatorio = relatorio(AGENDAMENTOS, AGENDAMENTOS_LISTAGEM, AGENDA_MEDICO_DIA, MEDICOS_TEM_ESPECIALIDADES,
+				MEDICOS, PACIENTES, USUARIOS_TEM_PERFIS, USUARIOS);
+		executar("usuarios", ids, relatorio, usuarios -> {
+			List<Long> medicos = buscarIds("SELECT id FROM medicos WHERE id_usuario IN (:ids)", usuarios);
+			List<Long> pacientes = buscarIds("SELECT id FROM pacientes WHERE id_usuario IN (:ids)", usuarios);
+			excluirCadastros(usuarios, medicos, pacientes, relatorio);
+		});
+		return relatorio;
+	}
+
+	/**
+	 * Exclui os médicos, seus usuários e as consultas de cada médico.
+	 *
+	 * @return linhas removidas por tabela, na ordem em que as tabelas são apagadas
+	 * */
+	public Map<String, Long> excluirMedicos(Collection<Long> ids) {
+		Map<String, Long> relatorio = relatorio(AGENDAMENTOS, AGENDAMENTOS_LISTAGEM, AGENDA_MEDICO_DIA, MEDICOS_TEM_ESPECIALIDADES,
+				MEDICOS, PACIENTES, USUARIOS_TEM_PERFIS, USUARIOS);
+		executar("medicos", ids, relatorio, medicos -> {
+			List<Long> usuarios = buscarIds("SELECT id_usuario FROM medicos WHERE id IN (:ids) AND id_usuario IS NOT NULL", medicos);
+			List<Long> pacientes = buscarIds("SELECT id FROM pacientes WHERE id_usuario IN (:ids)", usuarios);
+			excluirCadastros(usuarios, medicos, pacientes, relatorio);
+		});
+		return relatorio;
+	}
+
+	/**
+	 * Exclui as especialidades, as consultas marcadas nelas e a associação com os médicos.
+	 *
+	 * @return linhas removidas por tabela, na ordem em que as tabelas são apagadas
+	 * */
+	public Map<String, Long> excluirEspecialidades(Collection<Long> ids) {
+		Map<String, Long> relatorio = relatorio(AGENDAMENTOS, AGENDAMENTOS_LISTAGEM, MEDICOS_TEM_ESPECIALIDADES, ESPECIALIDADES);
+		executar("especialidades", ids, relatorio, especialidades -> {
+			excluirAgendamentos("id_especialidade", especialidades, relatorio);
+			transacao(relatorio, linhas -> {
+				//consultas marcadas depois dos lotes acima
+				excluirAgendamentosRestantes("id_especialidade", especialidades, linhas);
+				List<Long> medicos = buscarIds(
+						"SELECT DISTINCT id_medico FROM medicos_tem_especialidades WHERE id_especialidade IN (:ids)", especialidades);
+				excluir(linhas, MEDICOS_TEM_ESPECIALIDADES, "DELETE FROM medicos_tem_especialidades WHERE id_especialidade IN (:ids)", especialidades);
+				excluir(linhas, ESPECIALIDADES, "DELETE FROM especialidades WHERE id IN (:ids)", especialidades);
+				if (!medicos.isEmpty()) {
+					jdbcTemplate.update(ATUALIZAR_ESPECIALIDADES_ORDEM, new MapSqlParameterSource("ids", medicos));
+				}
+			});
+		});
+		return relatorio;
+	}
+
+	/*
+	 * Apaga os cadastros de um lote de ids: primeiro as consultas, em transações de até 'lote' consultas, depois os cadastros
+	 * em uma única transação, que também apaga as consultas gravadas durante a exclusão.
+	 */
+	private void excluirCadastros(List<Long> usuarios, List<Long> medicos, List<Long> pacientes, Map<String, Long> relatorio) {
+		excluirAgendamentos("id_medico", medicos, relatorio);
+		excluirAgendamentos("id_paciente", pacientes, relatorio);
+		transacao(relatorio, linhas -> {
+			excluirAgendamentosRestantes("id_medico", medicos, linhas);
+			excluirAgendamentosRestantes("id_paciente", pacientes, linhas);
+			excluir(linhas, AGENDA_MEDICO_DIA, "DELETE FROM agenda_medico_dia WHERE id_medico IN (:ids)", medicos);
+			excluir(linhas, MEDICOS_TEM_ESPECIALIDADES, "DELETE FROM medicos_tem_especialidades WHERE id_medico IN (:ids)", medicos);
+			excluir(linhas, MEDICOS, "DELETE FROM medicos WHERE id IN (:ids)", medicos);
+			excluir(linhas, PACIENTES, "DELETE FROM pacientes WHERE id IN (:ids)", pacientes);
+			excluir(linhas, USUARIOS_TEM_PERFIS, "DELETE FROM usuarios_tem_perfis WHERE usuario_id IN (:ids)", usuarios);
+			excluir(linhas, USUARIOS, "DELETE FROM usuarios WHERE id IN (:ids)", usuarios);
+		});
+	}
+
+	//apaga as consultas com a coluna em ids, uma transação por lote
+	private void excluirAgendamentos(String coluna, List<Long> ids, Map<String, Long> relatorio) {
+		long apagados;
+		do {
+			apagados = transacao(relatorio, linhas -> excluirLoteAgendamentos(coluna, ids, linhas)).getOrDefault(AGENDAMENTOS, 0L);
+		} while (apagados > 0);
+	}
+
+	//apaga, na transação em andamento, as consultas gravadas depois de excluirAgendamentos(). Normalmente nenhuma
+	private void excluirAgendamentosRestantes(String coluna, List<Long> ids, Map<String, Long> linhas) {
+		int apagados;
+		do {
+			apagados = excluirLoteAgendamentos(coluna, ids, linhas);
+		} while (apagados > 0);
+	}
+
+	/*
+	 * Apaga até 'lote' consultas na transação em andamento, junto com as linhas da lista de consultas e o total da agenda diária.
+	 * Retorna a quantidade de consultas apagadas.
+	 */
+	private int excluirLoteAgendamentos(String coluna, List<Long> ids, Map<String, Long> linhas) {
+		if (ids.isEmpty()) {
+			return 0;
+		}
+		List<Long> agendamentos = jdbcTemplate.queryForList(String.format(IDS_AGENDAMENTOS, coluna),
+				new MapSqlParameterSource("ids", ids).addValue("lote", lote), Long.class);
+		if (agendamentos.isEmpty()) {
+			return 0;
+		}
+		MapSqlParameterSource parametros = new MapSqlParameterSource("ids", agendamentos);
+		jdbcTemplate.update(DECREMENTAR_AGENDA, parametros);
+		linhas.merge(AGENDAMENTOS_LISTAGEM, (long) jdbcTemplate.update("DELETE FROM agendamentos_listagem WHERE id IN (:ids)", parametros), Long::sum);
+		int apagados = jdbcTemplate.update("DELETE FROM agendamentos WHERE id IN (:ids)", parametros);
+		linhas.merge(AGENDAMENTOS, (long) apagados, Long::sum);
+		return apagados;
+	}
+
+	private void excluir(Map<String, Long> linhas, String tabela, String sql, List<Long> ids) {
+		if (!ids.isEmpty()) {
+			linhas.merge(tabela, (long) jdbcTemplate.update(sql, new MapSqlParameterSource("ids", ids)), Long::sum);
+		}
+	}
+
+	private List<Long> buscarIds(String sql, List<Long> ids) {
+		return ids.isEmpty() ? Collections.emptyList() : jdbcTemplate.queryForList(sql, new MapSqlParameterSource("ids", ids), Long.class);
+	}
+
+	/*
+	 * Executa os passos em uma transação. As linhas removidas só são somadas ao relatório depois do commit.
+	 */
+	private Map<String, Long> transacao(Map<String, Long> relatorio, Consumer<Map<String, Long>> passos) {
+		Map<String, Long> linhas = new TransactionTemplate(transactionManager).execute(status -> {
+			Map<String, Long> removidas = new HashMap<>();
+			passos.accept(removidas);
+			return removidas;
+		});
+		linhas.forEach((tabela, n) -> relatorio.merge(tabela, n, Long::sum));
+		return linhas;
+	}
+
+	/*
+	 * Divide os ids em lotes ordenados e sem repetição e aplica a exclusão em cada um. Ao final, mesmo após uma falha,
+	 * invalida os ETags das tabelas, recalcula as estatísticas do painel e registra a exclusão na auditoria.
+	 */
+	private void executar(String cadastro, Collection<Long> ids, Map<String, Long> relatorio, Consumer<List<Long>> exclusao) {
+		if (ids == null || ids.isEmpty()) {
+			return;
+		}
+		long inicio = System.currentTimeMillis();
+		List<Long> ordenados = new ArrayList<>(new TreeSet<>(ids));
+		try {
+			for (int i = 0; i < ordenados.size(); i += lote) {
+				exclusao.accept(ordenados.subList(i, Math.min(i + lote, ordenados.size())));
+			}
+		} finally {
+			versaoTabelas.alterada(VersaoTabelas.USUARIOS);
+			versaoTabelas.alterada(VersaoTabelas.ESPECIALIDADES);
+			versaoTabelas.alterada(VersaoTabelas.MEDICOS);
+			versaoTabelas.alterada(VersaoTabelas.MEDICOS_ESPECIALIDADES);
+			versaoTabelas.alterada(VersaoTabelas.AGENDAMENTOS);
+			try {
+				estatisticas.reconciliar();
+			} catch (RuntimeException e) {
+				log.warn("estatísticas não recalculadas após a exclusão: {}", e.getMessage());
+			}
+			//os emails apagados deixam de ocupar o filtro de emails cadastrados
+			if (relatorio.getOrDefault(USUARIOS, 0L) > 0) {
+				emailsCadastrados.reconstruir();
+			}
+			auditoria.registrar(TipoEvento.EXCLUSAO_EM_LOTE, cadastro + " " + ordenados.size() + " " + relatorio);
+			log.info("exclusão em lote de {} {} em {} ms: {}", ordenados.size(), cadastro, System.currentTimeMillis() - inicio, relatorio);
+		}
+	}
+
+	private static Map<String, Long> relatorio(String... tabelas) {
+		Map<String, Long> relatorio = new LinkedHashMap<>();
+		for (String tabela : tabelas) {
+			relatorio.put(tabela, 0L);
+		}
+		return relatorio;
+	}
+}
@@ -0,0 +1,12 @@
+package com.mballem.curso.security.service;
+
+/**
+ * Lançada ao tentar agendar uma consulta em um horário já reservado para o médico na data escolhida.
+ * */
+@SuppressWarnings("serial")
+public class HorarioIndisponivelException extends RuntimeException {
+
+	public HorarioIndisponivelException() {
+		super("O horário escolhido já foi reservado. Por favor, escolha outro horário.");
+	}
+}
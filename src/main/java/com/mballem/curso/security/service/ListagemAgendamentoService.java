@@ -0,0 +1,164 @@
+package com.mballem.curso.security.service;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.mballem.curso.security.datatables.Datatables;
+import com.mballem.curso.security.datatables.DatatablesLinhas;
+import com.mballem.curso.security.datatables.DatatablesTabelas;
+import com.mballem.curso.security.domain.AgendamentoListagem;
+import com.mballem.curso.security.repository.AgendamentoListagemRepository;
+import com.mballem.curso.security.util.SingleFlight;
+import com.mballem.curso.security.util.VersaoTabelas;
+
+/**
+ * Serviço da lista de consultas. Mantém a tabela desnormalizada agendamentos_listagem (ver AgendamentoListagem).
+ * Os métodos de escrita devem ser chamados na mesma transação que altera o agendamento, o paciente, o médico ou a especialidade,
+ * assim a lista nunca fica diferente das tabelas de origem depois do commit.
+ *
+ * Para popular a tabela em uma base já existente, ou corrigir divergências, a aplicação pode ser iniciada com
+ * --app.listagem.reconstruir=true (ver reconstruir()).
+ * */
+@Service
+public class ListagemAgendamentoService {
+
+	private static final Logger log = LoggerFactory.getLogger(ListagemAgendamentoService.class);
+
+	@Autowired
+	private AgendamentoListagemRepository listagemRepository;
+
+	@Autowired
+	private SingleFlight singleFlight;
+
+	@Autowired
+	private VersaoTabelas versaoTabelas;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	//quantidade de ids de agendamentos copiados por transação na reconstrução
+	@Value("${app.listagem.lote:5000}")
+	private int lote;
+
+	@Value("${app.listagem.reconstruir:false}")
+	private boolean reconstruirAoIniciar;
+
+	//copia o agendamento salvo. Deve ser chamado depois que o agendamento foi gravado (flush)
+	@Transactional(propagation = Propagation.MANDATORY)
+	public void registrar(Long agendamentoId) {
+		listagemRepository.copiar(agendamentoId);
+		versaoTabelas.alterada(VersaoTabelas.AGENDAMENTOS);
+	}
+
+	@Transactional(propagation = Propagation.MANDATORY)
+	public void cancelar(Long agendamentoId) {
+		listagemRepository.remover(agendamentoId);
+		versaoTabelas.alterada(VersaoTabelas.AGENDAMENTOS);
+	}
+
+	@Transactional(propagation = Propagation.MANDATORY)
+	public void pacienteAlterado(Long pacienteId, String nome) {
+		if (listagemRepository.atualizarPaciente(pacienteId, nome) > 0) {
+			versaoTabelas.alterada(VersaoTabelas.AGENDAMENTOS);
+		}
+	}
+
+	@Transactional(propagation = Propagation.MANDATORY)
+	public void medicoAlterado(Long medicoId, String nome) {
+		if (listagemRepository.atualizarMedico(medicoId, nome) > 0) {
+			versaoTabelas.alterada(VersaoTabelas.AGENDAMENTOS);
+		}
+	}
+
+	@Transactional(propagation = Propagation.MANDATORY)
+	public void especialidadeAlterada(Long especialidadeId, String titulo) {
+		if (listagemRepository.atualizarEspecialidade(especialidadeId, titulo) > 0) {
+			versaoTabelas.alterada(VersaoTabelas.AGENDAMENTOS);
+		}
+	}
+
+	/*
+	 * Lista de consultas do administrador, paginada e ordenada apenas pela tabela agendamentos_listagem (ver DatatablesTabelas.AGENDAMENTOS).
+	 * Sem @Transactional: requisições iguais compartilham a consulta e a transação é aberta apenas por quem a executa (ver SingleFlight).
+	 */
+	public Map<String, Object> buscarAgendamentos(HttpServletRequest request) {
+		Datatables datatables = new Datatables(request, DatatablesTabelas.AGENDAMENTOS);
+		return datatables.getResponse(buscarPagina(datatables));
+	}
+
+	//mesma consulta de buscarAgendamentos(), com a resposta no formato compacto (ver Datatables.getCompactResponse())
+	public byte[] buscarAgendamentosCompacto(HttpServletRequest request) {
+		Datatables datatables = new Datatables(request, DatatablesTabelas.AGENDAMENTOS);
+		return datatables.getCompactResponse(buscarPagina(datatables), DatatablesLinhas.AGENDAMENTOS);
+	}
+
+	private Page<AgendamentoListagem> buscarPagina(Datatables datatables) {
+		Pageable pageable = datatables.getPageable();
+		Specification<AgendamentoListagem> spec = DatatablesTabelas.AGENDAMENTOS.getSpecification(datatables);
+
+		return singleFlight.executarLeitura(
+				Arrays.asList("agendamentos", datatables.getSearch(), datatables.getColumnSearches(), pageable),
+				() -> listagemRepository.findAll(spec, pageable));
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void reconstruirAoIniciar() {
+		if (reconstruirAoIniciar) {
+			reconstruir();
+		}
+	}
+
+	/**
+	 * Reconstrói a tabela agendamentos_listagem a partir da tabela agendamentos, em lotes de ids. Cada lote é uma transação curta que
+	 * copia os agendamentos do intervalo e remove as linhas do intervalo cujo agendamento não existe mais, logo a lista continua
+	 * disponível durante a reconstrução e os agendamentos gravados ao mesmo tempo não são perdidos.
+	 *
+	 * @return a quantidade de linhas removidas
+	 * */
+	public long reconstruir() {
+		long inicio = System.currentTimeMillis();
+		TransactionTemplate escrita = new TransactionTemplate(transactionManager);
+		long maximo = escrita.execute(status -> listagemRepository.maxAgendamentoId());
+		long removidas = 0;
+		long lotes = 0;
+
+		for (long de = 0; de < maximo; de += lote) {
+			long inicioLote = de;
+			long fimLote = Math.min(de + lote, maximo);
+			removidas += escrita.execute(status -> {
+				listagemRepository.copiarIntervalo(inicioLote, fimLote);
+				return listagemRepository.removerOrfaos(inicioLote, fimLote);
+			});
+			lotes++;
+		}
+		//linhas de agendamentos removidos com id maior que o último agendamento lido no início. Os agendamentos gravados depois
+		//dessa leitura também têm id maior e são preservados, pois só as linhas sem agendamento correspondente são removidas
+		int apos;
+		do {
+			apos = escrita.execute(status -> listagemRepository.removerApos(maximo, lote));
+			removidas += apos;
+		} while (apos > 0);
+
+		versaoTabelas.alterada(VersaoTabelas.AGENDAMENTOS);
+		log.info("lista de consultas reconstruída: {} lotes até o agendamento {}, {} linhas removidas em {} ms",
+				lotes, maximo, removidas, System.currentTimeMillis() - inicio);
+		return removidas;
+	}
+}
@@ -1,17 +1,83 @@
 package com.mballem.curso.security.service;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.persistence.criteria.JoinType;
+import javax.servlet.http.HttpServletRequest;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.mballem.curso.security.auditoria.Auditoria;
+import com.mballem.curso.security.auditoria.TipoEvento;
+import com.mballem.curso.security.datatables.Datatables;
+import com.mballem.curso.security.datatables.DatatablesLinhas;
+import com.mballem.curso.security.datatables.DatatablesTabelas;
+import com.mballem.curso.security.domain.Especialidade;
 import com.mballem.curso.security.domain.Medico;
+import com.mballem.curso.security.estatisticas.EstatisticasClinica;
 import com.mballem.curso.security.repository.MedicoRepository;
+import com.mballem.curso.security.repository.projection.EspecialidadeDoMedico;
+import com.mballem.curso.security.repository.projection.MedicoLinha;
+import com.mballem.curso.security.util.SingleFlight;
+import com.mballem.curso.security.util.VersaoTabelas;
 
 @Service
 public class MedicoService {
+
+	/*
+	 * Carrega o usuário do médico na mesma consulta da página (left join fetch). Sem ele o Hibernate faria uma consulta por médico
+	 * para o @OneToOne. Não é aplicado na consulta de contagem, que não pode ter fetch.
+	 */
+	private static final Specification<Medico> COM_USUARIO = (root, query, cb) -> {
+		if (query.getResultType() != Long.class && query.getResultType() != long.class) {
+			root.fetch("usuario", JoinType.LEFT);
+		}
+		return null;
+	};
 	
 	@Autowired
 	private MedicoRepository medicoRepository;
+
+	@Autowired
+	private SingleFlight singleFlight;
+
+	@Autowired
+	private VersaoTabelas versaoTabelas;
+
+	@Autowired
+	private Auditoria auditoria;
+
+	@Autowired
+	private ListagemAgendamentoService listagemService;
+
+	@Autowired
+	private EstatisticasClinica estatisticas;
+	
+	/**
+	 * Preenche a coluna especialidades_ordem dos médicos que ainda não a possuem, como os de uma base criada antes da coluna
+	 * (a coluna é adicionada vazia por scriptDB/atualizacao-mysql.sql). Sem ela esses médicos ficariam fora da ordem ao ordenar
+	 * a tabela pelas especialidades. Médicos sem especialidades recebem '', logo nas inicializações seguintes nada é atualizado.
+	 * */
+	@EventListener(ApplicationReadyEvent.class)
+	@Transactional(readOnly = false)
+	public void preencherEspecialidadesOrdem() {
+		if (medicoRepository.updateEspecialidadesOrdemPendentes() > 0) {
+			versaoTabelas.alterada(VersaoTabelas.MEDICOS);
+		}
+	}
 	
 	
 	@Transactional(readOnly = true)
@@ -23,7 +89,15 @@ public class MedicoService {
 
 	@Transactional(readOnly = false)
 	public void salvar(Medico medico) {
+		Set<Long> anteriores = medico.hasId() ? medicoRepository.findEspecialidadesIdsByMedicoId(medico.getId()) : Collections.emptySet();
 		medicoRepository.save(medico);
+		//coluna usada na ordenação da tabela de médicos pelas especialidades (ver Medico.especialidadesOrdem)
+		medicoRepository.updateEspecialidadesOrdem(medico.getId());
+		//lidas depois do flush feito pelo update acima
+		Set<Long> atuais = medicoRepository.findEspecialidadesIdsByMedicoId(medico.getId());
+		registrarDiferenca(anteriores, atuais);
+		versaoTabelas.alterada(VersaoTabelas.MEDICOS);
+		auditoria.registrar(TipoEvento.MEDICO_SALVO, "medico " + medico.getId());
 	}
 
 	@Transactional(readOnly = false)
@@ -35,8 +109,14 @@ public class MedicoService {
 		m2.setDtInscricao(medico.getDtInscricao());
 		m2.setNome(medico.getNome());
 		
-		if(!medico.getEspecialidades().isEmpty()) {
-			m2.getEspecialidades().addAll(medico.getEspecialidades());
+		//as especialidades enviadas pelo formulário são somadas às atuais sem carregar a coleção m2.getEspecialidades()
+		if(medico.getEspecialidades() != null && !medico.getEspecialidades().isEmpty()) {
+			Set<Long> atuais = medicoRepository.findEspecialidadesIdsByMedicoId(m2.getId());
+			Set<Long> desejadas = new HashSet<>(atuais);
+			for (Especialidade e : medico.getEspecialidades()) {
+				desejadas.add(e.getId());
+			}
+			aplicarDiferenca(m2.getId(), atuais, desejadas);
 		}
 		
 		/*
@@ -44,6 +124,9 @@ public class MedicoService {
 		 * pelo Hibernate e qualquer modificação nos seus atributos será salva no banco de dados sem a necessidade do metodo save() do repository
 		 */
 		medicoRepository.save(m2);
+		listagemService.medicoAlterado(m2.getId(), m2.getNome());
+		versaoTabelas.alterada(VersaoTabelas.MEDICOS);
+		auditoria.registrar(TipoEvento.MEDICO_EDITADO, "medico " + m2.getId());
 	}
 
 	@Transactional(readOnly = false)
@@ -51,4 +134,103 @@ public class MedicoService {
 		return medicoRepository.findByUsuarioEmail(email).orElse(new Medico());
 	}
 
+	//busca o id do médico pelo email do usuário. null se o médico ainda não cadastrou seus dados
+	@Transactional(readOnly = true)
+	public Long buscarIdPorEmail(String email) {
+		return medicoRepository.findIdByUsuarioEmail(email).orElse(null);
+	}
+
+
+	/*
+	 * Tabela de médicos do administrador, com pesquisa por nome, crm ou título da especialidade (ver DatatablesTabelas.MEDICOS).
+	 * Cada página faz no máximo três consultas, independente da quantidade de médicos: a página (com o usuário), a contagem e
+	 * as especialidades de todos os médicos da página.
+	 * Sem @Transactional: requisições iguais compartilham a consulta e a transação é aberta apenas por quem a executa (ver SingleFlight).
+	 */
+	public Map<String, Object> buscarMedicos(HttpServletRequest request) {
+		Datatables datatables = new Datatables(request, DatatablesTabelas.MEDICOS);
+		return datatables.getResponse(buscarPagina(datatables));
+	}
+
+	//mesma consulta de buscarMedicos(), com a resposta no formato compacto (ver Datatables.getCompactResponse())
+	public byte[] buscarMedicosCompacto(HttpServletRequest request) {
+		Datatables datatables = new Datatables(request, DatatablesTabelas.MEDICOS);
+		return datatables.getCompactResponse(buscarPagina(datatables), DatatablesLinhas.MEDICOS);
+	}
+
+	private Page<MedicoLinha> buscarPagina(Datatables datatables) {
+		Pageable pageable = datatables.getPageable();
+		Specification<Medico> spec = Specification.where(COM_USUARIO).and(DatatablesTabelas.MEDICOS.getSpecification(datatables));
+
+		return singleFlight.executarLeitura(
+				Arrays.asList("medicos", datatables.getSearch(), datatables.getColumnSearches(), pageable), () -> {
+			Page<Medico> medicos = medicoRepository.findAll(spec, pageable);
+			List<Long> ids = medicos.map(Medico::getId).getContent();
+			Map<Long, List<EspecialidadeDoMedico>> especialidades = ids.isEmpty() 
+					? Collections.emptyMap()
+					: medicoRepository.findEspecialidadesByMedicoIds(ids).stream()
+						.collect(Collectors.groupingBy(EspecialidadeDoMedico::getMedicoId));
+			return medicos.map(m -> new MedicoLinha(m, especialidades.getOrDefault(m.getId(), Collections.emptyList())));
+		});
+	}
+
+	@Transactional(readOnly = true)
+	public List<Especialidade> buscarEspecialidades(Long idMedico) {
+		return medicoRepository.findEspecialidadesByMedicoId(idMedico);
+	}
+
+	/**
+	 * Define exatamente o conjunto de especialidades do médico. Apenas a diferença entre o conjunto atual, lido da tabela
+	 * medicos_tem_especialidades, e o conjunto desejado é gravada: um INSERT com as novas e um DELETE com as removidas.
+	 * 
+	 * @param idMedico id do médico
+	 * @param idsEspecialidades ids de todas as especialidades que o médico deve possuir
+	 * */
+	@Transactional(readOnly = false)
+	public void atribuirEspecialidades(Long idMedico, Set<Long> idsEspecialidades) {
+		aplicarDiferenca(idMedico, medicoRepository.findEspecialidadesIdsByMedicoId(idMedico), idsEspecialidades);
+	}
+
+	@Transactional(readOnly = false)
+	public void removerEspecialidade(Long idMedico, Long idEspecialidade) {
+		Set<Long> atuais = medicoRepository.findEspecialidadesIdsByMedicoId(idMedico);
+		Set<Long> desejadas = new HashSet<>(atuais);
+		desejadas.remove(idEspecialidade);
+		aplicarDiferenca(idMedico, atuais, desejadas);
+	}
+
+	/*
+	 * Grava somente as alterações, recalcula a coluna especialidades_ordem do médico e incrementa a versão de medicos_especialidades quando houver alguma,
+	 * assim os caches que dependem das especialidades dos médicos podem ser invalidados.
+	 */
+	private void aplicarDiferenca(Long idMedico, Set<Long> atuais, Set<Long> desejadas) {
+		Set<Long> inserir = new HashSet<>(desejadas);
+		inserir.removeAll(atuais);
+		Set<Long> excluir = new HashSet<>(atuais);
+		excluir.removeAll(desejadas);
+
+		if (!inserir.isEmpty()) {
+			medicoRepository.insertEspecialidades(idMedico, inserir);
+		}
+		if (!excluir.isEmpty()) {
+			medicoRepository.deleteEspecialidades(idMedico, excluir);
+		}
+		if (!inserir.isEmpty() || !excluir.isEmpty()) {
+			estatisticas.especialidadesDoMedicoAlteradas(inserir, excluir);
+			medicoRepository.updateEspecialidadesOrdem(idMedico);
+			versaoTabelas.alterada(VersaoTabelas.MEDICOS_ESPECIALIDADES);
+			versaoTabelas.alterada(VersaoTabelas.MEDICOS);
+		}
+	}
+
+	//médicos por especialidade do painel do administrador (ver EstatisticasClinica)
+	private void registrarDiferenca(Set<Long> anteriores, Set<Long> atuais) {
+		Set<Long> inseridas = new HashSet<>(atuais);
+		inseridas.removeAll(anteriores);
+		Set<Long> removidas = new HashSet<>(anteriores);
+		removidas.removeAll(atuais);
+		if (!inseridas.isEmpty() || !removidas.isEmpty()) {
+			estatisticas.especialidadesDoMedicoAlteradas(inseridas, removidas);
+		}
+	}
 }
@@ -4,6 +4,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.mballem.curso.security.auditoria.Auditoria;
+import com.mballem.curso.security.auditoria.TipoEvento;
 import com.mballem.curso.security.domain.Paciente;
 import com.mballem.curso.security.repository.PacienteRepository;
 
@@ -13,6 +15,12 @@ public class PacienteService {
 	@Autowired
 	private PacienteRepository pacienteRepository;
 
+	@Autowired
+	private Auditoria auditoria;
+
+	@Autowired
+	private ListagemAgendamentoService listagemService;
+
 	@Transactional(readOnly = true)
 	public Paciente buscarPorUsuarioEmail(String email) {
 		return pacienteRepository.findByUsuarioEmail(email).orElse(new Paciente());
@@ -21,6 +29,7 @@ public class PacienteService {
 	@Transactional(readOnly = false)
 	public void salvar(Paciente paciente) {
 		pacienteRepository.save(paciente);
+		auditoria.registrar(TipoEvento.PACIENTE_SALVO, "paciente " + paciente.getId());
 	}
 
 	@Transactional(readOnly = false)
@@ -33,5 +42,7 @@ public class PacienteService {
 		
 		//a linha abaixo é opcional pois p2 é um objeto persistente e que está sendo monitorado pelo Hibernate. Qualquer modificação em seus atributos é salva no banco automaticamente.
 		pacienteRepository.save(p2);
+		listagemService.pacienteAlterado(p2.getId(), p2.getNome());
+		auditoria.registrar(TipoEvento.PACIENTE_EDITADO, "paciente " + p2.getId());
 	}
 }
@@ -1,15 +1,23 @@
 package com.mballem.curso.security.service;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 import javax.mail.MessagingException;
 import javax.servlet.http.HttpServletRequest;
 
-import org.apache.commons.lang3.RandomStringUtils;
+import org.hibernate.Hibernate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.core.authority.AuthorityUtils;
 import org.springframework.security.core.userdetails.User;
@@ -22,11 +30,19 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Base64Utils;
 
 import com.mballem.curso.security.datatables.Datatables;
-import com.mballem.curso.security.datatables.DatatablesColunas;
+import com.mballem.curso.security.auditoria.Auditoria;
+import com.mballem.curso.security.auditoria.TipoEvento;
+import com.mballem.curso.security.cadastro.EmailsCadastrados;
+import com.mballem.curso.security.datatables.DatatablesLinhas;
+import com.mballem.curso.security.datatables.DatatablesTabelas;
 import com.mballem.curso.security.domain.Perfil;
 import com.mballem.curso.security.domain.PerfilTipo;
 import com.mballem.curso.security.domain.Usuario;
+import com.mballem.curso.security.estatisticas.EstatisticasClinica;
 import com.mballem.curso.security.repository.UsuarioRepository;
+import com.mballem.curso.security.util.SingleFlight;
+import com.mballem.curso.security.util.VersaoTabelas;
+import com.mballem.curso.security.verificacao.CodigosVerificacao;
 
 /*
  * A interface UserDetailsService fornece o método loadUserByUsername() necessário para fazer os testes nas credenciais (user e password).
@@ -46,11 +62,41 @@ public class UsuarioService implements UserDetailsService {
 	UsuarioRepository usuarioRepository;
 	
 	@Autowired
-	private Datatables datatables;
+	private SingleFlight singleFlight;
 	
+	@Autowired
+	private VersaoTabelas versaoTabelas;
+	
+	//@Lazy injeta um proxy, assim o EmailService (e o JavaMailSender) só é criado no primeiro envio quando o bean for lazy
+	@Lazy
 	@Autowired
 	private EmailService emailService;
 
+	@Autowired
+	private Auditoria auditoria;
+
+	@Autowired
+	private CodigosVerificacao codigosVerificacao;
+
+	@Autowired
+	private EstatisticasClinica estatisticas;
+
+	@Autowired
+	private EmailsCadastrados emailsCadastrados;
+
+	/**
+	 * Preenche a coluna perfis_ordem dos usuários que ainda não a possuem, como os de uma base criada antes da coluna
+	 * (a coluna é adicionada vazia por scriptDB/atualizacao-mysql.sql). Sem ela esses usuários ficariam fora da ordem ao ordenar
+	 * a tabela pelos perfis. Usuários sem perfis recebem '', logo nas inicializações seguintes nada é atualizado.
+	 * */
+	@EventListener(ApplicationReadyEvent.class)
+	@Transactional(readOnly = false)
+	public void preencherPerfisOrdem() {
+		if (usuarioRepository.updatePerfisOrdemPendentes() > 0) {
+			versaoTabelas.alterada(VersaoTabelas.USUARIOS);
+		}
+	}
+
 	/**
 	 * Método que busca um usuario pelo email. O username de um Usuario é o email
 	 * */
@@ -104,27 +150,82 @@ public class UsuarioService implements UserDetailsService {
 		return authorities;
 	}
 
-	@Transactional(readOnly = true)
+	/*
+	 * Requisições simultâneas com a mesma página, ordenação e pesquisa compartilham uma única consulta (ver SingleFlight).
+	 * Sem @Transactional: a transação é aberta apenas pela requisição que executa a consulta.
+	 * */
 	public Map<String, Object> buscarTodos(HttpServletRequest request) {
-		datatables.setRequest(request);
-		datatables.setColunas(DatatablesColunas.USUARIOS);
+		Datatables datatables = new Datatables(request, DatatablesTabelas.USUARIOS);
+		return datatables.getResponse(buscarPagina(datatables));
+	}
+
+	//mesma consulta de buscarTodos(), com a resposta no formato compacto (ver Datatables.getCompactResponse())
+	public byte[] buscarTodosCompacto(HttpServletRequest request) {
+		Datatables datatables = new Datatables(request, DatatablesTabelas.USUARIOS);
+		return datatables.getCompactResponse(buscarPagina(datatables), DatatablesLinhas.USUARIOS);
+	}
+
+	private Page<Usuario> buscarPagina(Datatables datatables) {
+		Pageable pageable = datatables.getPageable();
+		//pesquisa por email ou perfil e pesquisa de cada coluna, aplicadas na consulta (ver DatatablesTabelas.USUARIOS)
+		Specification<Usuario> spec = DatatablesTabelas.USUARIOS.getSpecification(datatables);
 		
-		Page<Usuario> page = datatables.getSearch().isEmpty()//testa se está vázio. Ou seja se o usuário digitou algo na caixa de pesquisa
-				? usuarioRepository.findAll(datatables.getPageable()) //se vázio, busca todos com o objeto page default presente em datatables
-				: usuarioRepository.findByEmailOrPerfil(datatables.getSearch(), datatables.getPageable());//se não buscará por email ou perfil, de acordo com o que o usuário digitou
-		return datatables.getResponse(page);
+		return singleFlight.executarLeitura(
+				Arrays.asList("usuarios", datatables.getSearch(), datatables.getColumnSearches(), pageable), () -> {
+			Page<Usuario> usuarios = usuarioRepository.findAll(spec, pageable);
+			//o resultado pode ser compartilhado com outras threads, então os perfis são carregados ainda dentro da transação
+			usuarios.forEach(u -> Hibernate.initialize(u.getPerfis()));
+			return usuarios;
+		});
 	}
 
 	/**
 	 * Método que salva um novo usuário. Antes de salvar, a senha será criptografada.
+	 * 
+	 * @throws DataIntegrityViolationException se o email de um usuário novo já estiver cadastrado, antes do BCrypt
 	 * */
 	@Transactional(readOnly = false)
 	public void salvarUsuario(Usuario usuario) {
+		if (!usuario.hasId()) {
+			verificarEmailNovo(usuario.getEmail());
+		}
 		//usa a criptografia Bcrypt para codificar a senha
 		String crypt = new BCryptPasswordEncoder().encode(usuario.getSenha());
 		usuario.setSenha(crypt);
 		
-		usuarioRepository.save(usuario);	
+		//perfis e situação anteriores, para as estatísticas do painel. Vazio para um usuário novo
+		Optional<Boolean> ativoAnterior = usuario.hasId() ? usuarioRepository.findAtivoById(usuario.getId()) : Optional.empty();
+		List<Long> perfisAnteriores = ativoAnterior.isPresent() ? usuarioRepository.findPerfisIdsById(usuario.getId()) : null;
+		//o filtro de emails só recebe emails novos: um email repetido nas edições ocuparia a capacidade e forçaria reconstruções
+		boolean emailNovo = !ativoAnterior.isPresent() || !usuarioRepository.findEmailById(usuario.getId())
+				.map(email -> email.equalsIgnoreCase(usuario.getEmail()))
+				.orElse(false);
+		
+		versaoTabelas.alterada(VersaoTabelas.USUARIOS);
+		usuarioRepository.save(usuario);
+		if (emailNovo) {
+			emailsCadastrados.adicionar(usuario.getEmail());
+		}
+		
+		if (ativoAnterior.isPresent()) {
+			estatisticas.usuarioAlterado(perfisAnteriores, ativoAnterior.get(), idsPerfis(usuario), usuario.isAtivo());
+		} else {
+			estatisticas.usuarioIncluido(idsPerfis(usuario), usuario.isAtivo());
+		}
+	}
+
+	/*
+	 * Recusa um email já cadastrado antes do BCrypt e do INSERT. A mesma exceção da chave única de usuarios.email é lançada,
+	 * tratada pelos controllers. A consulta ao banco só é feita quando o filtro de emails indica que o email talvez exista.
+	 */
+	private void verificarEmailNovo(String email) {
+		if (emailsCadastrados.cadastrado(email)) {
+			throw new DataIntegrityViolationException("Email já cadastrado: " + email);
+		}
+	}
+
+	private static List<Long> idsPerfis(Usuario usuario) {
+		return usuario.getPerfis().stream().map(Perfil::getId).collect(Collectors.toList());
 	}
 
 	/**
@@ -162,18 +263,24 @@ public class UsuarioService implements UserDetailsService {
 	public void alterarSenha(Usuario usuario, String senha) {
 		usuario.setSenha(new BCryptPasswordEncoder().encode(senha));
 		usuarioRepository.save(usuario);
+		auditoria.registrar(TipoEvento.SENHA_ALTERADA, usuario.getEmail(), null);
 	}
 
 	/**
 	 * Método que salva um novo cadastro feito pelo usuário Paciente
 	 * @throws MessagingException 
+	 * @throws DataIntegrityViolationException se o email já estiver cadastrado, antes do BCrypt
 	 * */
 	@Transactional(readOnly = false)
 	public void salvarCadastroPaciente(Usuario usuario) throws MessagingException {
+		verificarEmailNovo(usuario.getEmail());
 		String crypt = new BCryptPasswordEncoder().encode(usuario.getSenha());
 		usuario.setSenha(crypt);
 		usuario.addPerfil(PerfilTipo.PACIENTE);
+		versaoTabelas.alterada(VersaoTabelas.USUARIOS);
 		usuarioRepository.save(usuario);
+		emailsCadastrados.adicionar(usuario.getEmail());
+		estatisticas.usuarioIncluido(idsPerfis(usuario), usuario.isAtivo());
 		
 		emailDeConfirmacaoDeCadastro(usuario.getEmail());
 	}
@@ -221,7 +328,12 @@ public class UsuarioService implements UserDetailsService {
 			throw new AccessDeniedException("Não foi possivel confirmar seu cadastro. entre em contato com o suporte");
 		}
 		
+		if (!usuario.isAtivo()) {//um link de confirmação usado novamente não altera as estatísticas
+			estatisticas.usuarioAtivado();
+		}
 		usuario.setAtivo(true); //ativa o usuário
+		versaoTabelas.alterada(VersaoTabelas.USUARIOS);
+		auditoria.registrar(TipoEvento.CADASTRO_ATIVADO, email, null);
 	}
 
 	/**
@@ -229,17 +341,34 @@ public class UsuarioService implements UserDetailsService {
 	 * 
 	 * @param email o email para o qual será enviado o código de redefinição
 	 * */
-	@Transactional(readOnly = false)
+	@Transactional(readOnly = true)
 	public void pedidoRedefinicaoDeSenha(String email) throws MessagingException {
 		//Busca o usuário para garantir que somente usuarios cadastrados e ativos possam acessar
 		Usuario usuario = buscarPorEmailEAtivo(email)
 				.orElseThrow(() -> new UsernameNotFoundException("Usuario " + email + " não encontrado."));;
 		
-		String verificador = RandomStringUtils.randomAlphanumeric(6);//gera uma string contendo 6 caracteres e que servirá como código verificador
-		
-		usuario.setCodigoVerificador(verificador);//salva o código verificador no banco de dados para posterior comparação
+		//gera o código verificador de 6 caracteres. O código é guardado (como hash) em CodigosVerificacao, sem escrita na tabela usuarios
+		String verificador = codigosVerificacao.gerar(usuario.getEmail());
 		
 		//enviará o pedido de redefinição
 		emailService.enviarPedidoRedefinicaoSenha(email, verificador);
 	}
+
+	/**
+	 * Redefine a senha do usuário se o código verificador conferir com o código enviado por email.
+	 * 
+	 * @param email o email do usuário
+	 * @param codigo o código verificador digitado pelo usuário
+	 * @param senha a nova senha
+	 * @return false se o código não conferir, estiver expirado ou tiver excedido o número de tentativas
+	 * */
+	@Transactional(readOnly = false)
+	public boolean redefinirSenha(String email, String codigo, String senha) {
+		//dentro da transação o código só é descartado após o commit da nova senha (ver CodigosVerificacao.verificar)
+		if (!codigosVerificacao.verificar(email, codigo)) {
+			return false;
+		}
+		alterarSenha(buscarPorEmail(email), senha);
+		return true;
+	}
 }
@@ -0,0 +1,116 @@
+package com.mballem.curso.security.util;
+
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Reserva em memória dos horários (médico, data, horário) que estão sendo agendados neste momento.
+ * Apenas o primeiro paciente a reservar um horário segue para o banco de dados. Os demais que tentarem o mesmo horário enquanto
+ * a reserva estiver ativa falham imediatamente, sem abrir transação nem ocupar uma conexão do pool.
+ *
+ * As reservas são distribuídas em faixas (lock striping): cada faixa possui seu próprio lock e seu próprio conjunto de horários,
+ * logo agendamentos em horários de faixas diferentes não disputam o mesmo lock.
+ *
+ * A reserva vale apenas enquanto o agendamento está sendo gravado e apenas nesta instância da aplicação. Quem garante que o
+ * horário não será agendado duas vezes é a chave única uk_agendamento_medico_data_horario da tabela agendamentos.
+ * */
+@Component
+public class ReservaHorarios {
+
+	//quantidade de faixas. Potência de 2 para calcular a faixa com uma máscara
+	private static final int FAIXAS = 64;
+
+	private final Faixa[] faixas = new Faixa[FAIXAS];
+
+	public ReservaHorarios() {
+		for (int i = 0; i < FAIXAS; i++) {
+			faixas[i] = new Faixa();
+		}
+	}
+
+	/**
+	 * Reserva o horário.
+	 *
+	 * @return true se o horário foi reservado. false se o horário já está reservado por outro agendamento em andamento
+	 * */
+	public boolean reservar(Vaga vaga) {
+		Faixa faixa = faixa(vaga);
+		synchronized (faixa) {
+			return faixa.reservadas.add(vaga);
+		}
+	}
+
+	/**
+	 * Libera o horário. Deve ser chamado ao fim do agendamento, com sucesso ou não, por quem conseguiu reservar o horário.
+	 * */
+	public void liberar(Vaga vaga) {
+		Faixa faixa = faixa(vaga);
+		synchronized (faixa) {
+			faixa.reservadas.remove(vaga);
+		}
+	}
+
+	private Faixa faixa(Vaga vaga) {
+		int h = vaga.hashCode();
+		return faixas[(h ^ (h >>> 16)) & (FAIXAS - 1)];
+	}
+
+	private static final class Faixa {
+		private final Set<Vaga> reservadas = new HashSet<>();
+	}
+
+	/**
+	 * Um horário de consulta: médico, data e horário. Implementa equals() e hashCode().
+	 * */
+	public static final class Vaga {
+
+		private final Long medicoId;
+		private final LocalDate data;
+		private final Long horarioId;
+
+		public Vaga(Long medicoId, LocalDate data, Long horarioId) {
+			this.medicoId = medicoId;
+			this.data = data;
+			this.horarioId = horarioId;
+		}
+
+		public Long getMedicoId() {
+			return medicoId;
+		}
+
+		public LocalDate getData() {
+			return data;
+		}
+
+		public Long getHorarioId() {
+			return horarioId;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Vaga)) {
+				return false;
+			}
+			Vaga outra = (Vaga) obj;
+			return Objects.equals(medicoId, outra.medicoId) && Objects.equals(data, outra.data)
+					&& Objects.equals(horarioId, outra.horarioId);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(medicoId, data, horarioId);
+		}
+
+		@Override
+		public String toString() {
+			return "medico " + medicoId + ", " + data + ", horario " + horarioId;
+		}
+	}
+}
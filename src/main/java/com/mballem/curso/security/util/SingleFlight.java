@@ -0,0 +1,100 @@
+package com.mballem.curso.security.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.mballem.curso.security.datasource.AderenciaEscrita;
+
+/**
+ * Agrupa consultas idênticas e simultâneas em uma única execução (single-flight).
+ * A primeira chamada com uma determinada chave executa a consulta. As chamadas com a mesma chave que chegarem enquanto ela
+ * estiver em andamento aguardam e recebem o mesmo resultado (ou a mesma exceção). Assim que a consulta termina o resultado
+ * é descartado, ou seja, não há cache: uma nova chamada com a mesma chave executa uma nova consulta.
+ * 
+ * O registro das consultas em andamento usa um ConcurrentHashMap, logo chamadas com chaves diferentes não disputam lock.
+ * 
+ * Os resultados são compartilhados entre threads, portanto não devem depender de carregamento lazy (LazyInitializationException) 
+ * nem ser modificados por quem os recebe.
+ * */
+@Component
+public class SingleFlight {
+
+	private final ConcurrentMap<Object, CompletableFuture<Object>> emAndamento = new ConcurrentHashMap<>();
+
+	private final TransactionTemplate leitura;
+
+	@Autowired
+	public SingleFlight(PlatformTransactionManager transactionManager) {
+		this.leitura = new TransactionTemplate(transactionManager);
+		this.leitura.setReadOnly(true);
+	}
+
+	/**
+	 * Igual ao método executar(), porém a consulta é executada em uma transação somente leitura aberta apenas pela chamada que executa a consulta.
+	 * Os métodos de serviço que usam este método não devem ser anotados com @Transactional, caso contrário as chamadas que apenas aguardam
+	 * o resultado também ocupariam uma conexão com o banco de dados.
+	 * */
+	public <T> T executarLeitura(Object chave, Supplier<T> consulta) {
+		//sessão que acabou de escrever lê do primário (ver AderenciaEscrita) e não pode receber o resultado lido de uma réplica
+		if (AderenciaEscrita.ativa()) {
+			return leitura.execute(status -> consulta.get());
+		}
+		return executar(chave, () -> leitura.execute(status -> consulta.get()));
+	}
+
+	/**
+	 * Executa a consulta ou aguarda o resultado de uma consulta idêntica já em andamento.
+	 * 
+	 * @param chave identifica a consulta. Deve implementar equals() e hashCode()
+	 * @param consulta a consulta a ser executada
+	 * @return o resultado da consulta
+	 * */
+	@SuppressWarnings("unchecked")
+	public <T> T executar(Object chave, Supplier<T> consulta) {
+		CompletableFuture<Object> nova = new CompletableFuture<>();
+		CompletableFuture<Object> existente = emAndamento.putIfAbsent(chave, nova);
+		
+		if (existente != null) {//já existe uma consulta em andamento com a mesma chave
+			return (T) aguardar(existente);
+		}
+		
+		try {
+			T resultado = consulta.get();
+			nova.complete(resultado);
+			return resultado;
+		} catch (RuntimeException | Error ex) {
+			nova.completeExceptionally(ex);
+			throw ex;
+		} finally {
+			emAndamento.remove(chave, nova);//descarta o resultado compartilhado
+		}
+	}
+
+	//quantidade de consultas em andamento
+	public int getEmAndamento() {
+		return emAndamento.size();
+	}
+
+	private Object aguardar(CompletableFuture<Object> future) {
+		try {
+			return future.join();
+		} catch (CompletionException ex) {//repassa a exceção original lançada pela consulta
+			Throwable causa = ex.getCause();
+			if (causa instanceof RuntimeException) {
+				throw (RuntimeException) causa;
+			}
+			if (causa instanceof Error) {
+				throw (Error) causa;
+			}
+			throw ex;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.mballem.curso.security.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Criação de threads virtuais (Java 21 ou superior) pelo código compilado para Java 8.
+ * O projeto continua compilado com java.version 1.8: os métodos Thread.ofVirtual() e Executors.newThreadPerTaskExecutor() são
+ * localizados por reflexão quando a aplicação é executada em uma JVM que os possui.
+ * */
+public final class ThreadsVirtuais {
+
+	private static final Method OF_VIRTUAL;
+	private static final Method NOME;
+	private static final Method FABRICA;
+	private static final Method POR_TAREFA;
+
+	static {
+		Method ofVirtual = null, nome = null, fabrica = null, porTarefa = null;
+		try {
+			//métodos da interface pública Thread.Builder: a implementação devolvida por ofVirtual() não é pública
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			nome = builder.getMethod("name", String.class, long.class);
+			fabrica = builder.getMethod("factory");
+			porTarefa = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+		} catch (ReflectiveOperationException e) {
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		NOME = nome;
+		FABRICA = fabrica;
+		POR_TAREFA = porTarefa;
+	}
+
+	private ThreadsVirtuais() {
+	}
+
+	//true quando a JVM possui threads virtuais
+	public static boolean disponiveis() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * Fábrica de threads virtuais com nomes prefixo0, prefixo1, ...
+	 *
+	 * @throws IllegalStateException se a JVM não possuir threads virtuais
+	 * */
+	public static ThreadFactory fabrica(String prefixo) {
+		if (!disponiveis()) {
+			throw new IllegalStateException("Threads virtuais requerem Java 21 ou superior. Versão atual: "
+					+ System.getProperty("java.version"));
+		}
+		try {
+			return (ThreadFactory) FABRICA.invoke(NOME.invoke(OF_VIRTUAL.invoke(null), prefixo, 0L));
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			throw new IllegalStateException("Não foi possível criar a fábrica de threads virtuais", e);
+		}
+	}
+
+	/**
+	 * Executor que inicia uma nova thread virtual para cada tarefa, sem limite de threads.
+	 * */
+	public static ExecutorService porTarefa(String prefixo) {
+		try {
+			return (ExecutorService) POR_TAREFA.invoke(null, fabrica(prefixo));
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			throw new IllegalStateException("Não foi possível criar o executor de threads virtuais", e);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.mballem.curso.security.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.context.request.WebRequest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Contador de versão por tabela, usado para gerar o ETag das respostas json (Datatables e autocomplete).
+ * Os métodos de escrita dos serviços chamam alterada() e a versão da tabela é incrementada. Enquanto a versão não mudar, uma requisição
+ * com os mesmos parâmetros produz o mesmo ETag e pode ser respondida com 304 sem acessar o banco de dados.
+ * 
+ * As versões ficam em memória: um ETag gerado antes de reiniciar a aplicação nunca é aceito depois (ver 'inicio').
+ * */
+@Component
+public class VersaoTabelas {
+
+	public static final String USUARIOS = "usuarios";
+	public static final String ESPECIALIDADES = "especialidades";
+	public static final String MEDICOS_ESPECIALIDADES = "medicos_especialidades";
+	//tabela de médicos (dados do médico e títulos das especialidades)
+	public static final String MEDICOS = "medicos";
+	//lista de consultas (tabela agendamentos_listagem)
+	public static final String AGENDAMENTOS = "agendamentos";
+
+	//parâmetros que mudam a cada requisição sem alterar o conteúdo da resposta (contador do Datatables e 'cache buster' do jQuery)
+	private static final String[] PARAMETROS_IGNORADOS = {"draw", "_"};
+
+	private final long inicio = System.currentTimeMillis();
+
+	private final ConcurrentMap<String, AtomicLong> versoes = new ConcurrentHashMap<>();
+
+	@Autowired
+	private MeterRegistry registry;
+
+	public long getVersao(String tabela) {
+		return contador(tabela).get();
+	}
+
+	/**
+	 * Marca a tabela como alterada. Deve ser chamado dentro da transação que altera a tabela.
+	 * A versão é incrementada imediatamente e novamente após o commit. Assim uma leitura feita durante a transação
+	 * nunca fica associada a uma versão que continuará válida depois do commit.
+	 * */
+	public void alterada(String tabela) {
+		contador(tabela).incrementAndGet();
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					contador(tabela).incrementAndGet();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Gera um ETag forte a partir da versão atual da tabela e dos parâmetros da requisição (ordenados e sem os parâmetros ignorados).
+	 * Deve ser gerado antes da consulta ao banco de dados.
+	 * */
+	public String etag(String tabela, HttpServletRequest request) {
+		Map<String, String[]> parametros = new TreeMap<>(request.getParameterMap());
+		for (String ignorado : PARAMETROS_IGNORADOS) {
+			parametros.remove(ignorado);
+		}
+		
+		StringBuilder normalizado = new StringBuilder();
+		parametros.forEach((nome, valores) -> {
+			normalizado.append(nome).append('=');
+			for (String valor : valores) {
+				normalizado.append(valor).append(',');
+			}
+			normalizado.append('&');
+		});
+		
+		String hash = DigestUtils.md5DigestAsHex(normalizado.toString().getBytes(StandardCharsets.UTF_8));
+		return String.format("\"%s-%x-%d-%s\"", tabela, inicio, getVersao(tabela), hash);
+	}
+
+	/**
+	 * Compara o ETag atual com o cabeçalho If-None-Match da requisição. Se forem iguais o status 304 é definido na resposta e o controller
+	 * deve retornar null, sem consultar o banco de dados. Caso contrário o cabeçalho ETag é adicionado à resposta.
+	 * 
+	 * O resultado é contabilizado na métrica app.etag.requests (resultado hit ou miss), permitindo acompanhar a taxa de acerto em
+	 * /actuator/metrics/app.etag.requests?tag=tabela:usuarios&tag=resultado:hit
+	 * */
+	public boolean naoModificado(String tabela, HttpServletRequest request, WebRequest webRequest) {
+		boolean naoModificado = webRequest.checkNotModified(etag(tabela, request));
+		registry.counter("app.etag.requests", "tabela", tabela, "resultado", naoModificado ? "hit" : "miss").increment();
+		return naoModificado;
+	}
+
+	private AtomicLong contador(String tabela) {
+		return versoes.computeIfAbsent(tabela, t -> new AtomicLong());
+	}
+}
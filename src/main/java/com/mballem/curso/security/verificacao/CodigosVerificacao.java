@@ -0,0 +1,309 @@
+package com.mballem.curso.security.verificacao;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Códigos verificadores da redefinição de senha, mantidos em memória fora da tabela usuarios.
+ *
+ * - cada email possui no máximo um código. Um novo pedido substitui o código anterior
+ * - o código é guardado apenas como hash SHA-256 com sal, nunca em texto
+ * - o código expira após a validade configurada. A expiração é feita por uma roda temporal (RodaTemporal) avançada a cada segundo
+ * - após o número máximo de tentativas o código é descartado, mesmo que a última tentativa esteja errada
+ * - a quantidade de códigos em memória é limitada. Com o limite atingido novos pedidos são recusados com RejectedExecutionException
+ *   (status 503 com Retry-After, ver ExceptionController) em vez de consumir mais memória
+ *
+ * Com app.verificacao.persistente=true os códigos também são gravados na tabela codigos_verificacao e recarregados ao iniciar
+ * a aplicação, assim sobrevivem a uma reinicialização.
+ *
+ * Métricas: app.verificacao.codigos (códigos em memória) e app.verificacao.recusados (pedidos recusados pelo limite).
+ * */
+@Component
+public class CodigosVerificacao {
+
+	private static final Logger log = LoggerFactory.getLogger(CodigosVerificacao.class);
+
+	private static final int TAMANHO_CODIGO = 6;
+	private static final int TAMANHO_SAL = 16;
+	private static final long TICK = TimeUnit.SECONDS.toNanos(1);
+
+	private final Map<String, Codigo> codigos = new ConcurrentHashMap<>();
+	private final AtomicInteger quantidade = new AtomicInteger();
+	private final LongAdder recusados = new LongAdder();
+	private final SecureRandom random = new SecureRandom();
+	private final RodaTemporal<Codigo> roda;
+	private final LongSupplier relogio;
+	private final long validadeNanos;
+	private final int maximoTentativas;
+	private final int capacidade;
+	//null quando os códigos não são gravados no banco de dados
+	private final JdbcTemplate jdbcTemplate;
+	private ScheduledExecutorService expiracao;
+
+	@Autowired
+	public CodigosVerificacao(MeterRegistry registry, JdbcTemplate jdbcTemplate,
+			@Value("${app.verificacao.validade-minutos:15}") long validadeMinutos,
+			@Value("${app.verificacao.tentativas:5}") int maximoTentativas,
+			@Value("${app.verificacao.capacidade:100000}") int capacidade,
+			@Value("${app.verificacao.persistente:false}") boolean persistente) {
+		this(System::nanoTime, TimeUnit.MINUTES.toNanos(validadeMinutos), maximoTentativas, capacidade, persistente ? jdbcTemplate : null);
+		Gauge.builder("app.verificacao.codigos", quantidade, AtomicInteger::get)
+				.description("códigos verificadores em memória")
+				.register(registry);
+		FunctionCounter.builder("app.verificacao.recusados", recusados, LongAdder::sum)
+				.description("pedidos de código recusados pelo limite de capacidade")
+				.register(registry);
+	}
+
+	//usado diretamente nos testes, com relógio controlado
+	CodigosVerificacao(LongSupplier relogio, long validadeNanos, int maximoTentativas, int capacidade, JdbcTemplate jdbcTemplate) {
+		this.relogio = relogio;
+		this.validadeNanos = validadeNanos;
+		this.maximoTentativas = maximoTentativas;
+		this.capacidade = capacidade;
+		this.jdbcTemplate = jdbcTemplate;
+		//uma volta da roda cobre a validade, assim cada posição guarda apenas códigos que expiram na volta atual
+		this.roda = new RodaTemporal<>(TICK, (int) Math.min(1 << 16, validadeNanos / TICK + 1), relogio.getAsLong());
+	}
+
+	@PostConstruct
+	public void iniciar() {
+		if (jdbcTemplate != null) {
+			carregar();
+		}
+		expiracao = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "codigos-verificacao");
+			thread.setDaemon(true);
+			return thread;
+		});
+		expiracao.scheduleWithFixedDelay(this::expirarVencidos, 1, 1, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	public void parar() {
+		if (expiracao != null) {
+			expiracao.shutdownNow();
+		}
+	}
+
+	/**
+	 * Gera um novo código verificador para o email, substituindo o código anterior.
+	 *
+	 * @return o código em texto, a ser enviado para o email
+	 * @throws RejectedExecutionException quando o limite de códigos em memória for atingido
+	 * */
+	public String gerar(String email) {
+		String codigo = RandomStringUtils.random(TAMANHO_CODIGO, 0, 0, true, true, null, random);
+		byte[] sal = new byte[TAMANHO_SAL];
+		random.nextBytes(sal);
+		Codigo novo = new Codigo(chave(email), sal, hash(sal, codigo), 0, relogio.getAsLong() + validadeNanos);
+		adicionar(novo);
+		if (jdbcTemplate != null) {
+			jdbcTemplate.update("REPLACE INTO codigos_verificacao (email, sal, hash, tentativas, expira_em) VALUES (?, ?, ?, 0, ?)",
+					novo.email, novo.sal, novo.hash, new Timestamp(System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(validadeNanos)));
+		}
+		return codigo;
+	}
+
+	/**
+	 * Confere o código informado. Um código que confere é descartado e não pode ser usado novamente.
+	 *
+	 * Dentro de uma transação o código que confere só é descartado após o commit. Até o fim da transação novas verificações do
+	 * mesmo email são recusadas. Se a transação for desfeita o código volta a valer, assim uma falha ao gravar a nova senha não
+	 * obriga o usuário a pedir outro código.
+	 *
+	 * @return false quando o email não possuir código, o código não conferir, estiver expirado ou tiver excedido as tentativas
+	 * */
+	public boolean verificar(String email, String codigo) {
+		Codigo registro = email == null ? null : codigos.get(chave(email));
+		if (registro == null || codigo == null) {
+			return false;
+		}
+		boolean confere = false;
+		boolean descartar;
+		boolean reservar = false;
+		int tentativas;
+		synchronized (registro) {
+			if (registro.descartado || registro.reservado) {
+				return false;
+			}
+			if (relogio.getAsLong() - registro.expiraEm >= 0) {
+				descartar = true;
+			} else {
+				confere = MessageDigest.isEqual(registro.hash, hash(registro.sal, codigo));
+				registro.tentativas++;
+				reservar = confere && TransactionSynchronizationManager.isSynchronizationActive();
+				descartar = !reservar && (confere || registro.tentativas >= maximoTentativas);
+			}
+			registro.descartado = descartar;
+			registro.reservado = reservar;
+			tentativas = registro.tentativas;
+		}
+		if (reservar) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					liberar(registro, status == TransactionSynchronization.STATUS_COMMITTED);
+				}
+			});
+		}
+		if (descartar) {
+			remover(registro);
+		} else if (jdbcTemplate != null) {
+			jdbcTemplate.update("UPDATE codigos_verificacao SET tentativas = ? WHERE email = ? AND hash = ?",
+					tentativas, registro.email, registro.hash);
+		}
+		return confere;
+	}
+
+	//fim da transação que usou o código: descarta após o commit, devolve após o rollback (se ainda restarem tentativas)
+	private void liberar(Codigo registro, boolean confirmado) {
+		boolean descartar;
+		synchronized (registro) {
+			registro.reservado = false;
+			descartar = confirmado || registro.tentativas >= maximoTentativas;
+			registro.descartado |= descartar;
+		}
+		if (descartar) {
+			remover(registro);
+		}
+	}
+
+	//quantidade de códigos em memória
+	public int getQuantidade() {
+		return quantidade.get();
+	}
+
+	//remove os códigos cujo prazo terminou. Executado a cada segundo
+	void expirarVencidos() {
+		try {
+			for (Codigo codigo : roda.avancar(relogio.getAsLong())) {
+				synchronized (codigo) {
+					codigo.descartado = true;
+				}
+				remover(codigo);
+			}
+		} catch (RuntimeException ex) {
+			log.warn("falha ao expirar códigos verificadores: {}", ex.getMessage());
+		}
+	}
+
+	private void adicionar(Codigo novo) {
+		try {
+			codigos.compute(novo.email, (email, anterior) -> {
+				if (anterior == null) {
+					if (quantidade.incrementAndGet() > capacidade) {
+						quantidade.decrementAndGet();
+						throw new RejectedExecutionException("Limite de códigos verificadores atingido");
+					}
+				} else {
+					synchronized (anterior) {
+						anterior.descartado = true;
+					}
+					roda.cancelar(anterior.item);
+				}
+				novo.item = roda.agendar(novo, novo.expiraEm);
+				return novo;
+			});
+		} catch (RejectedExecutionException ex) {
+			recusados.increment();
+			throw ex;
+		}
+	}
+
+	private void remover(Codigo codigo) {
+		if (codigos.remove(codigo.email, codigo)) {
+			quantidade.decrementAndGet();
+			roda.cancelar(codigo.item);
+			if (jdbcTemplate != null) {
+				jdbcTemplate.update("DELETE FROM codigos_verificacao WHERE email = ? AND hash = ?", codigo.email, codigo.hash);
+			}
+		}
+	}
+
+	//carrega os códigos ainda válidos gravados na tabela codigos_verificacao
+	private void carregar() {
+		Timestamp agora = new Timestamp(System.currentTimeMillis());
+		jdbcTemplate.update("DELETE FROM codigos_verificacao WHERE expira_em <= ?", agora);
+		List<Codigo> validos = jdbcTemplate.query("SELECT email, sal, hash, tentativas, expira_em FROM codigos_verificacao",
+				(rs, n) -> new Codigo(rs.getString("email"), rs.getBytes("sal"), rs.getBytes("hash"), rs.getInt("tentativas"),
+						relogio.getAsLong() + TimeUnit.MILLISECONDS.toNanos(rs.getTimestamp("expira_em").getTime() - agora.getTime())));
+		int carregados = 0;
+		for (Codigo codigo : validos) {
+			try {
+				adicionar(codigo);
+				carregados++;
+			} catch (RejectedExecutionException ex) {
+				break;
+			}
+		}
+		log.info("{} códigos verificadores carregados de {}", carregados, validos.size());
+	}
+
+	//o email é o username da aplicação e não diferencia maiúsculas de minúsculas no banco de dados
+	private static String chave(String email) {
+		return email.trim().toLowerCase(Locale.ROOT);
+	}
+
+	private static byte[] hash(byte[] sal, String codigo) {
+		try {
+			MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+			sha256.update(sal);
+			return sha256.digest(codigo.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	private static final class Codigo {
+		private final String email;
+		private final byte[] sal;
+		private final byte[] hash;
+		private final long expiraEm;
+		private int tentativas;
+		private boolean descartado;
+		//conferido por uma transação ainda em andamento
+		private boolean reservado;
+		private RodaTemporal.Item<Codigo> item;
+
+		private Codigo(String email, byte[] sal, byte[] hash, int tentativas, long expiraEm) {
+			this.email = email;
+			this.sal = sal;
+			this.hash = hash;
+			this.tentativas = tentativas;
+			this.expiraEm = expiraEm;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.mballem.curso.security.verificacao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Roda temporal com hash (hashed timing wheel) para expirar itens após um prazo.
+ * O tempo é dividido em ticks de duração fixa e cada tick é associado a uma das posições da roda (tick módulo quantidade de posições).
+ * Agendar e cancelar um item custa O(1): cada posição é uma lista duplamente encadeada e o próprio item guarda seus ponteiros.
+ * Ao avançar, apenas a posição de cada tick decorrido é percorrida. Itens com prazo maior que uma volta da roda permanecem na posição
+ * até o tick em que de fato expiram.
+ *
+ * O tempo é informado por quem usa a roda (em nanossegundos, como System.nanoTime()), assim os testes controlam o relógio.
+ * */
+class RodaTemporal<T> {
+
+	private final long tickNanos;
+	private final int mascara;
+	private final Item<T>[] posicoes;
+	private final long inicio;
+	//último tick já processado
+	private long tickAtual;
+	private int tamanho;
+
+	/**
+	 * @param tickNanos duração de um tick. É a precisão da expiração
+	 * @param posicoes quantidade de posições da roda. Arredondada para a próxima potência de 2
+	 * @param agora instante inicial da roda
+	 * */
+	@SuppressWarnings("unchecked")
+	RodaTemporal(long tickNanos, int posicoes, long agora) {
+		int n = Integer.highestOneBit(Math.max(1, posicoes - 1)) << 1;
+		this.tickNanos = tickNanos;
+		this.mascara = n - 1;
+		this.posicoes = new Item[n];
+		this.inicio = agora;
+	}
+
+	/**
+	 * Agenda a expiração do valor no instante informado. O valor expira no primeiro tick que terminar a partir desse instante.
+	 * 
+	 * @return o item agendado, usado para cancelar a expiração
+	 * */
+	synchronized Item<T> agendar(T valor, long expiraEm) {
+		Item<T> item = new Item<>(valor, Math.max(tickAtual + 1, ticks(expiraEm - 1) + 1));
+		int posicao = (int) (item.tick & mascara);
+		item.proximo = posicoes[posicao];
+		if (item.proximo != null) {
+			item.proximo.anterior = item;
+		}
+		posicoes[posicao] = item;
+		item.agendado = true;
+		tamanho++;
+		return item;
+	}
+
+	/**
+	 * Cancela a expiração do item.
+	 * 
+	 * @return false se o item já tiver expirado ou sido cancelado
+	 * */
+	synchronized boolean cancelar(Item<T> item) {
+		if (!item.agendado) {
+			return false;
+		}
+		remover(item, (int) (item.tick & mascara));
+		return true;
+	}
+
+	/**
+	 * Processa os ticks decorridos até o instante informado.
+	 * 
+	 * @return os valores expirados
+	 * */
+	synchronized List<T> avancar(long agora) {
+		List<T> expirados = new ArrayList<>();
+		long ultimo = ticks(agora);
+		//após uma volta completa todas as posições já foram visitadas
+		long primeiro = Math.max(tickAtual + 1, ultimo - mascara);
+		for (long tick = primeiro; tick <= ultimo; tick++) {
+			int posicao = (int) (tick & mascara);
+			Item<T> item = posicoes[posicao];
+			while (item != null) {
+				Item<T> proximo = item.proximo;
+				if (item.tick <= ultimo) {
+					remover(item, posicao);
+					expirados.add(item.valor);
+				}
+				item = proximo;
+			}
+		}
+		tickAtual = Math.max(tickAtual, ultimo);
+		return expirados;
+	}
+
+	synchronized int tamanho() {
+		return tamanho;
+	}
+
+	private long ticks(long instante) {
+		return Math.max(0, instante - inicio) / tickNanos;
+	}
+
+	private void remover(Item<T> item, int posicao) {
+		if (item.anterior != null) {
+			item.anterior.proximo = item.proximo;
+		} else {
+			posicoes[posicao] = item.proximo;
+		}
+		if (item.proximo != null) {
+			item.proximo.anterior = item.anterior;
+		}
+		item.anterior = null;
+		item.proximo = null;
+		item.agendado = false;
+		tamanho--;
+	}
+
+	static final class Item<T> {
+		private final T valor;
+		private final long tick;
+		private Item<T> anterior;
+		private Item<T> proximo;
+		private boolean agendado;
+
+		private Item(T valor, long tick) {
+			this.valor = valor;
+			this.tick = tick;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package com.mballem.curso.security.web.admissao;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Propriedades app.admissao.* do controle de admissão (ver ControleAdmissao). Cada grupo é configurado em
+ * app.admissao.grupos.[nome].*
+ * */
+@ConfigurationProperties(prefix = "app.admissao")
+public class AdmissaoProperties {
+
+	private Map<String, Grupo> grupos = new LinkedHashMap<>();
+
+	public enum Modo {
+		FIXO, ADAPTATIVO
+	}
+
+	public static class Grupo {
+		//padrões Ant dos caminhos do grupo
+		private List<String> padroes = new ArrayList<>();
+		//método HTTP. Vazio para todos
+		private String metodo;
+		private Modo modo = Modo.FIXO;
+		//limite do modo fixo e limite inicial do modo adaptativo
+		private int limite = 20;
+		private int limiteMinimo = 1;
+		private int limiteMaximo = 200;
+		//segundos do cabeçalho Retry-After das requisições rejeitadas
+		private int retryAfter = 1;
+
+		public List<String> getPadroes() {
+			return padroes;
+		}
+
+		public void setPadroes(List<String> padroes) {
+			this.padroes = padroes;
+		}
+
+		public String getMetodo() {
+			return metodo;
+		}
+
+		public void setMetodo(String metodo) {
+			this.metodo = metodo;
+		}
+
+		public Modo getModo() {
+			return modo;
+		}
+
+		public void setModo(Modo modo) {
+			this.modo = modo;
+		}
+
+		public int getLimite() {
+			return limite;
+		}
+
+		public void setLimite(int limite) {
+			this.limite = limite;
+		}
+
+		public int getLimiteMinimo() {
+			return limiteMinimo;
+		}
+
+		public void setLimiteMinimo(int limiteMinimo) {
+			this.limiteMinimo = limiteMinimo;
+		}
+
+		public int getLimiteMaximo() {
+			return limiteMaximo;
+		}
+
+		public void setLimiteMaximo(int limiteMaximo) {
+			this.limiteMaximo = limiteMaximo;
+		}
+
+		public int getRetryAfter() {
+			return retryAfter;
+		}
+
+		public void setRetryAfter(int retryAfter) {
+			this.retryAfter = retryAfter;
+		}
+	}
+
+	public Map<String, Grupo> getGrupos() {
+		return grupos;
+	}
+
+	public void setGrupos(Map<String, Grupo> grupos) {
+		this.grupos = grupos;
+	}
+}
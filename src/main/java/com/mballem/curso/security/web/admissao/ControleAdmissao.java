@@ -0,0 +1,174 @@
+package com.mballem.curso.security.web.admissao;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.security.web.util.matcher.OrRequestMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.util.StringUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Filtro de controle de admissão: limita as requisições simultâneas de cada grupo de endpoints (cadastro de paciente, login,
+ * tabelas Datatables). Uma requisição acima do limite é rejeitada imediatamente com o status 503 e o cabeçalho Retry-After,
+ * antes do Spring Security e do controller, em vez de aguardar na fila e esgotar o tempo junto com as demais.
+ *
+ * A vaga é ocupada até o fim da requisição. Nos endpoints assíncronos (WebAsyncTask) isso inclui a espera e a execução no pool,
+ * liberada pelo AsyncListener ao completar. Um timeout assíncrono é informado ao limite como sobrecarga.
+ *
+ * Métricas por grupo (tag grupo): app.admissao.limite, app.admissao.em-andamento, app.admissao.aceitas e app.admissao.rejeitadas.
+ * */
+public class ControleAdmissao extends OncePerRequestFilter {
+
+	private final MeterRegistry registry;
+	private final List<Grupo> grupos = new ArrayList<>();
+
+	private static final class Grupo {
+		private final String nome;
+		private final RequestMatcher matcher;
+		private final LimiteConcorrencia limite;
+		private final String retryAfter;
+		private final Counter aceitas;
+		private final Counter rejeitadas;
+
+		Grupo(String nome, RequestMatcher matcher, LimiteConcorrencia limite, int retryAfter, Counter aceitas, Counter rejeitadas) {
+			this.nome = nome;
+			this.matcher = matcher;
+			this.limite = limite;
+			this.retryAfter = String.valueOf(retryAfter);
+			this.aceitas = aceitas;
+			this.rejeitadas = rejeitadas;
+		}
+	}
+
+	public ControleAdmissao(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * Adiciona um grupo. Os grupos são verificados na ordem em que foram adicionados.
+	 *
+	 * @param metodo método HTTP dos endpoints ou null para todos
+	 * */
+	public void adicionarGrupo(String nome, List<String> padroes, String metodo, LimiteConcorrencia limite, int retryAfter) {
+		List<RequestMatcher> matchers = new ArrayList<>();
+		for (String padrao : padroes) {
+			matchers.add(new AntPathRequestMatcher(padrao, StringUtils.hasText(metodo) ? metodo : null));
+		}
+		Gauge.builder("app.admissao.limite", limite, LimiteConcorrencia::getLimite)
+				.description("limite de requisições simultâneas do grupo")
+				.tag("grupo", nome)
+				.register(registry);
+		Gauge.builder("app.admissao.em-andamento", limite, LimiteConcorrencia::getEmAndamento)
+				.description("requisições do grupo em andamento")
+				.tag("grupo", nome)
+				.register(registry);
+		Counter aceitas = Counter.builder("app.admissao.aceitas")
+				.description("requisições admitidas")
+				.tag("grupo", nome)
+				.register(registry);
+		Counter rejeitadas = Counter.builder("app.admissao.rejeitadas")
+				.description("requisições rejeitadas com 503 por excederem o limite")
+				.tag("grupo", nome)
+				.register(registry);
+		grupos.add(new Grupo(nome, new OrRequestMatcher(matchers), limite, retryAfter, aceitas, rejeitadas));
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		Grupo grupo = grupo(request);
+		if (grupo == null) {
+			chain.doFilter(request, response);
+			return;
+		}
+		if (!grupo.limite.adquirir()) {
+			grupo.rejeitadas.increment();
+			rejeitar(grupo, response);
+			return;
+		}
+		grupo.aceitas.increment();
+
+		long inicio = System.nanoTime();
+		boolean assincrona = false;
+		try {
+			chain.doFilter(request, response);
+			if (request.isAsyncStarted()) {
+				request.getAsyncContext().addListener(new Liberacao(grupo.limite, inicio));
+				assincrona = true;
+			}
+		} finally {
+			if (!assincrona) {
+				grupo.limite.liberar(System.nanoTime() - inicio, false);
+			}
+		}
+	}
+
+	private Grupo grupo(HttpServletRequest request) {
+		for (Grupo grupo : grupos) {
+			if (grupo.matcher.matches(request)) {
+				return grupo;
+			}
+		}
+		return null;
+	}
+
+	private static void rejeitar(Grupo grupo, HttpServletResponse response) throws IOException {
+		response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		response.setHeader("Retry-After", grupo.retryAfter);
+		response.setContentType("text/plain;charset=UTF-8");
+		response.getWriter().write("O servidor está sobrecarregado (" + grupo.nome + "), tente novamente em instantes.");
+	}
+
+	//libera a vaga de uma requisição assíncrona uma única vez: o timeout e o erro também são seguidos de onComplete
+	private static final class Liberacao implements AsyncListener {
+
+		private final LimiteConcorrencia limite;
+		private final long inicio;
+		private final AtomicBoolean liberada = new AtomicBoolean();
+
+		Liberacao(LimiteConcorrencia limite, long inicio) {
+			this.limite = limite;
+			this.inicio = inicio;
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) {
+			liberar(false);
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+			liberar(true);
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+			liberar(false);
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+		}
+
+		private void liberar(boolean sobrecarga) {
+			if (liberada.compareAndSet(false, true)) {
+				limite.liberar(System.nanoTime() - inicio, sobrecarga);
+			}
+		}
+	}
+}
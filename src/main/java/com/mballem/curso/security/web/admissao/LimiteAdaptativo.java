@@ -0,0 +1,99 @@
+package com.mballem.curso.security.web.admissao;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limite que se ajusta à latência observada (gradiente entre a latência recente e a latência de referência).
+ *
+ * A latência de referência é a média móvel longa (~600 requisições) e a recente é a média móvel curta (~10 requisições).
+ * Enquanto a recente não passar de 'tolerancia' vezes a referência o limite cresce, permitindo uma fila de raiz(limite)
+ * requisições. Quando a latência sobe, o limite é multiplicado pela razão entre as latências (no mínimo 0,5). Um timeout
+ * reduz o limite em 10%. O limite não cresce enquanto menos da metade das vagas estiver em uso, assim um período de pouco
+ * movimento não o leva ao máximo.
+ *
+ * Se a latência ficar alta por muito tempo a referência acompanha a alta. Quando a recente cai para menos da metade da
+ * referência, a referência é reduzida mais rápido, permitindo que o limite volte a crescer.
+ * */
+public class LimiteAdaptativo implements LimiteConcorrencia {
+
+	private static final int JANELA_LONGA = 600;
+	private static final int JANELA_CURTA = 10;
+	private static final double SUAVIZACAO = 0.2;
+	private static final double TOLERANCIA = 1.5;
+
+	private final int minimo;
+	private final int maximo;
+	private final AtomicInteger emAndamento = new AtomicInteger();
+	private volatile int limite;
+
+	//protegidos pelo lock do objeto
+	private double estimativa;
+	private double latenciaLonga;
+	private double latenciaCurta;
+	private long amostras;
+
+	public LimiteAdaptativo(int inicial, int minimo, int maximo) {
+		this.minimo = minimo;
+		this.maximo = maximo;
+		this.estimativa = Math.max(minimo, Math.min(maximo, inicial));
+		this.limite = (int) estimativa;
+	}
+
+	@Override
+	public boolean adquirir() {
+		int atual;
+		do {
+			atual = emAndamento.get();
+			if (atual >= limite) {
+				return false;
+			}
+		} while (!emAndamento.compareAndSet(atual, atual + 1));
+		return true;
+	}
+
+	@Override
+	public void liberar(long nanos, boolean sobrecarga) {
+		int emUso = emAndamento.getAndDecrement();
+		atualizar(nanos, emUso, sobrecarga);
+	}
+
+	private synchronized void atualizar(long nanos, int emUso, boolean sobrecarga) {
+		if (sobrecarga) {
+			definir(estimativa * 0.9);
+			return;
+		}
+		amostras++;
+		latenciaLonga = media(latenciaLonga, nanos, Math.min(amostras, JANELA_LONGA));
+		latenciaCurta = media(latenciaCurta, nanos, Math.min(amostras, JANELA_CURTA));
+		if (latenciaLonga > 2 * latenciaCurta) {
+			latenciaLonga *= 0.95;
+		}
+
+		double gradiente = Math.max(0.5, Math.min(1.0, TOLERANCIA * latenciaLonga / latenciaCurta));
+		double novo = estimativa * gradiente + Math.sqrt(estimativa);
+		if (novo > estimativa && emUso < estimativa / 2) {
+			return;
+		}
+		definir(estimativa * (1 - SUAVIZACAO) + novo * SUAVIZACAO);
+	}
+
+	private void definir(double valor) {
+		estimativa = Math.max(minimo, Math.min(maximo, valor));
+		limite = (int) estimativa;
+	}
+
+	//média móvel exponencial equivalente a uma janela de 'janela' amostras
+	private static double media(double atual, double amostra, long janela) {
+		return atual + (amostra - atual) / janela;
+	}
+
+	@Override
+	public int getLimite() {
+		return limite;
+	}
+
+	@Override
+	public int getEmAndamento() {
+		return emAndamento.get();
+	}
+}
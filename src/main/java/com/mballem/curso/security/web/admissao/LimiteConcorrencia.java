@@ -0,0 +1,26 @@
+package com.mballem.curso.security.web.admissao;
+
+/**
+ * Limite de requisições simultâneas de um grupo de endpoints (ver ControleAdmissao).
+ * */
+public interface LimiteConcorrencia {
+
+	/**
+	 * Ocupa uma vaga, sem esperar.
+	 *
+	 * @return false se o limite já foi atingido e a requisição deve ser rejeitada
+	 * */
+	boolean adquirir();
+
+	/**
+	 * Libera a vaga ocupada por adquirir().
+	 *
+	 * @param nanos duração da requisição
+	 * @param sobrecarga true quando a requisição terminou por timeout
+	 * */
+	void liberar(long nanos, boolean sobrecarga);
+
+	int getLimite();
+
+	int getEmAndamento();
+}
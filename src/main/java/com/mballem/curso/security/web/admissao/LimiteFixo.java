@@ -0,0 +1,43 @@
+package com.mballem.curso.security.web.admissao;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limite estático: no máximo 'limite' requisições simultâneas.
+ * */
+public class LimiteFixo implements LimiteConcorrencia {
+
+	private final int limite;
+	private final AtomicInteger emAndamento = new AtomicInteger();
+
+	public LimiteFixo(int limite) {
+		this.limite = limite;
+	}
+
+	@Override
+	public boolean adquirir() {
+		int atual;
+		do {
+			atual = emAndamento.get();
+			if (atual >= limite) {
+				return false;
+			}
+		} while (!emAndamento.compareAndSet(atual, atual + 1));
+		return true;
+	}
+
+	@Override
+	public void liberar(long nanos, boolean sobrecarga) {
+		emAndamento.decrementAndGet();
+	}
+
+	@Override
+	public int getLimite() {
+		return limite;
+	}
+
+	@Override
+	public int getEmAndamento() {
+		return emAndamento.get();
+	}
+}
@@ -0,0 +1,76 @@
+package com.mballem.curso.security.web.async;
+
+import java.util.concurrent.Callable;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.async.WebAsyncTask;
+
+import com.mballem.curso.security.config.AsyncConfig;
+
+/**
+ * Classe auxiliar que cria as tarefas assíncronas (WebAsyncTask) devolvidas pelos controllers.
+ * Cada método associa a tarefa ao pool do seu grupo de endpoints e ao timeout configurado para esse grupo.
+ * Ao estourar o timeout o Spring lança AsyncRequestTimeoutException e a resposta será 503.
+ * A requisição atual (RequestContextHolder) é repassada para a thread do pool.
+ * */
+@Component
+public class AsyncTaskFactory {
+
+	@Autowired
+	@Qualifier(AsyncConfig.DATATABLES_EXECUTOR)
+	private ThreadPoolTaskExecutor datatablesExecutor;
+
+	@Autowired
+	@Qualifier(AsyncConfig.AUTOCOMPLETE_EXECUTOR)
+	private ThreadPoolTaskExecutor autocompleteExecutor;
+
+	@Autowired
+	@Qualifier(AsyncConfig.CADASTRO_EXECUTOR)
+	private ThreadPoolTaskExecutor cadastroExecutor;
+
+	@Value("${app.async.datatables.timeout:10000}")
+	private long datatablesTimeout;
+
+	@Value("${app.async.autocomplete.timeout:3000}")
+	private long autocompleteTimeout;
+
+	@Value("${app.async.cadastro.timeout:30000}")
+	private long cadastroTimeout;
+
+	//tarefas dos endpoints de json das tabelas Datatables
+	public <T> WebAsyncTask<T> datatables(Callable<T> callable) {
+		return new WebAsyncTask<>(datatablesTimeout, datatablesExecutor, comRequisicao(callable));
+	}
+
+	//tarefas do autocomplete
+	public <T> WebAsyncTask<T> autocomplete(Callable<T> callable) {
+		return new WebAsyncTask<>(autocompleteTimeout, autocompleteExecutor, comRequisicao(callable));
+	}
+
+	//tarefas de cadastro de paciente e redefinição de senha
+	public <T> WebAsyncTask<T> cadastro(Callable<T> callable) {
+		return new WebAsyncTask<>(cadastroTimeout, cadastroExecutor, comRequisicao(callable));
+	}
+
+	/*
+	 * Disponibiliza a requisição (RequestContextHolder) na thread do pool, usada por exemplo pelo roteamento de leituras
+	 * para réplicas (AderenciaEscrita) para consultar a sessão do usuário.
+	 */
+	private static <T> Callable<T> comRequisicao(Callable<T> callable) {
+		RequestAttributes atributos = RequestContextHolder.getRequestAttributes();
+		return () -> {
+			RequestContextHolder.setRequestAttributes(atributos);
+			try {
+				return callable.call();
+			} finally {
+				RequestContextHolder.resetRequestAttributes();
+			}
+		};
+	}
+}
@@ -0,0 +1,249 @@
+package com.mballem.curso.security.web.cache;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.csrf.CsrfToken;
+import org.springframework.security.web.csrf.DefaultCsrfToken;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.View;
+import org.springframework.web.servlet.support.RequestContextUtils;
+import org.thymeleaf.spring5.view.ThymeleafViewResolver;
+import org.unbescape.html.HtmlEscape;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Cache do HTML renderizado das páginas públicas (métodos anotados com @PaginaPublica) para visitantes anônimos.
+ *
+ * Na primeira requisição de cada página a view é renderizada com marcadores no lugar do token CSRF e dos alertas. O HTML é dividido
+ * nesses marcadores (ver PaginaRenderizada) e as partes fixas ficam guardadas em bytes. Nas requisições seguintes o Thymeleaf não é
+ * executado: as partes são escritas intercaladas com o token CSRF da sessão e os alertas da requisição, escapados como no th:text.
+ * Os alertas só podem ser usados em th:text nessas páginas. O atributo 'alerta' define a aparência da caixa de alerta e faz parte
+ * da chave, assim como os alertas presentes.
+ *
+ * A página só é servida do cache em um GET sem parâmetros de um usuário anônimo, cujo flash contém apenas alertas e cujas URLs não
+ * são reescritas com o jsessionid. A cada app.pagina-cache.verificacao-ms a data de alteração dos templates e dos recursos estáticos
+ * (css, js e imagens) é conferida e o cache é esvaziado se algum deles mudou. Acertos e falhas ficam na métrica app.pagina.cache
+ * (tags view e resultado).
+ *
+ * O parâmetro v (version) dos css e js do layout deixa de mudar a cada requisição: ele é sorteado quando a página é guardada e
+ * continua o mesmo até o cache ser esvaziado. Como um recurso estático alterado esvazia o cache, a página renderizada em seguida
+ * recebe um novo v e os navegadores buscam o recurso novo.
+ * */
+@Component
+public class PaginaCache implements HandlerInterceptor {
+
+	private static final Logger log = LoggerFactory.getLogger(PaginaCache.class);
+
+	static final String CSRF = "_csrf";
+	static final String VARIANTE = "alerta";
+	static final List<String> ALERTAS = Arrays.asList("titulo", "texto", "subtexto", "sucesso", "falha");
+
+	//templates e recursos estáticos conferidos por verificarRecursos(). Os webjars só mudam com uma nova versão da aplicação,
+	//que inicia com o cache vazio
+	private static final List<String> RECURSOS = Arrays.asList("classpath*:templates/**/*.html", "classpath*:static/**/*.*");
+	private static final Set<String> FLASH_PERMITIDO = new HashSet<>(ALERTAS);
+	static {
+		FLASH_PERMITIDO.add(VARIANTE);
+	}
+
+	private final ConcurrentMap<String, PaginaRenderizada> paginas = new ConcurrentHashMap<>();
+	private final PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+	private final AtomicLong proximaVerificacao = new AtomicLong();
+	private volatile long alteracaoRecursos = -1;
+
+	@Autowired
+	private ThymeleafViewResolver viewResolver;
+
+	@Autowired
+	private MeterRegistry registry;
+
+	@Value("${app.pagina-cache.habilitado:true}")
+	private volatile boolean habilitado;
+
+	@Value("${app.pagina-cache.verificacao-ms:5000}")
+	private long verificacaoMs;
+
+	public boolean isHabilitado() {
+		return habilitado;
+	}
+
+	//permite ligar e desligar o cache em tempo de execução (usado no teste de carga das páginas públicas)
+	public void setHabilitado(boolean habilitado) {
+		this.habilitado = habilitado;
+		paginas.clear();
+	}
+
+	@Override
+	public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler, ModelAndView mav) throws Exception {
+		if (!(handler instanceof HandlerMethod) || !((HandlerMethod) handler).hasMethodAnnotation(PaginaPublica.class)
+				|| !cacheavel(request, response, mav)) {
+			return;
+		}
+		verificarRecursos();
+
+		Locale locale = RequestContextUtils.getLocale(request);
+		String chave = chave(mav, locale);
+		PaginaRenderizada pagina = paginas.get(chave);
+		boolean acerto = pagina != null;
+		if (!acerto) {
+			pagina = renderizar(request, response, mav, locale);
+			if (pagina == null) {
+				return;
+			}
+			paginas.putIfAbsent(chave, pagina);
+		}
+		registry.counter("app.pagina.cache", "view", mav.getViewName(), "resultado", acerto ? "hit" : "miss").increment();
+
+		escrever(pagina, request, response, mav.getModel());
+		mav.clear();//o DispatcherServlet não renderiza uma view limpa
+	}
+
+	private boolean cacheavel(HttpServletRequest request, HttpServletResponse response, ModelAndView mav) {
+		if (!habilitado || mav == null || mav.getViewName() == null || !"GET".equals(request.getMethod())
+				|| request.getQueryString() != null || response.getStatus() != HttpServletResponse.SC_OK) {
+			return false;
+		}
+		String view = mav.getViewName();
+		if (view.startsWith("redirect:") || view.startsWith("forward:")) {
+			return false;
+		}
+		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+		if (authentication != null && !(authentication instanceof AnonymousAuthenticationToken)) {
+			return false;
+		}
+		Map<String, ?> flash = RequestContextUtils.getInputFlashMap(request);
+		if (flash != null && !FLASH_PERMITIDO.containsAll(flash.keySet())) {
+			return false;
+		}
+		//a primeira resposta de uma sessão sem cookie reescreve as URLs com o jsessionid, que não pode ir para o cache
+		return request.getAttribute(CsrfToken.class.getName()) instanceof CsrfToken && "/".equals(response.encodeURL("/"));
+	}
+
+	private static String chave(ModelAndView mav, Locale locale) {
+		StringBuilder chave = new StringBuilder(mav.getViewName()).append('|').append(locale).append('|');
+		for (String alerta : ALERTAS) {
+			chave.append(mav.getModel().get(alerta) != null ? '1' : '0');
+		}
+		return chave.append('|').append(mav.getModel().get(VARIANTE)).toString();
+	}
+
+	/**
+	 * Renderiza a view em memória com marcadores no lugar do token CSRF e dos alertas presentes no model.
+	 * */
+	private PaginaRenderizada renderizar(HttpServletRequest request, HttpServletResponse response, ModelAndView mav,
+			Locale locale) throws Exception {
+		View view = viewResolver.resolveViewName(mav.getViewName(), locale);
+		if (view == null) {
+			return null;
+		}
+		Map<String, String> marcadores = new HashMap<>();
+		Map<String, Object> modelo = new HashMap<>(mav.getModel());
+		for (String alerta : ALERTAS) {
+			if (modelo.get(alerta) != null) {
+				String marcador = marcador();
+				marcadores.put(marcador, alerta);
+				modelo.put(alerta, marcador);
+			}
+		}
+
+		CsrfToken token = (CsrfToken) request.getAttribute(CsrfToken.class.getName());
+		String marcadorCsrf = marcador();
+		marcadores.put(marcadorCsrf, CSRF);
+		CsrfToken falso = new DefaultCsrfToken(token.getHeaderName(), token.getParameterName(), marcadorCsrf);
+		Object parametro = request.getAttribute(token.getParameterName());
+		RespostaCapturada capturada = new RespostaCapturada(response);
+		try {
+			request.setAttribute(CsrfToken.class.getName(), falso);
+			request.setAttribute(token.getParameterName(), falso);
+			response.setLocale(locale);
+			view.render(modelo, request, capturada);
+		} finally {
+			request.setAttribute(CsrfToken.class.getName(), token);
+			request.setAttribute(token.getParameterName(), parametro);
+		}
+
+		Charset charset = Charset.forName(capturada.getCharacterEncoding());
+		return PaginaRenderizada.dividir(new String(capturada.getCorpo(), charset), charset, response.getContentType(), marcadores);
+	}
+
+	private void escrever(PaginaRenderizada pagina, HttpServletRequest request, HttpServletResponse response,
+			Map<String, Object> model) throws IOException {
+		response.setContentType(pagina.getContentType());
+		Charset charset = Charset.forName(response.getCharacterEncoding());
+
+		Map<String, byte[]> valores = new HashMap<>();
+		CsrfToken token = (CsrfToken) request.getAttribute(CsrfToken.class.getName());
+		valores.put(CSRF, HtmlEscape.escapeHtml4Xml(token.getToken()).getBytes(charset));
+		for (String alerta : ALERTAS) {
+			Object valor = model.get(alerta);
+			if (valor != null) {
+				valores.put(alerta, HtmlEscape.escapeHtml4Xml(valor.toString()).getBytes(charset));
+			}
+		}
+
+		response.setContentLength(pagina.tamanho(valores));
+		ServletOutputStream saida = response.getOutputStream();
+		pagina.escrever(saida, valores);
+		saida.flush();
+	}
+
+	//esvazia o cache se algum template ou recurso estático foi alterado. Apenas uma requisição por intervalo percorre os arquivos
+	private void verificarRecursos() {
+		long agora = System.currentTimeMillis();
+		long proxima = proximaVerificacao.get();
+		if (agora < proxima || !proximaVerificacao.compareAndSet(proxima, agora + verificacaoMs)) {
+			return;
+		}
+		long alteracao = 0;
+		try {
+			for (String padrao : RECURSOS) {
+				for (Resource recurso : resolver.getResources(padrao)) {
+					alteracao = Math.max(alteracao, recurso.lastModified());
+				}
+			}
+		} catch (IOException e) {
+			log.warn("não foi possível verificar a alteração dos templates e recursos estáticos: {}", e.getMessage());
+			return;
+		}
+		if (alteracao != alteracaoRecursos) {
+			if (alteracaoRecursos != -1) {
+				log.info("templates ou recursos estáticos alterados, {} páginas removidas do cache", paginas.size());
+			}
+			paginas.clear();
+			alteracaoRecursos = alteracao;
+		}
+	}
+
+	private static String marcador() {
+		return "lacuna" + UUID.randomUUID().toString().replace("-", "");
+	}
+}
@@ -0,0 +1,18 @@
+package com.mballem.curso.security.web.cache;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marca um método de controller cuja página é igual para todos os visitantes anônimos, exceto pelo token CSRF e pelos alertas
+ * (titulo, texto, subtexto, sucesso e falha). O HTML renderizado dessas páginas é guardado pelo PaginaCache.
+ * */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface PaginaPublica {
+
+}
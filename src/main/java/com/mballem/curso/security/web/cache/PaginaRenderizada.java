@@ -0,0 +1,85 @@
+package com.mballem.curso.security.web.cache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HTML de uma página dividido em partes fixas, já codificadas em bytes, e nas lacunas entre elas. Cada lacuna é o nome do valor
+ * (token CSRF ou atributo de alerta) que é inserido a cada requisição entre uma parte e a seguinte.
+ * */
+final class PaginaRenderizada {
+
+	private final byte[][] partes;
+	private final String[] lacunas;
+	private final String contentType;
+
+	private PaginaRenderizada(byte[][] partes, String[] lacunas, String contentType) {
+		this.partes = partes;
+		this.lacunas = lacunas;
+		this.contentType = contentType;
+	}
+
+	/**
+	 * Divide o HTML nos pontos onde aparecem os marcadores.
+	 *
+	 * @param marcadores marcador inserido na renderização -> nome da lacuna
+	 * */
+	static PaginaRenderizada dividir(String html, Charset charset, String contentType, Map<String, String> marcadores) {
+		List<byte[]> partes = new ArrayList<>();
+		List<String> lacunas = new ArrayList<>();
+		int inicio = 0;
+		while (true) {
+			int posicao = -1;
+			String encontrado = null;
+			for (String marcador : marcadores.keySet()) {
+				int i = html.indexOf(marcador, inicio);
+				if (i >= 0 && (posicao < 0 || i < posicao)) {
+					posicao = i;
+					encontrado = marcador;
+				}
+			}
+			if (encontrado == null) {
+				break;
+			}
+			partes.add(html.substring(inicio, posicao).getBytes(charset));
+			lacunas.add(marcadores.get(encontrado));
+			inicio = posicao + encontrado.length();
+		}
+		partes.add(html.substring(inicio).getBytes(charset));
+
+		return new PaginaRenderizada(partes.toArray(new byte[partes.size()][]), lacunas.toArray(new String[lacunas.size()]), contentType);
+	}
+
+	String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * Tamanho em bytes da página com os valores informados.
+	 * */
+	int tamanho(Map<String, byte[]> valores) {
+		int tamanho = 0;
+		for (byte[] parte : partes) {
+			tamanho += parte.length;
+		}
+		for (String lacuna : lacunas) {
+			tamanho += valores.get(lacuna).length;
+		}
+		return tamanho;
+	}
+
+	/**
+	 * Escreve as partes fixas intercaladas com os valores das lacunas (já escapados para HTML e codificados).
+	 * */
+	void escrever(OutputStream saida, Map<String, byte[]> valores) throws IOException {
+		saida.write(partes[0]);
+		for (int i = 0; i < lacunas.length; i++) {
+			saida.write(valores.get(lacunas[i]));
+			saida.write(partes[i + 1]);
+		}
+	}
+}
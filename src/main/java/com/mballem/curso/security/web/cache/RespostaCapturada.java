@@ -0,0 +1,87 @@
+package com.mballem.curso.security.web.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Resposta que guarda em memória o corpo escrito pela view, sem enviá-lo ao cliente. Cabeçalhos e content type
+ * continuam sendo definidos na resposta original.
+ * */
+class RespostaCapturada extends HttpServletResponseWrapper {
+
+	private final ByteArrayOutputStream corpo = new ByteArrayOutputStream(16 * 1024);
+	private ServletOutputStream saida;
+	private PrintWriter writer;
+
+	RespostaCapturada(HttpServletResponse response) {
+		super(response);
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() {
+		if (saida == null) {
+			saida = new ServletOutputStream() {
+				@Override
+				public void write(int b) {
+					corpo.write(b);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+					corpo.write(b, off, len);
+				}
+
+				@Override
+				public boolean isReady() {
+					return true;
+				}
+
+				@Override
+				public void setWriteListener(WriteListener listener) {
+				}
+			};
+		}
+		return saida;
+	}
+
+	@Override
+	public PrintWriter getWriter() throws IOException {
+		if (writer == null) {
+			writer = new PrintWriter(new OutputStreamWriter(corpo, getCharacterEncoding()));
+		}
+		return writer;
+	}
+
+	//não envia nada ao cliente: apenas descarrega o writer no buffer em memória
+	@Override
+	public void flushBuffer() {
+		if (writer != null) {
+			writer.flush();
+		}
+	}
+
+	@Override
+	public void setContentLength(int len) {
+	}
+
+	@Override
+	public void setContentLengthLong(long len) {
+	}
+
+	@Override
+	public void resetBuffer() {
+		corpo.reset();
+	}
+
+	byte[] getCorpo() {
+		flushBuffer();
+		return corpo.toByteArray();
+	}
+}
@@ -0,0 +1,216 @@
+package com.mballem.curso.security.web.controller;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.ModelMap;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.servlet.mvc.support.RedirectAttributes;
+
+import com.mballem.curso.security.datatables.Datatables;
+import com.mballem.curso.security.domain.Agendamento;
+import com.mballem.curso.security.domain.Especialidade;
+import com.mballem.curso.security.domain.Horario;
+import com.mballem.curso.security.domain.Paciente;
+import com.mballem.curso.security.repository.projection.MedicoResumo;
+import com.mballem.curso.security.service.AgendaService;
+import com.mballem.curso.security.service.AgendamentoService;
+import com.mballem.curso.security.service.EspecialidadeService;
+import com.mballem.curso.security.service.HorarioIndisponivelException;
+import com.mballem.curso.security.service.ListagemAgendamentoService;
+import com.mballem.curso.security.service.MedicoService;
+import com.mballem.curso.security.service.PacienteService;
+import com.mballem.curso.security.util.VersaoTabelas;
+import com.mballem.curso.security.web.async.AsyncTaskFactory;
+
+@Controller
+@RequestMapping("agendamentos")
+public class AgendamentoController {
+
+	@Autowired
+	private AgendamentoService agendamentoService;
+
+	@Autowired
+	private AgendaService agendaService;
+
+	@Autowired
+	private MedicoService medicoService;
+
+	@Autowired
+	private PacienteService pacienteService;
+
+	@Autowired
+	private EspecialidadeService especialidadeService;
+
+	@Autowired
+	private ListagemAgendamentoService listagemService;
+
+	@Autowired
+	private AsyncTaskFactory asyncTasks;
+
+	@Autowired
+	private VersaoTabelas versaoTabelas;
+
+	// abrir pagina de agendamento de consultas
+	@GetMapping("/agendar")
+	public String agendarConsulta(Agendamento agendamento) {
+
+		return "agendamento/cadastro";
+	}
+
+	/**
+	 * Salva o agendamento de uma consulta do paciente logado.
+	 * Quando o horário já tiver sido reservado por outro paciente a consulta não é salva e a página de agendamento exibe a mensagem de falha.
+	 * 
+	 * @param agendamento especialidade (pelo titulo), médico, data e horário escolhidos no formulário. O id é ignorado
+	 * @param user paciente logado
+	 * */
+	@PostMapping("/salvar")
+	public String salvar(Agendamento agendamento, RedirectAttributes attr, @AuthenticationPrincipal User user) {
+		Paciente paciente = pacienteService.buscarPorUsuarioEmail(user.getUsername());
+		if (paciente.hasNotId()) {
+			attr.addFlashAttribute("falha", "Cadastre seus dados pessoais antes de agendar uma consulta.");
+			return "redirect:/pacientes/dados";
+		}
+
+		String titulo = agendamento.getEspecialidade().getTitulo();
+		Especialidade especialidade = especialidadeService.buscarPorTitulos(new String[] {titulo})
+				.stream().findFirst().orElse(null);
+		if (especialidade == null || agendamento.getDataConsulta() == null
+				|| agendamento.getMedico() == null || agendamento.getMedico().hasNotId()
+				|| agendamento.getHorario() == null || agendamento.getHorario().hasNotId()) {
+			attr.addFlashAttribute("falha", "Preencha a especialidade, o médico, a data e o horário da consulta.");
+			return "redirect:/agendamentos/agendar";
+		}
+		agendamento.setEspecialidade(especialidade);
+		agendamento.setPaciente(paciente);
+		//o endpoint apenas cria consultas: um id enviado no formulário alteraria a consulta de outro paciente
+		agendamento.setId(null);
+
+		try {
+			agendamentoService.salvar(agendamento);
+			attr.addFlashAttribute("sucesso", "Sua consulta foi agendada com sucesso.");
+		} catch (HorarioIndisponivelException ex) {
+			attr.addFlashAttribute("falha", ex.getMessage());
+		}
+		return "redirect:/agendamentos/agendar";
+	}
+
+	/**
+	 * Json com os médicos que atendem a especialidade escolhida na página de agendamento.
+	 * */
+	@GetMapping("/medicos")
+	public WebAsyncTask<ResponseEntity<List<MedicoResumo>>> medicosPorEspecialidade(@RequestParam("titulo") String titulo) {
+
+		return asyncTasks.autocomplete(() -> ResponseEntity.ok(agendamentoService.buscarMedicosPorEspecialidade(titulo)));
+	}
+
+	/**
+	 * Json com os horários ainda livres do médico na data escolhida na página de agendamento.
+	 * */
+	@GetMapping("/horarios/medico/{id}/data/{data}")
+	public WebAsyncTask<ResponseEntity<List<Horario>>> horariosLivres(@PathVariable("id") Long id,
+			@PathVariable("data") @DateTimeFormat(iso = ISO.DATE) LocalDate data) {
+
+		return asyncTasks.autocomplete(() -> ResponseEntity.ok(agendamentoService.buscarHorariosLivres(id, data)));
+	}
+
+	// abrir lista de todas as consultas, visível apenas para admins
+	@GetMapping("/lista")
+	public String listarAgendamentos() {
+
+		return "agendamento/lista";
+	}
+
+	/**
+	 * json da lista de consultas para a tabela presente na página agendamento/lista.html, lido da tabela desnormalizada
+	 * agendamentos_listagem (ver ListagemAgendamentoService). A consulta é executada no pool de datatables.
+	 * Se a lista não foi alterada desde a última resposta (If-None-Match) a resposta é 304, sem consultar o banco de dados.
+	 * 
+	 * @param formato 'compacto' para receber cada linha como um array (ver Datatables.getCompactResponse())
+	 * */
+	@GetMapping("/datatables/server")
+	public WebAsyncTask<ResponseEntity<?>> listarAgendamentosDatatables(HttpServletRequest request, WebRequest webRequest,
+			@RequestParam(value = "formato", required = false) String formato) {
+
+		if (versaoTabelas.naoModificado(VersaoTabelas.AGENDAMENTOS, request, webRequest)) {
+			return null;
+		}
+		return asyncTasks.datatables(() -> {
+			if (Datatables.FORMATO_COMPACTO.equals(formato)) {
+				return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(listagemService.buscarAgendamentosCompacto(request));
+			}
+			return ResponseEntity.ok(listagemService.buscarAgendamentos(request));
+		});
+	}
+
+	// abrir pagina de historico de consultas do paciente
+	@GetMapping("/historico/paciente")
+	public String historicoPaciente() {
+
+		return "agendamento/historico-paciente";
+	}
+
+	/**
+	 * Json com uma página do histórico de consultas do paciente logado. 
+	 * A primeira página é solicitada sem os parametros data e id. As seguintes usam o cursor 'proximo' devolvido pela página anterior.
+	 * 
+	 * @param data data da última consulta recebida
+	 * @param id id da última consulta recebida
+	 * @param tamanho quantidade de consultas por página
+	 * @param user paciente logado
+	 * */
+	@GetMapping("/historico/paciente/consultas")
+	public WebAsyncTask<ResponseEntity<?>> historicoPacienteConsultas(
+			@RequestParam(value = "data", required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate data,
+			@RequestParam(value = "id", required = false) Long id,
+			@RequestParam(value = "tamanho", defaultValue = "20") int tamanho,
+			@AuthenticationPrincipal User user) {
+
+		return asyncTasks.datatables(() -> 
+			ResponseEntity.ok(agendamentoService.buscarHistoricoPorPacienteEmail(user.getUsername(), data, id, tamanho)));
+	}
+
+	/**
+	 * Abre a página de consultas do médico logado com o total de consultas por dia no intervalo informado.
+	 * Por padrão exibe os próximos 30 dias. Os totais são lidos dos contadores da agenda, sem consultas agregadas na tabela agendamentos.
+	 * 
+	 * @param inicio data inicial do intervalo
+	 * @param fim data final do intervalo
+	 * @param user médico logado
+	 * */
+	@GetMapping("/historico/consultas")
+	public String consultasMedico(@RequestParam(value = "inicio", required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate inicio,
+								  @RequestParam(value = "fim", required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate fim,
+								  ModelMap model, @AuthenticationPrincipal User user) {
+		
+		inicio = inicio == null ? LocalDate.now() : inicio;
+		fim = fim == null || fim.isBefore(inicio) ? inicio.plusDays(30) : fim;
+		
+		Long medicoId = medicoService.buscarIdPorEmail(user.getUsername());
+		model.addAttribute("agenda", medicoId == null 
+				? Collections.emptyList() 
+				: agendaService.buscarAgenda(medicoId, inicio, fim));
+		model.addAttribute("inicio", inicio);
+		model.addAttribute("fim", fim);
+		
+		return "medico/consultas";
+	}
+}
@@ -1,10 +1,13 @@
 package com.mballem.curso.security.web.controller;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
@@ -13,10 +16,16 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.WebAsyncTask;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import com.mballem.curso.security.datatables.Datatables;
 import com.mballem.curso.security.domain.Especialidade;
 import com.mballem.curso.security.service.EspecialidadeService;
+import com.mballem.curso.security.service.ExclusaoLoteService;
+import com.mballem.curso.security.util.VersaoTabelas;
+import com.mballem.curso.security.web.async.AsyncTaskFactory;
 
 @Controller
 @RequestMapping("especialidades")
@@ -24,6 +33,17 @@ public class EspecialidadeController {
 	
 	@Autowired
 	EspecialidadeService especialidadeService;
+	
+	@Autowired
+	AsyncTaskFactory asyncTasks;
+	
+	@Autowired
+	VersaoTabelas versaoTabelas;
+
+	//@Lazy injeta um proxy: no profile boot-rapido o serviço só é criado na primeira exclusão (ver BootRapidoConfig)
+	@Lazy
+	@Autowired
+	ExclusaoLoteService exclusaoLote;
  
 	@GetMapping({"", "/"})
 	public String abrir(Especialidade especialidade) {	
@@ -47,13 +67,26 @@ public class EspecialidadeController {
 	/**
 	 * Método para listar as especialidades na tabela presente na página especialidade/especialidade.html
 	 * 
+	 * A consulta é executada no pool de datatables, liberando a thread do Tomcat.
+	 * Se a tabela especialidades não foi alterada desde a última resposta (If-None-Match) a resposta é 304, sem consultar o banco de dados.
+	 * 
 	 * @param request os parâmetros de solicitação do cliente.
+	 * @param formato 'compacto' para receber cada linha como um array (ver Datatables.getCompactResponse())
 	 * 
 	 * */
 	@GetMapping("/datatables/server")
-	public ResponseEntity<?> getEspecialidades(HttpServletRequest request) {	
+	public WebAsyncTask<ResponseEntity<?>> getEspecialidades(HttpServletRequest request, WebRequest webRequest,
+			@RequestParam(value = "formato", required = false) String formato) {	
 		
-		return ResponseEntity.ok(especialidadeService.buscarEspecialidades(request));
+		if (versaoTabelas.naoModificado(VersaoTabelas.ESPECIALIDADES, request, webRequest)) {
+			return null;
+		}
+		return asyncTasks.datatables(() -> {
+			if (Datatables.FORMATO_COMPACTO.equals(formato)) {
+				return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(especialidadeService.buscarEspecialidadesCompacto(request));
+			}
+			return ResponseEntity.ok(especialidadeService.buscarEspecialidades(request));
+		});
 	}
 	
 	/**
@@ -86,9 +119,27 @@ public class EspecialidadeController {
 		return "redirect:/especialidades";
 	}
 	
+	/**
+	 * Exclui várias especialidades, junto com as consultas marcadas nelas e a associação com os médicos (ver ExclusaoLoteService).
+	 * 
+	 * @param ids os ids das especialidades
+	 * @return json com as linhas removidas por tabela
+	 * */
+	@PostMapping("/excluir/lote")
+	public ResponseEntity<Map<String, Long>> excluirLote(@RequestParam("ids") List<Long> ids) {
+		return ResponseEntity.ok(exclusaoLote.excluirEspecialidades(ids));
+	}
+	
+	//autocomplete de especialidades. Executado no pool de autocomplete. Responde 304 se a tabela especialidades não foi alterada
 	@GetMapping("/titulo")
-	public ResponseEntity<?> getEspecialidadesPorTermo(@RequestParam("termo") String termo) {	
-		List<String> especialidades = especialidadeService.buscarEspecialidadeByTermo(termo);
-		return ResponseEntity.ok(especialidades);
+	public WebAsyncTask<ResponseEntity<?>> getEspecialidadesPorTermo(@RequestParam("termo") String termo, 
+																	HttpServletRequest request, WebRequest webRequest) {	
+		if (versaoTabelas.naoModificado(VersaoTabelas.ESPECIALIDADES, request, webRequest)) {
+			return null;
+		}
+		return asyncTasks.autocomplete(() -> {
+			List<String> especialidades = especialidadeService.buscarEspecialidadeByTermo(termo);
+			return ResponseEntity.ok(especialidades);
+		});
 	}
 }
@@ -2,26 +2,43 @@ package com.mballem.curso.security.web.controller;
 
 import javax.servlet.http.HttpServletResponse;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.GetMapping;
 
+import com.mballem.curso.security.domain.PerfilTipo;
+import com.mballem.curso.security.estatisticas.EstatisticasClinica;
+import com.mballem.curso.security.web.cache.PaginaPublica;
+
 @Controller
 public class HomeController {
 
-	// abrir pagina home
+	@Autowired
+	private EstatisticasClinica estatisticas;
+
+	// abrir pagina home. O administrador também recebe o painel de estatísticas, lido da memória (ver EstatisticasClinica)
+	@PaginaPublica
 	@GetMapping({"/", "/home"})
-	public String home() {
+	public String home(ModelMap model, Authentication authentication) {
+		if (authentication != null 
+				&& AuthorityUtils.authorityListToSet(authentication.getAuthorities()).contains(PerfilTipo.ADMIN.getDesc())) {
+			model.addAttribute("estatisticas", estatisticas.getResumo());
+		}
 		return "home";
 	}
 	
 	// Método para abrir pagina login
+	@PaginaPublica
 	@GetMapping({"/login"})
 	public String login() {
 		return "login";
 	}
 	
 	// Método em caso de login inválido
+	@PaginaPublica
 	@GetMapping({"/login-error"})
 	public String loginError(ModelMap model) {
 		model.addAttribute("alerta", "erro");
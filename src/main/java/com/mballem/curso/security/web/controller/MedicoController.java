@@ -1,19 +1,35 @@
 package com.mballem.curso.security.web.controller;
 
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.WebAsyncTask;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import com.mballem.curso.security.datatables.Datatables;
 import com.mballem.curso.security.domain.Medico;
 import com.mballem.curso.security.domain.Usuario;
+import com.mballem.curso.security.service.ExclusaoLoteService;
 import com.mballem.curso.security.service.MedicoService;
 import com.mballem.curso.security.service.UsuarioService;
+import com.mballem.curso.security.util.VersaoTabelas;
+import com.mballem.curso.security.web.async.AsyncTaskFactory;
 
 @Controller
 @RequestMapping("medicos")
@@ -24,6 +40,55 @@ public class MedicoController {
 	
 	@Autowired
 	UsuarioService usuarioService;
+
+	@Autowired
+	AsyncTaskFactory asyncTasks;
+
+	@Autowired
+	VersaoTabelas versaoTabelas;
+
+	//@Lazy injeta um proxy: no profile boot-rapido o serviço só é criado na primeira exclusão (ver BootRapidoConfig)
+	@Lazy
+	@Autowired
+	ExclusaoLoteService exclusaoLote;
+
+	// abrir lista de médicos, visível apenas para admins
+	@GetMapping("/lista")
+	public String listarMedicos() {
+		return "medico/lista";
+	}
+
+	/**
+	 * Exclui vários médicos, com seus usuários e consultas (ver ExclusaoLoteService). Visível apenas para admins.
+	 * 
+	 * @param ids os ids dos médicos
+	 * @return json com as linhas removidas por tabela
+	 * */
+	@PostMapping("/excluir/lote")
+	public ResponseEntity<Map<String, Long>> excluirLote(@RequestParam("ids") List<Long> ids) {
+		return ResponseEntity.ok(exclusaoLote.excluirMedicos(ids));
+	}
+
+	/**
+	 * json da lista de médicos para a tabela presente na página medico/lista.html. A consulta é executada no pool de datatables.
+	 * Se os médicos não foram alterados desde a última resposta (If-None-Match) a resposta é 304, sem consultar o banco de dados.
+	 * 
+	 * @param formato 'compacto' para receber cada linha como um array (ver Datatables.getCompactResponse())
+	 * */
+	@GetMapping("/datatables/server")
+	public WebAsyncTask<ResponseEntity<?>> listarMedicosDatatables(HttpServletRequest request, WebRequest webRequest,
+			@RequestParam(value = "formato", required = false) String formato) {
+
+		if (versaoTabelas.naoModificado(VersaoTabelas.MEDICOS, request, webRequest)) {
+			return null;
+		}
+		return asyncTasks.datatables(() -> {
+			if (Datatables.FORMATO_COMPACTO.equals(formato)) {
+				return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(medicoService.buscarMedicosCompacto(request));
+			}
+			return ResponseEntity.ok(medicoService.buscarMedicos(request));
+		});
+	}
 	
 	// abrir pagina de dados pessoais de medicos 
 	@GetMapping({"/dados"})
@@ -34,6 +99,11 @@ public class MedicoController {
 			model.addAttribute("medico", medico);
 		}
 		
+		//tabela de especialidades do médico
+		if(medico.getId() != null) {
+			model.addAttribute("especialidades", medicoService.buscarEspecialidades(medico.getId()));
+		}
+		
 		return "medico/cadastro";
 	}
 	
@@ -70,4 +140,15 @@ public class MedicoController {
 		attr.addFlashAttribute("medico", medico);	
 		return "redirect:/medicos/dados";
 	}
+
+	//remove uma especialidade do médico logado
+	@GetMapping({"/excluir/especializacao/{idEsp}"})
+	public String excluirEspecialidade(@PathVariable("idEsp") Long idEsp, RedirectAttributes attr, @AuthenticationPrincipal User user) {
+		Long idMedico = medicoService.buscarIdPorEmail(user.getUsername());
+		if(idMedico != null) {
+			medicoService.removerEspecialidade(idMedico, idEsp);
+			attr.addFlashAttribute("sucesso", "Especialidade removida com sucesso");
+		}
+		return "redirect:/medicos/dados";
+	}
 }
@@ -1,12 +1,15 @@
 package com.mballem.curso.security.web.controller;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
-import javax.mail.MessagingException;
 import javax.servlet.http.HttpServletRequest;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.User;
@@ -18,15 +21,22 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.WebAsyncTask;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import com.mballem.curso.security.datatables.Datatables;
 import com.mballem.curso.security.domain.Medico;
 import com.mballem.curso.security.domain.Perfil;
 import com.mballem.curso.security.domain.PerfilTipo;
 import com.mballem.curso.security.domain.Usuario;
+import com.mballem.curso.security.service.ExclusaoLoteService;
 import com.mballem.curso.security.service.MedicoService;
 import com.mballem.curso.security.service.UsuarioService;
+import com.mballem.curso.security.util.VersaoTabelas;
+import com.mballem.curso.security.web.async.AsyncTaskFactory;
+import com.mballem.curso.security.web.cache.PaginaPublica;
 
 @Controller
 @RequestMapping("u")
@@ -37,6 +47,17 @@ public class UsuarioController {
 	
 	@Autowired
 	MedicoService medicoService;
+	
+	@Autowired
+	AsyncTaskFactory asyncTasks;
+	
+	@Autowired
+	VersaoTabelas versaoTabelas;
+
+	//@Lazy injeta um proxy: no profile boot-rapido o serviço só é criado na primeira exclusão (ver BootRapidoConfig)
+	@Lazy
+	@Autowired
+	ExclusaoLoteService exclusaoLote;
 
 	// abrir pagina de dados pessoais de medicos/admin/paciente
 	@GetMapping({ "/novo/cadastro/usuario" })
@@ -45,6 +66,21 @@ public class UsuarioController {
 		return "usuario/cadastro";
 	}
 
+	/**
+	 * Exclui vários usuários, com seus médicos, pacientes e consultas (ver ExclusaoLoteService).
+	 * O usuário logado é ignorado, assim o administrador não exclui o próprio cadastro.
+	 * 
+	 * @param ids os ids dos usuários
+	 * @return json com as linhas removidas por tabela
+	 * */
+	@PostMapping("/excluir/lote")
+	public ResponseEntity<Map<String, Long>> excluirLote(@RequestParam("ids") List<Long> ids, @AuthenticationPrincipal User user) {
+		Long proprio = usuarioService.buscarPorEmail(user.getUsername()).getId();
+		List<Long> outros = new ArrayList<>(ids);
+		outros.removeIf(id -> id.equals(proprio));
+		return ResponseEntity.ok(exclusaoLote.excluirUsuarios(outros));
+	}
+
 	// abrir lista de usuários
 	@GetMapping("/lista")
 	public String listarUsuarios() {
@@ -52,11 +88,22 @@ public class UsuarioController {
 		return "usuario/lista";
 	}
 
-	// abrir lista de usuários
+	// json da lista de usuários. A consulta é executada no pool de datatables
+	// se a tabela usuarios não foi alterada desde a última resposta (If-None-Match) a resposta é 304, sem consultar o banco de dados
+	// com o parametro formato=compacto cada linha é enviada como um array (ver Datatables.getCompactResponse())
 	@GetMapping("/datatables/server/usuarios")
-	public ResponseEntity<?> listarUsuariosDatatables(HttpServletRequest request) {
+	public WebAsyncTask<ResponseEntity<?>> listarUsuariosDatatables(HttpServletRequest request, WebRequest webRequest,
+			@RequestParam(value = "formato", required = false) String formato) {
 
-		return ResponseEntity.ok(usuarioService.buscarTodos(request));
+		if (versaoTabelas.naoModificado(VersaoTabelas.USUARIOS, request, webRequest)) {
+			return null;
+		}
+		return asyncTasks.datatables(() -> {
+			if (Datatables.FORMATO_COMPACTO.equals(formato)) {
+				return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(usuarioService.buscarTodosCompacto(request));
+			}
+			return ResponseEntity.ok(usuarioService.buscarTodos(request));
+		});
 	}
 
 	/**
@@ -216,7 +263,8 @@ public class UsuarioController {
     	return "redirect:/u/editar/senha";
     }
     
-    //retorna a página de cadastro de um novo paciente.
+    //retorna a página de cadastro de um novo paciente. Servida do PaginaCache para visitantes anônimos
+    @PaginaPublica
     @GetMapping("/novo/cadastro")
     public String novoCadastro(Usuario usuario) {
     	
@@ -231,23 +279,25 @@ public class UsuarioController {
     }
     
     /**
-     * recebe as informações do form da página cadastra-se para fazer o cadastro de um novo usuario/paciente
+     * recebe as informações do form da página cadastra-se para fazer o cadastro de um novo usuario/paciente.
+     * O cadastro (BCrypt + envio de email) é executado no pool de cadastro.
      * 
      * @param result objeto BindingResult usado para validações no backend
-     * @throws MessagingException 
      * 
      * */
     @PostMapping("/cadastro/paciente/salvar")
-    public String salvarCadastroPaciente(Usuario usuario, BindingResult result) throws MessagingException {
-    	
-    	try {
-    		usuarioService.salvarCadastroPaciente(usuario);
-		} catch (DataIntegrityViolationException e) {//exceção lançada em tentativa de adicionar um usuário já existente no banco de dados.
-			result.reject("email", "O email já foi cadastrado");
-			return "cadastrar-se";
-		}
+    public WebAsyncTask<String> salvarCadastroPaciente(Usuario usuario, BindingResult result) {
     	
-    	return "redirect:/u/cadastro/realizado";
+    	return asyncTasks.cadastro(() -> {
+	    	try {
+	    		usuarioService.salvarCadastroPaciente(usuario);
+			} catch (DataIntegrityViolationException e) {//exceção lançada em tentativa de adicionar um usuário já existente no banco de dados.
+				result.reject("email", "O email já foi cadastrado");
+				return "cadastrar-se";
+			}
+	    	
+	    	return "redirect:/u/cadastro/realizado";
+    	});
     }
     
     /**
@@ -274,33 +324,33 @@ public class UsuarioController {
     	return "usuario/pedido-recuperar-senha";
     }
     
-    // form de pedido de recuperar senha
+    // form de pedido de recuperar senha. O envio do email é executado no pool de cadastro
     @GetMapping("/p/recuperar/senha")
-    public String redefinirSenha(String email, ModelMap model) throws MessagingException {
-    	usuarioService.pedidoRedefinicaoDeSenha(email);
-    	model.addAttribute("sucesso", "Em instantes você reberá um e-mail para "
-    			+ "prosseguir com a redefinição de sua senha.");
-    	model.addAttribute("usuario", new Usuario(email));
-    	return "usuario/recuperar-senha";
+    public WebAsyncTask<String> redefinirSenha(String email, ModelMap model) {
+    	return asyncTasks.cadastro(() -> {
+	    	usuarioService.pedidoRedefinicaoDeSenha(email);
+	    	model.addAttribute("sucesso", "Em instantes você reberá um e-mail para "
+	    			+ "prosseguir com a redefinição de sua senha.");
+	    	model.addAttribute("usuario", new Usuario(email));
+	    	return "usuario/recuperar-senha";
+    	});
     }
     
     /**
-     * Salvar a nova senha após solicitar a recuperção da mesma.
+     * Salvar a nova senha após solicitar a recuperção da mesma. Executado no pool de cadastro.
      * */
     @PostMapping("/p/nova/senha")
-    public String confirmacaoDeRedefinicaoDeSenha(Usuario usuario, ModelMap model) {
-    	//busca necessária para confirmar se o código verificador digitado pelo usuario é o mesmo salvo na base de dados
-    	Usuario u = usuarioService.buscarPorEmail(usuario.getEmail());
-    	
-    	//faz o teste e compara se o cógido de verificação digitado é o mesmo da base de dados
-    	if (!usuario.getCodigoVerificador().equals(u.getCodigoVerificador())) {
-    		model.addAttribute("falha", "Código verificador não confere.");
+    public WebAsyncTask<String> confirmacaoDeRedefinicaoDeSenha(Usuario usuario, ModelMap model) {
+    	return asyncTasks.cadastro(() -> salvarNovaSenha(usuario, model));
+    }
+    
+    private String salvarNovaSenha(Usuario usuario, ModelMap model) {
+    	//compara o código de verificação digitado com o código enviado por email e, se conferir, altera a senha
+    	if (!usuarioService.redefinirSenha(usuario.getEmail(), usuario.getCodigoVerificador(), usuario.getSenha())) {
+    		model.addAttribute("falha", "Código verificador não confere ou expirou. Faça um novo pedido de redefinição se necessário.");
     		return "usuario/recuperar-senha";
     	}
     	
-    	//caso passe pelo teste, isso indica que o código de verificação confere. Assim os métodos abaixo serão executados
-    	u.setCodigoVerificador(null);
-    	usuarioService.alterarSenha(u, usuario.getSenha());
     	model.addAttribute("alerta", "sucesso");
     	model.addAttribute("titulo", "Senha redefinida!");
     	model.addAttribute("texto", "Você já pode logar no sistema.");
@@ -3,6 +3,7 @@ package com.mballem.curso.security.web.controller.conversor;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.convert.converter.Converter;
 import org.springframework.stereotype.Component;
 
@@ -15,6 +16,7 @@ import com.mballem.curso.security.service.EspecialidadeService;
 @Component
 public class EspecialidadesConverter implements Converter<String[], Set<Especialidade>> {
 	
+	@Autowired
 	private EspecialidadeService especialidadeService;
 	
 	/**
@@ -1,10 +1,18 @@
 package com.mballem.curso.security.web.exception;
 
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpStatus;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
 import org.springframework.web.servlet.ModelAndView;
 
+import com.mballem.curso.security.service.HorarioIndisponivelException;
+
 /**
  * A classe ExceptionController possui regras que, quando satisfeitas, chamam o método equivalente.
  * Anotação @ControllerAdvice funciona como um "ouvinte" na aplicação. Logo que uma regra for satisfeita, o método será chamado.
@@ -31,4 +39,50 @@ public class ExceptionController {
 		
 		return model;
 	}
+
+	/**
+	 * Método que captura a rejeição de uma tarefa assíncrona quando a fila do pool está cheia (ver AsyncConfig).
+	 * A resposta é imediata, com status 503 e o cabeçalho Retry-After, em vez de manter a conexão presa aguardando.
+	 * */
+	@ExceptionHandler(RejectedExecutionException.class)
+	public ModelAndView servicoSobrecarregadoException(RejectedExecutionException ex, HttpServletResponse response) {
+		response.setHeader("Retry-After", "1");
+		
+		ModelAndView model = new ModelAndView("error", HttpStatus.SERVICE_UNAVAILABLE);
+		model.addObject("status", 503);
+		model.addObject("error", "Serviço temporariamente indisponível");
+		model.addObject("message", "O servidor está sobrecarregado, tente novamente em instantes.");
+		
+		return model;
+	}
+
+	/**
+	 * Método que captura o estouro do timeout de uma tarefa assíncrona (ver AsyncTaskFactory).
+	 * Também envia o cabeçalho Retry-After, como na rejeição por fila cheia e no controle de admissão (ver ControleAdmissao).
+	 * */
+	@ExceptionHandler(AsyncRequestTimeoutException.class)
+	public ModelAndView tempoEsgotadoException(AsyncRequestTimeoutException ex, HttpServletResponse response) {
+		response.setHeader("Retry-After", "1");
+		
+		ModelAndView model = new ModelAndView("error", HttpStatus.SERVICE_UNAVAILABLE);
+		model.addObject("status", 503);
+		model.addObject("error", "Tempo de resposta esgotado");
+		model.addObject("message", "A operação demorou mais que o esperado, tente novamente.");
+		
+		return model;
+	}
+
+	/**
+	 * Método que captura a tentativa de agendar uma consulta em um horário já reservado (ver AgendamentoService.salvar()),
+	 * quando não tratada pelo próprio controller. Responde com o status 409.
+	 * */
+	@ExceptionHandler(HorarioIndisponivelException.class)
+	public ModelAndView horarioIndisponivelException(HorarioIndisponivelException ex) {
+		ModelAndView model = new ModelAndView("error", HttpStatus.CONFLICT);
+		model.addObject("status", 409);
+		model.addObject("error", "Horário indisponível");
+		model.addObject("message", ex.getMessage());
+		
+		return model;
+	}
 }
@@ -0,0 +1,115 @@
+//histórico de consultas do paciente - paginação por keyset (data da consulta + id)
+$(document).ready(function() {
+	if ($('#table-paciente-historico').length === 0) {
+		return;
+	}
+	moment.locale('pt-BR');
+	var proximo = null;
+	var table = $('#table-paciente-historico').DataTable({
+		searching : false,
+		paging : false,
+		ordering : false,
+		info : false,
+		responsive : true,
+		columns : [
+				{data : 'id'},
+				{data : 'paciente'},
+				{	data : 'dataConsulta', 
+					render : function(dataConsulta) {
+						return moment(dataConsulta).format('LL');
+					}
+				},
+				{data : 'medico'},
+				{data : 'especialidade'}
+		]
+	});
+
+	function carregar() {
+		var params = proximo == null ? {} : {data : proximo.data, id : proximo.id};
+		$.getJSON('/agendamentos/historico/paciente/consultas', params, function(json) {
+			table.rows.add(json.data).draw(false);
+			proximo = json.proximo;
+			$('#btn-carregar-mais').toggle(proximo != null);
+		});
+	}
+
+	$('#btn-carregar-mais').on('click', carregar);
+	carregar();
+});
+
+//agendamento de consultas - especialidade, médicos da especialidade e horários livres do médico na data
+$(document).ready(function() {
+	if ($('#medicos').length === 0) {
+		return;
+	}
+
+	$('#especialidade').autocomplete({
+		source : function(request, response) {
+			CacheEtag.getJSON('/especialidades/titulo', {termo : request.term}, response);
+		},
+		select : function(event, ui) {
+			carregarMedicos(ui.item.value);
+		}
+	});
+
+	function carregarMedicos(titulo) {
+		$('#medicos').empty();
+		$('#horarios').empty();
+		$.getJSON('/agendamentos/medicos', {titulo : titulo}, function(medicos) {
+			$.each(medicos, function(i, medico) {
+				$('#medicos').append(
+					'<div class="custom-control custom-radio">'
+						+ '<input class="custom-control-input" type="radio" id="medico-' + medico.id + '" name="medico.id" value="' + medico.id + '" required>'
+						+ '<label class="custom-control-label" for="medico-' + medico.id + '"></label>'
+					+ '</div>');
+				$('label[for="medico-' + medico.id + '"]').text(medico.nome);
+			});
+		});
+	}
+
+	function carregarHorarios() {
+		var medico = $('input[name="medico.id"]:checked').val();
+		var data = $('#data').val();
+		$('#horarios').empty();
+		if (!medico || !data) {
+			return;
+		}
+		$.getJSON('/agendamentos/horarios/medico/' + medico + '/data/' + data, function(horarios) {
+			$.each(horarios, function(i, horario) {
+				$('#horarios').append($('<option>').val(horario.id).text(horario.horaMinuto.substring(0, 5)));
+			});
+		});
+	}
+
+	$('#medicos').on('change', 'input[name="medico.id"]', carregarHorarios);
+	$('#data').on('change', carregarHorarios);
+});
+
+//datatables - lista de todas as consultas para o admin (agendamento/lista.html)
+$(document).ready(function() {
+	if ($('#table-agendamentos').length === 0) {
+		return;
+	}
+	moment.locale('pt-BR');
+	$('#table-agendamentos').DataTable({
+		searching : true,
+		order : [ [ 2, "desc" ] ],
+		lengthMenu : [ 5, 10 ],
+		processing : true,
+		serverSide : true,
+		responsive : true,
+		// formato compacto: cada linha é o array [id, paciente, dataConsulta, medico, especialidade]
+		ajax : CacheEtag.datatables('/agendamentos/datatables/server', {formato : 'compacto'}),
+		columns : [
+				{data : 0},
+				{data : 1},
+				{	data : 2,
+					render : function(dataConsulta) {
+						return moment(dataConsulta).format('LL');
+					}
+				},
+				{data : 3},
+				{data : 4}
+		]
+	});
+});
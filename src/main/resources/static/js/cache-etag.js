@@ -0,0 +1,43 @@
+// cache de respostas json validado por ETag. 
+// A resposta é guardada junto com seu ETag e as próximas requisições com os mesmos parâmetros enviam o cabeçalho If-None-Match.
+// Se o servidor responder 304 (nada mudou) a resposta guardada é reutilizada.
+var CacheEtag = (function() {
+	var respostas = {};
+
+	function chave(url, params) {
+		var copia = $.extend(true, {}, params);
+		delete copia.draw;
+		return url + '?' + $.param(copia);
+	}
+
+	function getJSON(url, params, callback) {
+		var k = chave(url, params);
+		var cache = respostas[k];
+		$.ajax({
+			url : url,
+			data : params,
+			dataType : 'json',
+			headers : cache ? {'If-None-Match' : cache.etag} : {},
+			success : function(json, status, xhr) {
+				if (xhr.status === 304 && cache) {
+					json = cache.json;
+				} else if (xhr.getResponseHeader('ETag')) {
+					respostas[k] = {etag : xhr.getResponseHeader('ETag'), json : json};
+				}
+				callback(json);
+			}
+		});
+	}
+
+	// adaptador para a opção 'ajax' das tabelas Datatables (serverSide). Devolve a resposta com o 'draw' da requisição atual.
+	// 'extras' são parâmetros adicionados a todas as requisições, ex: {formato : 'compacto'}
+	function datatables(url, extras) {
+		return function(data, callback) {
+			getJSON(url, $.extend(data, extras), function(json) {
+				callback($.extend({}, json, {draw : data.draw}));
+			});
+		};
+	}
+
+	return {getJSON : getJSON, datatables : datatables};
+})();
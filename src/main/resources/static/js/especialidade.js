@@ -7,22 +7,20 @@ $(document).ready(function () {
         processing: true,
         serverSide: true,
         responsive: true,
-        ajax: {
-            url: '/especialidades/datatables/server',
-            data: 'data'
-        },
+        // formato compacto: cada linha é o array [id, titulo]
+        ajax: CacheEtag.datatables('/especialidades/datatables/server', {formato: 'compacto'}),
         columns: [
-            {data: 'id'},
-            {data: 'titulo'},
+            {data: 0},
+            {data: 1},
             {orderable: false, 
-             data: 'id',
+             data: 0,
                 "render": function(id) {
                     return '<a class="btn btn-success btn-sm btn-block" href="/especialidades/editar/'+ 
                     	id +'" role="button"><i class="fas fa-edit"></i></a>';
                 }
             },
             {orderable: false,
-             data: 'id',
+             data: 0,
                 "render": function(id) {
                     return '<a class="btn btn-danger btn-sm btn-block" href="/especialidades/excluir/'+ 
                     	id +'" role="button" data-toggle="modal" data-target="#confirm-modal"><i class="fas fa-times-circle"></i></a>';
@@ -41,7 +41,7 @@ $(function() {
 		})
 		.autocomplete({
 			source : function(request, response) {
-				$.getJSON("/especialidades/titulo", {
+				CacheEtag.getJSON("/especialidades/titulo", {
 					termo : extractLast(request.term)
 				}, response);
 			},
@@ -83,4 +83,37 @@ $(function() {
 				return false;
 			}
 		});
-});
\ No newline at end of file
+});
+//datatables - lista de médicos (medico/lista.html)
+$(document).ready(function() {
+	moment.locale('pt-BR');
+	$('#table-medicos').DataTable({
+		searching : true,
+		order : [ [ 1, "asc" ] ],
+		lengthMenu : [ 5, 10 ],
+		processing : true,
+		serverSide : true,
+		responsive : true,
+		// formato compacto: cada linha é o array [id, nome, crm, dtInscricao, [[id, titulo], ...]]
+		ajax : CacheEtag.datatables('/medicos/datatables/server', {formato : 'compacto'}),
+		columns : [
+				{data : 0},
+				{data : 1},
+				{data : 2},
+				{	data : 3,
+					render : function(dtInscricao) {
+						return moment(dtInscricao).format('LL');
+					}
+				},
+				{	data : 4,
+					render : function(especialidades) {
+						var aux = new Array();
+						$.each(especialidades, function( index, value ) {
+							  aux.push(value[1]);
+						});
+						return aux.join(', ');
+					}
+				}
+		]
+	});
+});
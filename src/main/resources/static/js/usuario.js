@@ -7,29 +7,26 @@ $(document).ready(function() {
 		processing : true,
 		serverSide : true,
 		responsive : true,
-		ajax : {
-			url : '/u/datatables/server/usuarios',
-			data : 'data'
-		},
+		// formato compacto: cada linha é o array [id, email, ativo, [[id, perfil], ...]]
+		ajax : CacheEtag.datatables('/u/datatables/server/usuarios', {formato : 'compacto'}),
 		columns : [
-				{data : 'id'},
-				{data : 'email'},
-				{	data : 'ativo', 
+				{data : 0},
+				{data : 1},
+				{	data : 2, 
 					render : function(ativo) {
 						return ativo == true ? 'Sim' : 'Não';
 					}
 				},
-				{	data : 'perfis',									 
+				{	data : 3,									 
 					render : function(perfis) {
 						var aux = new Array();
 						$.each(perfis, function( index, value ) {
-							  aux.push(value.desc);
+							  aux.push(value[1]);
 						});
 						return aux;
-					},
-					orderable : false,
+					}
 				},
-				{	data : 'id',	
+				{	data : 0,	
 					render : function(id) {
 						return ''.concat('<a class="btn btn-success btn-sm btn-block"', ' ')
 								 .concat('href="').concat('/u/editar/credenciais/usuario/').concat(id, '"', ' ') 
@@ -38,7 +35,7 @@ $(document).ready(function() {
 					},
 					orderable : false
 				},
-				{	data : 'id',	
+				{	data : 0,	
 					render : function(id) {
 						return ''.concat('<a class="btn btn-info btn-sm btn-block"', ' ') 
 								 .concat('id="dp_').concat(id).concat('"', ' ') 
@@ -53,10 +50,10 @@ $(document).ready(function() {
     $('#table-usuarios tbody').on('click', '[id*="dp_"]', function () {
     	var data = table.row($(this).parents('tr')).data();
     	var aux = new Array();
-		$.each(data.perfis, function( index, value ) {
-			  aux.push(value.id);
+		$.each(data[3], function( index, value ) {
+			  aux.push(value[0]);
 		});
-		document.location.href = '/u/editar/dados/usuario/' + data.id + '/perfis/' + aux;
+		document.location.href = '/u/editar/dados/usuario/' + data[0] + '/perfis/' + aux;
     } );	
 	
 });
@@ -0,0 +1,99 @@
+package com.mballem.curso.security.auditoria;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.mballem.curso.security.auditoria.RingBufferAuditoria.Politica;
+
+/**
+ * Benchmark de vazão da publicação de eventos: RingBufferAuditoria comparado com um ArrayBlockingQueue (lock),
+ * com 1, 4 e 16 produtores e um consumidor que apenas descarta os eventos. Não é executado pelo Maven:
+ * 
+ *   java -cp target/classes:target/test-classes com.mballem.curso.security.auditoria.RingBufferAuditoriaBenchmark
+ * */
+public class RingBufferAuditoriaBenchmark {
+
+	private static final int EVENTOS_POR_PRODUTOR = 2_000_000;
+	private static final int CAPACIDADE = 8192;
+
+	public static void main(String[] args) throws Exception {
+		for (int rodada = 0; rodada < 2; rodada++) {//a primeira rodada serve de aquecimento do JIT
+			System.out.println(rodada == 0 ? "aquecimento" : "medição");
+			for (int produtores : new int[] {1, 4, 16}) {
+				System.out.printf("  %2d produtores: ring buffer %,12.0f eventos/s | ArrayBlockingQueue %,12.0f eventos/s%n", 
+						produtores, ringBuffer(produtores), fila(produtores));
+			}
+		}
+	}
+
+	private static double ringBuffer(int produtores) throws InterruptedException {
+		RingBufferAuditoria buffer = new RingBufferAuditoria(CAPACIDADE, Politica.BLOQUEAR, Long.MAX_VALUE / 2);
+		long total = (long) produtores * EVENTOS_POR_PRODUTOR;
+		Thread consumidor = new Thread(() -> {
+			List<EventoAuditoria> lote = new ArrayList<>(512);
+			long lidos = 0;
+			while (lidos < total) {
+				int n = buffer.lerLote(lote, 512);
+				buffer.liberar(n);
+				lidos += n;
+			}
+		});
+		return medir(produtores, consumidor, () -> {
+			for (int i = 0; i < EVENTOS_POR_PRODUTOR; i++) {
+				buffer.publicar(TipoEvento.LOGIN, "usuario", null);
+			}
+		});
+	}
+
+	private static double fila(int produtores) throws InterruptedException {
+		BlockingQueue<Object[]> fila = new ArrayBlockingQueue<>(CAPACIDADE);
+		long total = (long) produtores * EVENTOS_POR_PRODUTOR;
+		Thread consumidor = new Thread(() -> {
+			List<Object[]> lote = new ArrayList<>(512);
+			long lidos = 0;
+			while (lidos < total) {
+				lote.clear();
+				lidos += fila.drainTo(lote, 512);
+			}
+		});
+		return medir(produtores, consumidor, () -> {
+			for (int i = 0; i < EVENTOS_POR_PRODUTOR; i++) {
+				try {
+					fila.put(new Object[] {System.currentTimeMillis(), TipoEvento.LOGIN, "usuario", null});
+				} catch (InterruptedException ex) {
+					return;
+				}
+			}
+		});
+	}
+
+	private static double medir(int produtores, Thread consumidor, Runnable produtor) throws InterruptedException {
+		CountDownLatch inicio = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for (int p = 0; p < produtores; p++) {
+			Thread t = new Thread(() -> {
+				try {
+					inicio.await();
+				} catch (InterruptedException ex) {
+					return;
+				}
+				produtor.run();
+			});
+			t.start();
+			threads.add(t);
+		}
+		consumidor.start();
+		long t0 = System.nanoTime();
+		inicio.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+		consumidor.join();
+		double segundos = (System.nanoTime() - t0) / (double) TimeUnit.SECONDS.toNanos(1);
+		return produtores * (double) EVENTOS_POR_PRODUTOR / segundos;
+	}
+}
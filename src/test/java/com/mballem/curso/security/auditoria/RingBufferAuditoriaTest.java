@@ -0,0 +1,94 @@
+package com.mballem.curso.security.auditoria;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import com.mballem.curso.security.auditoria.RingBufferAuditoria.Politica;
+
+public class RingBufferAuditoriaTest {
+
+	@Test
+	public void capacidadeArredondadaParaPotenciaDeDois() {
+		assertEquals(8, new RingBufferAuditoria(5, Politica.DESCARTAR, 0).getCapacidade());
+		assertEquals(8, new RingBufferAuditoria(8, Politica.DESCARTAR, 0).getCapacidade());
+	}
+
+	@Test
+	public void descartaComBufferCheio() {
+		RingBufferAuditoria buffer = new RingBufferAuditoria(4, Politica.DESCARTAR, 0);
+		for (int i = 0; i < 4; i++) {
+			assertTrue(buffer.publicar(TipoEvento.LOGIN, "u" + i, null));
+		}
+		assertFalse(buffer.publicar(TipoEvento.LOGIN, "u4", null));
+		assertEquals(1, buffer.getDescartados());
+
+		List<EventoAuditoria> lote = new ArrayList<>();
+		assertEquals(4, buffer.lerLote(lote, 10));
+		assertEquals("u0", lote.get(0).getUsuario());
+		buffer.liberar(4);
+		assertTrue(buffer.publicar(TipoEvento.LOGIN, "u5", null));
+	}
+
+	@Test
+	public void bloqueioDescartaAposEsperaMaxima() {
+		RingBufferAuditoria buffer = new RingBufferAuditoria(2, Politica.BLOQUEAR, 1_000_000);
+		buffer.publicar(TipoEvento.LOGIN, "a", null);
+		buffer.publicar(TipoEvento.LOGIN, "b", null);
+		assertFalse(buffer.publicar(TipoEvento.LOGIN, "c", null));
+	}
+
+	//vários produtores e um consumidor: nenhum evento é perdido e a ordem de cada produtor é mantida
+	@Test
+	public void variosProdutoresSemPerda() throws InterruptedException {
+		int produtores = 4;
+		int eventos = 20_000;
+		RingBufferAuditoria buffer = new RingBufferAuditoria(64, Politica.BLOQUEAR, Long.MAX_VALUE / 2);
+		CountDownLatch inicio = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for (int p = 0; p < produtores; p++) {
+			String nome = "p" + p;
+			Thread t = new Thread(() -> {
+				try {
+					inicio.await();
+				} catch (InterruptedException ex) {
+					return;
+				}
+				for (int i = 0; i < eventos; i++) {
+					buffer.publicar(TipoEvento.LOGIN, nome, Integer.toString(i));
+				}
+			});
+			t.start();
+			threads.add(t);
+		}
+
+		int[] ultimo = new int[produtores];
+		Arrays.fill(ultimo, -1);
+		List<EventoAuditoria> lote = new ArrayList<>();
+		int lidos = 0;
+		inicio.countDown();
+		while (lidos < produtores * eventos) {
+			int n = buffer.lerLote(lote, 16);
+			for (EventoAuditoria e : lote) {
+				int p = Integer.parseInt(e.getUsuario().substring(1));
+				int i = Integer.parseInt(e.getDetalhe());
+				assertEquals(ultimo[p] + 1, i);
+				ultimo[p] = i;
+			}
+			buffer.liberar(n);
+			lidos += n;
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(0, buffer.getDescartados());
+		assertEquals(0, buffer.getPendentes());
+	}
+}
@@ -0,0 +1,147 @@
+package com.mballem.curso.security.autorizacao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+
+/**
+ * Equivalência entre a ArvoreAutorizacao e a cadeia de antMatchers do Spring Security (primeira regra que combinar, na ordem)
+ * para caminhos gerados a partir dos segmentos das regras, com segmentos desconhecidos, maiúsculas e barra final.
+ * */
+public class ArvoreAutorizacaoTest {
+
+	private final ArvoreAutorizacao arvore = new ArvoreAutorizacao(RegrasAutorizacao.REGRAS, RegrasAutorizacao.DEMAIS);
+	private final CadeiaAntMatchers cadeia = new CadeiaAntMatchers(RegrasAutorizacao.REGRAS, RegrasAutorizacao.DEMAIS);
+
+	//a cadeia do Spring Security: AntPathRequestMatcher de cada padrão, testados em ordem
+	static class CadeiaAntMatchers {
+		private final List<AntPathRequestMatcher> matchers = new ArrayList<>();
+		private final List<RegraAutorizacao> regras = new ArrayList<>();
+		private final RegraAutorizacao padrao;
+
+		CadeiaAntMatchers(List<RegraAutorizacao> lista, RegraAutorizacao padrao) {
+			for (RegraAutorizacao regra : lista) {
+				for (String p : regra.getPadroes()) {
+					matchers.add(new AntPathRequestMatcher(p));
+					regras.add(regra);
+				}
+			}
+			this.padrao = padrao;
+		}
+
+		RegraAutorizacao resolver(MockHttpServletRequest request) {
+			for (int i = 0; i < matchers.size(); i++) {
+				if (matchers.get(i).matches(request)) {
+					return regras.get(i);
+				}
+			}
+			return padrao;
+		}
+	}
+
+	@Test
+	public void mesmaRegraQueACadeiaParaCaminhosGerados() {
+		Set<String> caminhos = gerarCaminhos();
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		for (String caminho : caminhos) {
+			request.setServletPath(caminho);
+			assertSame(caminho, cadeia.resolver(request), arvore.resolver(caminho));
+		}
+		assertTrue(caminhos.size() > 10_000);
+	}
+
+	@Test
+	public void regrasDeCasosConhecidos() {
+		assertEquals(RegraAutorizacao.Acesso.PUBLICO, arvore.resolver("/").getAcesso());
+		assertEquals(RegraAutorizacao.Acesso.PUBLICO, arvore.resolver("/js/medico.js").getAcesso());
+		assertEquals(RegraAutorizacao.Acesso.PUBLICO, arvore.resolver("/u/p/redefinir/senha").getAcesso());
+		assertSame(RegrasAutorizacao.DEMAIS, arvore.resolver("/home/"));
+		assertSame(RegrasAutorizacao.DEMAIS, arvore.resolver("/ux"));
+		assertSame(arvore.resolver("/u/lista"), arvore.resolver("/u"));
+		assertSame(arvore.resolver("/u/lista"), arvore.resolver("/u/editar/senha/"));
+		assertSame(arvore.resolver("/medicos/dados"), arvore.resolver("/medicos/salvar"));
+	}
+
+	@Test
+	public void permissaoPorPerfil() {
+		UsernamePasswordAuthenticationToken admin = new UsernamePasswordAuthenticationToken("a", "s", AuthorityUtils.createAuthorityList("ADMIN"));
+		UsernamePasswordAuthenticationToken medico = new UsernamePasswordAuthenticationToken("m", "s", AuthorityUtils.createAuthorityList("MEDICO"));
+		AnonymousAuthenticationToken anonimo = new AnonymousAuthenticationToken("k", "anonymousUser", AuthorityUtils.createAuthorityList("ROLE_ANONYMOUS"));
+
+		assertTrue(arvore.resolver("/u/lista").permite(admin));
+		assertFalse(arvore.resolver("/u/lista").permite(medico));
+		assertTrue(arvore.resolver("/medicos/dados").permite(admin));
+		assertFalse(arvore.resolver("/medicos/agenda").permite(admin));
+		assertTrue(arvore.resolver("/medicos/datatables/server").permite(admin));
+		assertFalse(arvore.resolver("/medicos/lista").permite(medico));
+		assertFalse(arvore.resolver("/medicos/excluir/lote").permite(medico));
+		assertTrue(arvore.resolver("/home").permite(anonimo));
+		assertFalse(arvore.resolver("/qualquer").permite(anonimo));
+		assertTrue(arvore.resolver("/qualquer").permite(medico));
+	}
+
+	//todos os caminhos com até 3 segmentos do vocabulário, com e sem barra final, e caminhos aleatórios mais longos
+	static Set<String> gerarCaminhos() {
+		Set<String> vocabulario = new LinkedHashSet<>();
+		for (RegraAutorizacao regra : RegrasAutorizacao.REGRAS) {
+			for (String p : regra.getPadroes()) {
+				for (String s : p.split("/")) {
+					if (!s.isEmpty()) {
+						vocabulario.add(s);
+					}
+				}
+			}
+		}
+		vocabulario.add("x");
+		vocabulario.add("U");
+		vocabulario.add("Home");
+		vocabulario.add("medicos.js");
+		vocabulario.add("ux");
+		List<String> segmentos = new ArrayList<>(vocabulario);
+
+		Set<String> caminhos = new LinkedHashSet<>();
+		caminhos.add("/");
+		List<String> nivel = new ArrayList<>();
+		nivel.add("");
+		for (int profundidade = 1; profundidade <= 3; profundidade++) {
+			List<String> proximo = new ArrayList<>();
+			for (String base : nivel) {
+				for (String s : segmentos) {
+					String caminho = base + "/" + s;
+					proximo.add(caminho);
+					caminhos.add(caminho);
+					caminhos.add(caminho + "/");
+				}
+			}
+			nivel = proximo;
+		}
+
+		Random random = new Random(42);
+		for (int i = 0; i < 20_000; i++) {
+			StringBuilder sb = new StringBuilder();
+			int profundidade = 4 + random.nextInt(4);
+			for (int j = 0; j < profundidade; j++) {
+				sb.append('/').append(segmentos.get(random.nextInt(segmentos.size())));
+			}
+			if (random.nextBoolean()) {
+				sb.append('/');
+			}
+			caminhos.add(sb.toString());
+		}
+		return caminhos;
+	}
+}
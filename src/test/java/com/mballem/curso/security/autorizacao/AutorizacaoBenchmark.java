@@ -0,0 +1,66 @@
+package com.mballem.curso.security.autorizacao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import com.mballem.curso.security.autorizacao.ArvoreAutorizacaoTest.CadeiaAntMatchers;
+
+/**
+ * Custo por requisição da resolução da regra de acesso: cadeia de AntPathRequestMatcher (ordem de declaração) comparada com a
+ * ArvoreAutorizacao. Usa os caminhos gerados pelo teste de equivalência e alguns caminhos reais de recursos estáticos e páginas.
+ * Não é executado pelo Maven:
+ * 
+ *   java -cp target/classes:target/test-classes:<dependências de teste> com.mballem.curso.security.autorizacao.AutorizacaoBenchmark
+ * */
+public class AutorizacaoBenchmark {
+
+	private static final int ITERACOES = 2_000_000;
+
+	public static void main(String[] args) {
+		ArvoreAutorizacao arvore = new ArvoreAutorizacao(RegrasAutorizacao.REGRAS, RegrasAutorizacao.DEMAIS);
+		CadeiaAntMatchers cadeia = new CadeiaAntMatchers(RegrasAutorizacao.REGRAS, RegrasAutorizacao.DEMAIS);
+
+		List<String> caminhos = new ArrayList<>(ArvoreAutorizacaoTest.gerarCaminhos());
+		String[] reais = {"/webjars/jquery/3.3.1/jquery.min.js", "/css/style.css", "/js/usuario.js", "/image/spring-security.png",
+				"/", "/login", "/u/datatables/server/usuarios", "/especialidades/titulo", "/pacientes/dados", "/actuator/health"};
+		List<MockHttpServletRequest> requisicoes = new ArrayList<>();
+		for (String c : caminhos) {
+			requisicoes.add(request(c));
+		}
+
+		for (int rodada = 0; rodada < 3; rodada++) {//as primeiras rodadas servem de aquecimento do JIT
+			System.out.printf("rodada %d%n", rodada);
+			medir("  gerados  cadeia", requisicoes, r -> cadeia.resolver(r));
+			medir("  gerados  arvore", requisicoes, r -> arvore.resolver(FonteAutorizacaoArvore.caminho(r)));
+			List<MockHttpServletRequest> estaticos = new ArrayList<>();
+			for (String c : reais) {
+				estaticos.add(request(c));
+			}
+			medir("  reais    cadeia", estaticos, r -> cadeia.resolver(r));
+			medir("  reais    arvore", estaticos, r -> arvore.resolver(FonteAutorizacaoArvore.caminho(r)));
+		}
+	}
+
+	interface Resolvedor {
+		RegraAutorizacao resolver(MockHttpServletRequest request);
+	}
+
+	private static void medir(String nome, List<MockHttpServletRequest> requisicoes, Resolvedor resolvedor) {
+		int n = requisicoes.size();
+		int soma = 0;
+		long inicio = System.nanoTime();
+		for (int i = 0; i < ITERACOES; i++) {
+			soma += resolvedor.resolver(requisicoes.get(i % n)).getPadroes().length;
+		}
+		long nanos = System.nanoTime() - inicio;
+		System.out.printf("%s: %7.1f ns/requisição (%d)%n", nome, nanos / (double) ITERACOES, soma);
+	}
+
+	private static MockHttpServletRequest request(String caminho) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", caminho);
+		request.setServletPath(caminho);
+		return request;
+	}
+}
@@ -0,0 +1,54 @@
+package com.mballem.curso.security.cadastro;
+
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+/**
+ * Taxa de falsos positivos do filtro de emails cadastrados e CPU economizada no cadastro com email repetido: custo da consulta ao
+ * filtro comparado com o BCrypt que deixa de ser executado (o INSERT recusado pela chave única e o rollback não entram na conta).
+ * Usa a capacidade e a taxa padrão de EmailsCadastrados (o dobro dos emails cadastrados, 1%). Não é executado pelo Maven:
+ *
+ *   java -cp target/classes:target/test-classes:<dependências de teste> com.mballem.curso.security.cadastro.EmailsCadastradosBenchmark
+ * */
+public class EmailsCadastradosBenchmark {
+
+	private static final int CADASTRADOS = 500_000;
+	private static final int NOVOS = 1_000_000;
+	private static final int HASHES_BCRYPT = 20;
+
+	public static void main(String[] args) {
+		FiltroBloom filtro = new FiltroBloom(CADASTRADOS * 2L, 0.01);
+		long inicio = System.nanoTime();
+		for (int i = 0; i < CADASTRADOS; i++) {
+			filtro.adicionar(email("paciente", i));
+		}
+		System.out.printf("construção: %d emails em %.0f ms, %d bits (%.1f MB), %d hashes%n", CADASTRADOS,
+				(System.nanoTime() - inicio) / 1e6, filtro.getTamanho(), filtro.getTamanho() / 8 / 1e6, filtro.getHashes());
+
+		for (int rodada = 0; rodada < 3; rodada++) {//as primeiras rodadas servem de aquecimento do JIT
+			int falsosPositivos = 0;
+			inicio = System.nanoTime();
+			for (int i = 0; i < NOVOS; i++) {
+				if (filtro.talvezContenha(email("novo", i))) {
+					falsosPositivos++;
+				}
+			}
+			double consulta = (System.nanoTime() - inicio) / (double) NOVOS;
+			System.out.printf("rodada %d: falsos positivos %.3f%% (estimada %.3f%%), %.0f ns/consulta ao filtro%n", rodada,
+					100.0 * falsosPositivos / NOVOS, 100 * filtro.taxaEstimada(), consulta);
+		}
+
+		BCryptPasswordEncoder bcrypt = new BCryptPasswordEncoder();
+		bcrypt.encode("aquecimento");
+		inicio = System.nanoTime();
+		for (int i = 0; i < HASHES_BCRYPT; i++) {
+			bcrypt.encode("senha" + i);
+		}
+		double hash = (System.nanoTime() - inicio) / (double) HASHES_BCRYPT;
+		System.out.printf("BCrypt (força padrão): %.1f ms/hash. Cada cadastro com email repetido economiza ~%.1f ms de CPU "
+				+ "(1000 tentativas = %.0f s)%n", hash / 1e6, hash / 1e6, hash * 1000 / 1e9);
+	}
+
+	private static String email(String prefixo, int i) {
+		return prefixo + i + "@clinica.com.br";
+	}
+}
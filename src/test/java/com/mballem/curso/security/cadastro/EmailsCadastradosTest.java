@@ -0,0 +1,94 @@
+package com.mballem.curso.security.cadastro;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+public class EmailsCadastradosTest {
+
+	//tabela usuarios em memória, que conta as consultas exatas
+	private static class Usuarios extends JdbcTemplate {
+		private final List<String> emails;
+		private int consultas;
+
+		Usuarios(String... emails) {
+			this.emails = Arrays.asList(emails);
+		}
+
+		@Override
+		public <T> T queryForObject(String sql, Class<T> tipo) {
+			return tipo.cast((long) emails.size());
+		}
+
+		@Override
+		public <T> T queryForObject(String sql, Class<T> tipo, Object... args) {
+			consultas++;
+			return tipo.cast(emails.contains(args[0]));
+		}
+
+		@Override
+		public void query(String sql, RowCallbackHandler rch) {
+			for (String email : emails) {
+				try {
+					rch.processRow(linha(email));
+				} catch (SQLException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+
+		//linha do SELECT email FROM usuarios
+		private static ResultSet linha(String email) {
+			return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] {ResultSet.class},
+					(proxy, metodo, args) -> "getString".equals(metodo.getName()) ? email : null);
+		}
+	}
+
+	@Test
+	public void antesDaConstrucaoTodasAsVerificacoesConsultamOBanco() {
+		Usuarios usuarios = new Usuarios("admin@clinica.com.br");
+		EmailsCadastrados emails = new EmailsCadastrados(usuarios, 1000, 0.01);
+
+		assertFalse(emails.cadastrado("novo@clinica.com.br"));
+		assertTrue(emails.cadastrado("admin@clinica.com.br"));
+		assertEquals(2, usuarios.consultas);
+	}
+
+	@Test
+	public void emailNovoNaoConsultaOBancoEDuplicadoEhConfirmado() {
+		Usuarios usuarios = new Usuarios("admin@clinica.com.br", "medico@clinica.com.br");
+		EmailsCadastrados emails = new EmailsCadastrados(usuarios, 1000, 0.01);
+		emails.construir();
+
+		assertFalse(emails.cadastrado("novo@clinica.com.br"));
+		assertEquals(0, usuarios.consultas);
+
+		assertTrue(emails.cadastrado("medico@clinica.com.br"));
+		assertEquals(1, usuarios.consultas);
+		assertEquals(1, emails.getDuplicados());
+		assertEquals(0.0, emails.getTaxaFalsosPositivos(), 0);
+	}
+
+	@Test
+	public void emailAdicionadoPassaASerConfirmadoNoBanco() {
+		Usuarios usuarios = new Usuarios();
+		EmailsCadastrados emails = new EmailsCadastrados(usuarios, 1000, 0.01);
+		emails.construir();
+
+		//cadastro desfeito: o email fica no filtro, mas a consulta exata não o encontra
+		emails.adicionar(" Paciente@Clinica.com.br");
+		assertFalse(emails.cadastrado("paciente@clinica.com.br"));
+		assertEquals(1, usuarios.consultas);
+		assertEquals(1.0, emails.getTaxaFalsosPositivos(), 0);
+	}
+}
@@ -0,0 +1,39 @@
+package com.mballem.curso.security.cadastro;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FiltroBloomTest {
+
+	@Test
+	public void valoresAdicionadosSempreSaoEncontrados() {
+		FiltroBloom filtro = new FiltroBloom(10_000, 0.01);
+		for (int i = 0; i < 10_000; i++) {
+			filtro.adicionar("paciente" + i + "@clinica.com.br");
+		}
+		for (int i = 0; i < 10_000; i++) {
+			assertTrue(filtro.talvezContenha("paciente" + i + "@clinica.com.br"));
+		}
+		assertEquals(10_000, filtro.getQuantidade());
+		assertEquals(7, filtro.getHashes());
+	}
+
+	@Test
+	public void taxaDeFalsosPositivosFicaProximaDaConfigurada() {
+		FiltroBloom filtro = new FiltroBloom(50_000, 0.01);
+		for (int i = 0; i < 50_000; i++) {
+			filtro.adicionar("paciente" + i + "@clinica.com.br");
+		}
+		int positivos = 0;
+		for (int i = 0; i < 100_000; i++) {
+			if (filtro.talvezContenha("novo" + i + "@clinica.com.br")) {
+				positivos++;
+			}
+		}
+		double taxa = positivos / 100_000.0;
+		assertTrue("taxa " + taxa, taxa < 0.015);
+		assertTrue("estimada " + filtro.taxaEstimada(), Math.abs(filtro.taxaEstimada() - 0.01) < 0.003);
+	}
+}
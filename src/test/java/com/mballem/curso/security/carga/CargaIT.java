@@ -0,0 +1,260 @@
+package com.mballem.curso.security.carga;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.util.TestPropertyValues;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.utility.MountableFile;
+
+import com.mballem.curso.security.carga.ClienteHttp.Resposta;
+
+/**
+ * Teste de carga de ponta a ponta. Executado apenas com o profile 'carga':
+ * 
+ *   mvn -Pcarga verify -Dcarga.rps=100 -Dcarga.duracaoSegundos=120 -Dcarga.pacientes=50000
+ * 
+ * Um MySQL local é iniciado em um container (Testcontainers, requer Docker) com o schema de scriptDB/script-mysql.sql.
+ * A clínica sintética é gerada por GeradorClinica e a aplicação é iniciada em uma porta aleatória. Em seguida as requisições
+ * (login, paginação e pesquisa das tabelas Datatables, autocomplete e edição dos dados do paciente) são disparadas na taxa alvo
+ * e o relatório com p50/p95/p99 e vazão por endpoint é impresso no final.
+ * 
+ * A latência é medida a partir do instante em que a requisição deveria ter sido enviada, assim atrasos do próprio servidor
+ * não escondem o tempo de espera (coordinated omission).
+ * 
+ * O teste falha quando algum endpoint não recebeu requisições ou quando a taxa de erros (carga.taxaErrosMaxima, 1% por padrão)
+ * ou de requisições descartadas (carga.taxaDescartesMaxima, 5% por padrão) passa do limite. As latências são apenas relatadas.
+ * Para medir um servidor propositalmente saturado os limites podem ser desligados com -Dcarga.taxaErrosMaxima=1 -Dcarga.taxaDescartesMaxima=1.
+ * 
+ * Comparação entre as threads da plataforma e as threads virtuais (ver ThreadsVirtuaisConfig, requer Java 21): a mesma carga é
+ * executada nos dois modos, com poucas threads no Tomcat para que o pool de threads seja o limite no modo da plataforma:
+ * 
+ *   mvn -Pcarga verify -Dit.test=CargaIT -Dcarga.rps=400 -Dcarga.clientes=256 -Dserver.tomcat.max-threads=20 -Dapp.threads.virtuais=false
+ *   mvn -Pcarga verify -Dit.test=CargaIT -Dcarga.rps=400 -Dcarga.clientes=256 -Dserver.tomcat.max-threads=20 -Dapp.threads.virtuais=true
+ * 
+ * Com -Djdk.tracePinnedThreads=full (argLine) as threads virtuais presas à thread da plataforma são impressas no log.
+ * Esta comparação ainda não foi executada: não há resultados registrados para os dois modos.
+ * */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {"spring.jpa.show-sql=false"})
+@ContextConfiguration(initializers = CargaIT.Inicializador.class)
+public class CargaIT {
+
+	private static final Pattern PACIENTE_ID = Pattern.compile("name=\"id\"\\s+value=\"(\\d+)\"");
+
+	//endpoints sorteados por executarOperacao()
+	private static final List<String> ENDPOINTS = Arrays.asList("POST login", "GET usuarios datatables",
+			"GET usuarios datatables busca", "GET especialidades datatables", "GET especialidades titulo",
+			"GET pacientes dados", "POST pacientes editar");
+
+	@ClassRule
+	public static MySQLContainer<?> mysql = new MySQLContainer<>("mysql:5.7")
+			.withDatabaseName("demo_security")
+			.withUrlParam("serverTimezone", "UTC")
+			.withUrlParam("rewriteBatchedStatements", "true")
+			.withCopyFileToContainer(MountableFile.forHostPath("scriptDB/script-mysql.sql"), 
+					"/docker-entrypoint-initdb.d/script-mysql.sql");
+
+	//aponta o datasource da aplicação para o container
+	public static class Inicializador implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+		@Override
+		public void initialize(ConfigurableApplicationContext context) {
+			TestPropertyValues.of(
+					"spring.datasource.url=" + mysql.getJdbcUrl(),
+					"spring.datasource.username=" + mysql.getUsername(),
+					"spring.datasource.password=" + mysql.getPassword()
+			).applyTo(context.getEnvironment());
+		}
+	}
+
+	private static boolean gerada = false;
+
+	@LocalServerPort
+	private int porta;
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Value("${app.threads.virtuais:false}")
+	private boolean threadsVirtuais;
+
+	private GeradorClinica clinica = GeradorClinica.porPropriedades();
+	private Estatisticas estatisticas = new Estatisticas();
+	private List<ClienteHttp> admins = new ArrayList<>();
+	private List<ClienteHttp> medicos = new ArrayList<>();
+	private List<ClienteHttp> pacientes = new ArrayList<>();
+
+	@Before
+	public void gerarClinica() throws Exception {
+		if (!gerada) {
+			long inicio = System.nanoTime();
+			clinica.gerar(dataSource);
+			System.out.printf("clínica sintética gerada em %.1f s%n", (System.nanoTime() - inicio) / 1e9);
+			gerada = true;
+		}
+	}
+
+	@Test
+	public void carga() throws Exception {
+		int rps = Integer.getInteger("carga.rps", 50);
+		int duracao = Integer.getInteger("carga.duracaoSegundos", 60);
+		int clientes = Integer.getInteger("carga.clientes", 32);
+
+		//sessões já autenticadas usadas pelas requisições
+		for (int i = 1; i <= clientes; i++) {
+			admins.add(sessao("admin", 1 + (i - 1) % clinica.getAdmins()));
+			medicos.add(sessao("medico", 1 + (i - 1) % clinica.getMedicos()));
+			pacientes.add(sessao("paciente", 1 + (i - 1) % clinica.getPacientes()));
+		}
+
+		ThreadPoolExecutor trabalhadores = new ThreadPoolExecutor(clientes, clientes, 0, TimeUnit.SECONDS, new SynchronousQueue<>());
+		ScheduledExecutorService agendador = Executors.newSingleThreadScheduledExecutor();
+		long periodo = TimeUnit.SECONDS.toNanos(1) / rps;
+		long inicio = System.nanoTime();
+
+		agendador.scheduleAtFixedRate(() -> {
+			long previsto = System.nanoTime();
+			try {
+				trabalhadores.execute(() -> executarOperacao(previsto));
+			} catch (RejectedExecutionException ex) {
+				estatisticas.descartada();
+			}
+		}, 0, periodo, TimeUnit.NANOSECONDS);
+
+		Thread.sleep(TimeUnit.SECONDS.toMillis(duracao));
+		agendador.shutdownNow();
+		trabalhadores.shutdown();
+		trabalhadores.awaitTermination(1, TimeUnit.MINUTES);
+
+		double segundos = (System.nanoTime() - inicio) / 1e9;
+		System.out.printf("%n=== carga: %d req/s alvo, %d clientes, %.0f s, threads %s ===%n", rps, clientes, segundos,
+				threadsVirtuais ? "virtuais" : "da plataforma");
+		System.out.println(estatisticas.relatorio(segundos));
+
+		verificar(Double.parseDouble(System.getProperty("carga.taxaErrosMaxima", "0.01")),
+				Double.parseDouble(System.getProperty("carga.taxaDescartesMaxima", "0.05")));
+	}
+
+	//confere que todos os endpoints foram exercitados e que a carga foi atendida dentro dos limites de erros e descartes
+	private void verificar(double taxaErrosMaxima, double taxaDescartesMaxima) {
+		for (String endpoint : ENDPOINTS) {
+			assertTrue("nenhuma requisição executada em " + endpoint, estatisticas.total(endpoint) > 0);
+		}
+		long total = estatisticas.total();
+		double taxaErros = (double) estatisticas.erros() / total;
+		double taxaDescartes = (double) estatisticas.descartadas() / (total + estatisticas.descartadas());
+		assertTrue(String.format("taxa de erros %.2f%% acima de %.2f%%", taxaErros * 100, taxaErrosMaxima * 100),
+				taxaErros <= taxaErrosMaxima);
+		assertTrue(String.format("taxa de descartes %.2f%% acima de %.2f%%", taxaDescartes * 100, taxaDescartesMaxima * 100),
+				taxaDescartes <= taxaDescartesMaxima);
+	}
+
+	//sorteia e executa uma operação. Distribuição: 10% login, 45% Datatables, 30% autocomplete, 15% edição do paciente
+	private void executarOperacao(long previsto) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int sorteio = random.nextInt(100);
+		try {
+			if (sorteio < 10) {
+				login(previsto, random);
+			} else if (sorteio < 30) {
+				medir("GET usuarios datatables", previsto, 
+						qualquer(admins).get("/u/datatables/server/usuarios?" + datatables(random, 3, "")));
+			} else if (sorteio < 40) {
+				medir("GET usuarios datatables busca", previsto, 
+						qualquer(admins).get("/u/datatables/server/usuarios?" + datatables(random, 3, "paciente" + random.nextInt(100))));
+			} else if (sorteio < 55) {
+				medir("GET especialidades datatables", previsto, 
+						qualquer(admins).get("/especialidades/datatables/server?" + datatables(random, 2, "")));
+			} else if (sorteio < 85) {
+				String termo = GeradorClinica.titulo(1 + random.nextInt(clinica.getEspecialidades())).substring(0, 14);
+				medir("GET especialidades titulo", previsto, 
+						qualquer(medicos).get("/especialidades/titulo?termo=" + ClienteHttp.codificar(termo)));
+			} else {
+				editarPaciente(previsto);
+			}
+		} catch (IOException ex) {
+			estatisticas.registrar("erro de conexão", System.nanoTime() - previsto, false);
+		}
+	}
+
+	private void login(long previsto, ThreadLocalRandom random) throws IOException {
+		ClienteHttp cliente = new ClienteHttp(base());
+		boolean ok = cliente.login(GeradorClinica.email("paciente", 1 + random.nextInt(clinica.getPacientes())), GeradorClinica.SENHA);
+		estatisticas.registrar("POST login", System.nanoTime() - previsto, ok);
+	}
+
+	private void editarPaciente(long previsto) throws IOException {
+		ClienteHttp cliente = qualquer(pacientes);
+		Resposta pagina = cliente.get("/pacientes/dados");
+		estatisticas.registrar("GET pacientes dados", System.nanoTime() - previsto, pagina.status == 200);
+		
+		Matcher id = PACIENTE_ID.matcher(pagina.corpo);
+		if (!id.find()) {
+			return;
+		}
+		//medido a partir do instante previsto da operação, como os demais: inclui a leitura da página e a espera na fila
+		Resposta r = cliente.post("/pacientes/editar", "id=" + id.group(1) 
+				+ "&nome=" + ClienteHttp.codificar("Paciente Editado " + id.group(1))
+				+ "&dtNascimento=" + LocalDate.of(1980, 1, 1)
+				+ "&usuario.senha=" + GeradorClinica.SENHA
+				+ "&_csrf=" + ClienteHttp.codificar(ClienteHttp.csrf(pagina.corpo)));
+		estatisticas.registrar("POST pacientes editar", System.nanoTime() - previsto, r.status == 200);
+	}
+
+	//parametros de uma requisição da tabela Datatables: página, ordenação e pesquisa sorteadas
+	private static String datatables(ThreadLocalRandom random, int colunasOrdenaveis, String busca) {
+		return "draw=1&start=" + random.nextInt(20) * 10 + "&length=10"
+				+ "&order%5B0%5D%5Bcolumn%5D=" + random.nextInt(colunasOrdenaveis)
+				+ "&order%5B0%5D%5Bdir%5D=" + (random.nextBoolean() ? "asc" : "desc")
+				+ "&search%5Bvalue%5D=" + ClienteHttp.codificar(busca);
+	}
+
+	private void medir(String endpoint, long previsto, Resposta resposta) {
+		estatisticas.registrar(endpoint, System.nanoTime() - previsto, resposta.status == 200 || resposta.status == 304);
+	}
+
+	private ClienteHttp sessao(String perfil, int n) throws IOException {
+		ClienteHttp cliente = new ClienteHttp(base());
+		if (!cliente.login(GeradorClinica.email(perfil, n), GeradorClinica.SENHA)) {
+			throw new IllegalStateException("login falhou para " + GeradorClinica.email(perfil, n));
+		}
+		return cliente;
+	}
+
+	private static ClienteHttp qualquer(List<ClienteHttp> sessoes) {
+		return sessoes.get(ThreadLocalRandom.current().nextInt(sessoes.size()));
+	}
+
+	private String base() {
+		return "http://localhost:" + porta;
+	}
+}
@@ -0,0 +1,129 @@
+package com.mballem.curso.security.carga;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.CookieManager;
+import java.net.HttpCookie;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cliente HTTP simples que representa a sessão de um usuário (cookies próprios, sem o CookieHandler global da JVM).
+ * */
+public class ClienteHttp {
+
+	private static final Pattern CSRF = Pattern.compile("name=\"_csrf\"\\s+value=\"([^\"]+)\"");
+
+	private final String base;
+	private final CookieManager cookies = new CookieManager();
+
+	public ClienteHttp(String base) {
+		this.base = base;
+	}
+
+	public static class Resposta {
+		public final int status;
+		public final String corpo;
+
+		Resposta(int status, String corpo) {
+			this.status = status;
+			this.corpo = corpo;
+		}
+	}
+
+	//faz o login pelo formulário da página /login. Retorna true se o login foi aceito
+	public boolean login(String email, String senha) throws IOException {
+		String csrf = csrf(get("/login").corpo);
+		Resposta r = post("/login", "username=" + codificar(email) + "&password=" + codificar(senha) + "&_csrf=" + codificar(csrf));
+		return r.status == 302 && !r.corpo.contains("login-error");
+	}
+
+	public Resposta get(String caminho) throws IOException {
+		return enviar("GET", caminho, null);
+	}
+
+	public Resposta post(String caminho, String formulario) throws IOException {
+		return enviar("POST", caminho, formulario);
+	}
+
+	public static String csrf(String html) {
+		Matcher m = CSRF.matcher(html);
+		return m.find() ? m.group(1) : "";
+	}
+
+	public static String codificar(String valor) {
+		try {
+			return URLEncoder.encode(valor, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private Resposta enviar(String metodo, String caminho, String formulario) throws IOException {
+		URI uri = URI.create(base + caminho);
+		HttpURLConnection con = (HttpURLConnection) new URL(uri.toString()).openConnection();
+		con.setInstanceFollowRedirects(false);
+		con.setRequestMethod(metodo);
+		con.setConnectTimeout(5000);
+		con.setReadTimeout(30000);
+		
+		List<HttpCookie> lista = cookies.getCookieStore().get(uri);
+		if (!lista.isEmpty()) {
+			StringBuilder cabecalho = new StringBuilder();
+			for (HttpCookie c : lista) {
+				cabecalho.append(c.getName()).append('=').append(c.getValue()).append("; ");
+			}
+			con.setRequestProperty("Cookie", cabecalho.toString());
+		}
+		
+		if (formulario != null) {
+			con.setDoOutput(true);
+			con.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+			try (OutputStream out = con.getOutputStream()) {
+				out.write(formulario.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		
+		int status = con.getResponseCode();
+		for (Map.Entry<String, List<String>> h : con.getHeaderFields().entrySet()) {
+			if ("Set-Cookie".equalsIgnoreCase(h.getKey())) {
+				for (String valor : h.getValue()) {
+					for (HttpCookie c : HttpCookie.parse(valor)) {
+						cookies.getCookieStore().add(uri, c);
+					}
+				}
+			}
+		}
+		
+		String corpo = ler(status >= 400 ? con.getErrorStream() : con.getInputStream());
+		if (status == 302) {//devolve o destino do redirecionamento no corpo
+			corpo = corpo + con.getHeaderField("Location");
+		}
+		return new Resposta(status, corpo);
+	}
+
+	private static String ler(InputStream in) throws IOException {
+		if (in == null) {
+			return "";
+		}
+		try (InputStream entrada = in) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = entrada.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+}
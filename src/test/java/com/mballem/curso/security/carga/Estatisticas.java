@@ -0,0 +1,83 @@
+package com.mballem.curso.security.carga;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Guarda as latências de cada endpoint e gera o relatório com p50/p95/p99 e vazão.
+ * */
+public class Estatisticas {
+
+	private final Map<String, List<Long>> latencias = new ConcurrentHashMap<>();
+	private final Map<String, AtomicLong> erros = new ConcurrentHashMap<>();
+	private final AtomicLong descartadas = new AtomicLong();
+
+	public void registrar(String endpoint, long nanos, boolean sucesso) {
+		List<Long> lista = latencias.computeIfAbsent(endpoint, e -> Collections.synchronizedList(new ArrayList<>()));
+		lista.add(nanos);
+		if (!sucesso) {
+			erros.computeIfAbsent(endpoint, e -> new AtomicLong()).incrementAndGet();
+		}
+	}
+
+	//requisição não enviada porque todos os clientes estavam ocupados (a taxa alvo não foi atingida)
+	public void descartada() {
+		descartadas.incrementAndGet();
+	}
+
+	//quantidade de requisições registradas para o endpoint
+	public long total(String endpoint) {
+		List<Long> lista = latencias.get(endpoint);
+		return lista == null ? 0 : lista.size();
+	}
+
+	//quantidade de requisições registradas em todos os endpoints
+	public long total() {
+		return latencias.values().stream().mapToLong(List::size).sum();
+	}
+
+	public long erros(String endpoint) {
+		AtomicLong falhas = erros.get(endpoint);
+		return falhas == null ? 0 : falhas.get();
+	}
+
+	public long erros() {
+		return erros.values().stream().mapToLong(AtomicLong::get).sum();
+	}
+
+	public long descartadas() {
+		return descartadas.get();
+	}
+
+	public String relatorio(double segundos) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-28s %8s %8s %9s %9s %9s %9s %10s%n", 
+				"endpoint", "total", "erros", "p50(ms)", "p95(ms)", "p99(ms)", "max(ms)", "req/s"));
+		for (Map.Entry<String, List<Long>> e : new TreeMap<>(latencias).entrySet()) {
+			long[] valores;
+			synchronized (e.getValue()) {
+				valores = e.getValue().stream().mapToLong(Long::longValue).sorted().toArray();
+			}
+			sb.append(String.format("%-28s %8d %8d %9.1f %9.1f %9.1f %9.1f %10.1f%n", 
+					e.getKey(), valores.length, erros(e.getKey()),
+					percentil(valores, 50), percentil(valores, 95), percentil(valores, 99), 
+					valores.length == 0 ? 0 : valores[valores.length - 1] / 1e6,
+					valores.length / segundos));
+		}
+		sb.append("requisições descartadas (clientes ocupados): ").append(descartadas.get()).append('\n');
+		return sb.toString();
+	}
+
+	private static double percentil(long[] ordenados, double p) {
+		if (ordenados.length == 0) {
+			return 0;
+		}
+		int indice = (int) Math.ceil(p / 100.0 * ordenados.length) - 1;
+		return ordenados[Math.max(0, indice)] / 1e6;
+	}
+}
@@ -0,0 +1,239 @@
+package com.mballem.curso.security.carga;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.Random;
+
+import javax.sql.DataSource;
+
+/**
+ * Gera uma clínica sintética para os testes de carga usando inserts JDBC em lote.
+ * São criados administradores, médicos (com especialidades), pacientes e consultas distribuídas entre os 20 horários da tabela horas.
+ * Todos os usuários gerados usam a senha 123456 e seguem o padrão de email admin{n}@, medico{n}@ e paciente{n}@carga.com.br.
+ * */
+public class GeradorClinica {
+
+	//hash BCrypt da senha 123456 (o mesmo do admin inserido por script-mysql.sql)
+	static final String SENHA_HASH = "$2a$10$tBVUEXD9outKvx5tO8LUQOEhCX2hPaRmtfx/WuMMjA4tGI6RLQYk.";
+	static final String SENHA = "123456";
+	
+	private static final int LOTE = 1000;
+	private static final int HORARIOS = 20;
+
+	private final int admins;
+	private final int medicos;
+	private final int pacientes;
+	private final int especialidades;
+	private final int consultasPorPaciente;
+	private final Random random = new Random(42);
+
+	public GeradorClinica(int admins, int medicos, int pacientes, int especialidades, int consultasPorPaciente) {
+		this.admins = admins;
+		this.medicos = medicos;
+		this.pacientes = pacientes;
+		this.especialidades = especialidades;
+		this.consultasPorPaciente = consultasPorPaciente;
+	}
+
+	//lê o tamanho da clínica das propriedades de sistema -Dcarga.*
+	public static GeradorClinica porPropriedades() {
+		return new GeradorClinica(
+				Integer.getInteger("carga.admins", 5),
+				Integer.getInteger("carga.medicos", 200),
+				Integer.getInteger("carga.pacientes", 10000),
+				Integer.getInteger("carga.especialidades", 60),
+				Integer.getInteger("carga.consultasPorPaciente", 5));
+	}
+
+	public int getAdmins() {
+		return admins;
+	}
+
+	public int getMedicos() {
+		return medicos;
+	}
+
+	public int getPacientes() {
+		return pacientes;
+	}
+
+	public int getEspecialidades() {
+		return especialidades;
+	}
+
+	public static String email(String perfil, int n) {
+		return perfil + n + "@carga.com.br";
+	}
+
+	public static String titulo(int n) {
+		return "Especialidade " + n;
+	}
+
+	/**
+	 * Gera a clínica. Os ids são atribuídos pelo gerador a partir do maior id existente em cada tabela, evitando uma
+	 * consulta de chaves geradas por linha.
+	 * */
+	public void gerar(DataSource dataSource) throws SQLException {
+		try (Connection con = dataSource.getConnection()) {
+			con.setAutoCommit(false);
+			
+			long usuarioBase = maxId(con, "usuarios");
+			long medicoBase = maxId(con, "medicos");
+			long pacienteBase = maxId(con, "pacientes");
+			long especialidadeBase = maxId(con, "especialidades");
+			int totalUsuarios = admins + medicos + pacientes;
+
+			try (PreparedStatement ps = con.prepareStatement(
+					"INSERT INTO usuarios (id, ativo, email, senha, perfis_ordem) VALUES (?, 1, ?, ?, ?)")) {
+				for (int i = 1; i <= totalUsuarios; i++) {
+					ps.setLong(1, usuarioBase + i);
+					ps.setString(2, emailDoUsuario(i));
+					ps.setString(3, SENHA_HASH);
+					ps.setString(4, String.valueOf(perfilDoUsuario(i)));
+					adicionar(ps, i);
+				}
+				ps.executeBatch();
+			}
+
+			try (PreparedStatement ps = con.prepareStatement(
+					"INSERT INTO usuarios_tem_perfis (usuario_id, perfil_id) VALUES (?, ?)")) {
+				for (int i = 1; i <= totalUsuarios; i++) {
+					ps.setLong(1, usuarioBase + i);
+					ps.setLong(2, perfilDoUsuario(i));
+					adicionar(ps, i);
+				}
+				ps.executeBatch();
+			}
+
+			try (PreparedStatement ps = con.prepareStatement(
+					"INSERT INTO especialidades (id, titulo, descricao) VALUES (?, ?, ?)")) {
+				for (int i = 1; i <= especialidades; i++) {
+					ps.setLong(1, especialidadeBase + i);
+					ps.setString(2, titulo(i));
+					ps.setString(3, "Descrição da especialidade " + i);
+					adicionar(ps, i);
+				}
+				ps.executeBatch();
+			}
+
+			try (PreparedStatement ps = con.prepareStatement(
+					"INSERT INTO medicos (id, crm, data_inscricao, nome, id_usuario) VALUES (?, ?, ?, ?, ?)")) {
+				for (int i = 1; i <= medicos; i++) {
+					ps.setLong(1, medicoBase + i);
+					ps.setInt(2, 100000 + i);
+					ps.setDate(3, Date.valueOf(LocalDate.of(2000, 1, 1).plusDays(i)));
+					ps.setString(4, "Medico " + i);
+					ps.setLong(5, usuarioBase + admins + i);
+					adicionar(ps, i);
+				}
+				ps.executeBatch();
+			}
+
+			//cada médico atende de 1 a 3 especialidades
+			long[] especialidadeDoMedico = new long[medicos + 1];
+			try (PreparedStatement ps = con.prepareStatement(
+					"INSERT INTO medicos_tem_especialidades (id_especialidade, id_medico) VALUES (?, ?)")) {
+				int n = 0;
+				for (int i = 1; i <= medicos; i++) {
+					int primeira = 1 + random.nextInt(especialidades);
+					int quantidade = 1 + random.nextInt(Math.min(3, especialidades));
+					especialidadeDoMedico[i] = especialidadeBase + primeira;
+					for (int j = 0; j < quantidade; j++) {
+						ps.setLong(1, especialidadeBase + 1 + (primeira - 1 + j) % especialidades);
+						ps.setLong(2, medicoBase + i);
+						adicionar(ps, ++n);
+					}
+				}
+				ps.executeBatch();
+			}
+
+			try (PreparedStatement ps = con.prepareStatement(
+					"INSERT INTO pacientes (id, data_nascimento, nome, id_usuario) VALUES (?, ?, ?, ?)")) {
+				for (int i = 1; i <= pacientes; i++) {
+					ps.setLong(1, pacienteBase + i);
+					ps.setDate(2, Date.valueOf(LocalDate.of(1950, 1, 1).plusDays(i % 20000)));
+					ps.setString(3, "Paciente " + i);
+					ps.setLong(4, usuarioBase + admins + medicos + i);
+					adicionar(ps, i);
+				}
+				ps.executeBatch();
+			}
+
+			//ordenação da tabela de médicos pelas especialidades (ver Medico.especialidadesOrdem)
+			try (Statement st = con.createStatement()) {
+				st.executeUpdate("UPDATE medicos m SET m.especialidades_ordem = COALESCE((SELECT LEFT(GROUP_CONCAT(e.titulo ORDER BY e.titulo SEPARATOR ', '), 255) "
+						+ "FROM medicos_tem_especialidades me JOIN especialidades e ON e.id = me.id_especialidade WHERE me.id_medico = m.id), '') "
+						+ "WHERE m.id > " + medicoBase);
+			}
+
+			//consultas a partir de hoje, ocupando um horário livre do médico no dia
+			try (PreparedStatement ps = con.prepareStatement(
+					"INSERT INTO agendamentos (data_consulta, id_especialidade, id_horario, id_medico, id_paciente) VALUES (?, ?, ?, ?, ?)")) {
+				LocalDate hoje = LocalDate.now();
+				int n = 0;
+				for (int i = 1; i <= pacientes; i++) {
+					for (int j = 0; j < consultasPorPaciente; j++) {
+						int medico = 1 + (n % medicos);
+						int slot = n / medicos;//slots ocupados sequencialmente para cada médico
+						ps.setDate(1, Date.valueOf(hoje.plusDays(slot / HORARIOS)));
+						ps.setLong(2, especialidadeDoMedico[medico]);
+						ps.setLong(3, 1 + slot % HORARIOS);
+						ps.setLong(4, medicoBase + medico);
+						ps.setLong(5, pacienteBase + i);
+						adicionar(ps, ++n);
+					}
+				}
+				ps.executeBatch();
+			}
+
+			//contadores da agenda diária dos médicos (ver AgendaService) e lista de consultas
+			try (Statement st = con.createStatement()) {
+				st.executeUpdate("DELETE FROM agenda_medico_dia");
+				st.executeUpdate("INSERT INTO agenda_medico_dia (id_medico, data_consulta, total) "
+						+ "SELECT id_medico, data_consulta, COUNT(*) FROM agendamentos GROUP BY id_medico, data_consulta");
+				//lista de consultas (ver ListagemAgendamentoService)
+				st.executeUpdate("DELETE FROM agendamentos_listagem");
+				st.executeUpdate("INSERT INTO agendamentos_listagem "
+						+ "(id, data_consulta, id_paciente, paciente_nome, id_medico, medico_nome, id_especialidade, especialidade_titulo) "
+						+ "SELECT a.id, a.data_consulta, p.id, p.nome, m.id, m.nome, e.id, e.titulo FROM agendamentos a "
+						+ "JOIN pacientes p ON p.id = a.id_paciente JOIN medicos m ON m.id = a.id_medico "
+						+ "JOIN especialidades e ON e.id = a.id_especialidade");
+			}
+			
+			con.commit();
+		}
+	}
+
+	private String emailDoUsuario(int i) {
+		if (i <= admins) {
+			return email("admin", i);
+		}
+		if (i <= admins + medicos) {
+			return email("medico", i - admins);
+		}
+		return email("paciente", i - admins - medicos);
+	}
+
+	private int perfilDoUsuario(int i) {
+		return i <= admins ? 1 : i <= admins + medicos ? 2 : 3;
+	}
+
+	private static void adicionar(PreparedStatement ps, int n) throws SQLException {
+		ps.addBatch();
+		if (n % LOTE == 0) {
+			ps.executeBatch();
+		}
+	}
+
+	private static long maxId(Connection con, String tabela) throws SQLException {
+		try (Statement st = con.createStatement(); ResultSet rs = st.executeQuery("SELECT COALESCE(MAX(id), 0) FROM " + tabela)) {
+			rs.next();
+			return rs.getLong(1);
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package com.mballem.curso.security.carga;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Date;
+import java.time.LocalDate;
+
+import javax.sql.DataSource;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.util.TestPropertyValues;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.utility.MountableFile;
+
+import com.mballem.curso.security.lembrete.LembreteConsultas;
+import com.mballem.curso.security.lembrete.LembreteConsultas.Execucao;
+
+/**
+ * Teste de carga do envio de lembretes (LembreteConsultas). Executado apenas com o profile 'carga':
+ * 
+ *   mvn -Pcarga verify -Dit.test=LembreteConsultasIT -Dcarga.lembretes=100000
+ * 
+ * Um MySQL local é iniciado em um container (Testcontainers, requer Docker) e os emails são enviados para um servidor SMTP
+ * local que apenas conta as mensagens (ServidorSmtpFalso). Os agendamentos são gerados por GeradorClinica para hoje e copiados
+ * para amanhã: o envio de amanhã mede a vazão e o de hoje parte de uma marca de progresso gravada, como após uma parada da aplicação.
+ * */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = WebEnvironment.NONE, properties = {"spring.jpa.show-sql=false"})
+@ContextConfiguration(initializers = LembreteConsultasIT.Inicializador.class)
+public class LembreteConsultasIT {
+
+	private static final int LEMBRETES = Integer.getInteger("carga.lembretes", 100000);
+
+	@ClassRule
+	public static MySQLContainer<?> mysql = new MySQLContainer<>("mysql:5.7")
+			.withDatabaseName("demo_security")
+			.withUrlParam("serverTimezone", "UTC")
+			.withUrlParam("rewriteBatchedStatements", "true")
+			.withCopyFileToContainer(MountableFile.forHostPath("scriptDB/script-mysql.sql"), 
+					"/docker-entrypoint-initdb.d/script-mysql.sql");
+
+	private static final ServidorSmtpFalso smtp = iniciarSmtp();
+
+	//aponta o datasource para o container e o envio de email para o servidor SMTP local
+	public static class Inicializador implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+		@Override
+		public void initialize(ConfigurableApplicationContext context) {
+			TestPropertyValues.of(
+					"spring.datasource.url=" + mysql.getJdbcUrl(),
+					"spring.datasource.username=" + mysql.getUsername(),
+					"spring.datasource.password=" + mysql.getPassword(),
+					"spring.mail.host=localhost",
+					"spring.mail.port=" + smtp.getPorta(),
+					"spring.mail.protocol=smtp",
+					"spring.mail.username=",
+					"spring.mail.properties.mail.smtp.auth=false",
+					"spring.mail.properties.mail.smtp.socketFactory.class=",
+					"spring.mail.properties.mail.smtp.starttls.enable=false",
+					"spring.mail.properties.mail.smtp.ssl.enable=false",
+					"app.lembrete.habilitado=true",
+					"app.lembrete.cron=-",
+					"app.lembrete.reenvio-cron=-"
+			).applyTo(context.getEnvironment());
+		}
+	}
+
+	private static boolean gerada = false;
+
+	@Autowired
+	private LembreteConsultas lembretes;
+
+	@Autowired
+	private DataSource dataSource;
+
+	private JdbcTemplate jdbc;
+
+	private static ServidorSmtpFalso iniciarSmtp() {
+		try {
+			return new ServidorSmtpFalso();
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	@AfterClass
+	public static void pararSmtp() throws IOException {
+		smtp.close();
+	}
+
+	@Before
+	public void gerarClinica() throws Exception {
+		jdbc = new JdbcTemplate(dataSource);
+		if (!gerada) {
+			//20 horários por médico: médicos suficientes para todas as consultas caberem em um único dia
+			new GeradorClinica(1, (LEMBRETES + 19) / 20, LEMBRETES, 60, 1).gerar(dataSource);
+			jdbc.update("INSERT INTO agendamentos (data_consulta, id_especialidade, id_horario, id_medico, id_paciente) "
+					+ "SELECT DATE_ADD(data_consulta, INTERVAL 1 DAY), id_especialidade, id_horario, id_medico, id_paciente "
+					+ "FROM agendamentos WHERE data_consulta = ?", Date.valueOf(LocalDate.now()));
+			gerada = true;
+		}
+	}
+
+	@Test
+	public void lembretesDeAmanha() {
+		LocalDate amanha = LocalDate.now().plusDays(1);
+		long antes = smtp.getMensagens();
+		long conexoes = smtp.getConexoes();
+
+		Execucao execucao = lembretes.executar(amanha);
+
+		System.out.printf("%n=== lembretes: %d enviados, %d falhas em %.1f s (%.0f emails/s), %d conexões SMTP ===%n",
+				execucao.getEnviados(), execucao.getFalhas(), execucao.getSegundos(), execucao.getEmailsPorSegundo(),
+				smtp.getConexoes() - conexoes);
+		assertTrue(execucao.isConcluido());
+		assertEquals(LEMBRETES, execucao.getEnviados());
+		assertEquals(0, execucao.getFalhas());
+		assertEquals(LEMBRETES, smtp.getMensagens() - antes);
+
+		//uma segunda execução da mesma data não reenvia os lembretes
+		lembretes.executar(amanha);
+		assertEquals(LEMBRETES, smtp.getMensagens() - antes);
+	}
+
+	@Test
+	public void retomaAPartirDaMarcaDeProgresso() {
+		LocalDate hoje = LocalDate.now();
+		Long metade = jdbc.queryForObject("SELECT id FROM agendamentos WHERE data_consulta = ? ORDER BY id LIMIT 1 OFFSET ?", 
+				Long.class, Date.valueOf(hoje), LEMBRETES / 2 - 1);
+		//marca gravada por uma execução interrompida após enviar a primeira metade
+		jdbc.update("INSERT INTO lembretes_execucao (data_consulta, ultimo_id, enviados, falhas, concluido, atualizado_em) "
+				+ "VALUES (?, ?, ?, 0, 0, NOW())", Date.valueOf(hoje), metade, LEMBRETES / 2);
+		long antes = smtp.getMensagens();
+
+		Execucao execucao = lembretes.executar(hoje);
+
+		assertTrue(execucao.isConcluido());
+		assertEquals(LEMBRETES - LEMBRETES / 2, smtp.getMensagens() - antes);
+		assertEquals(LEMBRETES, execucao.getEnviados());
+		assertEquals(Boolean.TRUE, jdbc.queryForObject("SELECT concluido FROM lembretes_execucao WHERE data_consulta = ?", 
+				Boolean.class, Date.valueOf(hoje)));
+	}
+
+	@Test
+	public void falhasSaoReenviadasAntesDeConcluir() {
+		//algumas consultas copiadas para daqui a dois dias, uma delas para um email recusado pelo servidor SMTP
+		LocalDate data = LocalDate.now().plusDays(2);
+		jdbc.update("INSERT INTO agendamentos (data_consulta, id_especialidade, id_horario, id_medico, id_paciente) "
+				+ "SELECT ?, id_especialidade, id_horario, id_medico, id_paciente "
+				+ "FROM agendamentos WHERE data_consulta = ? ORDER BY id LIMIT 10", Date.valueOf(data), Date.valueOf(LocalDate.now()));
+		String email = jdbc.queryForObject("SELECT u.email FROM agendamentos a INNER JOIN pacientes p ON p.id = a.id_paciente "
+				+ "INNER JOIN usuarios u ON u.id = p.id_usuario WHERE a.data_consulta = ? ORDER BY a.id LIMIT 1", String.class, 
+				Date.valueOf(data));
+		int recusadas = jdbc.queryForObject("SELECT COUNT(*) FROM agendamentos a INNER JOIN pacientes p ON p.id = a.id_paciente "
+				+ "INNER JOIN usuarios u ON u.id = p.id_usuario WHERE a.data_consulta = ? AND u.email = ?", Integer.class, 
+				Date.valueOf(data), email);
+		long antes = smtp.getMensagens();
+
+		smtp.recusar(email);
+		try {
+			Execucao execucao = lembretes.executar(data);
+
+			assertFalse(execucao.isConcluido());
+			assertEquals(recusadas, execucao.getFalhas());
+			assertEquals(10 - recusadas, execucao.getEnviados());
+			assertEquals(Integer.valueOf(recusadas), jdbc.queryForObject(
+					"SELECT COUNT(*) FROM lembretes_falhas WHERE data_consulta = ?", Integer.class, Date.valueOf(data)));
+		} finally {
+			smtp.aceitarTodos();
+		}
+
+		//a nova execução da data (reenvio-cron) envia apenas os lembretes que falharam
+		Execucao execucao = lembretes.executar(data);
+
+		assertTrue(execucao.isConcluido());
+		assertEquals(0, execucao.getFalhas());
+		assertEquals(10, execucao.getEnviados());
+		assertEquals(10, smtp.getMensagens() - antes);
+		assertEquals(Integer.valueOf(0), jdbc.queryForObject(
+				"SELECT COUNT(*) FROM lembretes_falhas WHERE data_consulta = ?", Integer.class, Date.valueOf(data)));
+	}
+}
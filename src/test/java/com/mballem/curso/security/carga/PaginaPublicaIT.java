@@ -0,0 +1,156 @@
+package com.mballem.curso.security.carga;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.util.TestPropertyValues;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.utility.MountableFile;
+
+import com.mballem.curso.security.carga.ClienteHttp.Resposta;
+import com.mballem.curso.security.web.cache.PaginaCache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Vazão da home para visitantes anônimos com o PaginaCache desligado (renderização completa pelo Thymeleaf, com o cache de templates
+ * ligado como em produção) e ligado. Cada cliente possui sua sessão e envia a próxima requisição assim que recebe a resposta.
+ * Executado apenas com o profile 'carga':
+ *
+ *   mvn -Pcarga verify -Dit.test=PaginaPublicaIT -Dcarga.duracaoSegundos=30 -Dcarga.clientes=16
+ *
+ * Antes da medição confere se a página servida do cache é igual à renderizada, exceto pelo token CSRF e pelo parâmetro v dos recursos.
+ * Cada medição falha se alguma requisição falhar, e a medição com o cache ligado falha se as páginas não vierem do cache. A vazão é
+ * apenas relatada. Esta comparação ainda não foi executada: não há resultados registrados para os dois modos.
+ * */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {"spring.jpa.show-sql=false", "spring.thymeleaf.cache=true"})
+@ContextConfiguration(initializers = PaginaPublicaIT.Inicializador.class)
+public class PaginaPublicaIT {
+
+	@ClassRule
+	public static MySQLContainer<?> mysql = new MySQLContainer<>("mysql:5.7")
+			.withDatabaseName("demo_security")
+			.withUrlParam("serverTimezone", "UTC")
+			.withCopyFileToContainer(MountableFile.forHostPath("scriptDB/script-mysql.sql"),
+					"/docker-entrypoint-initdb.d/script-mysql.sql");
+
+	//aponta o datasource da aplicação para o container
+	public static class Inicializador implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+		@Override
+		public void initialize(ConfigurableApplicationContext context) {
+			TestPropertyValues.of(
+					"spring.datasource.url=" + mysql.getJdbcUrl(),
+					"spring.datasource.username=" + mysql.getUsername(),
+					"spring.datasource.password=" + mysql.getPassword()
+			).applyTo(context.getEnvironment());
+		}
+	}
+
+	@LocalServerPort
+	private int porta;
+
+	@Autowired
+	private PaginaCache paginaCache;
+
+	@Autowired
+	private MeterRegistry registry;
+
+	@Test
+	public void homeAnonima() throws Exception {
+		int duracao = Integer.getInteger("carga.duracaoSegundos", 30);
+		int quantidade = Integer.getInteger("carga.clientes", 16);
+
+		//a primeira requisição cria a sessão (e reescreve as URLs com o jsessionid), as seguintes usam o cookie
+		List<ClienteHttp> clientes = new ArrayList<>();
+		for (int i = 0; i < quantidade; i++) {
+			ClienteHttp cliente = new ClienteHttp("http://localhost:" + porta);
+			cliente.get("/");
+			clientes.add(cliente);
+		}
+
+		ClienteHttp cliente = clientes.get(0);
+		paginaCache.setHabilitado(false);
+		String renderizada = cliente.get("/login").corpo;
+		paginaCache.setHabilitado(true);
+		cliente.get("/login");
+		String cacheada = cliente.get("/login").corpo;
+		assertEquals(normalizar(renderizada), normalizar(cacheada));
+		assertEquals(ClienteHttp.csrf(renderizada), ClienteHttp.csrf(cacheada));
+
+		double semCache = medir("renderização completa", false, clientes, duracao);
+		double comCache = medir("PaginaCache", true, clientes, duracao);
+		System.out.printf("%n=== home anônima: %.0f req/s sem cache, %.0f req/s com cache (%.1fx) ===%n",
+				semCache, comCache, comCache / semCache);
+	}
+
+	//aquece por 5 segundos e mede a vazão durante 'duracao' segundos
+	private double medir(String nome, boolean habilitado, List<ClienteHttp> clientes, int duracao) throws Exception {
+		paginaCache.setHabilitado(habilitado);
+		executar(clientes, 5, new Estatisticas());
+
+		Estatisticas estatisticas = new Estatisticas();
+		double acertos = acertos();
+		long inicio = System.nanoTime();
+		long respostas = executar(clientes, duracao, estatisticas);
+		double segundos = (System.nanoTime() - inicio) / 1e9;
+
+		System.out.printf("%n=== %s: %d clientes, %.0f s ===%n", nome, clientes.size(), segundos);
+		System.out.println(estatisticas.relatorio(segundos));
+		assertTrue("nenhuma requisição executada: " + nome, estatisticas.total() > 0);
+		assertEquals("requisições com erro: " + nome, 0, estatisticas.erros());
+		//o aquecimento guardou a página, logo com o cache ligado todas as respostas medidas vêm dele
+		assertEquals("respostas fora do PaginaCache: " + nome, habilitado ? respostas : 0, acertos() - acertos, 0);
+		return respostas / segundos;
+	}
+
+	private double acertos() {
+		return registry.counter("app.pagina.cache", "view", "home", "resultado", "hit").count();
+	}
+
+	private long executar(List<ClienteHttp> clientes, int duracao, Estatisticas estatisticas) throws InterruptedException {
+		ExecutorService trabalhadores = Executors.newFixedThreadPool(clientes.size());
+		long fim = System.nanoTime() + TimeUnit.SECONDS.toNanos(duracao);
+		LongAdder respostas = new LongAdder();
+		for (ClienteHttp cliente : clientes) {
+			trabalhadores.execute(() -> {
+				while (System.nanoTime() < fim) {
+					long inicio = System.nanoTime();
+					try {
+						Resposta r = cliente.get("/");
+						estatisticas.registrar("GET home", System.nanoTime() - inicio, r.status == 200);
+						respostas.increment();
+					} catch (IOException ex) {
+						estatisticas.registrar("erro de conexão", System.nanoTime() - inicio, false);
+					}
+				}
+			});
+		}
+		trabalhadores.shutdown();
+		trabalhadores.awaitTermination(duracao + 60, TimeUnit.SECONDS);
+		return respostas.sum();
+	}
+
+	private static String normalizar(String html) {
+		return html.replaceAll("name=\"_csrf\"\\s+value=\"[^\"]+\"", "_csrf").replaceAll("([?&;]v=)\\w+", "$1");
+	}
+}
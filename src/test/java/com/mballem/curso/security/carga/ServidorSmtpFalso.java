@@ -0,0 +1,114 @@
+package com.mballem.curso.security.carga;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Servidor SMTP local que aceita e descarta as mensagens, usado no lugar de um servidor de email real nos testes de carga.
+ * Conta as mensagens recebidas e as conexões abertas. Atende várias mensagens por conexão. Pode recusar destinatários (recusar())
+ * para simular falhas de envio.
+ * */
+public class ServidorSmtpFalso implements AutoCloseable {
+
+	private final ServerSocket servidor;
+	private final ExecutorService conexoes = Executors.newCachedThreadPool();
+	private final AtomicLong mensagens = new AtomicLong();
+	private final AtomicLong abertas = new AtomicLong();
+	private final Set<String> recusados = ConcurrentHashMap.newKeySet();
+
+	public ServidorSmtpFalso() throws IOException {
+		servidor = new ServerSocket(0);
+		Thread aceitar = new Thread(this::aceitar, "smtp-falso");
+		aceitar.setDaemon(true);
+		aceitar.start();
+	}
+
+	public int getPorta() {
+		return servidor.getLocalPort();
+	}
+
+	public long getMensagens() {
+		return mensagens.get();
+	}
+
+	public long getConexoes() {
+		return abertas.get();
+	}
+
+	//as mensagens para o email passam a ser recusadas no RCPT TO
+	public void recusar(String email) {
+		recusados.add(email.toLowerCase());
+	}
+
+	public void aceitarTodos() {
+		recusados.clear();
+	}
+
+	private void aceitar() {
+		while (!servidor.isClosed()) {
+			try {
+				Socket socket = servidor.accept();
+				abertas.incrementAndGet();
+				conexoes.execute(() -> atender(socket));
+			} catch (IOException ex) {
+				//servidor fechado
+			}
+		}
+	}
+
+	private void atender(Socket socket) {
+		try (Socket s = socket;
+				BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.ISO_8859_1));
+				OutputStream out = s.getOutputStream()) {
+			responder(out, "220 localhost SMTP falso");
+			String linha;
+			while ((linha = in.readLine()) != null) {
+				String comando = linha.length() >= 4 ? linha.substring(0, 4).toUpperCase() : linha.toUpperCase();
+				if (comando.equals("DATA")) {
+					responder(out, "354 envie a mensagem terminando com <CRLF>.<CRLF>");
+					while ((linha = in.readLine()) != null && !linha.equals(".")) {
+						//conteúdo descartado
+					}
+					mensagens.incrementAndGet();
+					responder(out, "250 OK");
+				} else if (comando.equals("RCPT") && recusado(linha)) {
+					responder(out, "550 destinatario recusado");
+				} else if (comando.equals("QUIT")) {
+					responder(out, "221 Tchau");
+					return;
+				} else {
+					responder(out, "250 OK");
+				}
+			}
+		} catch (IOException ex) {
+			//conexão encerrada pelo cliente
+		}
+	}
+
+	private boolean recusado(String linha) {
+		int inicio = linha.indexOf('<');
+		int fim = linha.indexOf('>', inicio + 1);
+		return inicio >= 0 && fim > inicio && recusados.contains(linha.substring(inicio + 1, fim).toLowerCase());
+	}
+
+	private void responder(OutputStream out, String resposta) throws IOException {
+		out.write((resposta + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		servidor.close();
+		conexoes.shutdownNow();
+	}
+}
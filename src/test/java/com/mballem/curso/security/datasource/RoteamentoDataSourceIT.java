@@ -0,0 +1,181 @@
+package com.mballem.curso.security.datasource;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.springframework.boot.autoconfigure.orm.jpa.JpaProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.support.OpenEntityManagerInViewInterceptor;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.testcontainers.containers.MySQLContainer;
+
+import com.mballem.curso.security.config.RoteamentoDataSourceConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Teste do roteamento de leituras com dois bancos MySQL locais (Testcontainers, requer Docker): um primário e uma réplica.
+ * Não há replicação entre eles, cada banco possui a tabela 'origem' com o seu próprio nome, assim cada leitura informa
+ * de onde veio. Executado com: mvn -Pintegracao verify
+ * */
+public class RoteamentoDataSourceIT {
+
+	private static final long ADERENCIA_MS = 300;
+
+	@ClassRule
+	public static MySQLContainer<?> primario = new MySQLContainer<>("mysql:5.7");
+
+	@ClassRule
+	public static MySQLContainer<?> replica = new MySQLContainer<>("mysql:5.7");
+
+	private RoteamentoDataSource roteamento;
+	private DataSource dataSource;
+	private JdbcTemplate primarioJdbc;
+	private JdbcTemplate replicaJdbc;
+	private JdbcTemplate jdbc;
+	private TransactionTemplate escrita;
+	private TransactionTemplate leitura;
+
+	@Before
+	public void configurar() {
+		DataSource replicaDs = criar(replica.getJdbcUrl(), replica.getUsername(), replica.getPassword(), "replica");
+		DataSource primarioDs = criar(primario.getJdbcUrl(), primario.getUsername(), primario.getPassword(), "primario");
+		replicaJdbc = new JdbcTemplate(replicaDs);
+		primarioJdbc = new JdbcTemplate(primarioDs);
+		Map<String, DataSource> replicas = new LinkedHashMap<>();
+		replicas.put("replica0", replicaDs);
+		roteamento = new RoteamentoDataSource(primarioDs, replicas, ADERENCIA_MS);
+		roteamento.afterPropertiesSet();
+
+		dataSource = new LazyConnectionDataSourceProxy(roteamento);
+		jdbc = new JdbcTemplate(dataSource);
+		DataSourceTransactionManager tm = new DataSourceTransactionManager(dataSource);
+		escrita = new TransactionTemplate(tm);
+		leitura = new TransactionTemplate(tm);
+		leitura.setReadOnly(true);
+	}
+
+	@After
+	public void encerrar() throws Exception {
+		RequestContextHolder.resetRequestAttributes();
+		roteamento.destroy();
+	}
+
+	@Test
+	public void leituraVaiParaReplicaEEscritaParaPrimario() {
+		assertEquals("replica", ler());
+		assertEquals("primario", escrita.execute(s -> origem()));
+	}
+
+	@Test
+	public void sessaoLeDoPrimarioAposEscrever() throws InterruptedException {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.getSession(true);
+		RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+
+		assertEquals("replica", ler());
+		escrita.execute(s -> jdbc.update("UPDATE origem SET escritas = escritas + 1"));
+		assertEquals("primario", ler());
+
+		//outra sessão continua lendo da réplica
+		RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+		assertEquals("replica", ler());
+
+		RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+		Thread.sleep(ADERENCIA_MS + 100);
+		assertEquals("replica", ler());
+	}
+
+	/*
+	 * Requisição com open-in-view (OpenEntityManagerInViewInterceptor) e JPA configurado como em RoteamentoDataSourceConfig:
+	 * uma leitura readOnly seguida de uma escrita no mesmo EntityManager. A escrita deve ir para o primário, e não para a
+	 * conexão da réplica obtida pela leitura.
+	 */
+	@Test
+	public void openInViewEscritaAposLeituraVaiParaPrimario() {
+		LocalContainerEntityManagerFactoryBean fabrica = new LocalContainerEntityManagerFactoryBean();
+		fabrica.setDataSource(dataSource);
+		fabrica.setJpaVendorAdapter(new RoteamentoDataSourceConfig().jpaVendorAdapter(new JpaProperties(), dataSource));
+		fabrica.setPackagesToScan(RoteamentoDataSource.class.getPackage().getName());
+		fabrica.afterPropertiesSet();
+
+		JpaTransactionManager tm = new JpaTransactionManager(fabrica.getObject());
+		TransactionTemplate escritaJpa = new TransactionTemplate(tm);
+		TransactionTemplate leituraJpa = new TransactionTemplate(tm);
+		leituraJpa.setReadOnly(true);
+		EntityManager em = SharedEntityManagerCreator.createSharedEntityManager(fabrica.getObject());
+
+		OpenEntityManagerInViewInterceptor openInView = new OpenEntityManagerInViewInterceptor();
+		openInView.setEntityManagerFactory(fabrica.getObject());
+		ServletWebRequest requisicao = new ServletWebRequest(new MockHttpServletRequest());
+		openInView.preHandle(requisicao);
+		try {
+			assertEquals("replica", leituraJpa.execute(s -> em.createNativeQuery("SELECT nome FROM origem").getSingleResult()));
+			escritaJpa.execute(s -> em.createNativeQuery("UPDATE origem SET escritas = escritas + 1").executeUpdate());
+			assertEquals("replica", leituraJpa.execute(s -> em.createNativeQuery("SELECT nome FROM origem").getSingleResult()));
+		} finally {
+			openInView.afterCompletion(requisicao, null);
+			fabrica.destroy();
+		}
+
+		assertEquals(Integer.valueOf(1), primarioJdbc.queryForObject("SELECT escritas FROM origem", Integer.class));
+		assertEquals(Integer.valueOf(0), replicaJdbc.queryForObject("SELECT escritas FROM origem", Integer.class));
+	}
+
+	@Test
+	public void replicaIndisponivelLeDoPrimario() {
+		Map<String, DataSource> replicas = new LinkedHashMap<>();
+		HikariDataSource fora = (HikariDataSource) DataSourceBuilder.create().type(HikariDataSource.class)
+				.url("jdbc:mysql://localhost:1/demo_security").username("x").password("x").build();
+		fora.setConnectionTimeout(250);
+		replicas.put("replica0", fora);
+		RoteamentoDataSource semReplica = new RoteamentoDataSource(
+				criar(primario.getJdbcUrl(), primario.getUsername(), primario.getPassword(), "primario"), replicas, ADERENCIA_MS);
+		semReplica.afterPropertiesSet();
+		semReplica.verificarReplicas();
+
+		dataSource = new LazyConnectionDataSourceProxy(semReplica);
+		jdbc = new JdbcTemplate(dataSource);
+		leitura = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+		leitura.setReadOnly(true);
+
+		assertEquals(0, semReplica.getReplicasSaudaveis());
+		assertEquals("primario", ler());
+	}
+
+	private String ler() {
+		return leitura.execute(s -> origem());
+	}
+
+	private String origem() {
+		return jdbc.queryForObject("SELECT nome FROM origem", String.class);
+	}
+
+	private static DataSource criar(String url, String usuario, String senha, String nome) {
+		HikariDataSource ds = (HikariDataSource) DataSourceBuilder.create().type(HikariDataSource.class)
+				.url(url).username(usuario).password(senha).build();
+		JdbcTemplate jdbc = new JdbcTemplate(ds);
+		jdbc.execute("CREATE TABLE IF NOT EXISTS origem (nome VARCHAR(20) NOT NULL, escritas INT NOT NULL DEFAULT 0)");
+		jdbc.update("DELETE FROM origem");
+		jdbc.update("INSERT INTO origem (nome) VALUES (?)", nome);
+		return ds;
+	}
+}
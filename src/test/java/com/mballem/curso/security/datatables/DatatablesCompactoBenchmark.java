@@ -0,0 +1,120 @@
+package com.mballem.curso.security.datatables;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.mballem.curso.security.domain.AgendamentoListagem;
+import com.mballem.curso.security.domain.Especialidade;
+
+/**
+ * Tamanho e tempo de serialização de uma página da lista de consultas e da tabela de especialidades: resposta padrão (Map
+ * serializado pelo ObjectMapper, como o Spring MVC faz com getResponse()) comparada com o formato compacto (getCompactResponse()).
+ * Não usa o banco de dados. Não é executado pelo Maven:
+ *
+ *   java -cp target/classes:target/test-classes:<dependências de teste> com.mballem.curso.security.datatables.DatatablesCompactoBenchmark
+ * */
+public class DatatablesCompactoBenchmark {
+
+	private static final int[] LINHAS = {10, 100, 1000};
+	private static final int REPETICOES = 20_000;
+
+	public static void main(String[] args) throws Exception {
+		//mesma configuração de datas do ObjectMapper do Spring Boot
+		ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setParameter("draw", "1");
+
+		for (int rodada = 0; rodada < 2; rodada++) {//a primeira rodada serve de aquecimento do JIT
+			System.out.println(rodada == 0 ? "aquecimento" : "medição");
+			for (int linhas : LINHAS) {
+				Page<AgendamentoListagem> agendamentos = pagina(agendamentos(linhas));
+				Datatables datatables = new Datatables(request, DatatablesTabelas.AGENDAMENTOS);
+				comparar("agendamentos", linhas,
+						() -> mapper.writeValueAsBytes(datatables.getResponse(agendamentos)),
+						() -> datatables.getCompactResponse(agendamentos, DatatablesLinhas.AGENDAMENTOS));
+
+				Page<Especialidade> especialidades = pagina(especialidades(linhas));
+				Datatables tabela = new Datatables(request, DatatablesTabelas.ESPECIALIDADES);
+				comparar("especialidades", linhas,
+						() -> mapper.writeValueAsBytes(tabela.getResponse(especialidades)),
+						() -> tabela.getCompactResponse(especialidades, DatatablesLinhas.ESPECIALIDADES));
+			}
+		}
+	}
+
+	@FunctionalInterface
+	private interface Resposta {
+		byte[] gerar() throws Exception;
+	}
+
+	private static void comparar(String tabela, int linhas, Resposta json, Resposta compacto) throws Exception {
+		int repeticoes = Math.max(100, REPETICOES / linhas);
+		int bytesJson = json.gerar().length;
+		int bytesCompacto = compacto.gerar().length;
+		double tempoJson = medir(json, repeticoes);
+		double tempoCompacto = medir(compacto, repeticoes);
+		System.out.printf("  %-14s %5d linhas: json %,9d bytes %,9.1f us | compacto %,9d bytes (%3.0f%%) %,9.1f us (%3.0f%%)%n",
+				tabela, linhas, bytesJson, tempoJson, bytesCompacto, 100.0 * bytesCompacto / bytesJson,
+				tempoCompacto, 100 * tempoCompacto / tempoJson);
+	}
+
+	//tempo médio por resposta em microssegundos
+	private static double medir(Resposta resposta, int repeticoes) throws Exception {
+		long bytes = 0;
+		long inicio = System.nanoTime();
+		for (int i = 0; i < repeticoes; i++) {
+			bytes += resposta.gerar().length;
+		}
+		double tempo = (System.nanoTime() - inicio) / 1e3 / repeticoes;
+		if (bytes == 0) {
+			throw new IllegalStateException();
+		}
+		return tempo;
+	}
+
+	private static <T> Page<T> pagina(List<T> linhas) {
+		return new PageImpl<>(linhas, PageRequest.of(0, linhas.size()), 50_000);
+	}
+
+	//AgendamentoListagem não possui setters (a tabela é mantida pelo banco de dados)
+	private static List<AgendamentoListagem> agendamentos(int linhas) {
+		List<AgendamentoListagem> lista = new ArrayList<>();
+		for (int i = 0; i < linhas; i++) {
+			AgendamentoListagem agendamento = new AgendamentoListagem();
+			ReflectionTestUtils.setField(agendamento, "id", 100_000L + i);
+			ReflectionTestUtils.setField(agendamento, "dataConsulta", LocalDate.of(2026, 1, 1).plusDays(i % 365));
+			ReflectionTestUtils.setField(agendamento, "pacienteId", 2_000L + i);
+			ReflectionTestUtils.setField(agendamento, "pacienteNome", "Paciente da Silva " + i);
+			ReflectionTestUtils.setField(agendamento, "medicoId", 10L + i % 50);
+			ReflectionTestUtils.setField(agendamento, "medicoNome", "Médico Souza " + i % 50);
+			ReflectionTestUtils.setField(agendamento, "especialidadeId", 1L + i % 20);
+			ReflectionTestUtils.setField(agendamento, "especialidadeTitulo", "Especialidade " + i % 20);
+			lista.add(agendamento);
+		}
+		return lista;
+	}
+
+	//a descrição não é exibida na tabela e fica fora do formato compacto
+	private static List<Especialidade> especialidades(int linhas) {
+		List<Especialidade> lista = new ArrayList<>();
+		for (int i = 0; i < linhas; i++) {
+			Especialidade especialidade = new Especialidade();
+			especialidade.setId(1L + i);
+			especialidade.setTitulo("Especialidade " + i);
+			especialidade.setDescricao("Atendimento clínico e acompanhamento dos pacientes da especialidade " + i
+					+ ", com consultas de rotina, exames e retornos agendados pela clínica.");
+			lista.add(especialidade);
+		}
+		return lista;
+	}
+}
@@ -0,0 +1,94 @@
+package com.mballem.curso.security.datatables;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+import org.junit.Test;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Order;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+public class DatatablesTest {
+
+	//a coluna 'acoes' não pode ser ordenada e a coluna 'itens' (coleção) é ordenada pelo atributo pré-calculado
+	private final DatatablesTabela<Object> tabela = new DatatablesTabela<Object>(new String[] {"id", "nome", "itens", "acoes"})
+			.ordenavel("id")
+			.ordenavel("nome")
+			.ordenavel("itens", "itensOrdem");
+
+	private final MockHttpServletRequest request = new MockHttpServletRequest();
+
+	private Sort sort() {
+		return new Datatables(request, tabela).getSort();
+	}
+
+	private void ordem(int k, String coluna, String dir) {
+		request.setParameter("order[" + k + "][column]", coluna);
+		request.setParameter("order[" + k + "][dir]", dir);
+	}
+
+	@Test
+	public void ordenaPorTodasAsColunasNaOrdemEnviadaComIdNoFinal() {
+		ordem(0, "2", "desc");
+		ordem(1, "1", "asc");
+
+		assertEquals(Sort.by(Order.desc("itensOrdem"), Order.asc("nome"), Order.asc("id")), sort());
+	}
+
+	@Test
+	public void ignoraColunasInvalidasRepetidasOuNaoOrdenaveis() {
+		ordem(0, "3", "asc");//não ordenável
+		ordem(1, "9", "asc");//fora do intervalo
+		ordem(2, "x", "desc");//não numérico
+
+		assertEquals(Sort.by(Order.asc("id")), sort());
+
+		ordem(0, "1", "desc");
+		ordem(1, "1", "asc");//repetida
+		ordem(2, "-1", "asc");
+
+		assertEquals(Sort.by(Order.desc("nome"), Order.asc("id")), sort());
+	}
+
+	@Test
+	public void limitaQuantidadeDeColunasEMantemDirecaoDoId() {
+		ordem(0, "0", "desc");
+		ordem(1, "1", "asc");
+		ordem(2, "2", "asc");
+		ordem(3, "1", "desc");
+
+		assertEquals(Sort.by(Order.desc("id"), Order.asc("nome"), Order.asc("itensOrdem")), sort());
+	}
+
+	@Test
+	public void semOrdenacaoOrdenaPeloId() {
+		assertEquals(Sort.by(Order.asc("id")), sort());
+	}
+
+	@Test
+	public void pesquisaDaColunaIgnoraColunasNaoPesquisaveis() {
+		request.setParameter("columns[1][search][value]", " ana ");
+		request.setParameter("columns[2][search][value]", "cardio");
+		request.setParameter("columns[2][searchable]", "false");
+		Datatables datatables = new Datatables(request, tabela);
+
+		assertEquals("ana", datatables.getColumnSearch(1));
+		assertEquals("", datatables.getColumnSearch(2));
+		assertEquals("", datatables.getSearch());
+		assertNull(tabela.getSpecification(datatables));
+	}
+
+	@Test
+	public void filtroDeDataNoFormatoDaTelaOuIso() {
+		assertEquals(LocalDate.of(2019, 3, 5), DatatablesTabelas.data("05/03/2019"));
+		assertEquals(LocalDate.of(2019, 3, 5), DatatablesTabelas.data("2019-03-05"));
+	}
+
+	@Test(expected = DateTimeParseException.class)
+	public void filtroDeDataRecusaOutrosFormatos() {
+		DatatablesTabelas.data("5 de março de 2019");
+	}
+}
@@ -0,0 +1,91 @@
+package com.mballem.curso.security.estatisticas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.mballem.curso.security.domain.PerfilTipo;
+import com.mballem.curso.security.estatisticas.EstatisticasClinica.Resumo;
+
+public class EstatisticasClinicaTest {
+
+	private final EstatisticasClinica estatisticas = new EstatisticasClinica(null, 10, 2);
+
+	@Test
+	public void painelNaoEhExibidoAntesDaPrimeiraReconciliacao() {
+		assertNull(estatisticas.getResumo());
+	}
+
+	@Test
+	public void escritasDosServicosAlteramOsContadores() {
+		estatisticas.substituir(new Contadores());
+
+		estatisticas.usuarioIncluido(Arrays.asList(3L), false);
+		estatisticas.usuarioIncluido(Arrays.asList(3L), false);
+		estatisticas.usuarioAtivado();
+		//paciente ativo transformado em administrador e médico pendente
+		estatisticas.usuarioAlterado(Arrays.asList(3L), true, Arrays.asList(1L, 2L), false);
+		estatisticas.especialidadeSalva(7L, "Cardiologia");
+		estatisticas.especialidadesDoMedicoAlteradas(Arrays.asList(7L, 8L), Collections.emptyList());
+		estatisticas.especialidadesDoMedicoAlteradas(Collections.emptyList(), Arrays.asList(8L));
+		estatisticas.agendamentoRegistrado(YearMonth.of(2026, 1));
+		estatisticas.agendamentoRegistrado(YearMonth.of(2026, 3));
+		estatisticas.agendamentoRegistrado(YearMonth.of(2026, 3));
+		estatisticas.agendamentoRegistrado(YearMonth.of(2026, 4));
+		estatisticas.agendamentoCancelado(YearMonth.of(2026, 4));
+
+		Resumo resumo = estatisticas.getResumo();
+		assertEquals(Long.valueOf(1), resumo.getPerfis().get("ADMIN"));
+		assertEquals(Long.valueOf(1), resumo.getPerfis().get("MEDICO"));
+		assertEquals(Long.valueOf(1), resumo.getPerfis().get("PACIENTE"));
+		assertEquals(0, resumo.getAtivos());
+		assertEquals(2, resumo.getPendentes());
+		assertEquals(Long.valueOf(1), resumo.getMedicosPorEspecialidade().get("Cardiologia"));
+		assertEquals(Long.valueOf(0), resumo.getMedicosPorEspecialidade().get("especialidade 8"));
+		//meses sem consultas são ignorados e apenas os 2 mais recentes são exibidos
+		assertEquals(Arrays.asList("03/2026", "01/2026"), Arrays.asList(resumo.getAgendamentosPorMes().keySet().toArray()));
+		assertEquals(Long.valueOf(2), resumo.getAgendamentosPorMes().get("03/2026"));
+	}
+
+	@Test
+	public void alteracaoDentroDeUmaTransacaoSoEhAplicadaNoCommit() {
+		estatisticas.substituir(new Contadores());
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			estatisticas.usuarioIncluido(Arrays.asList(3L), true);
+
+			assertEquals(0, estatisticas.getResumo().getAtivos());
+
+			for (TransactionSynchronization sincronizacao : TransactionSynchronizationManager.getSynchronizations()) {
+				sincronizacao.afterCommit();
+			}
+			assertEquals(1, estatisticas.getResumo().getAtivos());
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	@Test
+	public void reconciliacaoSubstituiOsContadoresERetornaADiferenca() {
+		estatisticas.substituir(new Contadores());
+		estatisticas.usuarioIncluido(Arrays.asList(3L), true);
+		estatisticas.agendamentoRegistrado(YearMonth.of(2026, 3));
+
+		//banco de dados com um paciente pendente a mais e sem a consulta
+		Contadores banco = new Contadores();
+		banco.perfis.get(PerfilTipo.PACIENTE).add(2);
+		banco.ativos.add(1);
+		banco.pendentes.add(1);
+
+		assertEquals(3, estatisticas.substituir(banco));
+		assertEquals(1, estatisticas.getResumo().getPendentes());
+		assertEquals(0, estatisticas.getResumo().getAgendamentosPorMes().size());
+	}
+}
@@ -0,0 +1,34 @@
+package com.mballem.curso.security.lembrete;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ProgressoLembretesTest {
+
+	@Test
+	public void marcaAvancaApenasComOsLotesAnterioresConcluidos() {
+		ProgressoLembretes progresso = new ProgressoLembretes(0);
+		progresso.iniciar(10);
+		progresso.iniciar(20);
+		progresso.iniciar(30);
+
+		assertEquals(0, progresso.concluir(20));//o lote até 10 ainda está em envio
+		assertEquals(0, progresso.concluir(30));
+		assertEquals(30, progresso.concluir(10));
+	}
+
+	@Test
+	public void marcaParaNoPrimeiroLoteEmEnvio() {
+		ProgressoLembretes progresso = new ProgressoLembretes(100);
+		progresso.iniciar(110);
+		progresso.iniciar(120);
+		progresso.iniciar(130);
+
+		assertEquals(110, progresso.concluir(110));
+		assertEquals(110, progresso.concluir(130));
+		progresso.iniciar(140);
+		assertEquals(130, progresso.concluir(120));
+		assertEquals(140, progresso.concluir(140));
+	}
+}
@@ -0,0 +1,193 @@
+package com.mballem.curso.security.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.util.TestPropertyValues;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.servlet.mvc.support.RedirectAttributesModelMap;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.utility.MountableFile;
+
+import com.mballem.curso.security.carga.GeradorClinica;
+import com.mballem.curso.security.domain.Agendamento;
+import com.mballem.curso.security.domain.Especialidade;
+import com.mballem.curso.security.domain.Horario;
+import com.mballem.curso.security.domain.Medico;
+import com.mballem.curso.security.domain.Paciente;
+import com.mballem.curso.security.web.controller.AgendamentoController;
+
+/**
+ * Teste de concorrência do agendamento de consultas com um MySQL local (Testcontainers, requer Docker).
+ * 1000 pacientes tentam agendar ao mesmo tempo os 20 horários de um médico em uma data: exatamente 20 agendamentos devem
+ * ser salvos e os demais recusados com HorarioIndisponivelException. Também verifica que um paciente não altera a consulta
+ * de outro enviando o id dela no formulário. Executado com: mvn -Pintegracao verify
+ * */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = WebEnvironment.NONE, properties = {"spring.jpa.show-sql=false"})
+@ContextConfiguration(initializers = AgendamentoConcorrenciaIT.Inicializador.class)
+public class AgendamentoConcorrenciaIT {
+
+	private static final int PACIENTES = 1000;
+	private static final int HORARIOS = 20;
+
+	@ClassRule
+	public static MySQLContainer<?> mysql = new MySQLContainer<>("mysql:5.7")
+			.withDatabaseName("demo_security")
+			.withUrlParam("serverTimezone", "UTC")
+			.withCopyFileToContainer(MountableFile.forHostPath("scriptDB/script-mysql.sql"), 
+					"/docker-entrypoint-initdb.d/script-mysql.sql");
+
+	//aponta o datasource da aplicação para o container
+	public static class Inicializador implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+		@Override
+		public void initialize(ConfigurableApplicationContext context) {
+			TestPropertyValues.of(
+					"spring.datasource.url=" + mysql.getJdbcUrl(),
+					"spring.datasource.username=" + mysql.getUsername(),
+					"spring.datasource.password=" + mysql.getPassword()
+			).applyTo(context.getEnvironment());
+		}
+	}
+
+	@Autowired
+	private AgendamentoService agendamentoService;
+
+	@Autowired
+	private AgendamentoController agendamentoController;
+
+	@Autowired
+	private DataSource dataSource;
+
+	//a clínica é gerada uma única vez: os emails do GeradorClinica não se repetem
+	private static boolean clinicaGerada;
+
+	private void gerarClinica() throws Exception {
+		if (!clinicaGerada) {
+			new GeradorClinica(1, 1, 100, 1, 0).gerar(dataSource);
+			clinicaGerada = true;
+		}
+	}
+
+	@Test
+	public void milPacientesDisputandoVinteHorarios() throws Exception {
+		gerarClinica();
+		JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+		Long medicoId = jdbc.queryForObject("SELECT MAX(id) FROM medicos", Long.class);
+		Long especialidadeId = jdbc.queryForObject(
+				"SELECT MAX(id_especialidade) FROM medicos_tem_especialidades WHERE id_medico = ?", Long.class, medicoId);
+		List<Long> pacientes = jdbc.queryForList("SELECT id FROM pacientes ORDER BY id", Long.class);
+		LocalDate data = LocalDate.now().plusYears(1);
+
+		AtomicInteger sucessos = new AtomicInteger();
+		AtomicInteger recusados = new AtomicInteger();
+		Queue<Throwable> erros = new ConcurrentLinkedQueue<>();
+		CountDownLatch largada = new CountDownLatch(1);
+		CountDownLatch fim = new CountDownLatch(PACIENTES);
+
+		for (int i = 0; i < PACIENTES; i++) {
+			Agendamento agendamento = agendamento(medicoId, especialidadeId, pacientes.get(i % pacientes.size()), 
+					1L + i % HORARIOS, data);
+			new Thread(() -> {
+				try {
+					largada.await();
+					agendamentoService.salvar(agendamento);
+					sucessos.incrementAndGet();
+				} catch (HorarioIndisponivelException ex) {
+					recusados.incrementAndGet();
+				} catch (Throwable ex) {
+					erros.add(ex);
+				} finally {
+					fim.countDown();
+				}
+			}).start();
+		}
+
+		long inicio = System.nanoTime();
+		largada.countDown();
+		fim.await();
+		double segundos = (System.nanoTime() - inicio) / 1e9;
+
+		System.out.printf("agendamento: %d tentativas, %d salvas, %d recusadas em %.2f s (%.0f tentativas/s)%n", 
+				PACIENTES, sucessos.get(), recusados.get(), segundos, PACIENTES / segundos);
+
+		assertEquals("erros inesperados: " + erros, 0, erros.size());
+		assertEquals(HORARIOS, sucessos.get());
+		assertEquals(PACIENTES - HORARIOS, recusados.get());
+		assertEquals(Integer.valueOf(HORARIOS), jdbc.queryForObject(
+				"SELECT COUNT(*) FROM agendamentos WHERE id_medico = ? AND data_consulta = ?", Integer.class, medicoId, data));
+		assertEquals(Integer.valueOf(HORARIOS), jdbc.queryForObject(
+				"SELECT total FROM agenda_medico_dia WHERE id_medico = ? AND data_consulta = ?", Integer.class, medicoId, data));
+	}
+
+	//o paciente 2 envia no formulário o id da consulta do paciente 1: uma nova consulta é criada e a do paciente 1 não muda
+	@Test
+	public void pacienteNaoAlteraConsultaDeOutroPaciente() throws Exception {
+		gerarClinica();
+		JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+		Long medicoId = jdbc.queryForObject("SELECT MAX(id) FROM medicos", Long.class);
+		Long especialidadeId = jdbc.queryForObject(
+				"SELECT MAX(id_especialidade) FROM medicos_tem_especialidades WHERE id_medico = ?", Long.class, medicoId);
+		String titulo = jdbc.queryForObject("SELECT titulo FROM especialidades WHERE id = ?", String.class, especialidadeId);
+		LocalDate data = LocalDate.now().plusYears(2);
+
+		Agendamento primeiro = agendamento(medicoId, especialidadeId, null, 1L, data);
+		primeiro.getEspecialidade().setTitulo(titulo);
+		agendamentoController.salvar(primeiro, new RedirectAttributesModelMap(), paciente(1));
+		Long consultaId = jdbc.queryForObject(
+				"SELECT id FROM agendamentos WHERE id_medico = ? AND data_consulta = ?", Long.class, medicoId, data);
+		Long pacienteId = jdbc.queryForObject("SELECT id_paciente FROM agendamentos WHERE id = ?", Long.class, consultaId);
+
+		Agendamento outro = agendamento(medicoId, especialidadeId, null, 2L, data);
+		outro.getEspecialidade().setTitulo(titulo);
+		outro.setId(consultaId);
+		agendamentoController.salvar(outro, new RedirectAttributesModelMap(), paciente(2));
+
+		assertEquals(pacienteId, jdbc.queryForObject("SELECT id_paciente FROM agendamentos WHERE id = ?", Long.class, consultaId));
+		assertEquals(Long.valueOf(1), jdbc.queryForObject("SELECT id_horario FROM agendamentos WHERE id = ?", Long.class, consultaId));
+		assertEquals(Integer.valueOf(2), jdbc.queryForObject(
+				"SELECT COUNT(*) FROM agendamentos WHERE id_medico = ? AND data_consulta = ?", Integer.class, medicoId, data));
+	}
+
+	//usuário logado com o perfil de paciente, como recebido pelo controller (@AuthenticationPrincipal)
+	private static User paciente(int n) {
+		return new User(GeradorClinica.email("paciente", n), "senha", AuthorityUtils.createAuthorityList("PACIENTE"));
+	}
+
+	private Agendamento agendamento(Long medicoId, Long especialidadeId, Long pacienteId, Long horarioId, LocalDate data) {
+		Especialidade especialidade = new Especialidade();
+		especialidade.setId(especialidadeId);
+		Paciente paciente = new Paciente();
+		paciente.setId(pacienteId);
+		Horario horario = new Horario();
+		horario.setId(horarioId);
+
+		Agendamento agendamento = new Agendamento();
+		agendamento.setMedico(new Medico(medicoId));
+		agendamento.setEspecialidade(especialidade);
+		agendamento.setPaciente(paciente);
+		agendamento.setHorario(horario);
+		agendamento.setDataConsulta(data);
+		return agendamento;
+	}
+}
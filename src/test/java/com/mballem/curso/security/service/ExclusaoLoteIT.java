@@ -0,0 +1,114 @@
+package com.mballem.curso.security.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.util.TestPropertyValues;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.utility.MountableFile;
+
+import com.mballem.curso.security.carga.GeradorClinica;
+
+/**
+ * Teste da exclusão em lote (ExclusaoLoteService) com um MySQL local (Testcontainers, requer Docker).
+ * Com lotes pequenos, cada exclusão é dividida em várias transações e as tabelas derivadas (agenda_medico_dia,
+ * agendamentos_listagem e especialidades_ordem) devem continuar iguais às tabelas de origem. Executado com: mvn -Pintegracao verify
+ * */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = WebEnvironment.NONE, properties = {"spring.jpa.show-sql=false", "app.exclusao.lote=7"})
+@ContextConfiguration(initializers = ExclusaoLoteIT.Inicializador.class)
+public class ExclusaoLoteIT {
+
+	//dias da agenda com total diferente da quantidade de consultas
+	private static final String AGENDA_DIVERGENTE = "SELECT COUNT(*) FROM agenda_medico_dia d "
+			+ "LEFT JOIN (SELECT id_medico, data_consulta, COUNT(*) AS n FROM agendamentos GROUP BY id_medico, data_consulta) a "
+			+ "ON a.id_medico = d.id_medico AND a.data_consulta = d.data_consulta WHERE d.total <> COALESCE(a.n, 0)";
+
+	//médicos com a coluna especialidades_ordem diferente das especialidades atuais
+	private static final String ORDEM_DIVERGENTE = "SELECT COUNT(*) FROM medicos m WHERE NOT (m.especialidades_ordem <=> "
+			+ "COALESCE((SELECT LEFT(GROUP_CONCAT(e.titulo ORDER BY e.titulo SEPARATOR ', '), 255) FROM medicos_tem_especialidades me "
+			+ "JOIN especialidades e ON e.id = me.id_especialidade WHERE me.id_medico = m.id), ''))";
+
+	@ClassRule
+	public static MySQLContainer<?> mysql = new MySQLContainer<>("mysql:5.7")
+			.withDatabaseName("demo_security")
+			.withUrlParam("serverTimezone", "UTC")
+			.withCopyFileToContainer(MountableFile.forHostPath("scriptDB/script-mysql.sql"),
+					"/docker-entrypoint-initdb.d/script-mysql.sql");
+
+	//aponta o datasource da aplicação para o container
+	public static class Inicializador implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+		@Override
+		public void initialize(ConfigurableApplicationContext context) {
+			TestPropertyValues.of(
+					"spring.datasource.url=" + mysql.getJdbcUrl(),
+					"spring.datasource.username=" + mysql.getUsername(),
+					"spring.datasource.password=" + mysql.getPassword()
+			).applyTo(context.getEnvironment());
+		}
+	}
+
+	@Autowired
+	private ExclusaoLoteService exclusaoLote;
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Test
+	public void exclusoesMantemAsTabelasDerivadasIguaisAsDeOrigem() throws Exception {
+		new GeradorClinica(1, 12, 150, 6, 3).gerar(dataSource);
+		JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+
+		//especialidades com consultas e médicos
+		List<Long> especialidades = jdbc.queryForList("SELECT id FROM especialidades ORDER BY id LIMIT 2", Long.class);
+		long consultas = jdbc.queryForObject("SELECT COUNT(*) FROM agendamentos WHERE id_especialidade IN (?, ?)", Long.class,
+				especialidades.get(0), especialidades.get(1));
+		Map<String, Long> relatorio = exclusaoLote.excluirEspecialidades(especialidades);
+
+		assertEquals(Long.valueOf(2), relatorio.get(ExclusaoLoteService.ESPECIALIDADES));
+		assertEquals(Long.valueOf(consultas), relatorio.get(ExclusaoLoteService.AGENDAMENTOS));
+		assertEquals(relatorio.get(ExclusaoLoteService.AGENDAMENTOS), relatorio.get(ExclusaoLoteService.AGENDAMENTOS_LISTAGEM));
+		assertConsistente(jdbc);
+
+		//médicos e seus usuários
+		List<Long> medicos = jdbc.queryForList("SELECT id FROM medicos ORDER BY id LIMIT 3", Long.class);
+		relatorio = exclusaoLote.excluirMedicos(medicos);
+
+		assertEquals(Long.valueOf(3), relatorio.get(ExclusaoLoteService.MEDICOS));
+		assertEquals(Long.valueOf(3), relatorio.get(ExclusaoLoteService.USUARIOS));
+		assertEquals(0, (long) jdbc.queryForObject("SELECT COUNT(*) FROM agendamentos WHERE id_medico IN (?, ?, ?)", Long.class,
+				medicos.toArray()));
+		assertConsistente(jdbc);
+
+		//usuários de pacientes, divididos em vários lotes
+		List<Long> usuarios = jdbc.queryForList("SELECT id_usuario FROM pacientes ORDER BY id LIMIT 20", Long.class);
+		relatorio = exclusaoLote.excluirUsuarios(usuarios);
+
+		assertEquals(Long.valueOf(20), relatorio.get(ExclusaoLoteService.PACIENTES));
+		assertEquals(Long.valueOf(20), relatorio.get(ExclusaoLoteService.USUARIOS));
+		assertEquals(Long.valueOf(20), relatorio.get(ExclusaoLoteService.USUARIOS_TEM_PERFIS));
+		assertConsistente(jdbc);
+	}
+
+	private void assertConsistente(JdbcTemplate jdbc) {
+		assertEquals(0, (long) jdbc.queryForObject(AGENDA_DIVERGENTE, Long.class));
+		assertEquals(0, (long) jdbc.queryForObject(ORDEM_DIVERGENTE, Long.class));
+		assertEquals(jdbc.queryForObject("SELECT COUNT(*) FROM agendamentos", Long.class),
+				jdbc.queryForObject("SELECT COUNT(*) FROM agendamentos_listagem", Long.class));
+	}
+}
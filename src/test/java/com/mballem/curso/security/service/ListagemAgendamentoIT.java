@@ -0,0 +1,139 @@
+package com.mballem.curso.security.service;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.sql.DataSource;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.util.TestPropertyValues;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.utility.MountableFile;
+
+import com.mballem.curso.security.carga.GeradorClinica;
+import com.mballem.curso.security.domain.Medico;
+import com.mballem.curso.security.repository.AgendamentoListagemRepository;
+
+/**
+ * Teste da lista de consultas desnormalizada (agendamentos_listagem) com um MySQL local (Testcontainers, requer Docker).
+ * A lista reconstruída em lotes deve ser idêntica ao join das tabelas de origem, e as escritas dos serviços devem mantê-la
+ * sincronizada. Executado com: mvn -Pintegracao verify
+ * */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = WebEnvironment.NONE, properties = {"spring.jpa.show-sql=false", "app.listagem.lote=37"})
+@ContextConfiguration(initializers = ListagemAgendamentoIT.Inicializador.class)
+public class ListagemAgendamentoIT {
+
+	//linhas da lista que diferem do join das tabelas de origem
+	private static final String DIFERENCAS = "SELECT COUNT(*) FROM agendamentos a "
+			+ "JOIN pacientes p ON p.id = a.id_paciente JOIN medicos m ON m.id = a.id_medico "
+			+ "JOIN especialidades e ON e.id = a.id_especialidade "
+			+ "LEFT JOIN agendamentos_listagem l ON l.id = a.id AND l.data_consulta = a.data_consulta "
+			+ "AND l.paciente_nome = p.nome AND l.medico_nome = m.nome AND l.especialidade_titulo = e.titulo "
+			+ "WHERE l.id IS NULL";
+
+	@ClassRule
+	public static MySQLContainer<?> mysql = new MySQLContainer<>("mysql:5.7")
+			.withDatabaseName("demo_security")
+			.withUrlParam("serverTimezone", "UTC")
+			.withCopyFileToContainer(MountableFile.forHostPath("scriptDB/script-mysql.sql"),
+					"/docker-entrypoint-initdb.d/script-mysql.sql");
+
+	//aponta o datasource da aplicação para o container
+	public static class Inicializador implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+		@Override
+		public void initialize(ConfigurableApplicationContext context) {
+			TestPropertyValues.of(
+					"spring.datasource.url=" + mysql.getJdbcUrl(),
+					"spring.datasource.username=" + mysql.getUsername(),
+					"spring.datasource.password=" + mysql.getPassword()
+			).applyTo(context.getEnvironment());
+		}
+	}
+
+	@Autowired
+	private ListagemAgendamentoService listagemService;
+
+	@Autowired
+	private AgendamentoService agendamentoService;
+
+	@Autowired
+	private MedicoService medicoService;
+
+	@Autowired
+	private AgendamentoListagemRepository listagemRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Test
+	public void reconstrucaoEEscritasMantemListaIgualAsTabelasDeOrigem() throws Exception {
+		new GeradorClinica(1, 10, 200, 5, 3).gerar(dataSource);
+		JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+		long agendamentos = jdbc.queryForObject("SELECT COUNT(*) FROM agendamentos", Long.class);
+
+		//lista divergente: linhas faltando, nome desatualizado e uma linha de agendamento inexistente
+		jdbc.update("DELETE FROM agendamentos_listagem WHERE MOD(id, 3) = 0");
+		jdbc.update("UPDATE agendamentos_listagem SET medico_nome = 'desatualizado' WHERE MOD(id, 5) = 0");
+		jdbc.update("INSERT INTO agendamentos_listagem (id, medico_nome) VALUES (?, 'removido')", agendamentos + 1000);
+
+		long removidas = listagemService.reconstruir();
+
+		assertEquals(1, removidas);
+		assertEquals(agendamentos, (long) jdbc.queryForObject("SELECT COUNT(*) FROM agendamentos_listagem", Long.class));
+		assertEquals(0, (long) jdbc.queryForObject(DIFERENCAS, Long.class));
+
+		//nome do médico alterado pelo serviço é copiado para as consultas do médico na mesma transação
+		Long medicoId = jdbc.queryForObject("SELECT MIN(id_medico) FROM agendamentos", Long.class);
+		Medico medico = new Medico(medicoId);
+		medico.setNome("Medico Renomeado");
+		medico.setCrm(jdbc.queryForObject("SELECT crm FROM medicos WHERE id = ?", Integer.class, medicoId));
+		medico.setDtInscricao(jdbc.queryForObject("SELECT data_inscricao FROM medicos WHERE id = ?", java.sql.Date.class, medicoId).toLocalDate());
+		medicoService.editar(medico);
+
+		assertEquals(0, (long) jdbc.queryForObject(DIFERENCAS, Long.class));
+
+		//consulta cancelada sai da lista
+		Long agendamentoId = jdbc.queryForObject("SELECT MIN(id) FROM agendamentos", Long.class);
+		agendamentoService.remover(agendamentoId);
+
+		assertEquals(0, (long) jdbc.queryForObject("SELECT COUNT(*) FROM agendamentos_listagem WHERE id = ?", Long.class, agendamentoId));
+		assertEquals(agendamentos - 1, (long) jdbc.queryForObject("SELECT COUNT(*) FROM agendamentos_listagem", Long.class));
+	}
+
+	@Test
+	public void agendamentoGravadoDuranteAReconstrucaoNaoERemovido() {
+		JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+		TransactionTemplate escrita = new TransactionTemplate(transactionManager);
+
+		//a reconstrução leu o maior id e em seguida uma consulta é agendada e copiada para a lista pelo AgendamentoService
+		long maximo = listagemRepository.maxAgendamentoId();
+		jdbc.update("INSERT INTO agendamentos (data_consulta) VALUES (CURRENT_DATE)");
+		long novo = jdbc.queryForObject("SELECT MAX(id) FROM agendamentos", Long.class);
+		escrita.execute(status -> listagemRepository.copiar(novo));
+		//linha de um agendamento que não existe mais, também com id maior que o lido
+		jdbc.update("INSERT INTO agendamentos_listagem (id, medico_nome) VALUES (?, 'removido')", novo + 1000);
+
+		int removidas = escrita.execute(status -> listagemRepository.removerApos(maximo, 10));
+
+		assertEquals(1, removidas);
+		assertEquals(1, (long) jdbc.queryForObject("SELECT COUNT(*) FROM agendamentos_listagem WHERE id = ?", Long.class, novo));
+
+		jdbc.update("DELETE FROM agendamentos_listagem WHERE id = ?", novo);
+		jdbc.update("DELETE FROM agendamentos WHERE id = ?", novo);
+	}
+}
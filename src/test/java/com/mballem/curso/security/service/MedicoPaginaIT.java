@@ -0,0 +1,132 @@
+package com.mballem.curso.security.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.util.TestPropertyValues;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.utility.MountableFile;
+
+import com.mballem.curso.security.carga.GeradorClinica;
+import com.mballem.curso.security.repository.projection.MedicoLinha;
+
+/**
+ * Quantidade de comandos SQL de uma requisição da tabela de médicos (MedicoService.buscarMedicos()), contada pelas estatísticas
+ * do Hibernate com um MySQL local (Testcontainers, requer Docker). Cada página deve usar 3 comandos, independente da quantidade
+ * de médicos e de especialidades: a página (com o usuário do médico), a contagem e as especialidades de todos os médicos da página.
+ * Executado com: mvn -Pintegracao verify
+ * */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = WebEnvironment.NONE, properties = {"spring.jpa.show-sql=false"})
+@ContextConfiguration(initializers = MedicoPaginaIT.Inicializador.class)
+public class MedicoPaginaIT {
+
+	private static final int MEDICOS = 60;
+	private static final int TAMANHO_PAGINA = 25;
+
+	@ClassRule
+	public static MySQLContainer<?> mysql = new MySQLContainer<>("mysql:5.7")
+			.withDatabaseName("demo_security")
+			.withUrlParam("serverTimezone", "UTC")
+			.withCopyFileToContainer(MountableFile.forHostPath("scriptDB/script-mysql.sql"),
+					"/docker-entrypoint-initdb.d/script-mysql.sql");
+
+	//aponta o datasource da aplicação para o container e liga as estatísticas do Hibernate
+	public static class Inicializador implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+		@Override
+		public void initialize(ConfigurableApplicationContext context) {
+			TestPropertyValues.of(
+					"spring.datasource.url=" + mysql.getJdbcUrl(),
+					"spring.datasource.username=" + mysql.getUsername(),
+					"spring.datasource.password=" + mysql.getPassword(),
+					"spring.jpa.properties.hibernate.generate_statistics=true"
+			).applyTo(context.getEnvironment());
+		}
+	}
+
+	@Autowired
+	private MedicoService medicoService;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private DataSource dataSource;
+
+	private static boolean clinicaGerada;
+
+	private Statistics estatisticas;
+
+	@Before
+	public void gerarClinica() throws Exception {
+		if (!clinicaGerada) {
+			//cada médico com 1 a 3 das 10 especialidades
+			new GeradorClinica(1, MEDICOS, 1, 10, 0).gerar(dataSource);
+			clinicaGerada = true;
+		}
+		estatisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+	}
+
+	@Test
+	public void paginaDeMedicosComTresComandos() {
+		MockHttpServletRequest request = pagina(0);
+
+		List<MedicoLinha> linhas = buscar(request);
+
+		assertEquals(TAMANHO_PAGINA, linhas.size());
+		assertEquals(3, estatisticas.getPrepareStatementCount());
+	}
+
+	@Test
+	public void paginaOrdenadaEFiltradaPelasEspecialidadesComTresComandos() {
+		MockHttpServletRequest request = pagina(TAMANHO_PAGINA);
+		request.setParameter("order[0][column]", "4");
+		request.setParameter("order[0][dir]", "desc");
+		request.setParameter("search[value]", "Especialidade");
+
+		List<MedicoLinha> linhas = buscar(request);
+
+		assertEquals(TAMANHO_PAGINA, linhas.size());
+		assertEquals(3, estatisticas.getPrepareStatementCount());
+	}
+
+	//executa uma requisição com as estatísticas zeradas e confere que as especialidades já vieram carregadas
+	@SuppressWarnings("unchecked")
+	private List<MedicoLinha> buscar(MockHttpServletRequest request) {
+		estatisticas.clear();
+		Map<String, Object> resposta = medicoService.buscarMedicos(request);
+		List<MedicoLinha> linhas = (List<MedicoLinha>) resposta.get("data");
+		linhas.forEach(linha -> assertFalse(linha.getEspecialidades().isEmpty()));
+		return linhas;
+	}
+
+	private static MockHttpServletRequest pagina(int inicio) {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setParameter("draw", "1");
+		request.setParameter("start", String.valueOf(inicio));
+		request.setParameter("length", String.valueOf(TAMANHO_PAGINA));
+		request.setParameter("order[0][column]", "1");
+		request.setParameter("order[0][dir]", "asc");
+		return request;
+	}
+}
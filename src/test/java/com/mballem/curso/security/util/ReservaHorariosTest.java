@@ -0,0 +1,93 @@
+package com.mballem.curso.security.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+import com.mballem.curso.security.util.ReservaHorarios.Vaga;
+
+public class ReservaHorariosTest {
+
+	private static final LocalDate DATA = LocalDate.of(2030, 3, 15);
+
+	private final ReservaHorarios reserva = new ReservaHorarios();
+
+	@Test
+	public void horarioReservadoRecusaSegundaReservaAteSerLiberado() {
+		Vaga vaga = new Vaga(1L, DATA, 3L);
+
+		assertTrue(reserva.reservar(vaga));
+		assertFalse(reserva.reservar(new Vaga(1L, DATA, 3L)));
+		assertTrue(reserva.reservar(new Vaga(1L, DATA, 4L)));
+		assertTrue(reserva.reservar(new Vaga(2L, DATA, 3L)));
+		assertTrue(reserva.reservar(new Vaga(1L, DATA.plusDays(1), 3L)));
+
+		reserva.liberar(vaga);
+		assertTrue(reserva.reservar(vaga));
+	}
+
+	/*
+	 * 1000 pacientes disputando 20 horários, cada um com várias tentativas. Quem consegue a reserva a libera no finally, como em
+	 * AgendamentoService.salvar(), logo os horários voltam a ser disputados. Nenhum horário pode estar com dois pacientes ao
+	 * mesmo tempo e, no fim, todos devem estar livres.
+	 */
+	@Test
+	public void milPacientesDisputandoVinteHorarios() throws InterruptedException {
+		int pacientes = 1000;
+		int horarios = 20;
+		int tentativas = 50;
+		AtomicIntegerArray ocupados = new AtomicIntegerArray(horarios);
+		AtomicInteger sobrepostas = new AtomicInteger();
+		AtomicInteger sucessos = new AtomicInteger();
+		AtomicInteger recusadas = new AtomicInteger();
+		CountDownLatch largada = new CountDownLatch(1);
+		CountDownLatch fim = new CountDownLatch(pacientes);
+
+		for (int i = 0; i < pacientes; i++) {
+			int horario = i % horarios;
+			Vaga vaga = new Vaga(1L, DATA, 1L + horario);
+			new Thread(() -> {
+				try {
+					largada.await();
+					for (int t = 0; t < tentativas; t++) {
+						if (!reserva.reservar(vaga)) {
+							recusadas.incrementAndGet();
+							continue;
+						}
+						try {
+							if (ocupados.incrementAndGet(horario) != 1) {
+								sobrepostas.incrementAndGet();
+							}
+							sucessos.incrementAndGet();
+							Thread.yield();
+							ocupados.decrementAndGet(horario);
+						} finally {
+							reserva.liberar(vaga);
+						}
+					}
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				} finally {
+					fim.countDown();
+				}
+			}).start();
+		}
+
+		largada.countDown();
+		fim.await();
+
+		assertEquals(0, sobrepostas.get());
+		assertEquals(pacientes * tentativas, sucessos.get() + recusadas.get());
+		assertTrue(sucessos.get() >= horarios);
+		for (int h = 0; h < horarios; h++) {
+			assertTrue(reserva.reservar(new Vaga(1L, DATA, 1L + h)));
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package com.mballem.curso.security.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ThreadsVirtuaisTest {
+
+	@Test
+	public void fabricaCriaThreadsNomeadasOuFalhaAntesDoJava21() throws Exception {
+		if (!ThreadsVirtuais.disponiveis()) {
+			try {
+				ThreadsVirtuais.fabrica("teste-");
+				fail("threads virtuais não existem nesta JVM");
+			} catch (IllegalStateException ex) {
+				assertTrue(ex.getMessage().contains("Java 21"));
+			}
+			return;
+		}
+		Thread thread = ThreadsVirtuais.fabrica("teste-").newThread(() -> { });
+		assertEquals("teste-0", thread.getName());
+		assertTrue(thread.isDaemon());
+	}
+
+	@Test
+	public void executorPorTarefaExecutaCadaTarefaEmUmaThreadVirtual() throws Exception {
+		if (!ThreadsVirtuais.disponiveis()) {
+			return;
+		}
+		ExecutorService executor = ThreadsVirtuais.porTarefa("tarefa-");
+		String nome = executor.submit(() -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS);
+		executor.shutdown();
+		assertEquals("tarefa-0", nome);
+	}
+}
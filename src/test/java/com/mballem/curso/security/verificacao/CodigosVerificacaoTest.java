@@ -0,0 +1,103 @@
+package com.mballem.curso.security.verificacao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class CodigosVerificacaoTest {
+
+	private static final long VALIDADE = TimeUnit.MINUTES.toNanos(15);
+
+	private final AtomicLong relogio = new AtomicLong();
+	private final CodigosVerificacao codigos = new CodigosVerificacao(relogio::get, VALIDADE, 3, 2, null);
+
+	@Test
+	public void codigoConfereUmaUnicaVez() {
+		String codigo = codigos.gerar("paciente@clinica.com.br");
+
+		assertEquals(6, codigo.length());
+		assertTrue(codigos.verificar("Paciente@Clinica.com.br", codigo));
+		assertFalse(codigos.verificar("paciente@clinica.com.br", codigo));
+		assertEquals(0, codigos.getQuantidade());
+	}
+
+	@Test
+	public void codigoDescartadoSomenteAposOCommit() {
+		String codigo = codigos.gerar("paciente@clinica.com.br");
+
+		//transação desfeita: o código volta a valer
+		assertTrue(naTransacao(() -> codigos.verificar("paciente@clinica.com.br", codigo), TransactionSynchronization.STATUS_ROLLED_BACK));
+		assertEquals(1, codigos.getQuantidade());
+
+		assertTrue(naTransacao(() -> {
+			boolean confere = codigos.verificar("paciente@clinica.com.br", codigo);
+			//o mesmo código não é aceito por outra requisição enquanto a transação não termina
+			assertFalse(codigos.verificar("paciente@clinica.com.br", codigo));
+			return confere;
+		}, TransactionSynchronization.STATUS_COMMITTED));
+		assertEquals(0, codigos.getQuantidade());
+		assertFalse(codigos.verificar("paciente@clinica.com.br", codigo));
+	}
+
+	@Test
+	public void novoPedidoSubstituiOCodigoAnterior() {
+		String primeiro = codigos.gerar("paciente@clinica.com.br");
+		String segundo = codigos.gerar("paciente@clinica.com.br");
+
+		assertEquals(1, codigos.getQuantidade());
+		assertTrue(primeiro.equals(segundo) || !codigos.verificar("paciente@clinica.com.br", primeiro));
+		assertTrue(codigos.verificar("paciente@clinica.com.br", segundo));
+	}
+
+	@Test
+	public void codigoDescartadoAposExcederAsTentativas() {
+		String codigo = codigos.gerar("paciente@clinica.com.br");
+
+		assertFalse(codigos.verificar("paciente@clinica.com.br", "errado"));
+		assertFalse(codigos.verificar("paciente@clinica.com.br", "errado"));
+		assertFalse(codigos.verificar("paciente@clinica.com.br", "errado"));
+		assertFalse(codigos.verificar("paciente@clinica.com.br", codigo));
+	}
+
+	@Test
+	public void codigoExpiraAposAValidade() {
+		String codigo = codigos.gerar("paciente@clinica.com.br");
+
+		relogio.addAndGet(VALIDADE);
+		assertFalse(codigos.verificar("paciente@clinica.com.br", codigo));
+
+		codigos.gerar("medico@clinica.com.br");
+		relogio.addAndGet(VALIDADE + TimeUnit.SECONDS.toNanos(1));
+		codigos.expirarVencidos();
+		assertEquals(0, codigos.getQuantidade());
+	}
+
+	@Test(expected = RejectedExecutionException.class)
+	public void recusaNovosCodigosComOLimiteAtingido() {
+		codigos.gerar("a@clinica.com.br");
+		codigos.gerar("b@clinica.com.br");
+		codigos.gerar("a@clinica.com.br");//substitui, não ocupa espaço
+		codigos.gerar("c@clinica.com.br");
+	}
+
+	//executa como dentro de uma transação terminada com o status informado
+	private static boolean naTransacao(BooleanSupplier verificacao, int status) {
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			boolean resultado = verificacao.getAsBoolean();
+			TransactionSynchronizationManager.getSynchronizations().forEach(s -> s.afterCompletion(status));
+			return resultado;
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+}
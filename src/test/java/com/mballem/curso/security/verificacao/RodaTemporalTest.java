@@ -0,0 +1,63 @@
+package com.mballem.curso.security.verificacao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RodaTemporalTest {
+
+	private static final long TICK = 1000;
+
+	@Test
+	public void expiraNoPrimeiroTickAposOPrazo() {
+		RodaTemporal<String> roda = new RodaTemporal<>(TICK, 8, 0);
+		roda.agendar("a", 2500);
+
+		assertEquals(Collections.emptyList(), roda.avancar(2999));
+		assertEquals(Arrays.asList("a"), roda.avancar(3000));
+		assertEquals(0, roda.tamanho());
+	}
+
+	@Test
+	public void prazoMaiorQueUmaVoltaAguardaAVoltaCerta() {
+		RodaTemporal<String> roda = new RodaTemporal<>(TICK, 4, 0);
+		roda.agendar("curto", 1000);
+		roda.agendar("longo", 9000);//mesma posição da roda, duas voltas depois
+
+		assertEquals(Arrays.asList("curto"), roda.avancar(1000));
+		assertEquals(Collections.emptyList(), roda.avancar(5000));
+		assertEquals(Arrays.asList("longo"), roda.avancar(9000));
+	}
+
+	@Test
+	public void avancoLongoExpiraTudoQueVenceu() {
+		RodaTemporal<Integer> roda = new RodaTemporal<>(TICK, 8, 0);
+		for (int i = 1; i <= 100; i++) {
+			roda.agendar(i, i * TICK);
+		}
+
+		List<Integer> expirados = roda.avancar(50 * TICK);
+		assertEquals(50, expirados.size());
+		assertEquals(50, roda.tamanho());
+		assertEquals(50, roda.avancar(1000 * TICK).size());
+	}
+
+	@Test
+	public void itemCanceladoNaoExpira() {
+		RodaTemporal<String> roda = new RodaTemporal<>(TICK, 8, 0);
+		RodaTemporal.Item<String> a = roda.agendar("a", 2000);
+		roda.agendar("b", 2000);
+		RodaTemporal.Item<String> c = roda.agendar("c", 2000);
+
+		assertTrue(roda.cancelar(a));
+		assertTrue(roda.cancelar(c));
+		assertFalse(roda.cancelar(c));
+		assertEquals(Arrays.asList("b"), roda.avancar(2000));
+	}
+}
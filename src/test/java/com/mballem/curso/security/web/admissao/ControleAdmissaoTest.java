@@ -0,0 +1,132 @@
+package com.mballem.curso.security.web.admissao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ControleAdmissaoTest {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final ControleAdmissao filtro = new ControleAdmissao(registry);
+	private final LimiteFixo cadastro = new LimiteFixo(1);
+	private final LimiteAdaptativo tabelas = new LimiteAdaptativo(20, 2, 50);
+
+	public ControleAdmissaoTest() {
+		filtro.adicionarGrupo("cadastro", Collections.singletonList("/u/cadastro/paciente/salvar"), "POST", cadastro, 5);
+		filtro.adicionarGrupo("tabelas", Arrays.asList("/*/datatables/**", "/*/tabela/**"), null, tabelas, 1);
+	}
+
+	@Test
+	public void rejeitaAcimaDoLimiteCom503ERetryAfter() throws Exception {
+		//a segunda requisição chega enquanto a primeira ocupa a única vaga do grupo
+		MockHttpServletResponse[] segunda = new MockHttpServletResponse[1];
+		MockFilterChain[] cadeiaDaSegunda = new MockFilterChain[1];
+		MockHttpServletResponse primeira = executar(requisicao("POST", "/u/cadastro/paciente/salvar"), (req, res) -> {
+			cadeiaDaSegunda[0] = new MockFilterChain();
+			segunda[0] = executar(requisicao("POST", "/u/cadastro/paciente/salvar"), cadeiaDaSegunda[0]);
+			assertEquals(1, cadastro.getEmAndamento());
+		});
+
+		assertEquals(200, primeira.getStatus());
+		assertEquals(503, segunda[0].getStatus());
+		assertEquals("5", segunda[0].getHeader("Retry-After"));
+		assertTrue(segunda[0].getContentAsString().contains("cadastro"));
+		assertNull(cadeiaDaSegunda[0].getRequest());
+
+		assertEquals(1, contador("app.admissao.aceitas", "cadastro"), 0);
+		assertEquals(1, contador("app.admissao.rejeitadas", "cadastro"), 0);
+		assertEquals(0, medidor("app.admissao.em-andamento", "cadastro"), 0);
+		assertEquals(1, medidor("app.admissao.limite", "cadastro"), 0);
+	}
+
+	@Test
+	public void gruposSelecionadosPeloMetodoEPeloPadrao() throws Exception {
+		//o grupo de cadastro é apenas POST e o de tabelas aceita qualquer método
+		MockFilterChain get = new MockFilterChain();
+		executar(requisicao("GET", "/u/cadastro/paciente/salvar"), get);
+		executar(requisicao("GET", "/medicos/datatables/server"), new MockFilterChain());
+		executar(requisicao("POST", "/agendamentos/datatables/server/compacto"), new MockFilterChain());
+		executar(requisicao("PUT", "/especialidades/tabela/server"), new MockFilterChain());
+		executar(requisicao("GET", "/medicos/lista"), new MockFilterChain());
+		executar(requisicao("GET", "/medicos/1/datatables/server"), new MockFilterChain());
+
+		assertNotNull(get.getRequest());
+		assertEquals(0, contador("app.admissao.aceitas", "cadastro"), 0);
+		assertEquals(3, contador("app.admissao.aceitas", "tabelas"), 0);
+		assertEquals(0, contador("app.admissao.rejeitadas", "tabelas"), 0);
+	}
+
+	@Test
+	public void requisicaoAssincronaOcupaAVagaAteCompletar() throws Exception {
+		MockHttpServletRequest request = requisicao("GET", "/medicos/datatables/server");
+		executar(request, (req, res) -> req.startAsync());
+
+		//o filtro terminou, mas a vaga continua ocupada pela tarefa assíncrona
+		assertEquals(1, tabelas.getEmAndamento());
+		assertEquals(1, medidor("app.admissao.em-andamento", "tabelas"), 0);
+
+		((MockAsyncContext) request.getAsyncContext()).complete();
+
+		assertEquals(0, tabelas.getEmAndamento());
+		assertEquals(0, medidor("app.admissao.em-andamento", "tabelas"), 0);
+		assertEquals(20, tabelas.getLimite());
+	}
+
+	@Test
+	public void timeoutAssincronoLiberaUmaUnicaVezComoSobrecarga() throws Exception {
+		MockHttpServletRequest request = requisicao("GET", "/medicos/datatables/server");
+		executar(request, (req, res) -> req.startAsync());
+		MockAsyncContext async = (MockAsyncContext) request.getAsyncContext();
+
+		//o container informa o timeout e em seguida completa a requisição
+		for (AsyncListener listener : async.getListeners()) {
+			listener.onTimeout(new AsyncEvent(async));
+		}
+		async.complete();
+
+		assertEquals(0, tabelas.getEmAndamento());
+		assertEquals(0, medidor("app.admissao.em-andamento", "tabelas"), 0);
+		assertEquals(18, tabelas.getLimite());
+		assertEquals(18, medidor("app.admissao.limite", "tabelas"), 0);
+	}
+
+	private MockHttpServletResponse executar(MockHttpServletRequest request, FilterChain chain) throws IOException, ServletException {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filtro.doFilter(request, response, chain);
+		return response;
+	}
+
+	private static MockHttpServletRequest requisicao(String metodo, String uri) {
+		MockHttpServletRequest request = new MockHttpServletRequest(metodo, uri);
+		//o AntPathRequestMatcher compara o servletPath
+		request.setServletPath(uri);
+		request.setAsyncSupported(true);
+		return request;
+	}
+
+	private double contador(String nome, String grupo) {
+		return registry.get(nome).tag("grupo", grupo).counter().count();
+	}
+
+	private double medidor(String nome, String grupo) {
+		return registry.get(nome).tag("grupo", grupo).gauge().value();
+	}
+}
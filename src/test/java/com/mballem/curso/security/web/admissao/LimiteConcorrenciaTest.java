@@ -0,0 +1,80 @@
+package com.mballem.curso.security.web.admissao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LimiteConcorrenciaTest {
+
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void limiteFixoRejeitaAcimaDoLimiteAteALiberacao() {
+		LimiteFixo limite = new LimiteFixo(2);
+
+		assertTrue(limite.adquirir());
+		assertTrue(limite.adquirir());
+		assertFalse(limite.adquirir());
+		assertEquals(2, limite.getEmAndamento());
+
+		limite.liberar(MS, false);
+		assertTrue(limite.adquirir());
+	}
+
+	@Test
+	public void limiteAdaptativoCresceComLatenciaEstavelECaiQuandoALatenciaSobe() {
+		LimiteAdaptativo limite = new LimiteAdaptativo(10, 2, 50);
+
+		executar(limite, 300, 10 * MS);
+		int estavel = limite.getLimite();
+		assertTrue("limite " + estavel, estavel > 10);
+
+		executar(limite, 20, 60 * MS);
+		assertTrue("limite " + limite.getLimite(), limite.getLimite() < estavel / 2);
+		assertTrue(limite.getLimite() >= 2);
+
+		//a latência volta ao normal e o limite volta a crescer
+		executar(limite, 300, 10 * MS);
+		assertEquals(50, limite.getLimite());
+	}
+
+	@Test
+	public void limiteAdaptativoNaoCresceComPoucasVagasEmUso() {
+		LimiteAdaptativo limite = new LimiteAdaptativo(10, 2, 50);
+
+		for (int i = 0; i < 300; i++) {
+			assertTrue(limite.adquirir());
+			limite.liberar(10 * MS, false);
+		}
+		assertEquals(10, limite.getLimite());
+	}
+
+	@Test
+	public void timeoutReduzOLimite() {
+		LimiteAdaptativo limite = new LimiteAdaptativo(20, 2, 50);
+
+		assertTrue(limite.adquirir());
+		limite.liberar(MS, true);
+
+		assertEquals(18, limite.getLimite());
+		assertEquals(0, limite.getEmAndamento());
+	}
+
+	//ocupa todas as vagas e libera 'quantidade' requisições com a latência informada, mantendo o limite em uso
+	private static void executar(LimiteAdaptativo limite, int quantidade, long nanos) {
+		while (limite.adquirir()) {
+		}
+		for (int i = 0; i < quantidade; i++) {
+			limite.liberar(nanos, false);
+			while (limite.adquirir()) {
+			}
+		}
+		for (int i = limite.getEmAndamento(); i > 0; i--) {
+			limite.liberar(nanos, false);
+		}
+	}
+}
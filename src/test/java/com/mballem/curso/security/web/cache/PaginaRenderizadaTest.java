@@ -0,0 +1,51 @@
+package com.mballem.curso.security.web.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class PaginaRenderizadaTest {
+
+	private static final Charset UTF8 = StandardCharsets.UTF_8;
+
+	@Test
+	public void lacunasSaoPreenchidasComOsValoresDaRequisicao() throws Exception {
+		Map<String, String> marcadores = new HashMap<>();
+		marcadores.put("lacunaA", PaginaCache.CSRF);
+		marcadores.put("lacunaB", "titulo");
+		//o token CSRF aparece em dois formulários
+		String html = "<h4>lacunaB</h4><form><input value=\"lacunaA\"></form>Clínica<form><input value=\"lacunaA\"></form>";
+		PaginaRenderizada pagina = PaginaRenderizada.dividir(html, UTF8, "text/html;charset=UTF-8", marcadores);
+
+		Map<String, byte[]> valores = new HashMap<>();
+		valores.put(PaginaCache.CSRF, "token-1".getBytes(UTF8));
+		valores.put("titulo", "Cadastro &amp; Ativação".getBytes(UTF8));
+
+		String esperado = "<h4>Cadastro &amp; Ativação</h4><form><input value=\"token-1\"></form>Clínica<form><input value=\"token-1\"></form>";
+		assertEquals(esperado, escrever(pagina, valores));
+		assertEquals(esperado.getBytes(UTF8).length, pagina.tamanho(valores));
+		assertEquals("text/html;charset=UTF-8", pagina.getContentType());
+	}
+
+	@Test
+	public void paginaSemMarcadoresEhEscritaInteira() throws Exception {
+		Map<String, String> marcadores = new HashMap<>();
+		marcadores.put("lacunaA", PaginaCache.CSRF);
+		PaginaRenderizada pagina = PaginaRenderizada.dividir("<p>home</p>", UTF8, "text/html", marcadores);
+
+		assertEquals("<p>home</p>", escrever(pagina, new HashMap<>()));
+		assertEquals(11, pagina.tamanho(new HashMap<>()));
+	}
+
+	private static String escrever(PaginaRenderizada pagina, Map<String, byte[]> valores) throws Exception {
+		ByteArrayOutputStream saida = new ByteArrayOutputStream();
+		pagina.escrever(saida, valores);
+		return new String(saida.toByteArray(), UTF8);
+	}
+}